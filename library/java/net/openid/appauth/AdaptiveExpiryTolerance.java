@@ -0,0 +1,225 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.Preconditions.checkArgument;
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import android.net.Uri;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Learns the access token expiry tolerance from observed token refresh latencies. Latency samples
+ * are tracked per token endpoint in a bounded window, and the tolerance for an endpoint is the
+ * 99th percentile of its samples plus a fixed safety margin, clamped to a configured range.
+ * Until enough samples have been collected for an endpoint, the fallback tolerance of the
+ * {@link AuthState} using this instance applies.
+ *
+ * A single instance may be shared by many {@link AuthState} instances; it is safe for
+ * concurrent use.
+ *
+ * @see AuthState#setAdaptiveExpiryTolerance(AdaptiveExpiryTolerance)
+ */
+public class AdaptiveExpiryTolerance {
+
+    /**
+     * The default number of latency samples retained per token endpoint.
+     */
+    public static final int DEFAULT_SAMPLE_WINDOW = 64;
+
+    /**
+     * The default number of latency samples required before a learned tolerance is used.
+     */
+    public static final int DEFAULT_MIN_SAMPLES = 5;
+
+    /**
+     * The default safety margin added to the observed 99th percentile latency.
+     */
+    public static final long DEFAULT_MARGIN_MS = 5000L;
+
+    /**
+     * The default lower bound on learned tolerances.
+     */
+    public static final long DEFAULT_MIN_TOLERANCE_MS = 10000L;
+
+    /**
+     * The default upper bound on learned tolerances.
+     */
+    public static final long DEFAULT_MAX_TOLERANCE_MS = 300000L;
+
+    private static final double TOLERANCE_PERCENTILE = 0.99;
+
+    private final int mSampleWindow;
+    private final int mMinSamples;
+    private final long mMarginMs;
+    private final long mMinToleranceMs;
+    private final long mMaxToleranceMs;
+
+    private final Map<Uri, LatencyWindow> mWindows = new HashMap<>();
+
+    /**
+     * Creates an instance using the default window, margin and bounds.
+     */
+    public AdaptiveExpiryTolerance() {
+        this(DEFAULT_SAMPLE_WINDOW,
+                DEFAULT_MIN_SAMPLES,
+                DEFAULT_MARGIN_MS,
+                DEFAULT_MIN_TOLERANCE_MS,
+                DEFAULT_MAX_TOLERANCE_MS);
+    }
+
+    /**
+     * Creates an instance with the specified properties.
+     *
+     * @param sampleWindow the number of most recent latency samples retained per endpoint.
+     * @param minSamples the number of samples required before a learned tolerance is reported.
+     * @param marginMs the safety margin added to the observed 99th percentile latency.
+     * @param minToleranceMs the lower bound on learned tolerances.
+     * @param maxToleranceMs the upper bound on learned tolerances.
+     */
+    public AdaptiveExpiryTolerance(
+            int sampleWindow,
+            int minSamples,
+            long marginMs,
+            long minToleranceMs,
+            long maxToleranceMs) {
+        checkArgument(sampleWindow > 0, "sampleWindow must be positive");
+        checkArgument(minSamples > 0 && minSamples <= sampleWindow,
+                "minSamples must be positive and no greater than sampleWindow");
+        checkArgument(marginMs >= 0, "marginMs must not be negative");
+        checkArgument(minToleranceMs >= 0 && minToleranceMs <= maxToleranceMs,
+                "minToleranceMs must not be negative or greater than maxToleranceMs");
+        mSampleWindow = sampleWindow;
+        mMinSamples = minSamples;
+        mMarginMs = marginMs;
+        mMinToleranceMs = minToleranceMs;
+        mMaxToleranceMs = maxToleranceMs;
+    }
+
+    /**
+     * Records the latency of a completed token refresh against the specified token endpoint.
+     * Negative latencies, which can result from wall clock adjustments, are ignored.
+     */
+    public synchronized void recordRefreshLatency(@NonNull Uri tokenEndpoint, long latencyMs) {
+        checkNotNull(tokenEndpoint, "tokenEndpoint cannot be null");
+        if (latencyMs < 0) {
+            return;
+        }
+
+        LatencyWindow window = mWindows.get(tokenEndpoint);
+        if (window == null) {
+            window = new LatencyWindow(mSampleWindow);
+            mWindows.put(tokenEndpoint, window);
+        }
+        window.add(latencyMs);
+    }
+
+    /**
+     * The learned expiry tolerance for the specified token endpoint, in milliseconds, or `null`
+     * if not enough refreshes against that endpoint have been observed yet.
+     */
+    @Nullable
+    public synchronized Long getLearnedToleranceMs(@Nullable Uri tokenEndpoint) {
+        Long p99 = getLatencyPercentileMs(tokenEndpoint, TOLERANCE_PERCENTILE);
+        if (p99 == null) {
+            return null;
+        }
+
+        long tolerance = p99 + mMarginMs;
+        return Math.max(mMinToleranceMs, Math.min(mMaxToleranceMs, tolerance));
+    }
+
+    /**
+     * The observed refresh latency at the specified percentile (in the range `[0, 1]`) for the
+     * specified token endpoint, in milliseconds, or `null` if not enough refreshes against that
+     * endpoint have been observed yet.
+     */
+    @Nullable
+    public synchronized Long getLatencyPercentileMs(
+            @Nullable Uri tokenEndpoint,
+            double percentile) {
+        checkArgument(percentile >= 0 && percentile <= 1, "percentile must be in [0, 1]");
+        if (tokenEndpoint == null) {
+            return null;
+        }
+
+        LatencyWindow window = mWindows.get(tokenEndpoint);
+        if (window == null || window.size() < mMinSamples) {
+            return null;
+        }
+
+        return window.percentile(percentile);
+    }
+
+    /**
+     * A snapshot of the learned expiry tolerances of all token endpoints for which enough
+     * refreshes have been observed, for monitoring purposes.
+     */
+    @NonNull
+    public synchronized Map<Uri, Long> getLearnedTolerances() {
+        Map<Uri, Long> tolerances = new HashMap<>();
+        for (Uri endpoint : mWindows.keySet()) {
+            Long tolerance = getLearnedToleranceMs(endpoint);
+            if (tolerance != null) {
+                tolerances.put(endpoint, tolerance);
+            }
+        }
+        return Collections.unmodifiableMap(tolerances);
+    }
+
+    /**
+     * Discards all recorded latency samples.
+     */
+    public synchronized void reset() {
+        mWindows.clear();
+    }
+
+    /**
+     * Fixed capacity ring buffer of latency samples.
+     */
+    private static final class LatencyWindow {
+        private final long[] mSamples;
+        private int mNext;
+        private int mSize;
+
+        LatencyWindow(int capacity) {
+            mSamples = new long[capacity];
+        }
+
+        void add(long sample) {
+            mSamples[mNext] = sample;
+            mNext = (mNext + 1) % mSamples.length;
+            mSize = Math.min(mSize + 1, mSamples.length);
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        long percentile(double percentile) {
+            long[] sorted = Arrays.copyOf(mSamples, mSize);
+            Arrays.sort(sorted);
+            // nearest-rank method
+            int rank = (int) Math.ceil(percentile * sorted.length);
+            return sorted[Math.max(0, rank - 1)];
+        }
+    }
+}
@@ -15,9 +15,16 @@
 package net.openid.appauth;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import net.openid.appauth.browser.AnyBrowserMatcher;
 import net.openid.appauth.browser.BrowserMatcher;
+import net.openid.appauth.browser.BrowserSelectionStrategy;
+import net.openid.appauth.browser.DefaultBrowserSelectionStrategy;
+import net.openid.appauth.browser.PrefetchPolicy;
+import net.openid.appauth.browser.RateLimitedPrefetchPolicy;
+import net.openid.appauth.browser.WarmupPolicies;
+import net.openid.appauth.browser.WarmupPolicy;
 import net.openid.appauth.connectivity.ConnectionBuilder;
 import net.openid.appauth.connectivity.DefaultConnectionBuilder;
 
@@ -44,15 +51,44 @@ public class AppAuthConfiguration {
 
     private final boolean mSkipNonceVerification;
 
+    @NonNull
+    private final Clock mClock;
+
+    @Nullable
+    private final JwksKeyStore mIdTokenKeyStore;
+
+    private final boolean mSharedCustomTabConnection;
+
+    @NonNull
+    private final PrefetchPolicy mPrefetchPolicy;
+
+    @NonNull
+    private final WarmupPolicy mWarmupPolicy;
+
+    @NonNull
+    private final BrowserSelectionStrategy mBrowserSelectionStrategy;
+
     private AppAuthConfiguration(
             @NonNull BrowserMatcher browserMatcher,
             @NonNull ConnectionBuilder connectionBuilder,
             Boolean skipIssuerHttpsCheck,
-            Boolean skipNonceVerification) {
+            Boolean skipNonceVerification,
+            @NonNull Clock clock,
+            @Nullable JwksKeyStore idTokenKeyStore,
+            boolean sharedCustomTabConnection,
+            @NonNull PrefetchPolicy prefetchPolicy,
+            @NonNull WarmupPolicy warmupPolicy,
+            @NonNull BrowserSelectionStrategy browserSelectionStrategy) {
         mBrowserMatcher = browserMatcher;
         mConnectionBuilder = connectionBuilder;
         mSkipIssuerHttpsCheck = skipIssuerHttpsCheck;
         mSkipNonceVerification = skipNonceVerification;
+        mClock = clock;
+        mIdTokenKeyStore = idTokenKeyStore;
+        mSharedCustomTabConnection = sharedCustomTabConnection;
+        mPrefetchPolicy = prefetchPolicy;
+        mWarmupPolicy = warmupPolicy;
+        mBrowserSelectionStrategy = browserSelectionStrategy;
     }
 
     /**
@@ -63,6 +99,17 @@ public class AppAuthConfiguration {
         return mBrowserMatcher;
     }
 
+    /**
+     * Selects the browser used for the authorization flow, from those permitted by the
+     * {@link #getBrowserMatcher() browser matcher}.
+     *
+     * @see Builder#setBrowserSelectionStrategy(BrowserSelectionStrategy)
+     */
+    @NonNull
+    public BrowserSelectionStrategy getBrowserSelectionStrategy() {
+        return mBrowserSelectionStrategy;
+    }
+
     /**
      * Creates {@link java.net.HttpURLConnection} instances for use in token requests and related
      * interactions with the authorization service.
@@ -88,6 +135,58 @@ public class AppAuthConfiguration {
      */
     public boolean getSkipNonceVerification() { return mSkipNonceVerification; }
 
+    /**
+     * The source of the current time, used to compute token expiration times and to validate
+     * ID tokens.
+     *
+     * @see Builder#setClock(Clock)
+     */
+    @NonNull
+    public Clock getClock() {
+        return mClock;
+    }
+
+    /**
+     * The key store used to verify the signatures of ID tokens, or `null` if ID token
+     * signatures are not verified.
+     *
+     * @see Builder#setIdTokenKeyStore(JwksKeyStore)
+     */
+    @Nullable
+    public JwksKeyStore getIdTokenKeyStore() {
+        return mIdTokenKeyStore;
+    }
+
+    /**
+     * Whether authorization services share pooled connections to the custom tabs service of the
+     * selected browser.
+     *
+     * @see Builder#setSharedCustomTabConnection(boolean)
+     */
+    public boolean getSharedCustomTabConnection() {
+        return mSharedCustomTabConnection;
+    }
+
+    /**
+     * Controls how often authorization requests are prefetched.
+     *
+     * @see Builder#setPrefetchPolicy(PrefetchPolicy)
+     */
+    @NonNull
+    public PrefetchPolicy getPrefetchPolicy() {
+        return mPrefetchPolicy;
+    }
+
+    /**
+     * Controls when the selected browser is warmed up.
+     *
+     * @see Builder#setWarmupPolicy(WarmupPolicy)
+     */
+    @NonNull
+    public WarmupPolicy getWarmupPolicy() {
+        return mWarmupPolicy;
+    }
+
     /**
      * Creates {@link AppAuthConfiguration} instances.
      */
@@ -97,6 +196,13 @@ public class AppAuthConfiguration {
         private ConnectionBuilder mConnectionBuilder = DefaultConnectionBuilder.INSTANCE;
         private boolean mSkipIssuerHttpsCheck;
         private boolean mSkipNonceVerification;
+        private Clock mClock = SystemClock.INSTANCE;
+        private JwksKeyStore mIdTokenKeyStore;
+        private boolean mSharedCustomTabConnection = true;
+        private PrefetchPolicy mPrefetchPolicy = RateLimitedPrefetchPolicy.DEFAULT;
+        private WarmupPolicy mWarmupPolicy = WarmupPolicies.ALWAYS;
+        private BrowserSelectionStrategy mBrowserSelectionStrategy =
+                DefaultBrowserSelectionStrategy.INSTANCE;
 
         /**
          * Specify the browser matcher to use, which controls the browsers that can be used
@@ -109,6 +215,24 @@ public class AppAuthConfiguration {
             return this;
         }
 
+        /**
+         * Specify the strategy used to select a browser from those permitted by the browser
+         * matcher. By default, the first permitted browser in the order of the user's
+         * preferences is used, preferring browsers which support custom tabs; an
+         * {@link net.openid.appauth.browser.AdaptiveBrowserSelectionStrategy} can be used
+         * instead to prefer browsers which have performed better in previous authorization
+         * flows.
+         */
+        @NonNull
+        public Builder setBrowserSelectionStrategy(
+                @NonNull BrowserSelectionStrategy browserSelectionStrategy) {
+            Preconditions.checkNotNull(
+                    browserSelectionStrategy,
+                    "browserSelectionStrategy cannot be null");
+            mBrowserSelectionStrategy = browserSelectionStrategy;
+            return this;
+        }
+
         /**
          * Specify the connection builder to use, which creates {@link java.net.HttpURLConnection}
          * instances for use in direct communication with the authorization service.
@@ -146,6 +270,73 @@ public class AppAuthConfiguration {
             return this;
         }
 
+        /**
+         * Specify the source of the current time, used to compute access token expiration
+         * times from token responses and to validate ID tokens. Defaults to device wall time.
+         * A {@link ServerTimeClock} can be provided to tolerate devices with a skewed clock.
+         */
+        @NonNull
+        public Builder setClock(@NonNull Clock clock) {
+            Preconditions.checkNotNull(clock, "clock cannot be null");
+            mClock = clock;
+            return this;
+        }
+
+        /**
+         * Specify the key store used to verify the signatures of ID tokens received from the
+         * token endpoint, using the keys published at the `jwks_uri` of the discovery document.
+         * RS256 and ES256 signatures are supported, as are PS256 signatures from API 23
+         * onwards; tokens with any other signature algorithm, or without a signature, are
+         * rejected. By default, ID token signatures are not verified, and TLS server validation
+         * of the token endpoint is relied upon instead.
+         */
+        @NonNull
+        public Builder setIdTokenKeyStore(@Nullable JwksKeyStore idTokenKeyStore) {
+            mIdTokenKeyStore = idTokenKeyStore;
+            return this;
+        }
+
+        /**
+         * Specify whether authorization services acquire their connection to the custom tabs
+         * service of the selected browser from the process-wide
+         * {@link net.openid.appauth.browser.CustomTabConnectionPool}, so that a warmed-up
+         * connection is reused across services and activities. Enabled by default; when
+         * disabled, each service binds, and unbinds on disposal, its own connection.
+         */
+        @NonNull
+        public Builder setSharedCustomTabConnection(boolean sharedCustomTabConnection) {
+            mSharedCustomTabConnection = sharedCustomTabConnection;
+            return this;
+        }
+
+        /**
+         * Specify the policy which controls how often
+         * {@link AuthorizationService#prefetchAuthorizationRequest(AuthorizationRequest)}
+         * prefetches authorization requests. By default, each authorization endpoint is
+         * prefetched at most once every
+         * {@link RateLimitedPrefetchPolicy#DEFAULT_MIN_INTERVAL_MS ten seconds}.
+         */
+        @NonNull
+        public Builder setPrefetchPolicy(@NonNull PrefetchPolicy prefetchPolicy) {
+            Preconditions.checkNotNull(prefetchPolicy, "prefetchPolicy cannot be null");
+            mPrefetchPolicy = prefetchPolicy;
+            return this;
+        }
+
+        /**
+         * Specify the policy which controls when the selected browser is warmed up. By default,
+         * the browser is {@link WarmupPolicies#ALWAYS always} warmed up as soon as the
+         * connection to it is established. On memory constrained devices, warming up the browser
+         * may cause the app to be evicted; {@link WarmupPolicies#MEMORY_AWARE} or
+         * {@link WarmupPolicies#LOGIN_SCREEN_ONLY} can be used to avoid this.
+         */
+        @NonNull
+        public Builder setWarmupPolicy(@NonNull WarmupPolicy warmupPolicy) {
+            Preconditions.checkNotNull(warmupPolicy, "warmupPolicy cannot be null");
+            mWarmupPolicy = warmupPolicy;
+            return this;
+        }
+
         /**
          * Creates the instance from the configured properties.
          */
@@ -155,7 +346,13 @@ public class AppAuthConfiguration {
                 mBrowserMatcher,
                 mConnectionBuilder,
                 mSkipIssuerHttpsCheck,
-                mSkipNonceVerification
+                mSkipNonceVerification,
+                mClock,
+                mIdTokenKeyStore,
+                mSharedCustomTabConnection,
+                mPrefetchPolicy,
+                mWarmupPolicy,
+                mBrowserSelectionStrategy
             );
         }
 
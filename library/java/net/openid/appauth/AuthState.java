@@ -15,10 +15,12 @@
 package net.openid.appauth;
 
 import static net.openid.appauth.AuthorizationException.AuthorizationRequestErrors;
+import static net.openid.appauth.AuthorizationException.TokenRequestErrors;
 import static net.openid.appauth.Preconditions.checkArgument;
 import static net.openid.appauth.Preconditions.checkNotEmpty;
 import static net.openid.appauth.Preconditions.checkNotNull;
 
+import android.net.Uri;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
@@ -29,9 +31,11 @@ import org.json.JSONObject;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * Collects authorization state from authorization requests and responses. This facilitates
@@ -48,6 +52,39 @@ public class AuthState {
      */
     public static final int EXPIRY_TIME_TOLERANCE_MS = 60000;
 
+    /**
+     * The delay before a token refresh is re-attempted after the first transient failure, such
+     * as a network error. Each consecutive failure doubles the delay, up to
+     * {@link #REFRESH_BACKOFF_MAX_MS}.
+     */
+    public static final long REFRESH_BACKOFF_INITIAL_MS = 1000L;
+
+    /**
+     * The maximum delay before a token refresh is re-attempted after a transient failure.
+     */
+    public static final long REFRESH_BACKOFF_MAX_MS = 300000L;
+
+    /**
+     * The token type identifier of an OAuth 2.0 access token, used as the subject token type
+     * of token exchange requests.
+     *
+     * @see "OAuth 2.0 Token Exchange (RFC 8693), Section 3
+     * <https://tools.ietf.org/html/rfc8693#section-3>"
+     */
+    public static final String TOKEN_TYPE_ACCESS_TOKEN =
+            "urn:ietf:params:oauth:token-type:access_token";
+
+    @VisibleForTesting
+    static final String PARAM_AUDIENCE = "audience";
+
+    @VisibleForTesting
+    static final String PARAM_SUBJECT_TOKEN = "subject_token";
+
+    @VisibleForTesting
+    static final String PARAM_SUBJECT_TOKEN_TYPE = "subject_token_type";
+
+    private static final String KEY_EXPIRY_TIME_TOLERANCE = "expiryTimeTolerance";
+
     private static final String KEY_CONFIG = "config";
     private static final String KEY_REFRESH_TOKEN = "refreshToken";
     private static final String KEY_SCOPE = "scope";
@@ -77,10 +114,33 @@ public class AuthState {
     @Nullable
     private AuthorizationException mAuthorizationException;
 
+    private long mExpiryTimeToleranceMs = EXPIRY_TIME_TOLERANCE_MS;
+
+    @Nullable
+    private AdaptiveExpiryTolerance mAdaptiveExpiryTolerance;
+
+    @NonNull
+    private Clock mClock = SystemClock.INSTANCE;
+
     private final Object mPendingActionsSyncObject = new Object();
     private List<AuthStateAction> mPendingActions;
     private boolean mNeedsTokenRefreshOverride;
 
+    @Nullable
+    private AuthorizationException mLastRefreshException;
+    private int mConsecutiveRefreshFailures;
+    private long mRefreshBackoffExpirationTime;
+
+    private final ScopedTokenCache mScopedTokens = new ScopedTokenCache();
+
+    /**
+     * The claims of the most recently parsed ID token, retained until the ID token changes.
+     */
+    @Nullable
+    private volatile ParsedIdToken mParsedIdToken;
+
+    private final AuthStateChangeNotifier mChangeNotifier = new AuthStateChangeNotifier();
+
     /**
      * Creates an empty, unauthenticated {@link AuthState}.
      */
@@ -270,6 +330,39 @@ public class AuthState {
         return null;
     }
 
+    /**
+     * A view of all claims of the current ID token, if available and well formed. The token is
+     * parsed on first access, and the claims are retained until the ID token changes, so
+     * repeated calls do not parse the token again.
+     *
+     * The claims are not validated by this method; they are only as trustworthy as the token
+     * endpoint from which the ID token was received. In particular, they are available even if
+     * the token lacks claims which are required for validation.
+     */
+    @Nullable
+    public IdTokenClaims getIdTokenClaims() {
+        String idToken = getIdToken();
+        if (idToken == null) {
+            return null;
+        }
+
+        ParsedIdToken parsed = mParsedIdToken;
+        if (parsed != null && parsed.mIdToken.equals(idToken)) {
+            return parsed.mClaims;
+        }
+
+        try {
+            // the claims are parsed eagerly, so that a malformed payload is reported here
+            String claimsJson = new JwtParser(idToken).decodePayload();
+            IdTokenClaims claims = new IdTokenClaims(new JSONObject(claimsJson));
+            mParsedIdToken = new ParsedIdToken(idToken, claims);
+            return claims;
+        } catch (JSONException | IdToken.IdTokenException ex) {
+            Logger.warnWithStack(ex, "Unable to parse ID token claims");
+            return null;
+        }
+    }
+
     /**
      * The current client secret, if available.
      */
@@ -320,11 +413,15 @@ public class AuthState {
      * calling {@link #setNeedsTokenRefresh(boolean) setNeedsTokenRefresh(true)}.
      */
     public boolean getNeedsTokenRefresh() {
-        return getNeedsTokenRefresh(SystemClock.INSTANCE);
+        return getNeedsTokenRefresh(mClock);
     }
 
     @VisibleForTesting
     boolean getNeedsTokenRefresh(Clock clock) {
+        return getNeedsTokenRefresh(clock, getExpiryTimeTolerance());
+    }
+
+    private boolean getNeedsTokenRefresh(Clock clock, long minValidityMs) {
         if (mNeedsTokenRefreshOverride) {
             return true;
         }
@@ -336,7 +433,85 @@ public class AuthState {
         }
 
         return getAccessTokenExpirationTime()
-                <= clock.getCurrentTimeMillis() + EXPIRY_TIME_TOLERANCE_MS;
+                <= clock.getCurrentTimeMillis() + minValidityMs;
+    }
+
+    /**
+     * The amount of time, in milliseconds, before the expiry of the access token at which it is
+     * considered to be expired for the purposes of calls to
+     * {@link #performActionWithFreshTokens(AuthorizationService, AuthStateAction)
+     * performActionWithFreshTokens}. If an {@link AdaptiveExpiryTolerance adaptive tolerance}
+     * has been set and has learned a tolerance for the token endpoint of this state, that value
+     * is returned; otherwise, the fixed tolerance is returned.
+     *
+     * @see #setExpiryTimeTolerance(long)
+     * @see #setAdaptiveExpiryTolerance(AdaptiveExpiryTolerance)
+     */
+    public long getExpiryTimeTolerance() {
+        if (mAdaptiveExpiryTolerance != null) {
+            Long learnedTolerance =
+                    mAdaptiveExpiryTolerance.getLearnedToleranceMs(getTokenEndpoint());
+            if (learnedTolerance != null) {
+                return learnedTolerance;
+            }
+        }
+
+        return mExpiryTimeToleranceMs;
+    }
+
+    /**
+     * Sets the fixed expiry time tolerance, in milliseconds. This defaults to
+     * {@link #EXPIRY_TIME_TOLERANCE_MS}, and is used as the fallback when an adaptive tolerance
+     * has not yet learned a value for the token endpoint.
+     */
+    public void setExpiryTimeTolerance(long toleranceMs) {
+        checkArgument(toleranceMs >= 0, "toleranceMs must not be negative");
+        mExpiryTimeToleranceMs = toleranceMs;
+    }
+
+    /**
+     * The adaptive expiry tolerance used by this state, if any.
+     */
+    @Nullable
+    public AdaptiveExpiryTolerance getAdaptiveExpiryTolerance() {
+        return mAdaptiveExpiryTolerance;
+    }
+
+    /**
+     * Sets an adaptive expiry tolerance, which learns the tolerance from the latency of token
+     * refreshes performed via {@link #performActionWithFreshTokens(AuthorizationService,
+     * AuthStateAction) performActionWithFreshTokens}. The same instance can be shared across
+     * states; it is not persisted as part of {@link #jsonSerialize()}. Passing `null` reverts to
+     * the fixed tolerance.
+     */
+    public void setAdaptiveExpiryTolerance(
+            @Nullable AdaptiveExpiryTolerance adaptiveExpiryTolerance) {
+        mAdaptiveExpiryTolerance = adaptiveExpiryTolerance;
+    }
+
+    /**
+     * The source of the current time used to check the expiration of tokens held by this state.
+     */
+    @NonNull
+    public Clock getClock() {
+        return mClock;
+    }
+
+    /**
+     * Sets the source of the current time used to check the expiration of tokens held by this
+     * state. Defaults to device wall time. This should be the same clock as that of the
+     * {@link AppAuthConfiguration#getClock() configuration} of the services used to refresh
+     * tokens, such as a shared {@link ServerTimeClock}. The clock is not persisted as part of
+     * {@link #jsonSerialize()}.
+     */
+    public void setClock(@NonNull Clock clock) {
+        mClock = checkNotNull(clock, "clock cannot be null");
+    }
+
+    @Nullable
+    private Uri getTokenEndpoint() {
+        AuthorizationServiceConfiguration config = getAuthorizationServiceConfiguration();
+        return (config != null) ? config.tokenEndpoint : null;
     }
 
     /**
@@ -352,7 +527,7 @@ public class AuthState {
     * credentials have been acquired, then this method will always return `false`
     */
     public boolean hasClientSecretExpired() {
-        return hasClientSecretExpired(SystemClock.INSTANCE);
+        return hasClientSecretExpired(mClock);
     }
 
     @VisibleForTesting
@@ -377,6 +552,7 @@ public class AuthState {
             if (authException.type == AuthorizationException.TYPE_OAUTH_AUTHORIZATION_ERROR) {
                 mAuthorizationException = authException;
             }
+            notifyChanged();
             return;
         }
 
@@ -387,10 +563,13 @@ public class AuthState {
         mLastTokenResponse = null;
         mRefreshToken = null;
         mAuthorizationException = null;
+        resetRefreshBackoff();
+        mScopedTokens.clear();
 
         // if the response's mScope is null, it means that it equals that of the request
         // see: https://tools.ietf.org/html/rfc6749#section-5.1
         mScope = (authResponse.scope != null) ? authResponse.scope : authResponse.request.scope;
+        notifyChanged();
     }
 
     /**
@@ -418,6 +597,7 @@ public class AuthState {
             if (authException.type == AuthorizationException.TYPE_OAUTH_TOKEN_ERROR) {
                 mAuthorizationException = authException;
             }
+            notifyChanged();
             return;
         }
 
@@ -428,6 +608,7 @@ public class AuthState {
         if (tokenResponse.refreshToken != null) {
             mRefreshToken = tokenResponse.refreshToken;
         }
+        notifyChanged();
     }
 
     /**
@@ -445,6 +626,148 @@ public class AuthState {
         mLastAuthorizationResponse = null;
         mLastTokenResponse = null;
         mAuthorizationException = null;
+        resetRefreshBackoff();
+        mScopedTokens.clear();
+        notifyChanged();
+    }
+
+    /**
+     * Registers a listener to be notified, on the specified executor, whenever this state is
+     * updated with a new authorization, token or registration response, or moves into an
+     * error state. Updates which occur while a notification is still pending for the listener
+     * are coalesced: the listener receives only the most recent snapshot.
+     */
+    public void addChangeListener(
+            @NonNull ChangeListener listener,
+            @NonNull Executor executor) {
+        checkNotNull(listener, "listener cannot be null");
+        checkNotNull(executor, "executor cannot be null");
+        mChangeNotifier.addListener(listener, executor);
+    }
+
+    /**
+     * Unregisters a previously added change listener. Any notification pending for the listener
+     * is discarded.
+     */
+    public void removeChangeListener(@NonNull ChangeListener listener) {
+        checkNotNull(listener, "listener cannot be null");
+        mChangeNotifier.removeListener(listener);
+    }
+
+    /**
+     * Produces an immutable snapshot of the current state.
+     */
+    @NonNull
+    public AuthStateSnapshot snapshot() {
+        return new AuthStateSnapshot(this);
+    }
+
+    /**
+     * Creates a copy of the persistent contents and configuration of this state, without any
+     * pending actions, listeners or cached tokens.
+     */
+    @NonNull
+    AuthState copy() {
+        AuthState copy = new AuthState();
+        copy.mRefreshToken = mRefreshToken;
+        copy.mScope = mScope;
+        copy.mConfig = mConfig;
+        copy.mLastAuthorizationResponse = mLastAuthorizationResponse;
+        copy.mLastTokenResponse = mLastTokenResponse;
+        copy.mLastRegistrationResponse = mLastRegistrationResponse;
+        copy.mAuthorizationException = mAuthorizationException;
+        copy.mExpiryTimeToleranceMs = mExpiryTimeToleranceMs;
+        copy.mAdaptiveExpiryTolerance = mAdaptiveExpiryTolerance;
+        copy.mClock = mClock;
+        return copy;
+    }
+
+    private void notifyChanged() {
+        if (mChangeNotifier.hasListeners()) {
+            mChangeNotifier.publish(snapshot());
+        }
+    }
+
+    /**
+     * Discards any transient token refresh failure, so that the next call to
+     * {@link #performActionWithFreshTokens(AuthorizationService, AuthStateAction)
+     * performActionWithFreshTokens} that requires a refresh will attempt one immediately, rather
+     * than waiting for the backoff period to elapse. This can be used, for example, when network
+     * connectivity is restored.
+     */
+    public void resetRefreshBackoff() {
+        synchronized (mPendingActionsSyncObject) {
+            mLastRefreshException = null;
+            mConsecutiveRefreshFailures = 0;
+            mRefreshBackoffExpirationTime = 0;
+        }
+    }
+
+    /**
+     * The failure of the most recent token refresh performed via
+     * {@link #performActionWithFreshTokens(AuthorizationService, AuthStateAction)
+     * performActionWithFreshTokens}, if it failed with a non-terminal error and refreshes are
+     * currently being backed off until the returned exception is cleared or the backoff period
+     * elapses.
+     */
+    @Nullable
+    public AuthorizationException getLastRefreshException() {
+        synchronized (mPendingActionsSyncObject) {
+            return mLastRefreshException;
+        }
+    }
+
+    /**
+     * Determines whether the exception is an OAuth error returned by the token endpoint which
+     * will not be resolved by any further refresh request, until a new authorization: the refresh
+     * token is invalid, expired or revoked (`invalid_grant`), or the client is not recognized
+     * (`invalid_client`). Other token errors, such as `invalid_scope`, may be caused by the
+     * parameters of a particular request, so are backed off like transient failures instead.
+     */
+    private static boolean isTerminalRefreshError(@Nullable AuthorizationException ex) {
+        if (ex == null || ex.type != AuthorizationException.TYPE_OAUTH_TOKEN_ERROR) {
+            return false;
+        }
+        return ex.code == TokenRequestErrors.INVALID_GRANT.code
+                || ex.code == TokenRequestErrors.INVALID_CLIENT.code;
+    }
+
+    private void recordRefreshResult(
+            @Nullable AuthorizationException ex,
+            @NonNull Clock clock) {
+        synchronized (mPendingActionsSyncObject) {
+            if (ex == null || isTerminalRefreshError(ex)) {
+                // terminal errors are retained as the authorization exception of this state
+                mLastRefreshException = null;
+                mConsecutiveRefreshFailures = 0;
+                mRefreshBackoffExpirationTime = 0;
+                return;
+            }
+
+            mLastRefreshException = ex;
+            mConsecutiveRefreshFailures++;
+            long backoff = REFRESH_BACKOFF_INITIAL_MS
+                    << Math.min(mConsecutiveRefreshFailures - 1, 30);
+            mRefreshBackoffExpirationTime =
+                    clock.getCurrentTimeMillis() + Math.min(backoff, REFRESH_BACKOFF_MAX_MS);
+            Logger.debug("Token refresh failed, backing off for %d ms",
+                    mRefreshBackoffExpirationTime - clock.getCurrentTimeMillis());
+        }
+    }
+
+    @Nullable
+    private AuthorizationException getBackedOffRefreshException(@NonNull Clock clock) {
+        if (mLastRefreshException == null) {
+            return null;
+        }
+
+        long remaining = mRefreshBackoffExpirationTime - clock.getCurrentTimeMillis();
+        // a remaining time beyond the maximum means that the clock was set back
+        if (remaining <= 0 || remaining > REFRESH_BACKOFF_MAX_MS) {
+            return null;
+        }
+
+        return mLastRefreshException;
     }
 
     /**
@@ -457,7 +780,7 @@ public class AuthState {
                 service,
                 NoClientAuthentication.INSTANCE,
                 Collections.<String, String>emptyMap(),
-                SystemClock.INSTANCE,
+                mClock,
                 action);
     }
 
@@ -472,7 +795,7 @@ public class AuthState {
                 service,
                 clientAuth,
                 Collections.<String, String>emptyMap(),
-                SystemClock.INSTANCE,
+                mClock,
                 action);
     }
 
@@ -490,7 +813,7 @@ public class AuthState {
                     service,
                     getClientAuthentication(),
                     refreshTokenAdditionalParams,
-                    SystemClock.INSTANCE,
+                    mClock,
                     action);
         } catch (ClientAuthentication.UnsupportedAuthenticationMethod ex) {
             action.execute(null, null,
@@ -513,7 +836,7 @@ public class AuthState {
                 service,
                 clientAuth,
                 refreshTokenAdditionalParams,
-                SystemClock.INSTANCE,
+                mClock,
                 action);
     }
 
@@ -524,6 +847,110 @@ public class AuthState {
             @NonNull final Map<String, String> refreshTokenAdditionalParams,
             @NonNull final Clock clock,
             @NonNull final AuthStateAction action) {
+        performActionWithTokensValidFor(
+                service,
+                clientAuth,
+                refreshTokenAdditionalParams,
+                clock,
+                getExpiryTimeTolerance(),
+                action);
+    }
+
+    /**
+     * Ensures that an access token which remains valid for at least the specified amount of
+     * time is available before invoking the provided action with a {@link TokenLease lease}
+     * on that token. A token refresh is only performed if the current access token cannot
+     * satisfy the requested lease, independent of the
+     * {@link #getExpiryTimeTolerance() expiry time tolerance}.
+     *
+     * @param minValidityMs the minimum remaining lifetime of the access token, in milliseconds.
+     */
+    public void performActionWithTokenLease(
+            @NonNull AuthorizationService service,
+            long minValidityMs,
+            @NonNull AuthStateLeaseAction action) {
+        try {
+            performActionWithTokenLease(
+                    service,
+                    getClientAuthentication(),
+                    Collections.<String, String>emptyMap(),
+                    minValidityMs,
+                    action);
+        } catch (ClientAuthentication.UnsupportedAuthenticationMethod ex) {
+            action.execute(null,
+                    AuthorizationException.fromTemplate(
+                            AuthorizationException.TokenRequestErrors.CLIENT_ERROR, ex));
+        }
+    }
+
+    /**
+     * Ensures that an access token which remains valid for at least the specified amount of
+     * time is available before invoking the provided action with a {@link TokenLease lease}
+     * on that token. If a token refresh is required, the provided additional parameters will be
+     * included in this refresh request.
+     *
+     * @param minValidityMs the minimum remaining lifetime of the access token, in milliseconds.
+     */
+    public void performActionWithTokenLease(
+            @NonNull AuthorizationService service,
+            @NonNull ClientAuthentication clientAuth,
+            @NonNull Map<String, String> refreshTokenAdditionalParams,
+            long minValidityMs,
+            @NonNull AuthStateLeaseAction action) {
+        performActionWithTokenLease(
+                service,
+                clientAuth,
+                refreshTokenAdditionalParams,
+                mClock,
+                minValidityMs,
+                action);
+    }
+
+    @VisibleForTesting
+    void performActionWithTokenLease(
+            @NonNull AuthorizationService service,
+            @NonNull ClientAuthentication clientAuth,
+            @NonNull Map<String, String> refreshTokenAdditionalParams,
+            @NonNull Clock clock,
+            long minValidityMs,
+            @NonNull final AuthStateLeaseAction action) {
+        checkArgument(minValidityMs >= 0, "minValidityMs must not be negative");
+        checkNotNull(action, "action cannot be null");
+        performActionWithTokensValidFor(
+                service,
+                clientAuth,
+                refreshTokenAdditionalParams,
+                clock,
+                minValidityMs,
+                new AuthStateAction() {
+                    @Override
+                    public void execute(
+                            @Nullable String accessToken,
+                            @Nullable String idToken,
+                            @Nullable AuthorizationException ex) {
+                        if (ex != null) {
+                            action.execute(null, ex);
+                            return;
+                        }
+
+                        action.execute(
+                                new TokenLease(
+                                        accessToken,
+                                        idToken,
+                                        getAccessTokenExpirationTime(),
+                                        clock),
+                                null);
+                    }
+                });
+    }
+
+    private void performActionWithTokensValidFor(
+            @NonNull final AuthorizationService service,
+            @NonNull final ClientAuthentication clientAuth,
+            @NonNull final Map<String, String> refreshTokenAdditionalParams,
+            @NonNull final Clock clock,
+            long minValidityMs,
+            @NonNull final AuthStateAction action) {
         checkNotNull(service, "service cannot be null");
         checkNotNull(clientAuth, "client authentication cannot be null");
         checkNotNull(refreshTokenAdditionalParams,
@@ -531,11 +958,17 @@ public class AuthState {
         checkNotNull(clock, "clock cannot be null");
         checkNotNull(action, "action cannot be null");
 
-        if (!getNeedsTokenRefresh(clock)) {
+        if (!getNeedsTokenRefresh(clock, minValidityMs)) {
             action.execute(getAccessToken(), getIdToken(), null);
             return;
         }
 
+        if (isTerminalRefreshError(mAuthorizationException)) {
+            // repeating the refresh would fail in the same way, until a new authorization
+            action.execute(null, null, mAuthorizationException);
+            return;
+        }
+
         if (mRefreshToken == null) {
             AuthorizationException ex = AuthorizationException.fromTemplate(
                     AuthorizationRequestErrors.CLIENT_ERROR,
@@ -545,6 +978,7 @@ public class AuthState {
         }
 
         checkNotNull(mPendingActionsSyncObject, "pending actions sync object cannot be null");
+        AuthorizationException backedOffException;
         synchronized (mPendingActionsSyncObject) {
             //if a token request is currently executing, queue the actions instead
             if (mPendingActions != null) {
@@ -552,20 +986,40 @@ public class AuthState {
                 return;
             }
 
-            //creates a list of pending actions, starting with the current action
-            mPendingActions = new ArrayList<>();
-            mPendingActions.add(action);
+            //if the last refresh failed transiently, fail fast until the backoff elapses
+            backedOffException = getBackedOffRefreshException(clock);
+            if (backedOffException == null) {
+                //creates a list of pending actions, starting with the current action
+                mPendingActions = new ArrayList<>();
+                mPendingActions.add(action);
+            }
+        }
+
+        if (backedOffException != null) {
+            action.execute(null, null, backedOffException);
+            return;
         }
 
+        final TokenRequest refreshRequest =
+                createTokenRefreshRequest(refreshTokenAdditionalParams);
+        final long refreshStartTime = clock.getCurrentTimeMillis();
         service.performTokenRequest(
-                createTokenRefreshRequest(refreshTokenAdditionalParams),
+                refreshRequest,
                 clientAuth,
                 new AuthorizationService.TokenResponseCallback() {
                     @Override
                     public void onTokenRequestCompleted(
                             @Nullable TokenResponse response,
                             @Nullable AuthorizationException ex) {
+                        AdaptiveExpiryTolerance adaptiveTolerance = mAdaptiveExpiryTolerance;
+                        if (ex == null && adaptiveTolerance != null) {
+                            adaptiveTolerance.recordRefreshLatency(
+                                    refreshRequest.configuration.tokenEndpoint,
+                                    clock.getCurrentTimeMillis() - refreshStartTime);
+                        }
+
                         update(response, ex);
+                        recordRefreshResult(ex, clock);
 
                         String accessToken = null;
                         String idToken = null;
@@ -592,6 +1046,188 @@ public class AuthState {
                 });
     }
 
+    /**
+     * Ensures that a non-expired access token for the specified audience and scopes is available
+     * before invoking the provided action. Such tokens are obtained by exchanging a fresh primary
+     * access token via a {@link GrantTypeValues#TOKEN_EXCHANGE token exchange} request, and are
+     * cached independently of the primary access token, keyed by audience and set of scopes.
+     * Concurrent calls for the same audience and scopes share a single token request.
+     *
+     * The identity token provided to the action is that of the primary token response.
+     *
+     * @param audience the logical name of the target service, or `null` if not required.
+     * @param scopes the scopes required, or `null` if not required. At least one of
+     *     audience or scopes must be specified.
+     */
+    public void performActionWithScopedTokens(
+            @NonNull AuthorizationService service,
+            @Nullable String audience,
+            @Nullable Iterable<String> scopes,
+            @NonNull AuthStateAction action) {
+        performActionWithScopedTokens(
+                service,
+                NoClientAuthentication.INSTANCE,
+                audience,
+                scopes,
+                mClock,
+                action);
+    }
+
+    /**
+     * Ensures that a non-expired access token for the specified audience and scopes is available
+     * before invoking the provided action.
+     *
+     * @see #performActionWithScopedTokens(AuthorizationService, String, Iterable,
+     *     AuthStateAction)
+     */
+    public void performActionWithScopedTokens(
+            @NonNull AuthorizationService service,
+            @NonNull ClientAuthentication clientAuth,
+            @Nullable String audience,
+            @Nullable Iterable<String> scopes,
+            @NonNull AuthStateAction action) {
+        performActionWithScopedTokens(
+                service,
+                clientAuth,
+                audience,
+                scopes,
+                mClock,
+                action);
+    }
+
+    @VisibleForTesting
+    void performActionWithScopedTokens(
+            @NonNull final AuthorizationService service,
+            @NonNull final ClientAuthentication clientAuth,
+            @Nullable String audience,
+            @Nullable Iterable<String> scopes,
+            @NonNull final Clock clock,
+            @NonNull AuthStateAction action) {
+        checkNotNull(service, "service cannot be null");
+        checkNotNull(clientAuth, "client authentication cannot be null");
+        checkNotNull(clock, "clock cannot be null");
+        checkNotNull(action, "action cannot be null");
+
+        final ScopedTokenCache.Key key = new ScopedTokenCache.Key(audience, scopes);
+        String accessToken = mScopedTokens.getAccessToken(
+                key,
+                clock.getCurrentTimeMillis() + getExpiryTimeTolerance());
+        if (accessToken != null) {
+            action.execute(accessToken, getIdToken(), null);
+            return;
+        }
+
+        final int generation = mScopedTokens.addPendingAction(key, action);
+        if (generation < 0) {
+            return;
+        }
+
+        performActionWithFreshTokens(
+                service,
+                clientAuth,
+                Collections.<String, String>emptyMap(),
+                clock,
+                new AuthStateAction() {
+                    @Override
+                    public void execute(
+                            @Nullable String subjectToken,
+                            @Nullable String idToken,
+                            @Nullable AuthorizationException ex) {
+                        if (ex != null || subjectToken == null) {
+                            completeScopedTokenRequest(key, generation, null, ex);
+                            return;
+                        }
+
+                        try {
+                            service.performTokenRequest(
+                                    createTokenExchangeRequest(
+                                            subjectToken,
+                                            key.audience,
+                                            key.scope),
+                                    clientAuth,
+                                    new AuthorizationService.TokenResponseCallback() {
+                                        @Override
+                                        public void onTokenRequestCompleted(
+                                                @Nullable TokenResponse response,
+                                                @Nullable AuthorizationException ex) {
+                                            completeScopedTokenRequest(
+                                                    key,
+                                                    generation,
+                                                    response,
+                                                    ex);
+                                        }
+                                    });
+                        } catch (RuntimeException requestEx) {
+                            // e.g. no configuration for the request, or the service is disposed;
+                            // the waiting actions must still be completed, or later requests for
+                            // the same key would wait for this one indefinitely
+                            completeScopedTokenRequest(
+                                    key,
+                                    generation,
+                                    null,
+                                    AuthorizationException.fromTemplate(
+                                            AuthorizationRequestErrors.CLIENT_ERROR,
+                                            requestEx));
+                        }
+                    }
+                });
+    }
+
+    private void completeScopedTokenRequest(
+            @NonNull ScopedTokenCache.Key key,
+            int generation,
+            @Nullable TokenResponse response,
+            @Nullable AuthorizationException ex) {
+        List<AuthStateAction> actions = mScopedTokens.complete(key, generation, response);
+        String accessToken = response != null ? response.accessToken : null;
+        String idToken = response != null ? getIdToken() : null;
+        for (AuthStateAction action : actions) {
+            action.execute(accessToken, idToken, ex);
+        }
+    }
+
+    /**
+     * Discards all access tokens obtained for specific audiences and scopes. The cache is also
+     * cleared when the state is updated with a new authorization or registration response.
+     */
+    public void clearScopedTokens() {
+        mScopedTokens.clear();
+    }
+
+    /**
+     * Creates a token exchange request for an access token for the specified audience and scopes,
+     * using the provided access token of this state as the subject token.
+     *
+     * @see "OAuth 2.0 Token Exchange (RFC 8693), Section 2.1
+     * <https://tools.ietf.org/html/rfc8693#section-2.1>"
+     */
+    @NonNull
+    public TokenRequest createTokenExchangeRequest(
+            @NonNull String subjectToken,
+            @Nullable String audience,
+            @Nullable String scope) {
+        checkNotEmpty(subjectToken, "subjectToken cannot be null or empty");
+        if (mLastAuthorizationResponse == null) {
+            throw new IllegalStateException(
+                    "No authorization configuration available for token exchange request");
+        }
+
+        Map<String, String> additionalParameters = new HashMap<>();
+        additionalParameters.put(PARAM_SUBJECT_TOKEN, subjectToken);
+        additionalParameters.put(PARAM_SUBJECT_TOKEN_TYPE, TOKEN_TYPE_ACCESS_TOKEN);
+        if (audience != null) {
+            additionalParameters.put(PARAM_AUDIENCE, audience);
+        }
+
+        return new TokenRequest.Builder(
+                mLastAuthorizationResponse.request.configuration,
+                mLastAuthorizationResponse.request.clientId)
+                .setGrantType(GrantTypeValues.TOKEN_EXCHANGE)
+                .setScope(scope)
+                .setAdditionalParameters(additionalParameters)
+                .build();
+    }
+
     /**
      * Creates a token request for new tokens using the current refresh token.
      */
@@ -634,6 +1270,11 @@ public class AuthState {
         JsonUtil.putIfNotNull(json, KEY_REFRESH_TOKEN, mRefreshToken);
         JsonUtil.putIfNotNull(json, KEY_SCOPE, mScope);
 
+        if (mExpiryTimeToleranceMs != EXPIRY_TIME_TOLERANCE_MS) {
+            JsonUtil.putIfNotNull(
+                    json, KEY_EXPIRY_TIME_TOLERANCE, Long.valueOf(mExpiryTimeToleranceMs));
+        }
+
         if (mConfig != null) {
             JsonUtil.put(json, KEY_CONFIG, mConfig.toJson());
         }
@@ -687,6 +1328,10 @@ public class AuthState {
         state.mRefreshToken = JsonUtil.getStringIfDefined(json, KEY_REFRESH_TOKEN);
         state.mScope = JsonUtil.getStringIfDefined(json, KEY_SCOPE);
 
+        if (json.has(KEY_EXPIRY_TIME_TOLERANCE)) {
+            state.mExpiryTimeToleranceMs = json.getLong(KEY_EXPIRY_TIME_TOLERANCE);
+        }
+
         if (json.has(KEY_CONFIG)) {
             state.mConfig = AuthorizationServiceConfiguration.fromJson(
                     json.getJSONObject(KEY_CONFIG));
@@ -743,6 +1388,86 @@ public class AuthState {
                 @Nullable AuthorizationException ex);
     }
 
+    /**
+     * Listener for changes to an {@link AuthState}.
+     * @see #addChangeListener(ChangeListener, Executor)
+     */
+    public interface ChangeListener {
+        /**
+         * Invoked with a snapshot of the state after it has changed.
+         */
+        void onAuthStateChanged(@NonNull AuthStateSnapshot snapshot);
+    }
+
+    /**
+     * Interface for actions executed with a lease on an access token.
+     * @see #performActionWithTokenLease(AuthorizationService, long, AuthStateLeaseAction)
+     */
+    public interface AuthStateLeaseAction {
+        /**
+         * Executed with a lease on an access token which satisfies the requested minimum
+         * validity. If new tokens were required to satisfy the lease and could not be acquired,
+         * an authorization exception is provided instead.
+         */
+        void execute(@Nullable TokenLease lease, @Nullable AuthorizationException ex);
+    }
+
+    /**
+     * A lease on the tokens of an authorization state, describing the window within which the
+     * access token is valid.
+     */
+    public static final class TokenLease {
+
+        /**
+         * The leased access token, if available.
+         */
+        @Nullable
+        public final String accessToken;
+
+        /**
+         * The ID token associated with the leased access token, if available.
+         */
+        @Nullable
+        public final String idToken;
+
+        /**
+         * The time until which the access token is valid, as milliseconds from the UNIX epoch,
+         * or `null` if the access token does not expire. If the authorization server issues
+         * access tokens with a shorter lifetime than was requested for the lease, this will
+         * reflect the shorter lifetime.
+         */
+        @Nullable
+        public final Long validUntil;
+
+        /**
+         * The clock of the state the lease was obtained from, against which the remaining
+         * lifetime of the lease is measured.
+         */
+        @NonNull
+        private final Clock mClock;
+
+        TokenLease(
+                @Nullable String accessToken,
+                @Nullable String idToken,
+                @Nullable Long validUntil,
+                @NonNull Clock clock) {
+            this.accessToken = accessToken;
+            this.idToken = idToken;
+            this.validUntil = validUntil;
+            mClock = clock;
+        }
+
+        /**
+         * Determines whether the leased access token remains valid for at least the specified
+         * amount of time, as of the current time of the clock used by the state the lease was
+         * obtained from.
+         */
+        public boolean isValidFor(long durationMs) {
+            return validUntil == null
+                    || validUntil >= mClock.getCurrentTimeMillis() + durationMs;
+        }
+    }
+
     /**
      * Creates the required client authentication for the token endpoint based on information
      * in the most recent registration response (if it is set).
@@ -775,4 +1500,17 @@ public class AuthState {
 
         }
     }
+
+    private static final class ParsedIdToken {
+        @NonNull
+        final String mIdToken;
+
+        @NonNull
+        final IdTokenClaims mClaims;
+
+        ParsedIdToken(@NonNull String idToken, @NonNull IdTokenClaims claims) {
+            mIdToken = idToken;
+            mClaims = claims;
+        }
+    }
 }
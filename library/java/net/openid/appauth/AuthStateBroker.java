@@ -0,0 +1,383 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.Preconditions.checkNotEmpty;
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import net.openid.appauth.internal.Logger;
+import org.json.JSONException;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Provides access to an {@link AuthState} owned by an {@link AuthStateBrokerProvider}, from any
+ * process of the application.
+ *
+ * Tokens obtained from the broker are cached in the calling process until they are about to
+ * expire, or the brokered state changes; changes made in any process, including token refreshes,
+ * are delivered to every broker through a change notification, so a process never uses a token
+ * which the owner has already replaced.
+ *
+ * A broker observes change notifications from creation until {@link #dispose()} is called.
+ */
+public class AuthStateBroker {
+
+    @NonNull
+    private final ContentResolver mResolver;
+
+    @NonNull
+    private final Uri mUri;
+
+    @NonNull
+    private final Executor mExecutor;
+
+    @NonNull
+    private final Handler mCallbackHandler;
+
+    @NonNull
+    private final Clock mClock;
+
+    private final Object mLock = new Object();
+
+    /**
+     * Incremented whenever the brokered state changes, so that tokens requested before then
+     * are not cached on completion.
+     */
+    private int mGeneration;
+
+    @Nullable
+    private CachedTokens mCachedTokens;
+
+    private boolean mDisposed;
+
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            invalidateCachedTokens();
+        }
+    };
+
+    /**
+     * Creates a broker for the {@link AuthStateBrokerProvider} with the specified authority.
+     */
+    public AuthStateBroker(@NonNull Context context, @NonNull String authority) {
+        this(checkNotNull(context, "context cannot be null").getContentResolver(),
+                authority,
+                Executors.newSingleThreadExecutor(BrokerThreadFactory.INSTANCE),
+                new Handler(context.getMainLooper()),
+                SystemClock.INSTANCE);
+    }
+
+    @VisibleForTesting
+    AuthStateBroker(
+            @NonNull ContentResolver resolver,
+            @NonNull String authority,
+            @NonNull Executor executor,
+            @NonNull Handler callbackHandler,
+            @NonNull Clock clock) {
+        mResolver = checkNotNull(resolver, "resolver cannot be null");
+        mUri = AuthStateBrokerProvider.getContentUri(
+                checkNotEmpty(authority, "authority cannot be null or empty"));
+        mExecutor = checkNotNull(executor, "executor cannot be null");
+        mCallbackHandler = checkNotNull(callbackHandler, "callbackHandler cannot be null");
+        mClock = checkNotNull(clock, "clock cannot be null");
+        mResolver.registerContentObserver(mUri, false, mObserver);
+    }
+
+    /**
+     * Ensures that a non-expired access token is available before invoking the provided action.
+     * If the tokens cached by this broker are still valid, the action is invoked immediately;
+     * otherwise, fresh tokens are requested from the owning process, and the action is invoked
+     * on the main thread once they are available. A refresh required by several processes at
+     * once is only performed once, by the owning process.
+     */
+    @AnyThread
+    public void performActionWithFreshTokens(@NonNull final AuthState.AuthStateAction action) {
+        checkNotNull(action, "action cannot be null");
+        checkNotDisposed();
+
+        CachedTokens tokens = getValidCachedTokens();
+        if (tokens != null) {
+            action.execute(tokens.mAccessToken, tokens.mIdToken, null);
+            return;
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final CachedTokens tokens;
+                final AuthorizationException exception;
+                CachedTokens cached = getValidCachedTokens();
+                if (cached != null) {
+                    tokens = cached;
+                    exception = null;
+                } else {
+                    CachedTokens fetched = null;
+                    AuthorizationException fetchException = null;
+                    try {
+                        fetched = fetchFreshTokens();
+                    } catch (AuthorizationException ex) {
+                        fetchException = ex;
+                    }
+                    tokens = fetched;
+                    exception = fetchException;
+                }
+
+                mCallbackHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (exception != null) {
+                            action.execute(null, null, exception);
+                        } else {
+                            action.execute(tokens.mAccessToken, tokens.mIdToken, null);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Indicates that the specified access token was rejected by a resource server, so that the
+     * owning process refreshes it on the next request for fresh tokens. If the owning process
+     * has already replaced the token, this has no effect.
+     */
+    @AnyThread
+    public void invalidateAccessToken(@NonNull final String accessToken) {
+        checkNotEmpty(accessToken, "accessToken cannot be null or empty");
+        checkNotDisposed();
+
+        synchronized (mLock) {
+            if (mCachedTokens != null && accessToken.equals(mCachedTokens.mAccessToken)) {
+                mCachedTokens = null;
+            }
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    call(AuthStateBrokerProvider.METHOD_INVALIDATE_ACCESS_TOKEN, accessToken, null);
+                } catch (RuntimeException ex) {
+                    Logger.warnWithStack(ex, "Unable to invalidate brokered access token");
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns a snapshot of the brokered state.
+     */
+    @WorkerThread
+    @NonNull
+    public AuthStateSnapshot getCurrent() {
+        checkNotMainThread();
+        Bundle result = call(AuthStateBrokerProvider.METHOD_GET_STATE, null, null);
+        try {
+            return AuthState.jsonDeserialize(
+                    result.getString(AuthStateBrokerProvider.KEY_STATE)).snapshot();
+        } catch (JSONException ex) {
+            throw new IllegalStateException("Broker returned an invalid state", ex);
+        }
+    }
+
+    /**
+     * Replaces the brokered state, typically with the state resulting from an authorization
+     * flow performed in this process. The owning process persists the new state, and all
+     * brokers discard the tokens they have cached.
+     */
+    @WorkerThread
+    public void replace(@NonNull AuthState state) {
+        checkNotNull(state, "state cannot be null");
+        checkNotMainThread();
+        invalidateCachedTokens();
+
+        Bundle extras = new Bundle();
+        extras.putString(AuthStateBrokerProvider.KEY_STATE, state.jsonSerializeString());
+        call(AuthStateBrokerProvider.METHOD_REPLACE_STATE, null, extras);
+    }
+
+    /**
+     * Stops observing changes to the brokered state. The broker must not be used after this
+     * method is called.
+     */
+    public void dispose() {
+        synchronized (mLock) {
+            if (mDisposed) {
+                return;
+            }
+            mDisposed = true;
+            mCachedTokens = null;
+        }
+        mResolver.unregisterContentObserver(mObserver);
+        if (mExecutor instanceof ExecutorService) {
+            ((ExecutorService) mExecutor).shutdown();
+        }
+    }
+
+    @VisibleForTesting
+    void invalidateCachedTokens() {
+        synchronized (mLock) {
+            mGeneration++;
+            mCachedTokens = null;
+        }
+    }
+
+    @WorkerThread
+    @NonNull
+    private CachedTokens fetchFreshTokens() throws AuthorizationException {
+        int generation;
+        synchronized (mLock) {
+            generation = mGeneration;
+        }
+
+        Bundle result;
+        try {
+            result = call(AuthStateBrokerProvider.METHOD_GET_FRESH_TOKENS, null, null);
+        } catch (RuntimeException ex) {
+            // the owning process could not be reached, which like a network failure is transient
+            throw AuthorizationException.fromTemplate(
+                    AuthorizationException.GeneralErrors.NETWORK_ERROR, ex);
+        }
+
+        String exceptionJson = result.getString(AuthStateBrokerProvider.KEY_EXCEPTION);
+        if (exceptionJson != null) {
+            try {
+                throw AuthorizationException.fromJson(exceptionJson);
+            } catch (JSONException ex) {
+                throw AuthorizationException.fromTemplate(
+                        AuthorizationException.GeneralErrors.JSON_DESERIALIZATION_ERROR, ex);
+            }
+        }
+
+        CachedTokens tokens = new CachedTokens(
+                result.getString(AuthStateBrokerProvider.KEY_ACCESS_TOKEN),
+                result.getString(AuthStateBrokerProvider.KEY_ID_TOKEN),
+                result.containsKey(AuthStateBrokerProvider.KEY_EXPIRATION_TIME)
+                        ? result.getLong(AuthStateBrokerProvider.KEY_EXPIRATION_TIME)
+                        : null,
+                result.getLong(
+                        AuthStateBrokerProvider.KEY_EXPIRY_TIME_TOLERANCE,
+                        AuthState.EXPIRY_TIME_TOLERANCE_MS));
+
+        synchronized (mLock) {
+            if (generation == mGeneration && !mDisposed) {
+                mCachedTokens = tokens;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Returns the cached tokens, if they are still valid. The expiry time tolerance of the
+     * brokered state is used, so that a token is refreshed when the owning process would refresh
+     * it. As in {@link AuthState}, an access token without an expiration time is assumed to never
+     * expire, so it is used until the brokered state changes or the token is
+     * {@link #invalidateAccessToken(String) invalidated}.
+     */
+    @Nullable
+    private CachedTokens getValidCachedTokens() {
+        synchronized (mLock) {
+            if (mCachedTokens == null || mCachedTokens.mAccessToken == null) {
+                return null;
+            }
+            if (mCachedTokens.mExpirationTime != null
+                    && mCachedTokens.mExpirationTime
+                            <= mClock.getCurrentTimeMillis()
+                                    + mCachedTokens.mExpiryTimeToleranceMs) {
+                return null;
+            }
+            return mCachedTokens;
+        }
+    }
+
+    @WorkerThread
+    @NonNull
+    private Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        Bundle result = mResolver.call(mUri, method, arg, extras);
+        if (result == null) {
+            throw new IllegalStateException("No AuthState broker available at " + mUri);
+        }
+        return result;
+    }
+
+    private void checkNotDisposed() {
+        synchronized (mLock) {
+            if (mDisposed) {
+                throw new IllegalStateException("Broker has been disposed");
+            }
+        }
+    }
+
+    private static void checkNotMainThread() {
+        // the owning process may be this one, in which case the call is not dispatched to a
+        // binder thread, and a refresh completing on the main thread would never be observed
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            throw new IllegalStateException("Brokered state cannot be accessed on the main thread");
+        }
+    }
+
+    private static final class CachedTokens {
+        @Nullable
+        final String mAccessToken;
+
+        @Nullable
+        final String mIdToken;
+
+        @Nullable
+        final Long mExpirationTime;
+
+        final long mExpiryTimeToleranceMs;
+
+        CachedTokens(
+                @Nullable String accessToken,
+                @Nullable String idToken,
+                @Nullable Long expirationTime,
+                long expiryTimeToleranceMs) {
+            mAccessToken = accessToken;
+            mIdToken = idToken;
+            mExpirationTime = expirationTime;
+            mExpiryTimeToleranceMs = expiryTimeToleranceMs;
+        }
+    }
+
+    private static final class BrokerThreadFactory implements ThreadFactory {
+        static final BrokerThreadFactory INSTANCE = new BrokerThreadFactory();
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "AppAuth-AuthStateBroker");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,397 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.pm.ProviderInfo;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.Process;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import net.openid.appauth.internal.Logger;
+import org.json.JSONException;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Owns the {@link AuthState} of an application with several processes, and serves fresh tokens
+ * to all of them through {@link AuthStateBroker}.
+ *
+ * When each process keeps its own copy of the state, each process refreshes tokens on its own;
+ * with an authorization server that rotates refresh tokens, all but the first process to
+ * refresh will then fail with `invalid_grant`. With the broker, the state is only ever used by
+ * the process hosting this provider, so concurrent requests for fresh tokens from any process
+ * share a single refresh. When the state changes, a change notification is delivered to the
+ * {@link #getContentUri(String) content URI} of the broker, so that other processes discard
+ * the tokens they have cached.
+ *
+ * The provider must be declared in the application's manifest, in the process that should own
+ * the state, and should not be exported; only callers running as the application's own user
+ * are permitted:
+ *
+ * ```xml
+ * <provider
+ *     android:name="net.openid.appauth.AuthStateBrokerProvider"
+ *     android:authorities="${applicationId}.appauth.broker"
+ *     android:exported="false" />
+ * ```
+ *
+ * By default the state is persisted by an {@link AuthStateStore} named
+ * {@link #DEFAULT_STORE_NAME}; subclasses may override {@link #onCreateStore(Context)} and
+ * {@link #onCreateAuthorizationService(Context)} to customize how the state is persisted and
+ * refreshed.
+ */
+public class AuthStateBrokerProvider extends ContentProvider {
+
+    /**
+     * The name of the {@link AuthStateStore} used by default.
+     */
+    public static final String DEFAULT_STORE_NAME = "broker";
+
+    /**
+     * The maximum time a caller waits for a token refresh to complete.
+     */
+    public static final long REFRESH_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(60);
+
+    static final String METHOD_GET_FRESH_TOKENS = "getFreshTokens";
+    static final String METHOD_GET_STATE = "getState";
+    static final String METHOD_REPLACE_STATE = "replaceState";
+    static final String METHOD_INVALIDATE_ACCESS_TOKEN = "invalidateAccessToken";
+
+    static final String KEY_ACCESS_TOKEN = "accessToken";
+    static final String KEY_ID_TOKEN = "idToken";
+    static final String KEY_EXPIRATION_TIME = "accessTokenExpirationTime";
+    static final String KEY_EXPIRY_TIME_TOLERANCE = "expiryTimeTolerance";
+    static final String KEY_EXCEPTION = "exception";
+    static final String KEY_STATE = "state";
+    static final String KEY_VERSION = "version";
+
+    private final Object mLock = new Object();
+
+    private final AtomicLong mVersion = new AtomicLong();
+
+    @Nullable
+    private String mAuthority;
+
+    @Nullable
+    private AuthStateStore mStore;
+
+    @Nullable
+    private AuthorizationService mService;
+
+    @Nullable
+    private AuthState mObservedState;
+
+    private final AuthState.ChangeListener mChangeListener = new AuthState.ChangeListener() {
+        @Override
+        public void onAuthStateChanged(@NonNull AuthStateSnapshot snapshot) {
+            notifyStateChanged();
+        }
+    };
+
+    /**
+     * Returns the URI to which change notifications are delivered by the broker with the
+     * specified authority.
+     */
+    @NonNull
+    public static Uri getContentUri(@NonNull String authority) {
+        return new Uri.Builder()
+                .scheme("content")
+                .authority(authority)
+                .build();
+    }
+
+    @Override
+    public void attachInfo(@NonNull Context context, @NonNull ProviderInfo info) {
+        super.attachInfo(context, info);
+        // a provider may be declared with several authorities; any of them identifies it
+        mAuthority = info.authority.split(";")[0];
+    }
+
+    @Override
+    public boolean onCreate() {
+        // the state is loaded on first use, to avoid delaying application start
+        return true;
+    }
+
+    /**
+     * Creates the store which persists the brokered state. Invoked once, on first use.
+     */
+    @NonNull
+    protected AuthStateStore onCreateStore(@NonNull Context context) {
+        return AuthStateStore.forName(context, DEFAULT_STORE_NAME);
+    }
+
+    /**
+     * Creates the service used to refresh tokens. Invoked once, on first use.
+     */
+    @NonNull
+    protected AuthorizationService onCreateAuthorizationService(@NonNull Context context) {
+        return new AuthorizationService(context);
+    }
+
+    /**
+     * Returns the client authentication used to refresh tokens. By default, this is derived from
+     * the client registration of the state.
+     */
+    @NonNull
+    protected ClientAuthentication getClientAuthentication(@NonNull AuthState state)
+            throws ClientAuthentication.UnsupportedAuthenticationMethod {
+        return state.getClientAuthentication();
+    }
+
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        if (Binder.getCallingUid() != Process.myUid()) {
+            throw new SecurityException("AuthState broker may only be used by its own application");
+        }
+
+        switch (method) {
+            case METHOD_GET_FRESH_TOKENS:
+                return getFreshTokens();
+            case METHOD_GET_STATE:
+                return getState();
+            case METHOD_REPLACE_STATE:
+                return replaceState(extras != null ? extras.getString(KEY_STATE) : null);
+            case METHOD_INVALIDATE_ACCESS_TOKEN:
+                return invalidateAccessToken(arg);
+            default:
+                throw new IllegalArgumentException("Unknown broker method: " + method);
+        }
+    }
+
+    @WorkerThread
+    @NonNull
+    private Bundle getFreshTokens() {
+        final AuthState state = getCurrentState();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<Bundle> result = new AtomicReference<>();
+        AuthState.AuthStateAction action = new AuthState.AuthStateAction() {
+            @Override
+            public void execute(
+                    @Nullable String accessToken,
+                    @Nullable String idToken,
+                    @Nullable AuthorizationException ex) {
+                Bundle bundle = new Bundle();
+                if (ex != null) {
+                    bundle.putString(KEY_EXCEPTION, ex.toJsonString());
+                } else {
+                    bundle.putString(KEY_ACCESS_TOKEN, accessToken);
+                    bundle.putString(KEY_ID_TOKEN, idToken);
+                    Long expirationTime = state.getAccessTokenExpirationTime();
+                    if (expirationTime != null) {
+                        bundle.putLong(KEY_EXPIRATION_TIME, expirationTime);
+                    }
+                    // so that clients consider the token fresh for as long as this process does
+                    bundle.putLong(KEY_EXPIRY_TIME_TOLERANCE, state.getExpiryTimeTolerance());
+                }
+                result.set(bundle);
+                latch.countDown();
+            }
+        };
+
+        // concurrent callers are queued behind a single refresh by the state itself
+        try {
+            state.performActionWithFreshTokens(
+                    getAuthorizationService(),
+                    getClientAuthentication(state),
+                    Collections.<String, String>emptyMap(),
+                    action);
+        } catch (ClientAuthentication.UnsupportedAuthenticationMethod ex) {
+            action.execute(null, null, AuthorizationException.fromTemplate(
+                    AuthorizationException.TokenRequestErrors.CLIENT_ERROR, ex));
+        }
+
+        try {
+            if (!latch.await(REFRESH_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                return createExceptionResult(AuthorizationException.fromTemplate(
+                        AuthorizationException.GeneralErrors.NETWORK_ERROR,
+                        new TimeoutException("Timed out waiting for token refresh")));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return createExceptionResult(AuthorizationException.fromTemplate(
+                    AuthorizationException.GeneralErrors.NETWORK_ERROR, ex));
+        }
+
+        Bundle bundle = result.get();
+        bundle.putLong(KEY_VERSION, mVersion.get());
+        return bundle;
+    }
+
+    @NonNull
+    private Bundle getState() {
+        Bundle bundle = new Bundle();
+        bundle.putString(KEY_STATE, getCurrentState().jsonSerializeString());
+        bundle.putLong(KEY_VERSION, mVersion.get());
+        return bundle;
+    }
+
+    @NonNull
+    private Bundle replaceState(@Nullable String stateJson) {
+        if (stateJson == null) {
+            throw new IllegalArgumentException("state must be specified");
+        }
+
+        AuthState state;
+        try {
+            state = AuthState.jsonDeserialize(stateJson);
+        } catch (JSONException ex) {
+            throw new IllegalArgumentException("state is not a valid serialized AuthState", ex);
+        }
+
+        synchronized (mLock) {
+            getStore().replace(state);
+            observe(state);
+        }
+        notifyStateChanged();
+
+        Bundle bundle = new Bundle();
+        bundle.putLong(KEY_VERSION, mVersion.get());
+        return bundle;
+    }
+
+    @NonNull
+    private Bundle invalidateAccessToken(@Nullable String accessToken) {
+        AuthState state = getCurrentState();
+
+        // invalidations of a token which has already been replaced are ignored, so that
+        // processes with a stale token do not each trigger a refresh
+        if (accessToken != null && accessToken.equals(state.getAccessToken())) {
+            state.setNeedsTokenRefresh(true);
+        }
+
+        Bundle bundle = new Bundle();
+        bundle.putLong(KEY_VERSION, mVersion.get());
+        return bundle;
+    }
+
+    @NonNull
+    private Bundle createExceptionResult(@NonNull AuthorizationException ex) {
+        Bundle bundle = new Bundle();
+        bundle.putString(KEY_EXCEPTION, ex.toJsonString());
+        bundle.putLong(KEY_VERSION, mVersion.get());
+        return bundle;
+    }
+
+    @NonNull
+    private AuthState getCurrentState() {
+        synchronized (mLock) {
+            AuthState state = getStore().getCurrent();
+            observe(state);
+            return state;
+        }
+    }
+
+    private void observe(@NonNull AuthState state) {
+        if (state == mObservedState) {
+            return;
+        }
+
+        if (mObservedState != null) {
+            mObservedState.removeChangeListener(mChangeListener);
+        }
+        state.addChangeListener(mChangeListener, AuthStateStore.DirectExecutor.INSTANCE);
+        mObservedState = state;
+    }
+
+    @NonNull
+    private AuthStateStore getStore() {
+        synchronized (mLock) {
+            if (mStore == null) {
+                mStore = onCreateStore(getContext());
+            }
+            return mStore;
+        }
+    }
+
+    @NonNull
+    private AuthorizationService getAuthorizationService() {
+        synchronized (mLock) {
+            if (mService == null) {
+                mService = onCreateAuthorizationService(getContext());
+            }
+            return mService;
+        }
+    }
+
+    private void notifyStateChanged() {
+        mVersion.incrementAndGet();
+
+        Context context = getContext();
+        if (context == null || mAuthority == null) {
+            return;
+        }
+
+        try {
+            context.getContentResolver().notifyChange(getContentUri(mAuthority), null);
+        } catch (RuntimeException ex) {
+            Logger.warnWithStack(ex, "Unable to notify broker clients of state change");
+        }
+    }
+
+    @Nullable
+    @Override
+    public Cursor query(
+            @NonNull Uri uri,
+            @Nullable String[] projection,
+            @Nullable String selection,
+            @Nullable String[] selectionArgs,
+            @Nullable String sortOrder) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Nullable
+    @Override
+    public String getType(@NonNull Uri uri) {
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public Uri insert(@NonNull Uri uri, @Nullable ContentValues values) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int delete(
+            @NonNull Uri uri,
+            @Nullable String selection,
+            @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int update(
+            @NonNull Uri uri,
+            @Nullable ContentValues values,
+            @Nullable String selection,
+            @Nullable String[] selectionArgs) {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Delivers snapshots of an {@link AuthState} to its change listeners. Each listener is notified
+ * on its own executor; changes published while a notification is still pending for a listener
+ * are coalesced, so that the listener only receives the most recent snapshot.
+ */
+final class AuthStateChangeNotifier {
+
+    private final CopyOnWriteArrayList<Registration> mRegistrations =
+            new CopyOnWriteArrayList<>();
+
+    void addListener(
+            @NonNull AuthState.ChangeListener listener,
+            @NonNull Executor executor) {
+        mRegistrations.add(new Registration(listener, executor));
+    }
+
+    void removeListener(@NonNull AuthState.ChangeListener listener) {
+        for (Registration registration : mRegistrations) {
+            if (registration.mListener == listener) {
+                registration.cancel();
+                mRegistrations.remove(registration);
+            }
+        }
+    }
+
+    boolean hasListeners() {
+        return !mRegistrations.isEmpty();
+    }
+
+    void publish(@NonNull AuthStateSnapshot snapshot) {
+        for (Registration registration : mRegistrations) {
+            registration.publish(snapshot);
+        }
+    }
+
+    private static final class Registration implements Runnable {
+
+        @NonNull
+        final AuthState.ChangeListener mListener;
+
+        @NonNull
+        private final Executor mExecutor;
+
+        @Nullable
+        private AuthStateSnapshot mPendingSnapshot;
+
+        private boolean mCancelled;
+
+        Registration(@NonNull AuthState.ChangeListener listener, @NonNull Executor executor) {
+            mListener = listener;
+            mExecutor = executor;
+        }
+
+        void publish(@NonNull AuthStateSnapshot snapshot) {
+            synchronized (this) {
+                if (mCancelled) {
+                    return;
+                }
+
+                boolean scheduled = mPendingSnapshot != null;
+                mPendingSnapshot = snapshot;
+                if (scheduled) {
+                    return;
+                }
+            }
+
+            mExecutor.execute(this);
+        }
+
+        synchronized void cancel() {
+            mCancelled = true;
+            mPendingSnapshot = null;
+        }
+
+        @Override
+        public void run() {
+            AuthStateSnapshot snapshot;
+            synchronized (this) {
+                snapshot = mPendingSnapshot;
+                mPendingSnapshot = null;
+            }
+
+            if (snapshot == null) {
+                return;
+            }
+
+            mListener.onAuthStateChanged(snapshot);
+        }
+    }
+}
@@ -0,0 +1,455 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.Preconditions.checkArgument;
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import net.openid.appauth.internal.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * The on-disk representation of a persisted {@link AuthState}: a snapshot file holding the
+ * serialized state, and an optional journal of changes made since the snapshot was written.
+ *
+ * The snapshot is replaced atomically whenever it is written. When journaling is enabled,
+ * a change which only affects part of the state (typically, a token refresh) is instead appended
+ * to the journal as a record of the JSON properties which changed. The journal is
+ * compacted into a new snapshot when it reaches a maximum number of records, or when a change
+ * is too large to benefit from journaling. When read, the journal is replayed on top of the
+ * snapshot.
+ *
+ * Every snapshot and journal record carries a checksum. A corrupt snapshot is discarded; a
+ * corrupt journal record, typically the result of an interrupted append, ends the replay.
+ * Snapshots and records are numbered, so that records already folded into a snapshot are not
+ * replayed if the journal could not be deleted after compaction.
+ *
+ * Reads and writes are serialized, but are expected to be performed on a background thread.
+ */
+final class AuthStateFile {
+
+    /**
+     * The default number of journal records after which the journal is compacted.
+     */
+    static final int DEFAULT_MAX_JOURNAL_RECORDS = 32;
+
+    static final String JOURNAL_FILE_SUFFIX = ".journal";
+
+    @VisibleForTesting
+    static final String KEY_SEQUENCE = "journalSequence";
+
+    private static final String KEY_SET = "set";
+    private static final String KEY_REMOVE = "remove";
+    private static final String KEY_MERGE = "merge";
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+    private static final int CHECKSUM_LENGTH = 8;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @NonNull
+    private final File mSnapshotFile;
+
+    @NonNull
+    private final File mJournalFile;
+
+    private final int mMaxJournalRecords;
+
+    /**
+     * The state as currently persisted, including journaled changes, or `null` if it is not
+     * known, in which case the next write is a snapshot.
+     */
+    @Nullable
+    private JSONObject mPersisted;
+
+    private long mSequence;
+    private int mJournalRecords;
+
+    /**
+     * Set when the journal may end with a partial record, after which no further records can
+     * be appended until it is compacted.
+     */
+    private boolean mJournalDamaged;
+
+    /**
+     * @param snapshotFile the file holding the state snapshot. The journal is kept alongside it.
+     * @param maxJournalRecords the number of journal records after which the journal is
+     *     compacted, or zero to disable journaling.
+     */
+    AuthStateFile(@NonNull File snapshotFile, int maxJournalRecords) {
+        checkArgument(maxJournalRecords >= 0, "maxJournalRecords must not be negative");
+        mSnapshotFile = checkNotNull(snapshotFile, "snapshotFile cannot be null");
+        mJournalFile = new File(snapshotFile.getPath() + JOURNAL_FILE_SUFFIX);
+        mMaxJournalRecords = maxJournalRecords;
+    }
+
+    /**
+     * Reads the persisted state, replaying any journaled changes, or returns `null` if no state
+     * has been persisted or the snapshot is corrupt.
+     */
+    @WorkerThread
+    @Nullable
+    synchronized JSONObject read() throws IOException {
+        mPersisted = null;
+        mSequence = 0;
+        mJournalRecords = 0;
+        mJournalDamaged = false;
+
+        if (!mSnapshotFile.exists()) {
+            deleteJournal();
+            return null;
+        }
+
+        JSONObject state;
+        InputStream in = new FileInputStream(mSnapshotFile);
+        try {
+            String json = verifyChecksum(Utils.readInputStream(in));
+            if (json == null) {
+                Logger.warn("Stored auth state in %s is corrupt - discarding", mSnapshotFile);
+                return null;
+            }
+            state = new JSONObject(json);
+        } catch (JSONException ex) {
+            Logger.warnWithStack(ex, "Stored auth state in %s is malformed - discarding",
+                    mSnapshotFile);
+            return null;
+        } finally {
+            Utils.closeQuietly(in);
+        }
+
+        mSequence = state.optLong(KEY_SEQUENCE, 0);
+        state.remove(KEY_SEQUENCE);
+        replayJournal(state);
+        mPersisted = state;
+        return copy(state);
+    }
+
+    /**
+     * Persists the specified state, either as a journal record of the changes since the last
+     * read or write, or as a new snapshot. The state object is retained, and must not be
+     * modified afterwards.
+     */
+    @WorkerThread
+    synchronized void write(@NonNull JSONObject state) throws IOException {
+        if (mPersisted == null || mJournalDamaged || mJournalRecords >= mMaxJournalRecords) {
+            writeSnapshot(state);
+            return;
+        }
+
+        JSONObject record = createJournalRecord(mPersisted, state);
+        if (record == null) {
+            // nothing changed
+            return;
+        }
+
+        String recordJson = record.toString();
+        if (recordJson.length() > state.toString().length() / 2) {
+            writeSnapshot(state);
+            return;
+        }
+
+        appendJournalRecord(recordJson);
+        mPersisted = state;
+        mSequence++;
+        mJournalRecords++;
+    }
+
+    /**
+     * Deletes the snapshot and journal.
+     */
+    @WorkerThread
+    synchronized void delete() {
+        mPersisted = null;
+        mSequence = 0;
+        mJournalRecords = 0;
+        mJournalDamaged = false;
+        deleteJournal();
+        if (mSnapshotFile.exists() && !mSnapshotFile.delete()) {
+            Logger.warn("Unable to delete stored auth state %s", mSnapshotFile);
+        }
+    }
+
+    /**
+     * The sequence number of the persisted state, which increases with every snapshot or journal
+     * record written.
+     */
+    synchronized long getSequence() {
+        return mSequence;
+    }
+
+    @VisibleForTesting
+    synchronized int getJournalRecordCount() {
+        return mJournalRecords;
+    }
+
+    private void writeSnapshot(@NonNull JSONObject state) throws IOException {
+        File directory = mSnapshotFile.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+
+        if (mPersisted == null) {
+            // any existing journal cannot be related to the state being written
+            deleteJournal();
+        }
+
+        long sequence = mSequence + 1;
+        String json;
+        try {
+            state.put(KEY_SEQUENCE, sequence);
+            json = state.toString();
+        } catch (JSONException ex) {
+            throw new IllegalStateException("Unable to write journal sequence", ex);
+        } finally {
+            state.remove(KEY_SEQUENCE);
+        }
+
+        File tempFile = new File(mSnapshotFile.getPath() + TEMP_FILE_SUFFIX);
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            out.write(checksum(json).getBytes(UTF_8));
+            out.write(json.getBytes(UTF_8));
+            out.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        if (!tempFile.renameTo(mSnapshotFile)) {
+            throw new IOException("Unable to replace " + mSnapshotFile);
+        }
+
+        // records in the journal are now all folded into the snapshot, and will be skipped
+        // when replaying even if the journal cannot be deleted
+        deleteJournal();
+
+        mPersisted = state;
+        mSequence = sequence;
+        mJournalRecords = 0;
+        mJournalDamaged = mJournalFile.exists();
+    }
+
+    private void deleteJournal() {
+        if (mJournalFile.exists() && !mJournalFile.delete()) {
+            Logger.warn("Unable to delete auth state journal %s", mJournalFile);
+        }
+    }
+
+    private void appendJournalRecord(@NonNull String recordJson) throws IOException {
+        // until the append is known to have completed, the journal may end with a partial record
+        mJournalDamaged = true;
+        FileOutputStream out = new FileOutputStream(mJournalFile, true);
+        try {
+            out.write(checksum(recordJson).getBytes(UTF_8));
+            out.write(recordJson.getBytes(UTF_8));
+            out.write('\n');
+            out.flush();
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        mJournalDamaged = false;
+    }
+
+    private void replayJournal(@NonNull JSONObject state) throws IOException {
+        if (!mJournalFile.exists()) {
+            return;
+        }
+
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(mJournalFile), UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String json = verifyChecksum(line);
+                if (json == null) {
+                    Logger.warn("Auth state journal %s has a corrupt record - ignoring the rest",
+                            mJournalFile);
+                    mJournalDamaged = true;
+                    return;
+                }
+
+                JSONObject record = new JSONObject(json);
+                long sequence = record.getLong(KEY_SEQUENCE);
+                if (sequence <= mSequence) {
+                    // already folded into the snapshot
+                    continue;
+                }
+
+                applyJournalRecord(state, record);
+                mSequence = sequence;
+                mJournalRecords++;
+            }
+        } catch (JSONException ex) {
+            Logger.warnWithStack(ex, "Auth state journal %s is malformed - ignoring the rest",
+                    mJournalFile);
+            mJournalDamaged = true;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Creates a journal record of the differences between the two states, or returns `null` if
+     * they are equal.
+     */
+    @Nullable
+    private JSONObject createJournalRecord(
+            @NonNull JSONObject previous,
+            @NonNull JSONObject current) {
+        try {
+            JSONObject record = diff(previous, current);
+            if (record != null) {
+                record.put(KEY_SEQUENCE, mSequence + 1);
+            }
+            return record;
+        } catch (JSONException ex) {
+            throw new IllegalStateException("Unable to create journal record", ex);
+        }
+    }
+
+    /**
+     * Describes how to transform one JSON object into another: the properties to set, the
+     * properties to remove, and the nested objects to transform in turn. Nested objects are
+     * diffed recursively, so that e.g. a new token response is recorded as its changed
+     * tokens and expiration time rather than in its entirety. Returns `null` if the objects
+     * are equal.
+     */
+    @Nullable
+    private static JSONObject diff(
+            @NonNull JSONObject previous,
+            @NonNull JSONObject current) throws JSONException {
+        JSONObject set = new JSONObject();
+        JSONObject merge = new JSONObject();
+        Iterator<String> keys = current.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object value = current.get(key);
+            Object previousValue = previous.opt(key);
+            if (value instanceof JSONObject && previousValue instanceof JSONObject) {
+                JSONObject nested = diff((JSONObject) previousValue, (JSONObject) value);
+                if (nested != null) {
+                    merge.put(key, nested);
+                }
+            } else if (previousValue == null
+                    || !previousValue.toString().equals(value.toString())) {
+                set.put(key, value);
+            }
+        }
+
+        JSONArray remove = new JSONArray();
+        keys = previous.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (!current.has(key)) {
+                remove.put(key);
+            }
+        }
+
+        if (set.length() == 0 && merge.length() == 0 && remove.length() == 0) {
+            return null;
+        }
+
+        JSONObject record = new JSONObject();
+        if (set.length() > 0) {
+            record.put(KEY_SET, set);
+        }
+        if (merge.length() > 0) {
+            record.put(KEY_MERGE, merge);
+        }
+        if (remove.length() > 0) {
+            record.put(KEY_REMOVE, remove);
+        }
+        return record;
+    }
+
+    private static void applyJournalRecord(
+            @NonNull JSONObject state,
+            @NonNull JSONObject record) throws JSONException {
+        JSONObject set = record.optJSONObject(KEY_SET);
+        if (set != null) {
+            Iterator<String> keys = set.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                state.put(key, set.get(key));
+            }
+        }
+
+        JSONObject merge = record.optJSONObject(KEY_MERGE);
+        if (merge != null) {
+            Iterator<String> keys = merge.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                applyJournalRecord(state.getJSONObject(key), merge.getJSONObject(key));
+            }
+        }
+
+        JSONArray remove = record.optJSONArray(KEY_REMOVE);
+        if (remove != null) {
+            for (int i = 0; i < remove.length(); i++) {
+                state.remove(remove.getString(i));
+            }
+        }
+    }
+
+    @NonNull
+    private static JSONObject copy(@NonNull JSONObject json) {
+        try {
+            return new JSONObject(json.toString());
+        } catch (JSONException ex) {
+            throw new IllegalStateException("Unable to copy JSON object", ex);
+        }
+    }
+
+    /**
+     * Returns the content following the checksum, or `null` if it does not match the checksum.
+     */
+    @Nullable
+    private static String verifyChecksum(@NonNull String contents) {
+        if (contents.length() < CHECKSUM_LENGTH) {
+            return null;
+        }
+
+        String json = contents.substring(CHECKSUM_LENGTH);
+        if (!checksum(json).equals(contents.substring(0, CHECKSUM_LENGTH))) {
+            return null;
+        }
+        return json;
+    }
+
+    @NonNull
+    private static String checksum(@NonNull String json) {
+        CRC32 crc = new CRC32();
+        crc.update(json.getBytes(UTF_8));
+        return String.format(Locale.US, "%08x", crc.getValue());
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.Preconditions.checkArgument;
+import static net.openid.appauth.Preconditions.checkNotEmpty;
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import android.content.Context;
+import android.util.Base64;
+import android.util.LruCache;
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import net.openid.appauth.internal.Logger;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Persists the {@link AuthState} of many accounts, keyed by an application-defined account ID.
+ *
+ * States are loaded from disk on first access, and the most recently used states are kept
+ * resident in memory; when more than the configured number of states are resident, the least
+ * recently used state is written to disk (if it has pending changes) and released. Each
+ * account is persisted by an {@link AuthStateStore}, so changes to a resident state are written
+ * automatically, coalesced on the single background thread shared by all stores in the process.
+ *
+ * Concurrent requests for an account which is not resident share a single load from disk;
+ * different accounts may be loaded concurrently.
+ *
+ * A state should not be retained by the application after it has been released: if the account
+ * is subsequently accessed again, a new instance is loaded from disk, and changes to the
+ * released instance are neither reflected in it nor persisted.
+ */
+public class AuthStateRepository {
+
+    /**
+     * The default number of account states kept resident in memory.
+     */
+    public static final int DEFAULT_MAX_RESIDENT = 8;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int FILE_NAME_FLAGS = Base64.URL_SAFE | Base64.NO_WRAP | Base64.NO_PADDING;
+
+    @NonNull
+    private final File mDirectory;
+
+    @NonNull
+    private final ScheduledExecutorService mWriter;
+
+    private final long mWriteDelayMs;
+
+    private final Object mLock = new Object();
+
+    @NonNull
+    private final LruCache<String, AuthStateStore> mResident;
+
+    /**
+     * Writes and deletions scheduled for accounts which have since been released, which must
+     * complete before the account is loaded again.
+     */
+    @NonNull
+    private final Map<String, Future<?>> mPendingIo = new HashMap<>();
+
+    /**
+     * Accounts which have been signed out, but whose files may not have been deleted yet.
+     */
+    @NonNull
+    private final Set<String> mSignedOut = new HashSet<>();
+
+    /**
+     * Creates a repository with the specified name, in the application's private files
+     * directory, keeping up to {@link #DEFAULT_MAX_RESIDENT} states in memory.
+     */
+    @NonNull
+    public static AuthStateRepository forName(@NonNull Context context, @NonNull String name) {
+        checkNotNull(context, "context cannot be null");
+        checkNotEmpty(name, "name cannot be null or empty");
+        File directory = new File(
+                new File(context.getFilesDir(), AuthStateStore.STORE_DIRECTORY),
+                name);
+        return new AuthStateRepository(directory, DEFAULT_MAX_RESIDENT);
+    }
+
+    /**
+     * Creates a repository persisting to the specified directory, keeping up to the specified
+     * number of states in memory.
+     */
+    public AuthStateRepository(@NonNull File directory, int maxResident) {
+        this(directory,
+                maxResident,
+                AuthStateStore.getSharedWriter(),
+                AuthStateStore.DEFAULT_WRITE_DELAY_MS);
+    }
+
+    @VisibleForTesting
+    AuthStateRepository(
+            @NonNull File directory,
+            int maxResident,
+            @NonNull ScheduledExecutorService writer,
+            long writeDelayMs) {
+        checkArgument(maxResident > 0, "maxResident must be positive");
+        mDirectory = checkNotNull(directory, "directory cannot be null");
+        mWriter = checkNotNull(writer, "writer cannot be null");
+        mWriteDelayMs = writeDelayMs;
+        mResident = new LruCache<String, AuthStateStore>(maxResident) {
+            @Override
+            protected void entryRemoved(
+                    boolean evicted,
+                    String accountId,
+                    AuthStateStore oldValue,
+                    AuthStateStore newValue) {
+                if (evicted) {
+                    // called with mLock held, from put()
+                    mPendingIo.put(accountId, oldValue.release());
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the state of the specified account, loading it from disk if it is not resident.
+     * If no state has been persisted for the account, an empty state is returned.
+     */
+    @WorkerThread
+    @NonNull
+    public AuthState get(@NonNull String accountId) {
+        return getStore(accountId).getCurrent();
+    }
+
+    /**
+     * Replaces the state of the specified account, scheduling it to be written to disk.
+     */
+    @AnyThread
+    @NonNull
+    public AuthState replace(@NonNull String accountId, @NonNull AuthState state) {
+        checkNotNull(state, "state cannot be null");
+        return getStore(accountId).replace(state);
+    }
+
+    /**
+     * The IDs of all accounts with a persisted or resident state.
+     */
+    @AnyThread
+    @NonNull
+    public Set<String> getAccountIds() {
+        Set<String> accountIds = new TreeSet<>();
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String accountId = toAccountId(file.getName());
+                if (accountId != null) {
+                    accountIds.add(accountId);
+                }
+            }
+        }
+
+        synchronized (mLock) {
+            accountIds.removeAll(mSignedOut);
+            accountIds.addAll(mResident.snapshot().keySet());
+        }
+        return accountIds;
+    }
+
+    /**
+     * The IDs of all accounts whose access token has expired or is about to expire, as
+     * determined by {@link AuthState#getNeedsTokenRefresh()}. States which are not resident
+     * are read from disk, but are not made resident.
+     */
+    @WorkerThread
+    @NonNull
+    public List<String> getAccountsNeedingRefresh() {
+        // a snapshot does not affect the order in which resident states are released
+        Map<String, AuthStateStore> resident;
+        synchronized (mLock) {
+            resident = mResident.snapshot();
+        }
+
+        List<String> accountIds = new ArrayList<>();
+        for (String accountId : getAccountIds()) {
+            AuthStateStore store = resident.get(accountId);
+            AuthState state = store != null ? store.getCurrent() : readTransient(accountId);
+            if (state.isAuthorized() && state.getNeedsTokenRefresh()) {
+                accountIds.add(accountId);
+            }
+        }
+        return accountIds;
+    }
+
+    /**
+     * Removes the state of the specified account from memory and from disk.
+     */
+    @AnyThread
+    public void signOut(@NonNull String accountId) {
+        signOut(Collections.singletonList(accountId));
+    }
+
+    /**
+     * Removes the state of the specified accounts from memory and from disk.
+     */
+    @AnyThread
+    public void signOut(@NonNull Collection<String> accountIds) {
+        checkNotNull(accountIds, "accountIds cannot be null");
+        synchronized (mLock) {
+            for (String accountId : accountIds) {
+                checkNotEmpty(accountId, "accountId cannot be null or empty");
+                AuthStateStore store = mResident.remove(accountId);
+                if (store == null) {
+                    store = createStore(accountId);
+                }
+                mPendingIo.put(accountId, store.delete());
+                mSignedOut.add(accountId);
+            }
+        }
+    }
+
+    /**
+     * Removes the state of all accounts from memory and from disk.
+     */
+    @AnyThread
+    public void signOutAll() {
+        signOut(getAccountIds());
+    }
+
+    /**
+     * Writes any pending changes of all accounts to disk, blocking until the writes complete.
+     *
+     * @throws IllegalStateException if a write could not be completed.
+     */
+    @WorkerThread
+    public void flush() {
+        List<Future<?>> futures = new ArrayList<>();
+        synchronized (mLock) {
+            for (AuthStateStore store : mResident.snapshot().values()) {
+                futures.add(store.flushAsync());
+            }
+            futures.addAll(mPendingIo.values());
+        }
+
+        for (Future<?> future : futures) {
+            await(future);
+        }
+
+        synchronized (mLock) {
+            Iterator<Map.Entry<String, Future<?>>> pendingIo = mPendingIo.entrySet().iterator();
+            while (pendingIo.hasNext()) {
+                Map.Entry<String, Future<?>> entry = pendingIo.next();
+                if (entry.getValue().isDone()) {
+                    mSignedOut.remove(entry.getKey());
+                    pendingIo.remove();
+                }
+            }
+        }
+    }
+
+    @VisibleForTesting
+    boolean isResident(@NonNull String accountId) {
+        synchronized (mLock) {
+            return mResident.snapshot().containsKey(accountId);
+        }
+    }
+
+    @NonNull
+    private AuthStateStore getStore(@NonNull String accountId) {
+        checkNotEmpty(accountId, "accountId cannot be null or empty");
+        synchronized (mLock) {
+            AuthStateStore store = mResident.get(accountId);
+            if (store != null) {
+                return store;
+            }
+
+            // the state is read when first requested from the store, which serializes
+            // concurrent loads of the same account; the store defers that read until any write
+            // or deletion of a previously released instance has completed, as it may be
+            // retrieved by other threads as soon as it is resident.
+            store = createStore(accountId);
+            store.setPredecessorIo(mPendingIo.remove(accountId));
+            mResident.put(accountId, store);
+            mSignedOut.remove(accountId);
+            return store;
+        }
+    }
+
+    @NonNull
+    private AuthState readTransient(@NonNull String accountId) {
+        Future<?> pendingIo;
+        synchronized (mLock) {
+            pendingIo = mPendingIo.get(accountId);
+        }
+        if (pendingIo != null) {
+            await(pendingIo);
+        }
+
+        return createStore(accountId).readStoredState();
+    }
+
+    @NonNull
+    private AuthStateStore createStore(@NonNull String accountId) {
+        return new AuthStateStore(
+                new File(mDirectory, toFileName(accountId)),
+                mWriter,
+                mWriteDelayMs);
+    }
+
+    private static void await(@NonNull Future<?> future) {
+        try {
+            future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for auth state I/O", ex);
+        } catch (ExecutionException ex) {
+            Logger.warnWithStack(ex.getCause(), "Auth state I/O failed");
+        }
+    }
+
+    @NonNull
+    private static String toFileName(@NonNull String accountId) {
+        return Base64.encodeToString(accountId.getBytes(UTF_8), FILE_NAME_FLAGS)
+                + AuthStateStore.STORE_FILE_SUFFIX;
+    }
+
+    @Nullable
+    private static String toAccountId(@NonNull String fileName) {
+        if (!fileName.endsWith(AuthStateStore.STORE_FILE_SUFFIX)) {
+            return null;
+        }
+
+        String encoded = fileName.substring(
+                0,
+                fileName.length() - AuthStateStore.STORE_FILE_SUFFIX.length());
+        try {
+            return new String(Base64.decode(encoded, FILE_NAME_FLAGS), UTF_8);
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+}
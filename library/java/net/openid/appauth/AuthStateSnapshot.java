@@ -0,0 +1,179 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONObject;
+
+import java.util.Set;
+
+/**
+ * An immutable view of an {@link AuthState} at a point in time, as delivered to
+ * {@link AuthState.ChangeListener change listeners}. Taking a snapshot only copies references
+ * to the (immutable) responses held by the state, so it is cheap to produce.
+ */
+public final class AuthStateSnapshot {
+
+    @NonNull
+    private final AuthState mState;
+
+    AuthStateSnapshot(@NonNull AuthState state) {
+        mState = state.copy();
+    }
+
+    /**
+     * The most recent refresh token received from the server, if available.
+     * @see AuthState#getRefreshToken()
+     */
+    @Nullable
+    public String getRefreshToken() {
+        return mState.getRefreshToken();
+    }
+
+    /**
+     * The scope of the current authorization grant, if available.
+     * @see AuthState#getScope()
+     */
+    @Nullable
+    public String getScope() {
+        return mState.getScope();
+    }
+
+    /**
+     * The scope of the current authorization grant, as a set, if available.
+     * @see AuthState#getScopeSet()
+     */
+    @Nullable
+    public Set<String> getScopeSet() {
+        return mState.getScopeSet();
+    }
+
+    /**
+     * The most recent authorization response.
+     * @see AuthState#getLastAuthorizationResponse()
+     */
+    @Nullable
+    public AuthorizationResponse getLastAuthorizationResponse() {
+        return mState.getLastAuthorizationResponse();
+    }
+
+    /**
+     * The most recent token response.
+     * @see AuthState#getLastTokenResponse()
+     */
+    @Nullable
+    public TokenResponse getLastTokenResponse() {
+        return mState.getLastTokenResponse();
+    }
+
+    /**
+     * The most recent client registration response.
+     * @see AuthState#getLastRegistrationResponse()
+     */
+    @Nullable
+    public RegistrationResponse getLastRegistrationResponse() {
+        return mState.getLastRegistrationResponse();
+    }
+
+    /**
+     * The configuration of the authorization service associated with the state.
+     * @see AuthState#getAuthorizationServiceConfiguration()
+     */
+    @Nullable
+    public AuthorizationServiceConfiguration getAuthorizationServiceConfiguration() {
+        return mState.getAuthorizationServiceConfiguration();
+    }
+
+    /**
+     * The current access token, if available.
+     * @see AuthState#getAccessToken()
+     */
+    @Nullable
+    public String getAccessToken() {
+        return mState.getAccessToken();
+    }
+
+    /**
+     * The expiration time of the current access token, if available.
+     * @see AuthState#getAccessTokenExpirationTime()
+     */
+    @Nullable
+    public Long getAccessTokenExpirationTime() {
+        return mState.getAccessTokenExpirationTime();
+    }
+
+    /**
+     * The current ID token, if available.
+     * @see AuthState#getIdToken()
+     */
+    @Nullable
+    public String getIdToken() {
+        return mState.getIdToken();
+    }
+
+    /**
+     * The claims of the current ID token, if available.
+     * @see AuthState#getIdTokenClaims()
+     */
+    @Nullable
+    public IdTokenClaims getIdTokenClaims() {
+        return mState.getIdTokenClaims();
+    }
+
+    /**
+     * Indicates whether the state was authorized at the time of the snapshot.
+     * @see AuthState#isAuthorized()
+     */
+    public boolean isAuthorized() {
+        return mState.isAuthorized();
+    }
+
+    /**
+     * The authorization exception the state was in, if any.
+     * @see AuthState#getAuthorizationException()
+     */
+    @Nullable
+    public AuthorizationException getAuthorizationException() {
+        return mState.getAuthorizationException();
+    }
+
+    /**
+     * Creates a new, mutable {@link AuthState} with the contents of this snapshot.
+     */
+    @NonNull
+    public AuthState toAuthState() {
+        return mState.copy();
+    }
+
+    /**
+     * Produces a JSON representation of the snapshot, which can be read with
+     * {@link AuthState#jsonDeserialize(JSONObject)}.
+     */
+    @NonNull
+    public JSONObject jsonSerialize() {
+        return mState.jsonSerialize();
+    }
+
+    /**
+     * Produces a JSON string representation of the snapshot, which can be read with
+     * {@link AuthState#jsonDeserialize(String)}.
+     */
+    @NonNull
+    public String jsonSerializeString() {
+        return mState.jsonSerializeString();
+    }
+}
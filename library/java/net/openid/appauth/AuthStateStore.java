@@ -0,0 +1,628 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.Preconditions.checkArgument;
+import static net.openid.appauth.Preconditions.checkNotEmpty;
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import android.content.Context;
+import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import net.openid.appauth.internal.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Persists an {@link AuthState} to a file, keeping the current state in memory.
+ *
+ * Changes to the current state are observed via
+ * {@link AuthState#addChangeListener(AuthState.ChangeListener, Executor) change listeners}, and
+ * written after a short delay on a background thread, which is shared by all stores in the
+ * process. All changes made within that delay are
+ * coalesced into a single write of the most recent state, so that a burst of token refreshes
+ * costs a single disk write. {@link #flush()} can be used to force pending changes to disk, e.g.
+ * before the process is expected to be killed.
+ *
+ * The file is replaced atomically on each write, and carries a checksum of its contents.
+ * A file which fails the checksum when read is discarded, and an empty state is used instead.
+ * Optionally, changes can instead be {@link Builder#setJournaled(boolean) journaled}.
+ *
+ * Stores other than the simplest are configured with a {@link Builder}.
+ */
+public class AuthStateStore {
+
+    /**
+     * The default delay between a change to the state and it being written to disk.
+     */
+    public static final long DEFAULT_WRITE_DELAY_MS = 500L;
+
+    static final String STORE_DIRECTORY = "appauth";
+    static final String STORE_FILE_SUFFIX = ".authstate";
+    static final String HOT_TOKEN_FILE_SUFFIX = ".hot";
+
+    private static ScheduledExecutorService sSharedWriter;
+
+    @NonNull
+    private final File mFile;
+
+    @NonNull
+    private final AuthStateFile mStateFile;
+
+    @Nullable
+    private final File mHotTokenFile;
+
+    @NonNull
+    private final Clock mClock;
+
+    @NonNull
+    private final ScheduledExecutorService mWriter;
+
+    private final long mWriteDelayMs;
+
+    private final Object mLock = new Object();
+
+    @Nullable
+    private AuthState mCurrent;
+
+    @Nullable
+    private AuthStateSnapshot mPendingSnapshot;
+
+    /**
+     * A write or deletion of the same file by a previous store, which must complete before the
+     * state is first read.
+     */
+    @Nullable
+    private Future<?> mPredecessorIo;
+
+    private boolean mWriteScheduled;
+
+    private int mWriteCount;
+
+    private final AuthState.ChangeListener mChangeListener = new AuthState.ChangeListener() {
+        @Override
+        public void onAuthStateChanged(@NonNull AuthStateSnapshot snapshot) {
+            scheduleWrite(snapshot);
+        }
+    };
+
+    private final Runnable mWriteTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                writePending();
+            } catch (IOException ex) {
+                Logger.errorWithStack(ex, "Failed to write auth state to %s", mFile);
+            }
+        }
+    };
+
+    private final Callable<Void> mFlushTask = new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+            writePending();
+            return null;
+        }
+    };
+
+    /**
+     * Creates a store for the state with the specified name, in the application's private
+     * files directory.
+     */
+    @NonNull
+    public static AuthStateStore forName(@NonNull Context context, @NonNull String name) {
+        return forName(context, name, false);
+    }
+
+    /**
+     * Creates a store for the state with the specified name, in the application's private
+     * files directory, optionally {@link Builder#setJournaled(boolean) journaled}.
+     */
+    @NonNull
+    public static AuthStateStore forName(
+            @NonNull Context context,
+            @NonNull String name,
+            boolean journaled) {
+        checkNotNull(context, "context cannot be null");
+        checkNotEmpty(name, "name cannot be null or empty");
+        File directory = new File(context.getFilesDir(), STORE_DIRECTORY);
+        return new Builder(new File(directory, name + STORE_FILE_SUFFIX))
+                .setJournaled(journaled)
+                .build();
+    }
+
+    /**
+     * Creates a store persisting to the specified file, using the
+     * {@link #DEFAULT_WRITE_DELAY_MS default write delay}.
+     */
+    public AuthStateStore(@NonNull File file) {
+        this(file, DEFAULT_WRITE_DELAY_MS);
+    }
+
+    @VisibleForTesting
+    AuthStateStore(@NonNull File file, long writeDelayMs) {
+        this(file, writeDelayMs, false);
+    }
+
+    @VisibleForTesting
+    AuthStateStore(@NonNull File file, long writeDelayMs, boolean journaled) {
+        this(file,
+                getSharedWriter(),
+                writeDelayMs,
+                journaled ? AuthStateFile.DEFAULT_MAX_JOURNAL_RECORDS : 0);
+    }
+
+    AuthStateStore(
+            @NonNull File file,
+            @NonNull ScheduledExecutorService writer,
+            long writeDelayMs) {
+        this(file, writer, writeDelayMs, 0);
+    }
+
+    @VisibleForTesting
+    AuthStateStore(
+            @NonNull File file,
+            @NonNull ScheduledExecutorService writer,
+            long writeDelayMs,
+            int maxJournalRecords) {
+        this(file, writer, writeDelayMs, maxJournalRecords, false);
+    }
+
+    @VisibleForTesting
+    AuthStateStore(
+            @NonNull File file,
+            @NonNull ScheduledExecutorService writer,
+            long writeDelayMs,
+            int maxJournalRecords,
+            boolean hotTokenRecordEnabled) {
+        this(file, writer, writeDelayMs, maxJournalRecords, hotTokenRecordEnabled,
+                SystemClock.INSTANCE);
+    }
+
+    @VisibleForTesting
+    AuthStateStore(
+            @NonNull File file,
+            @NonNull ScheduledExecutorService writer,
+            long writeDelayMs,
+            int maxJournalRecords,
+            boolean hotTokenRecordEnabled,
+            @NonNull Clock clock) {
+        checkArgument(writeDelayMs >= 0, "writeDelayMs must not be negative");
+        mFile = checkNotNull(file, "file cannot be null");
+        mWriter = checkNotNull(writer, "writer cannot be null");
+        mWriteDelayMs = writeDelayMs;
+        mStateFile = new AuthStateFile(file, maxJournalRecords);
+        mHotTokenFile = hotTokenRecordEnabled
+                ? new File(file.getPath() + HOT_TOKEN_FILE_SUFFIX)
+                : null;
+        mClock = checkNotNull(clock, "clock cannot be null");
+    }
+
+    /**
+     * Returns the current state. On first use, the state is read from disk on the calling
+     * thread; if no state has been persisted, or the persisted state cannot be read, an empty
+     * state is returned. Changes made to the returned state are persisted automatically.
+     */
+    @AnyThread
+    @NonNull
+    public AuthState getCurrent() {
+        synchronized (mLock) {
+            if (mCurrent == null) {
+                awaitPredecessorIo();
+                mCurrent = readState();
+                mCurrent.addChangeListener(mChangeListener, DirectExecutor.INSTANCE);
+                if (mHotTokenFile != null) {
+                    scheduleHotTokenRecordCheck(mCurrent.snapshot(), mStateFile.getSequence());
+                }
+            }
+            return mCurrent;
+        }
+    }
+
+    /**
+     * Replaces the current state, scheduling it to be written to disk. Changes to the previous
+     * state are no longer persisted.
+     */
+    @AnyThread
+    @NonNull
+    public AuthState replace(@NonNull AuthState state) {
+        checkNotNull(state, "state cannot be null");
+        synchronized (mLock) {
+            if (mCurrent != null) {
+                mCurrent.removeChangeListener(mChangeListener);
+            }
+            mCurrent = state;
+            mCurrent.addChangeListener(mChangeListener, DirectExecutor.INSTANCE);
+        }
+
+        scheduleWrite(state.snapshot());
+        return state;
+    }
+
+    /**
+     * Writes any pending change to disk, blocking until the write completes.
+     *
+     * @throws IllegalStateException if the write could not be completed. The change remains
+     *     pending, and will be written with the next change or flush.
+     */
+    @WorkerThread
+    public void flush() {
+        try {
+            flushAsync().get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while flushing auth state", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Failed to flush auth state", ex.getCause());
+        }
+    }
+
+    /**
+     * Reads the access token of the persisted state from its hot token record, without reading
+     * the full state. This is intended to allow an application to start using the access token
+     * as soon as possible after process start, while the full state is loaded in the background.
+     *
+     * The record is written after the full state; if the process is killed between the two
+     * writes, the record may be stale, holding a previous access token of the state. When the
+     * full state is next {@link #getCurrent() loaded}, the record is checked against it and
+     * rewritten if necessary.
+     *
+     * @return the record, or `null` if hot token records are not enabled for this store, or
+     *     the persisted state has no access token.
+     * @see Builder#setHotTokenRecordEnabled(boolean)
+     */
+    @WorkerThread
+    @Nullable
+    public HotTokenRecord readHotTokenRecord() {
+        if (mHotTokenFile == null) {
+            return null;
+        }
+        return HotTokenRecord.read(mHotTokenFile, mClock);
+    }
+
+    /**
+     * Defers the first read of the state until the specified write or deletion of the same file,
+     * scheduled by a previous store, has completed.
+     */
+    void setPredecessorIo(@Nullable Future<?> predecessorIo) {
+        synchronized (mLock) {
+            mPredecessorIo = predecessorIo;
+        }
+    }
+
+    /**
+     * Reads the persisted state, without retaining it or observing its changes.
+     */
+    @WorkerThread
+    @NonNull
+    AuthState readStoredState() {
+        return readState();
+    }
+
+    /**
+     * Schedules a write of any pending change, returning a future which completes once the
+     * write does.
+     */
+    @NonNull
+    Future<Void> flushAsync() {
+        return mWriter.submit(mFlushTask);
+    }
+
+    /**
+     * Stops persisting the current state, and schedules a write of any pending change. Changes
+     * made to the state afterwards are not written, so that they cannot overwrite the state
+     * written by a subsequent store for the same file. The returned future completes once the
+     * write does.
+     */
+    @NonNull
+    Future<Void> release() {
+        synchronized (mLock) {
+            if (mCurrent != null) {
+                mCurrent.removeChangeListener(mChangeListener);
+                mCurrent = null;
+            }
+        }
+
+        return flushAsync();
+    }
+
+    /**
+     * Stops persisting the current state, discarding any pending change, and schedules the
+     * deletion of the store file. The returned future completes once the file is deleted.
+     */
+    @NonNull
+    Future<?> delete() {
+        synchronized (mLock) {
+            if (mCurrent != null) {
+                mCurrent.removeChangeListener(mChangeListener);
+                mCurrent = null;
+            }
+            mPendingSnapshot = null;
+        }
+
+        return mWriter.submit(new Runnable() {
+            @Override
+            public void run() {
+                // the hot token record must not outlive the state
+                if (mHotTokenFile != null) {
+                    deleteHotTokenRecord();
+                }
+                mStateFile.delete();
+            }
+        });
+    }
+
+    @VisibleForTesting
+    int getWriteCount() {
+        synchronized (mLock) {
+            return mWriteCount;
+        }
+    }
+
+    private void scheduleWrite(@NonNull AuthStateSnapshot snapshot) {
+        synchronized (mLock) {
+            mPendingSnapshot = snapshot;
+            if (mWriteScheduled) {
+                return;
+            }
+            mWriteScheduled = true;
+        }
+
+        mWriter.schedule(mWriteTask, mWriteDelayMs, TimeUnit.MILLISECONDS);
+    }
+
+    @WorkerThread
+    private void writePending() throws IOException {
+        AuthStateSnapshot snapshot;
+        synchronized (mLock) {
+            snapshot = mPendingSnapshot;
+            mPendingSnapshot = null;
+            mWriteScheduled = false;
+        }
+
+        if (snapshot == null) {
+            return;
+        }
+
+        try {
+            mStateFile.write(snapshot.jsonSerialize());
+        } catch (IOException ex) {
+            synchronized (mLock) {
+                // retain the snapshot for the next attempt, unless superseded by a newer one
+                if (mPendingSnapshot == null) {
+                    mPendingSnapshot = snapshot;
+                }
+            }
+            throw ex;
+        }
+
+        synchronized (mLock) {
+            mWriteCount++;
+        }
+
+        if (mHotTokenFile != null) {
+            writeHotTokenRecord(snapshot, mStateFile.getSequence());
+        }
+    }
+
+    private void scheduleHotTokenRecordCheck(
+            @NonNull final AuthStateSnapshot snapshot,
+            final long stateVersion) {
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                HotTokenRecord record = HotTokenRecord.read(mHotTokenFile, mClock);
+                boolean current = record != null
+                        ? record.stateVersion == stateVersion
+                        : snapshot.getAccessToken() == null;
+                if (!current) {
+                    Logger.debug("Hot token record is stale - rewriting");
+                    writeHotTokenRecord(snapshot, stateVersion);
+                }
+            }
+        });
+    }
+
+    @WorkerThread
+    private void writeHotTokenRecord(@NonNull AuthStateSnapshot snapshot, long stateVersion) {
+        HotTokenRecord record = HotTokenRecord.fromSnapshot(snapshot, stateVersion);
+        if (record == null) {
+            deleteHotTokenRecord();
+            return;
+        }
+
+        try {
+            record.write(mHotTokenFile);
+        } catch (IOException | IllegalStateException ex) {
+            Logger.warnWithStack(ex, "Unable to write hot token record %s", mHotTokenFile);
+            deleteHotTokenRecord();
+        }
+    }
+
+    @WorkerThread
+    private void deleteHotTokenRecord() {
+        if (mHotTokenFile.exists() && !mHotTokenFile.delete()) {
+            Logger.warn("Unable to delete hot token record %s", mHotTokenFile);
+        }
+    }
+
+    private void awaitPredecessorIo() {
+        // called with mLock held
+        if (mPredecessorIo == null) {
+            return;
+        }
+
+        try {
+            mPredecessorIo.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for auth state I/O", ex);
+        } catch (ExecutionException ex) {
+            Logger.warnWithStack(ex.getCause(), "Auth state I/O failed");
+        }
+        mPredecessorIo = null;
+    }
+
+    @NonNull
+    private AuthState readState() {
+        try {
+            JSONObject json = mStateFile.read();
+            return json != null ? AuthState.jsonDeserialize(json) : new AuthState();
+        } catch (IOException | JSONException ex) {
+            Logger.warnWithStack(ex, "Failed to read stored auth state - discarding");
+            return new AuthState();
+        }
+    }
+
+    /**
+     * Returns the background thread on which all stores in the process write to disk, creating
+     * it on first use. A single daemon thread is sufficient, as writes are coalesced, and it is
+     * never shut down, so stores need not be closed.
+     */
+    @NonNull
+    static synchronized ScheduledExecutorService getSharedWriter() {
+        if (sSharedWriter == null) {
+            sSharedWriter = createWriter();
+        }
+        return sSharedWriter;
+    }
+
+    /**
+     * Creates a background thread on which stores write to disk, separate from the shared one.
+     */
+    @VisibleForTesting
+    @NonNull
+    static ScheduledExecutorService createWriter() {
+        return Executors.newSingleThreadScheduledExecutor(WriterThreadFactory.INSTANCE);
+    }
+
+    /**
+     * Creates instances of {@link AuthStateStore}.
+     */
+    public static final class Builder {
+
+        @NonNull
+        private final File mFile;
+
+        private long mWriteDelayMs = DEFAULT_WRITE_DELAY_MS;
+        private boolean mJournaled;
+        private boolean mHotTokenRecordEnabled;
+        private Clock mClock = SystemClock.INSTANCE;
+
+        /**
+         * Creates a builder for a store persisting to the specified file.
+         */
+        public Builder(@NonNull File file) {
+            mFile = checkNotNull(file, "file cannot be null");
+        }
+
+        /**
+         * Specifies the delay between a change to the state and it being written to disk.
+         * Defaults to {@link #DEFAULT_WRITE_DELAY_MS}.
+         */
+        @NonNull
+        public Builder setWriteDelay(long writeDelayMs) {
+            checkArgument(writeDelayMs >= 0, "writeDelayMs must not be negative");
+            mWriteDelayMs = writeDelayMs;
+            return this;
+        }
+
+        /**
+         * Specifies whether changes are journaled. If journaled, a change which affects only
+         * part of the state, such as a token refresh, is appended to a journal file alongside
+         * the state file as a record of the changed properties, rather than rewriting the entire
+         * state. The journal is compacted into the state file periodically, and replayed when
+         * the state is read. This reduces the amount of data written by applications which
+         * refresh tokens frequently.
+         */
+        @NonNull
+        public Builder setJournaled(boolean journaled) {
+            mJournaled = journaled;
+            return this;
+        }
+
+        /**
+         * Specifies whether the current access token is also written to a hot token record,
+         * which can be read without reading the full state.
+         * @see AuthStateStore#readHotTokenRecord()
+         */
+        @NonNull
+        public Builder setHotTokenRecordEnabled(boolean hotTokenRecordEnabled) {
+            mHotTokenRecordEnabled = hotTokenRecordEnabled;
+            return this;
+        }
+
+        /**
+         * Specifies the clock against which the validity of
+         * {@link AuthStateStore#readHotTokenRecord() hot token records} is measured, which should
+         * be the clock used by the stored state. Defaults to device wall time.
+         * @see HotTokenRecord#isValidFor(long)
+         */
+        @NonNull
+        public Builder setClock(@NonNull Clock clock) {
+            mClock = checkNotNull(clock, "clock cannot be null");
+            return this;
+        }
+
+        /**
+         * Creates the store.
+         */
+        @NonNull
+        public AuthStateStore build() {
+            return new AuthStateStore(
+                    mFile,
+                    getSharedWriter(),
+                    mWriteDelayMs,
+                    mJournaled ? AuthStateFile.DEFAULT_MAX_JOURNAL_RECORDS : 0,
+                    mHotTokenRecordEnabled,
+                    mClock);
+        }
+    }
+
+    static final class DirectExecutor implements Executor {
+        static final DirectExecutor INSTANCE = new DirectExecutor();
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            command.run();
+        }
+    }
+
+    private static final class WriterThreadFactory implements ThreadFactory {
+        static final WriterThreadFactory INSTANCE = new WriterThreadFactory();
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(runnable, "AppAuth-AuthStateStore");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -566,6 +566,9 @@ public final class AuthorizationException extends Exception {
      * Extracts an {@link AuthorizationException} from an intent produced by {@link #toIntent()}.
      * This is used to retrieve an error response in the handler registered for a call to
      * {@link AuthorizationService#performAuthorizationRequest}.
+     *
+     * Within the process which produced the intent, the original exception (including any root
+     * cause) is returned; otherwise, the exception is read from its JSON form.
      */
     @Nullable
     public static AuthorizationException fromIntent(Intent data) {
@@ -575,6 +578,14 @@ public final class AuthorizationException extends Exception {
             return null;
         }
 
+        AuthorizationException exception = IntentResultRegistry.INSTANCE.get(
+                data,
+                EXTRA_EXCEPTION,
+                AuthorizationException.class);
+        if (exception != null) {
+            return exception;
+        }
+
         try {
             return fromJson(data.getStringExtra(EXTRA_EXCEPTION));
         } catch (JSONException ex) {
@@ -681,6 +692,7 @@ public final class AuthorizationException extends Exception {
     public Intent toIntent() {
         Intent data = new Intent();
         data.putExtra(EXTRA_EXCEPTION, toJsonString());
+        IntentResultRegistry.INSTANCE.putHandle(data, EXTRA_EXCEPTION, this);
         return data;
     }
 
@@ -22,8 +22,10 @@ import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
 import androidx.annotation.VisibleForTesting;
+import androidx.browser.customtabs.CustomTabsIntent;
 
 import net.openid.appauth.AuthorizationException.AuthorizationRequestErrors;
+import net.openid.appauth.browser.BrowserTelemetry;
 import net.openid.appauth.internal.Logger;
 import org.json.JSONException;
 
@@ -130,6 +132,9 @@ public class AuthorizationManagementActivity extends Activity {
     @VisibleForTesting
     static final String KEY_AUTH_REQUEST = "authRequest";
 
+    @VisibleForTesting
+    static final String KEY_AUTH_REQUEST_HANDLE = "authRequestHandle";
+
     @VisibleForTesting
     static final String KEY_COMPLETE_INTENT = "completeIntent";
 
@@ -139,14 +144,26 @@ public class AuthorizationManagementActivity extends Activity {
     @VisibleForTesting
     static final String KEY_AUTHORIZATION_STARTED = "authStarted";
 
+    @VisibleForTesting
+    static final String KEY_RECORD_BROWSER_OUTCOME = "recordBrowserOutcome";
+
+    @VisibleForTesting
+    static final String KEY_LAUNCH_TIME = "launchTime";
+
+    private static final long NOT_LAUNCHED = -1L;
+
     private boolean mAuthorizationStarted = false;
+    private boolean mRecordBrowserOutcome = false;
+    private long mLaunchTime = NOT_LAUNCHED;
     private Intent mAuthIntent;
     private AuthorizationManagementRequest mAuthRequest;
+    private String mAuthRequestHandle;
     private PendingIntent mCompleteIntent;
     private PendingIntent mCancelIntent;
 
     /**
-     * Creates an intent to start an authorization flow.
+     * Creates an intent to start an authorization flow. The request is retained in memory, and
+     * the intent carries only a handle to it, so the intent must be used by the same process.
      * @param context the package context for the app.
      * @param request the authorization request which is to be sent.
      * @param authIntent the intent to be used to get authorization from the user.
@@ -159,9 +176,33 @@ public class AuthorizationManagementActivity extends Activity {
             Intent authIntent,
             PendingIntent completeIntent,
             PendingIntent cancelIntent) {
+        return createStartIntent(
+                context,
+                request,
+                authIntent,
+                completeIntent,
+                cancelIntent,
+                SystemClock.INSTANCE);
+    }
+
+    /**
+     * Creates an intent to start an authorization flow, as
+     * {@link #createStartIntent(Context, AuthorizationManagementRequest, Intent, PendingIntent,
+     * PendingIntent)} does, computing the expiration times of the response against the
+     * specified clock.
+     */
+    static Intent createStartIntent(
+            Context context,
+            AuthorizationManagementRequest request,
+            Intent authIntent,
+            PendingIntent completeIntent,
+            PendingIntent cancelIntent,
+            Clock clock) {
         Intent intent = createBaseIntent(context);
         intent.putExtra(KEY_AUTH_INTENT, authIntent);
-        intent.putExtra(KEY_AUTH_REQUEST, request.jsonSerializeString());
+        intent.putExtra(
+                KEY_AUTH_REQUEST_HANDLE,
+                AuthorizationRequestRegistry.INSTANCE.register(request, null, clock));
         intent.putExtra(KEY_COMPLETE_INTENT, completeIntent);
         intent.putExtra(KEY_CANCEL_INTENT, cancelIntent);
         return intent;
@@ -177,7 +218,20 @@ public class AuthorizationManagementActivity extends Activity {
             Context context,
             AuthorizationManagementRequest request,
             Intent authIntent) {
-        return createStartIntent(context, request, authIntent, null, null);
+        return createStartForResultIntent(context, request, authIntent, SystemClock.INSTANCE);
+    }
+
+    /**
+     * Creates an intent to start an authorization flow, as
+     * {@link #createStartForResultIntent(Context, AuthorizationManagementRequest, Intent)} does,
+     * computing the expiration times of the response against the specified clock.
+     */
+    static Intent createStartForResultIntent(
+            Context context,
+            AuthorizationManagementRequest request,
+            Intent authIntent,
+            Clock clock) {
+        return createStartIntent(context, request, authIntent, null, null, clock);
     }
 
     /**
@@ -220,6 +274,7 @@ public class AuthorizationManagementActivity extends Activity {
         if (!mAuthorizationStarted) {
             startActivity(mAuthIntent);
             mAuthorizationStarted = true;
+            mLaunchTime = android.os.SystemClock.elapsedRealtime();
             return;
         }
 
@@ -247,12 +302,37 @@ public class AuthorizationManagementActivity extends Activity {
         setIntent(intent);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (isFinishing()) {
+            AuthorizationRequestRegistry.INSTANCE.release(mAuthRequestHandle);
+        }
+    }
+
+    /**
+     * Saves the state of the flow. Unlike the start intent, which carries only a handle, the saved
+     * state contains a serialization of the request, as it is the only copy which survives the
+     * death of the process. This is the compact serialization, in which the discovery document
+     * is reduced to the mandatory fields and endpoints; a request restored after the death of
+     * the process therefore lacks the remaining fields of the discovery document. The
+     * serialization is computed at most once per request, and reused by subsequent saves.
+     */
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
         outState.putBoolean(KEY_AUTHORIZATION_STARTED, mAuthorizationStarted);
+        outState.putBoolean(KEY_RECORD_BROWSER_OUTCOME, mRecordBrowserOutcome);
+        outState.putLong(KEY_LAUNCH_TIME, mLaunchTime);
         outState.putParcelable(KEY_AUTH_INTENT, mAuthIntent);
-        outState.putString(KEY_AUTH_REQUEST, mAuthRequest.jsonSerializeString());
+        outState.putString(KEY_AUTH_REQUEST_HANDLE, mAuthRequestHandle);
+        // only parsed if the process is killed, and the handle can no longer be resolved
+        String authRequestJson =
+                AuthorizationRequestRegistry.INSTANCE.getSerializedRequest(mAuthRequestHandle);
+        if (authRequestJson == null && mAuthRequest != null) {
+            authRequestJson = mAuthRequest.jsonSerializeCompact().toString();
+        }
+        outState.putString(KEY_AUTH_REQUEST, authRequestJson);
         outState.putParcelable(KEY_COMPLETE_INTENT, mCompleteIntent);
         outState.putParcelable(KEY_CANCEL_INTENT, mCancelIntent);
     }
@@ -262,15 +342,18 @@ public class AuthorizationManagementActivity extends Activity {
         Intent responseData = extractResponseData(responseUri);
         if (responseData == null) {
             Logger.error("Failed to extract OAuth2 response from redirect");
+            recordBrowserOutcome(BrowserOutcome.REDIRECT_FAILURE);
             return;
         }
         responseData.setData(responseUri);
+        recordBrowserOutcome(BrowserOutcome.REDIRECT);
 
         sendResult(mCompleteIntent, responseData, RESULT_OK);
     }
 
     private void handleAuthorizationCanceled() {
         Logger.debug("Authorization flow canceled by user");
+        recordBrowserOutcome(BrowserOutcome.CANCEL);
         Intent cancelData = AuthorizationException.fromTemplate(
                 AuthorizationException.GeneralErrors.USER_CANCELED_AUTH_FLOW,
                 null)
@@ -288,21 +371,43 @@ public class AuthorizationManagementActivity extends Activity {
 
         mAuthIntent = state.getParcelable(KEY_AUTH_INTENT);
         mAuthorizationStarted = state.getBoolean(KEY_AUTHORIZATION_STARTED, false);
+        mRecordBrowserOutcome = state.getBoolean(KEY_RECORD_BROWSER_OUTCOME, false);
+        mLaunchTime = state.getLong(KEY_LAUNCH_TIME, NOT_LAUNCHED);
         mCompleteIntent = state.getParcelable(KEY_COMPLETE_INTENT);
         mCancelIntent = state.getParcelable(KEY_CANCEL_INTENT);
+
+        mAuthRequestHandle = state.getString(KEY_AUTH_REQUEST_HANDLE, null);
+        mAuthRequest = AuthorizationRequestRegistry.INSTANCE.get(mAuthRequestHandle);
+        if (mAuthRequest != null) {
+            return;
+        }
+
         try {
             String authRequestJson = state.getString(KEY_AUTH_REQUEST, null);
-            mAuthRequest = authRequestJson != null
-                    ? AuthorizationManagementUtil.requestFrom(authRequestJson)
-                    : null;
+            if (authRequestJson != null) {
+                mAuthRequest = AuthorizationManagementUtil.requestFrom(authRequestJson);
+                mAuthRequestHandle = AuthorizationRequestRegistry.INSTANCE.register(
+                        mAuthRequest,
+                        authRequestJson);
+            } else if (mAuthRequestHandle != null) {
+                Logger.warn("Authorization request %s is no longer available",
+                        mAuthRequestHandle);
+                mAuthRequestHandle = null;
+                sendInvalidRequestResult();
+            }
         } catch (JSONException ex) {
-            sendResult(
-                    mCancelIntent,
-                    AuthorizationRequestErrors.INVALID_REQUEST.toIntent(),
-                    RESULT_CANCELED);
+            sendInvalidRequestResult();
         }
     }
 
+    private void sendInvalidRequestResult() {
+        sendResult(
+                mCancelIntent,
+                AuthorizationRequestErrors.INVALID_REQUEST.toIntent(),
+                RESULT_CANCELED);
+        finish();
+    }
+
     private void sendResult(PendingIntent callback, Intent cancelData, int resultCode) {
         if (callback != null) {
             try {
@@ -320,7 +425,10 @@ public class AuthorizationManagementActivity extends Activity {
             return AuthorizationException.fromOAuthRedirect(responseUri).toIntent();
         } else {
             AuthorizationManagementResponse response =
-                    AuthorizationManagementUtil.responseWith(mAuthRequest, responseUri);
+                    AuthorizationManagementUtil.responseWith(
+                            mAuthRequest,
+                            responseUri,
+                            AuthorizationRequestRegistry.INSTANCE.getClock(mAuthRequestHandle));
 
             if (mAuthRequest.getState() == null && response.getState() != null
                     || (mAuthRequest.getState() != null && !mAuthRequest.getState()
@@ -331,10 +439,50 @@ public class AuthorizationManagementActivity extends Activity {
                         response.getState(),
                         mAuthRequest.getState());
 
+                recordBrowserOutcome(BrowserOutcome.REDIRECT_FAILURE);
                 return AuthorizationRequestErrors.STATE_MISMATCH.toIntent();
             }
 
             return response.toIntent();
         }
     }
+
+    /**
+     * Records the outcome of the flow against the browser it was performed in, if requested.
+     * Only the first outcome of a flow is recorded.
+     */
+    private void recordBrowserOutcome(BrowserOutcome outcome) {
+        if (!mRecordBrowserOutcome || mAuthIntent == null || mAuthIntent.getPackage() == null) {
+            return;
+        }
+        mRecordBrowserOutcome = false;
+
+        String browserPackage = mAuthIntent.getPackage();
+        boolean useCustomTab = mAuthIntent.hasExtra(CustomTabsIntent.EXTRA_SESSION);
+        BrowserTelemetry telemetry = BrowserTelemetry.getInstance(this);
+        switch (outcome) {
+            case REDIRECT:
+                if (mLaunchTime != NOT_LAUNCHED) {
+                    telemetry.recordRedirect(
+                            browserPackage,
+                            useCustomTab,
+                            Math.max(0L, android.os.SystemClock.elapsedRealtime() - mLaunchTime));
+                }
+                break;
+            case CANCEL:
+                telemetry.recordCancel(browserPackage, useCustomTab);
+                break;
+            case REDIRECT_FAILURE:
+                telemetry.recordRedirectFailure(browserPackage, useCustomTab);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private enum BrowserOutcome {
+        REDIRECT,
+        CANCEL,
+        REDIRECT_FAILURE
+    }
 }
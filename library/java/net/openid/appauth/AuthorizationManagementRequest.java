@@ -52,6 +52,13 @@ abstract class AuthorizationManagementRequest {
         return jsonSerialize().toString();
     }
 
+    /**
+     * Produces a JSON representation of the request as {@link #jsonSerialize()} does, but with
+     * the discovery document of the configuration in its
+     * {@link AuthorizationServiceConfiguration#toCompactJson() compact form}.
+     */
+    abstract JSONObject jsonSerializeCompact();
+
     /**
      * An opaque value used by the client to maintain state between the request and callback.
      */
@@ -50,14 +50,15 @@ class AuthorizationManagementUtil {
 
     /**
      * Builds an AuthorizationManagementResponse from
-     * {@link AuthorizationManagementRequest} and {@link Uri}
+     * {@link AuthorizationManagementRequest} and {@link Uri}, computing expiration times
+     * against the specified clock.
      */
     @SuppressLint("VisibleForTests")
     static AuthorizationManagementResponse responseWith(
-            AuthorizationManagementRequest request, Uri uri) {
+            AuthorizationManagementRequest request, Uri uri, Clock clock) {
         if (request instanceof AuthorizationRequest) {
             return new AuthorizationResponse.Builder((AuthorizationRequest) request)
-                .fromUri(uri)
+                .fromUri(uri, clock)
                 .build();
         }
         if (request instanceof EndSessionRequest) {
@@ -1019,8 +1019,19 @@ public class AuthorizationRequest extends AuthorizationManagementRequest {
     @Override
     @NonNull
     public JSONObject jsonSerialize() {
+        return jsonSerialize(configuration.toJson());
+    }
+
+    @Override
+    @NonNull
+    JSONObject jsonSerializeCompact() {
+        return jsonSerialize(configuration.toCompactJson());
+    }
+
+    @NonNull
+    private JSONObject jsonSerialize(@NonNull JSONObject configurationJson) {
         JSONObject json = new JSONObject();
-        JsonUtil.put(json, KEY_CONFIGURATION, configuration.toJson());
+        JsonUtil.put(json, KEY_CONFIGURATION, configurationJson);
         JsonUtil.put(json, KEY_CLIENT_ID, clientId);
         JsonUtil.put(json, KEY_RESPONSE_TYPE, responseType);
         JsonUtil.put(json, KEY_REDIRECT_URI, redirectUri.toString());
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.Preconditions.checkArgument;
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Retains the requests of in-progress authorization flows in memory, under small opaque handles.
+ * This allows {@link AuthorizationManagementActivity} to be started with an intent which
+ * carries only the handle, rather than the JSON serialization of the request, which includes
+ * the full service configuration and discovery document. This reduces the size of the intent,
+ * and avoids parsing the request again each time the activity is created.
+ *
+ * The registry does not survive the death of the process, so the activity additionally saves
+ * the serialized request in its instance state; this is only parsed if the handle can no longer
+ * be resolved. The saved form is {@link AuthorizationManagementRequest#jsonSerializeCompact()
+ * compact}: it retains the request parameters and the endpoints of the configuration, but not
+ * the full discovery document. Handles include a random prefix chosen per process, so that a
+ * handle saved by a previous process never resolves to a request of the current one.
+ *
+ * Requests are released when the flow finishes. Requests which are registered but never
+ * started (for instance, if an intent from
+ * {@link AuthorizationService#getAuthorizationRequestIntent} is discarded) are evicted as the
+ * least recently used entry once the registry is full.
+ */
+final class AuthorizationRequestRegistry {
+
+    @VisibleForTesting
+    static final int DEFAULT_MAX_ENTRIES = 32;
+
+    /**
+     * The registry shared by all authorization services in the process.
+     */
+    static final AuthorizationRequestRegistry INSTANCE =
+            new AuthorizationRequestRegistry(DEFAULT_MAX_ENTRIES);
+
+    private final Map<String, Entry> mEntries;
+
+    @NonNull
+    private final String mHandlePrefix;
+
+    private long mNextId;
+
+    @VisibleForTesting
+    AuthorizationRequestRegistry(final int maxEntries) {
+        checkArgument(maxEntries > 0, "maxEntries must be positive");
+        mEntries = new LinkedHashMap<String, Entry>(maxEntries, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        mHandlePrefix = Long.toHexString(new SecureRandom().nextLong()) + "-";
+    }
+
+    /**
+     * Registers the specified request, returning the handle under which it can be retrieved.
+     */
+    @NonNull
+    String register(@NonNull AuthorizationManagementRequest request) {
+        return register(request, null);
+    }
+
+    /**
+     * Registers the specified request, along with its known serialized form, returning the
+     * handle under which it can be retrieved.
+     */
+    @NonNull
+    String register(
+            @NonNull AuthorizationManagementRequest request,
+            @Nullable String serializedRequest) {
+        return register(request, serializedRequest, SystemClock.INSTANCE);
+    }
+
+    /**
+     * Registers the specified request, along with its known serialized form and the clock
+     * against which the expiration times of its response are to be computed, returning the
+     * handle under which it can be retrieved.
+     */
+    @NonNull
+    String register(
+            @NonNull AuthorizationManagementRequest request,
+            @Nullable String serializedRequest,
+            @NonNull Clock clock) {
+        checkNotNull(request, "request cannot be null");
+        checkNotNull(clock, "clock cannot be null");
+        synchronized (mEntries) {
+            String handle = mHandlePrefix + Long.toHexString(mNextId++);
+            mEntries.put(handle, new Entry(request, serializedRequest, clock));
+            return handle;
+        }
+    }
+
+    /**
+     * Retrieves the request registered under the specified handle, or `null` if the handle is
+     * unknown to this process, or the request has been released or evicted.
+     */
+    @Nullable
+    AuthorizationManagementRequest get(@Nullable String handle) {
+        if (handle == null) {
+            return null;
+        }
+
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(handle);
+            return entry != null ? entry.mRequest : null;
+        }
+    }
+
+    /**
+     * Retrieves the clock with which the request under the specified handle was registered, or
+     * the system clock if it is not registered. The clock does not survive the death of the
+     * process, so a request restored from saved state uses the system clock.
+     */
+    @NonNull
+    Clock getClock(@Nullable String handle) {
+        if (handle == null) {
+            return SystemClock.INSTANCE;
+        }
+
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(handle);
+            return entry != null ? entry.mClock : SystemClock.INSTANCE;
+        }
+    }
+
+    /**
+     * Retrieves the compact JSON serialization of the request registered under the specified
+     * handle, or `null` if it is not registered. The request is serialized at most once.
+     */
+    @Nullable
+    String getSerializedRequest(@Nullable String handle) {
+        if (handle == null) {
+            return null;
+        }
+
+        Entry entry;
+        synchronized (mEntries) {
+            entry = mEntries.get(handle);
+        }
+        return entry != null ? entry.getSerializedRequest() : null;
+    }
+
+    /**
+     * Releases the request registered under the specified handle, if any.
+     */
+    void release(@Nullable String handle) {
+        if (handle == null) {
+            return;
+        }
+
+        synchronized (mEntries) {
+            mEntries.remove(handle);
+        }
+    }
+
+    /**
+     * Releases all registered requests.
+     */
+    void clear() {
+        synchronized (mEntries) {
+            mEntries.clear();
+        }
+    }
+
+    @VisibleForTesting
+    int size() {
+        synchronized (mEntries) {
+            return mEntries.size();
+        }
+    }
+
+    private static final class Entry {
+
+        @NonNull
+        private final AuthorizationManagementRequest mRequest;
+
+        @NonNull
+        private final Clock mClock;
+
+        @Nullable
+        private String mSerializedRequest;
+
+        Entry(
+                @NonNull AuthorizationManagementRequest request,
+                @Nullable String serializedRequest,
+                @NonNull Clock clock) {
+            mRequest = request;
+            mSerializedRequest = serializedRequest;
+            mClock = clock;
+        }
+
+        @NonNull
+        synchronized String getSerializedRequest() {
+            if (mSerializedRequest == null) {
+                mSerializedRequest = mRequest.jsonSerializeCompact().toString();
+            }
+            return mSerializedRequest;
+        }
+    }
+}
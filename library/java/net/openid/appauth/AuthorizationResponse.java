@@ -213,16 +213,20 @@ public class AuthorizationResponse extends AuthorizationManagementResponse {
         }
 
         /**
-         * Extracts authorization response parameters from the query portion of a redirect URI.
+         * Extracts authorization response parameters from the query portion of a redirect URI,
+         * computing the expiration time of the access token against the system clock.
          */
         @NonNull
         public Builder fromUri(@NonNull Uri uri) {
             return fromUri(uri, SystemClock.INSTANCE);
         }
 
+        /**
+         * Extracts authorization response parameters from the query portion of a redirect URI,
+         * computing the expiration time of the access token against the provided clock.
+         */
         @NonNull
-        @VisibleForTesting
-        Builder fromUri(@NonNull Uri uri, @NonNull Clock clock) {
+        public Builder fromUri(@NonNull Uri uri, @NonNull Clock clock) {
             setState(uri.getQueryParameter(KEY_STATE));
             setTokenType(uri.getQueryParameter(KEY_TOKEN_TYPE));
             setAuthorizationCode(uri.getQueryParameter(KEY_AUTHORIZATION_CODE));
@@ -275,7 +279,8 @@ public class AuthorizationResponse extends AuthorizationManagementResponse {
         }
 
         /**
-         * Specifies the expiration period of the OAuth 2 access token.
+         * Specifies the expiration period of the OAuth 2 access token, relative to the system
+         * clock.
          */
         @NonNull
         public Builder setAccessTokenExpiresIn(@Nullable Long expiresIn) {
@@ -413,14 +418,18 @@ public class AuthorizationResponse extends AuthorizationManagementResponse {
     }
 
     /**
-     * Determines whether the returned access token has expired.
+     * Determines whether the returned access token has expired, according to the system clock.
+     * Use {@link #hasAccessTokenExpired(Clock)} with the clock of the
+     * {@link AppAuthConfiguration#getClock() configuration} if it is not the system clock.
      */
     public boolean hasAccessTokenExpired() {
         return hasAccessTokenExpired(SystemClock.INSTANCE);
     }
 
-    @VisibleForTesting
-    boolean hasAccessTokenExpired(@NonNull Clock clock) {
+    /**
+     * Determines whether the returned access token has expired, according to the provided clock.
+     */
+    public boolean hasAccessTokenExpired(@NonNull Clock clock) {
         return accessTokenExpirationTime != null
                 && checkNotNull(clock).getCurrentTimeMillis() > accessTokenExpirationTime;
     }
@@ -543,12 +552,17 @@ public class AuthorizationResponse extends AuthorizationManagementResponse {
      * Produces an intent containing this authorization response. This is used to deliver the
      * authorization response to the registered handler after a call to
      * {@link AuthorizationService#performAuthorizationRequest}.
+     *
+     * The intent always carries the full JSON form of the response, so that it can be read in
+     * any process. Producing the intent therefore still serializes the response; only
+     * {@link #fromIntent(Intent)} within this process avoids parsing that form.
      */
     @Override
     @NonNull
     public Intent toIntent() {
         Intent data = new Intent();
         data.putExtra(EXTRA_RESPONSE, this.jsonSerializeString());
+        IntentResultRegistry.INSTANCE.putHandle(data, EXTRA_RESPONSE, this);
         return data;
     }
 
@@ -556,6 +570,9 @@ public class AuthorizationResponse extends AuthorizationManagementResponse {
      * Extracts an authorization response from an intent produced by {@link #toIntent()}. This is
      * used to extract the response from the intent data passed to an activity registered as the
      * handler for {@link AuthorizationService#performAuthorizationRequest}.
+     *
+     * Within the process which produced the intent, the original response is returned without
+     * parsing; otherwise, the response is read from its JSON form.
      */
     @Nullable
     public static AuthorizationResponse fromIntent(@NonNull Intent dataIntent) {
@@ -564,6 +581,14 @@ public class AuthorizationResponse extends AuthorizationManagementResponse {
             return null;
         }
 
+        AuthorizationResponse response = IntentResultRegistry.INSTANCE.get(
+                dataIntent,
+                EXTRA_RESPONSE,
+                AuthorizationResponse.class);
+        if (response != null) {
+            return response;
+        }
+
         try {
             return AuthorizationResponse.jsonDeserialize(dataIntent.getStringExtra(EXTRA_RESPONSE));
         } catch (JSONException ex) {
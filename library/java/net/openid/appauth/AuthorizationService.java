@@ -29,15 +29,18 @@ import android.text.TextUtils;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
 import androidx.browser.customtabs.CustomTabsIntent;
+import androidx.browser.customtabs.CustomTabsSession;
 
 import net.openid.appauth.AuthorizationException.GeneralErrors;
 import net.openid.appauth.AuthorizationException.RegistrationRequestErrors;
 import net.openid.appauth.AuthorizationException.TokenRequestErrors;
-import net.openid.appauth.IdToken.IdTokenException;
 import net.openid.appauth.browser.BrowserDescriptor;
-import net.openid.appauth.browser.BrowserSelector;
+import net.openid.appauth.browser.CustomTabConnectionPool;
 import net.openid.appauth.browser.CustomTabManager;
+import net.openid.appauth.browser.TabLaunchListener;
+import net.openid.appauth.browser.WarmupPolicy;
 import net.openid.appauth.connectivity.ConnectionBuilder;
 import net.openid.appauth.internal.Logger;
 import net.openid.appauth.internal.UriUtil;
@@ -50,6 +53,7 @@ import java.io.OutputStreamWriter;
 import java.net.HttpURLConnection;
 import java.net.URLConnection;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 
 /**
@@ -71,6 +75,12 @@ public class AuthorizationService {
     @Nullable
     private final BrowserDescriptor mBrowser;
 
+    @NonNull
+    private final TabLaunchTracker mTabLaunchTracker = new TabLaunchTracker();
+
+    @Nullable
+    private volatile CustomTabsSession mPrefetchedSession;
+
     private boolean mDisposed = false;
 
     /**
@@ -93,16 +103,54 @@ public class AuthorizationService {
             @NonNull AppAuthConfiguration clientConfiguration) {
         this(context,
                 clientConfiguration,
-                BrowserSelector.select(
+                clientConfiguration.getBrowserSelectionStrategy().select(
                         context,
-                        clientConfiguration.getBrowserMatcher()),
-                new CustomTabManager(context));
+                        clientConfiguration.getBrowserMatcher()));
+    }
+
+    private AuthorizationService(
+            @NonNull Context context,
+            @NonNull AppAuthConfiguration clientConfiguration,
+            @Nullable BrowserDescriptor browser) {
+        this(context,
+                clientConfiguration,
+                browser,
+                createCustomTabManager(context, clientConfiguration, browser));
     }
 
     /**
-     * Constructor that injects a url builder into the service for testing.
+     * Creates an AuthorizationService instance on a background thread, using the specified
+     * configuration. Selecting a browser and binding to its custom tabs service is performed
+     * off the calling thread, and actions may be queued against the returned pending service
+     * until the authorization service is ready. Note that the pending service must be manually
+     * disposed when no longer required, to avoid leaks
+     * (see {@link PendingAuthorizationService#dispose()}).
+     */
+    @NonNull
+    public static PendingAuthorizationService createAsync(
+            @NonNull Context context,
+            @NonNull AppAuthConfiguration clientConfiguration) {
+        return createAsync(context, clientConfiguration, AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Creates an AuthorizationService instance using the specified executor to select the
+     * browser and bind to its custom tabs service.
+     *
+     * @see #createAsync(Context, AppAuthConfiguration)
+     */
+    @NonNull
+    public static PendingAuthorizationService createAsync(
+            @NonNull Context context,
+            @NonNull AppAuthConfiguration clientConfiguration,
+            @NonNull Executor executor) {
+        return new PendingAuthorizationService(context, clientConfiguration, executor);
+    }
+
+    /**
+     * Constructor that injects the selected browser and custom tab manager, used for testing
+     * and by {@link PendingAuthorizationService}.
      */
-    @VisibleForTesting
     AuthorizationService(@NonNull Context context,
                          @NonNull AppAuthConfiguration clientConfiguration,
                          @Nullable BrowserDescriptor browser,
@@ -112,11 +160,38 @@ public class AuthorizationService {
         mCustomTabManager = customTabManager;
         mBrowser = browser;
 
+        // a session from a lost connection cannot be used, even once the browser is bound again
+        mCustomTabManager.setDisconnectCallback(new CustomTabManager.DisconnectCallback() {
+            @Override
+            public void onDisconnected() {
+                mPrefetchedSession = null;
+            }
+        });
+
         if (browser != null && browser.useCustomTab) {
             mCustomTabManager.bind(browser.packageName);
         }
     }
 
+    /**
+     * Creates the custom tab manager for the selected browser, which is a reference to a pooled
+     * connection if enabled by the configuration and the browser supports custom tabs.
+     */
+    @NonNull
+    static CustomTabManager createCustomTabManager(
+            @NonNull Context context,
+            @NonNull AppAuthConfiguration clientConfiguration,
+            @Nullable BrowserDescriptor browser) {
+        if (browser != null
+                && browser.useCustomTab
+                && clientConfiguration.getSharedCustomTabConnection()) {
+            return CustomTabConnectionPool.getInstance(context).acquire(
+                    browser.packageName,
+                    clientConfiguration.getWarmupPolicy());
+        }
+        return new CustomTabManager(context, clientConfiguration.getWarmupPolicy());
+    }
+
     public CustomTabManager getCustomTabManager() {
         return mCustomTabManager;
     }
@@ -131,13 +206,114 @@ public class AuthorizationService {
 
     /**
      * Creates a custom tab builder, that will use a tab session from an existing connection to
-     * a web browser, if available.
+     * a web browser, if available. This waits for the connection to the browser to be
+     * established, so should not be called on the main thread; see
+     * {@link #createCustomTabsIntentBuilderAsync(CustomTabManager.TabBuilderCallback, Uri...)}.
      */
+    @WorkerThread
     public CustomTabsIntent.Builder createCustomTabsIntentBuilder(Uri... possibleUris) {
         checkNotDisposed();
         return mCustomTabManager.createTabBuilder(possibleUris);
     }
 
+    /**
+     * Creates a custom tab builder, that will use a tab session from the connection to a web
+     * browser, if available. The builder is delivered to the callback on the main thread once
+     * the connection is established, without blocking the calling thread.
+     */
+    public void createCustomTabsIntentBuilderAsync(
+            @NonNull CustomTabManager.TabBuilderCallback callback,
+            Uri... possibleUris) {
+        checkNotDisposed();
+        mCustomTabManager.createTabBuilderAsync(callback, possibleUris);
+    }
+
+    /**
+     * Creates the custom tab intent used by the request methods which do not take one. This does
+     * not wait for the connection to the browser, as these are typically called on the main
+     * thread; if the connection is not yet established, the tab is launched without a session.
+     */
+    private CustomTabsIntent createDefaultCustomTabsIntent() {
+        checkNotDisposed();
+        CustomTabsSession session = mPrefetchedSession;
+        if (session == null) {
+            session = mCustomTabManager.createSessionIfConnected(mTabLaunchTracker);
+        }
+        return new CustomTabsIntent.Builder(session).build();
+    }
+
+    /**
+     * Informs the browser that the specified authorization request is likely to be performed,
+     * so that it can resolve and preconnect to the authorization endpoint ahead of time. This
+     * should be called when the screen from which the user initiates the request becomes
+     * visible. The session used to prefetch the request is used by subsequent requests which
+     * do not specify their own custom tab intent, and by subsequent prefetches, until the
+     * connection to the browser is lost. No session is created when the prefetch is declined.
+     *
+     * How often requests are prefetched is controlled by the
+     * {@link AppAuthConfiguration#getPrefetchPolicy() prefetch policy} of the configuration.
+     * Whether or not the request is prefetched, the browser is warmed up if the
+     * {@link AppAuthConfiguration#getWarmupPolicy() warmup policy} permits it for the
+     * {@link WarmupPolicy.Trigger#LOGIN_SCREEN login screen}.
+     *
+     * @return true if the request will be prefetched once the connection to the browser is
+     *     established; false if the browser does not support custom tabs, or the prefetch
+     *     policy declined it.
+     */
+    public boolean prefetchAuthorizationRequest(@NonNull AuthorizationRequest request) {
+        checkNotDisposed();
+        checkNotNull(request, "request cannot be null");
+
+        if (mBrowser == null || !mBrowser.useCustomTab) {
+            return false;
+        }
+
+        final Uri requestUri = request.toUri();
+        final boolean prefetch =
+                mClientConfiguration.getPrefetchPolicy().shouldPrefetch(requestUri);
+        if (!prefetch) {
+            Logger.debug("Prefetch of %s declined by policy", requestUri.getPath());
+            // the login screen is still visible, so the browser may be warmed up
+            mCustomTabManager.warmupAsync(WarmupPolicy.Trigger.LOGIN_SCREEN);
+            return false;
+        }
+
+        CustomTabsSession prefetchedSession = mPrefetchedSession;
+        if (prefetchedSession != null) {
+            mCustomTabManager.warmup(WarmupPolicy.Trigger.LOGIN_SCREEN);
+            prefetchedSession.mayLaunchUrl(requestUri, null, null);
+            return true;
+        }
+
+        mCustomTabManager.createSessionAsync(
+                mTabLaunchTracker,
+                new CustomTabManager.SessionCallback() {
+                    @Override
+                    public void onSessionReady(@Nullable CustomTabsSession session) {
+                        if (mDisposed) {
+                            return;
+                        }
+
+                        // the browser must be warmed up for the prefetch to be effective
+                        mCustomTabManager.warmup(WarmupPolicy.Trigger.LOGIN_SCREEN);
+                        if (session != null) {
+                            session.mayLaunchUrl(requestUri, null, null);
+                            mPrefetchedSession = session;
+                        }
+                    }
+                });
+        return prefetch;
+    }
+
+    /**
+     * Specifies the listener which is informed, on the main thread, of the time taken for the
+     * custom tabs launched by this service to be shown and to load. Only tabs launched by the
+     * request methods which do not take a custom tab intent are measured.
+     */
+    public void setTabLaunchListener(@Nullable TabLaunchListener listener) {
+        mTabLaunchTracker.setListener(listener);
+    }
+
     /**
      * Sends an authorization request to the authorization service, using a
      * [custom tab](https://developer.chrome.com/multidevice/android/customtabs)
@@ -154,7 +330,7 @@ public class AuthorizationService {
                 request,
                 completedIntent,
                 null,
-                createCustomTabsIntentBuilder().build());
+                createDefaultCustomTabsIntent());
     }
 
     /**
@@ -175,7 +351,7 @@ public class AuthorizationService {
                 request,
                 completedIntent,
                 canceledIntent,
-                createCustomTabsIntentBuilder().build());
+                createDefaultCustomTabsIntent());
     }
 
     /**
@@ -247,7 +423,7 @@ public class AuthorizationService {
                 request,
                 completedIntent,
                 null,
-                createCustomTabsIntentBuilder().build());
+                createDefaultCustomTabsIntent());
     }
 
     /**
@@ -268,7 +444,7 @@ public class AuthorizationService {
                 request,
                 completedIntent,
                 canceledIntent,
-                createCustomTabsIntentBuilder().build());
+                createDefaultCustomTabsIntent());
     }
 
     /**
@@ -336,12 +512,14 @@ public class AuthorizationService {
         checkNotNull(customTabsIntent);
 
         Intent authIntent = prepareAuthorizationRequestIntent(request, customTabsIntent);
-        mContext.startActivity(AuthorizationManagementActivity.createStartIntent(
-                mContext,
-                request,
-                authIntent,
-                completedIntent,
-                canceledIntent));
+        mContext.startActivity(withBrowserOutcomeRecording(
+                AuthorizationManagementActivity.createStartIntent(
+                        mContext,
+                        request,
+                        authIntent,
+                        completedIntent,
+                        canceledIntent,
+                        mClientConfiguration.getClock())));
 
     }
 
@@ -358,6 +536,15 @@ public class AuthorizationService {
      * {@link Activity#RESULT_OK} indicates the authorization request completed,
      * not necessarily that it was a successful authorization.
      *
+     * The intent carries a handle to the request, which is held in memory rather than
+     * serialized into the intent. The intent should therefore be launched promptly, in the
+     * process which created it: it cannot be launched after the process has been restarted, or
+     * once 32 more recent request intents have been created without this one being launched, as
+     * the request is then no longer available. If launched in either case, the activity
+     * finishes with an {@link AuthorizationException.GeneralErrors#INVALID_REQUEST} error
+     * rather than performing the request. Once launched, the request is retained by the
+     * activity, including across the death of the process.
+     *
      * @param customTabsIntent
      *     The intent that will be used to start the custom tab. It is recommended that this intent
      *     be created with the help of {@link #createCustomTabsIntentBuilder(Uri[])}, which will
@@ -372,10 +559,12 @@ public class AuthorizationService {
             @NonNull CustomTabsIntent customTabsIntent) {
 
         Intent authIntent = prepareAuthorizationRequestIntent(request, customTabsIntent);
-        return AuthorizationManagementActivity.createStartForResultIntent(
-                mContext,
-                request,
-                authIntent);
+        return withBrowserOutcomeRecording(
+                AuthorizationManagementActivity.createStartForResultIntent(
+                        mContext,
+                        request,
+                        authIntent,
+                        mClientConfiguration.getClock()));
     }
 
     /**
@@ -394,13 +583,17 @@ public class AuthorizationService {
      * {@link Activity#RESULT_OK} indicates the authorization request completed,
      * not necessarily that it was a successful authorization.
      *
+     * The intent is only valid in the process which created it, and for as long as the request
+     * is retained in memory; see
+     * {@link #getAuthorizationRequestIntent(AuthorizationRequest, CustomTabsIntent)}.
+     *
      * @throws android.content.ActivityNotFoundException if no suitable browser is available to
      *     perform the authorization flow.
      */
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
     public Intent getAuthorizationRequestIntent(
             @NonNull AuthorizationRequest request) {
-        return getAuthorizationRequestIntent(request, createCustomTabsIntentBuilder().build());
+        return getAuthorizationRequestIntent(request, createDefaultCustomTabsIntent());
     }
 
     /**
@@ -416,6 +609,10 @@ public class AuthorizationService {
      * {@link Activity#RESULT_OK} indicates the authorization request completed,
      * not necessarily that it was a successful authorization.
      *
+     * The intent is only valid in the process which created it, and for as long as the request
+     * is retained in memory; see
+     * {@link #getAuthorizationRequestIntent(AuthorizationRequest, CustomTabsIntent)}.
+     *
      * @param customTabsIntent
      *     The intent that will be used to start the custom tab. It is recommended that this intent
      *     be created with the help of {@link #createCustomTabsIntentBuilder(Uri[])}, which will
@@ -430,10 +627,12 @@ public class AuthorizationService {
             @NonNull CustomTabsIntent customTabsIntent) {
 
         Intent authIntent = prepareAuthorizationRequestIntent(request, customTabsIntent);
-        return AuthorizationManagementActivity.createStartForResultIntent(
-            mContext,
-            request,
-            authIntent);
+        return withBrowserOutcomeRecording(
+                AuthorizationManagementActivity.createStartForResultIntent(
+                        mContext,
+                        request,
+                        authIntent,
+                        mClientConfiguration.getClock()));
     }
 
     /**
@@ -452,13 +651,17 @@ public class AuthorizationService {
      * {@link Activity#RESULT_OK} indicates the authorization request completed,
      * not necessarily that it was a successful authorization.
      *
+     * The intent is only valid in the process which created it, and for as long as the request
+     * is retained in memory; see
+     * {@link #getAuthorizationRequestIntent(AuthorizationRequest, CustomTabsIntent)}.
+     *
      * @throws android.content.ActivityNotFoundException if no suitable browser is available to
      *     perform the authorization flow.
      */
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
     public Intent getEndSessionRequestIntent(
             @NonNull EndSessionRequest request) {
-        return getEndSessionRequestIntent(request, createCustomTabsIntentBuilder().build());
+        return getEndSessionRequestIntent(request, createDefaultCustomTabsIntent());
     }
 
     /**
@@ -488,10 +691,11 @@ public class AuthorizationService {
                 request,
                 clientAuthentication,
                 mClientConfiguration.getConnectionBuilder(),
-                SystemClock.INSTANCE,
+                mClientConfiguration.getClock(),
                 callback,
                 mClientConfiguration.getSkipIssuerHttpsCheck(),
-                mClientConfiguration.getSkipNonceVerification())
+                mClientConfiguration.getSkipNonceVerification(),
+                mClientConfiguration.getIdTokenKeyStore())
                 .execute();
     }
 
@@ -522,9 +726,22 @@ public class AuthorizationService {
             return;
         }
         mCustomTabManager.dispose();
+        mTabLaunchTracker.setListener(null);
+        mPrefetchedSession = null;
         mDisposed = true;
     }
 
+    /**
+     * Requests that the outcome of the flow started by the specified intent is recorded in the
+     * {@link net.openid.appauth.browser.BrowserTelemetry browser telemetry}, if the browser selection strategy makes use of it.
+     */
+    private Intent withBrowserOutcomeRecording(Intent startIntent) {
+        if (mClientConfiguration.getBrowserSelectionStrategy().recordsOutcomes()) {
+            startIntent.putExtra(AuthorizationManagementActivity.KEY_RECORD_BROWSER_OUTCOME, true);
+        }
+        return startIntent;
+    }
+
     private void checkNotDisposed() {
         if (mDisposed) {
             throw new IllegalStateException("Service has been disposed and rendered inoperable");
@@ -544,6 +761,8 @@ public class AuthorizationService {
         Intent intent;
         if (mBrowser.useCustomTab) {
             intent = customTabsIntent.intent;
+            mTabLaunchTracker.markLaunch();
+            mCustomTabManager.recordLaunch();
         } else {
             intent = new Intent(Intent.ACTION_VIEW);
         }
@@ -571,16 +790,21 @@ public class AuthorizationService {
         private Clock mClock;
         private boolean mSkipIssuerHttpsCheck;
         private boolean mSkipNonceVerification;
+        private JwksKeyStore mIdTokenKeyStore;
 
         private AuthorizationException mException;
 
+        private long mRequestStartElapsed;
+        private long mResponseElapsed;
+
         TokenRequestTask(TokenRequest request,
                          @NonNull ClientAuthentication clientAuthentication,
                          @NonNull ConnectionBuilder connectionBuilder,
                          Clock clock,
                          TokenResponseCallback callback,
                          Boolean skipIssuerHttpsCheck,
-                         Boolean skipNonceVerification) {
+                         Boolean skipNonceVerification,
+                         @Nullable JwksKeyStore idTokenKeyStore) {
             mRequest = request;
             mClientAuthentication = clientAuthentication;
             mConnectionBuilder = connectionBuilder;
@@ -588,6 +812,7 @@ public class AuthorizationService {
             mCallback = callback;
             mSkipIssuerHttpsCheck = skipIssuerHttpsCheck;
             mSkipNonceVerification = skipNonceVerification;
+            mIdTokenKeyStore = idTokenKeyStore;
         }
 
         @Override
@@ -618,19 +843,32 @@ public class AuthorizationService {
 
                 String queryData = UriUtil.formUrlEncode(parameters);
                 conn.setRequestProperty("Content-Length", String.valueOf(queryData.length()));
+                mRequestStartElapsed = android.os.SystemClock.elapsedRealtime();
                 OutputStreamWriter wr = new OutputStreamWriter(conn.getOutputStream());
 
                 wr.write(queryData);
                 wr.flush();
 
-                if (conn.getResponseCode() >= HttpURLConnection.HTTP_OK
-                        && conn.getResponseCode() < HttpURLConnection.HTTP_MULT_CHOICE) {
+                int responseCode = conn.getResponseCode();
+                mResponseElapsed = android.os.SystemClock.elapsedRealtime();
+                recordServerDate(conn);
+
+                if (responseCode >= HttpURLConnection.HTTP_OK
+                        && responseCode < HttpURLConnection.HTTP_MULT_CHOICE) {
                     is = conn.getInputStream();
                 } else {
                     is = conn.getErrorStream();
                 }
                 String response = Utils.readInputStream(is);
-                return new JSONObject(response);
+                JSONObject json = new JSONObject(response);
+
+                // the ID token is validated here rather than on the main thread, as verifying
+                // its signature may require fetching the keys of the issuer
+                if (!json.has(AuthorizationException.PARAM_ERROR)) {
+                    mException = validateIdToken(
+                            JsonUtil.getStringIfDefined(json, TokenResponse.KEY_ID_TOKEN));
+                }
+                return json;
             } catch (IOException ex) {
                 Logger.debugWithStack(ex, "Failed to complete exchange request");
                 mException = AuthorizationException.fromTemplate(
@@ -673,7 +911,9 @@ public class AuthorizationService {
 
             TokenResponse response;
             try {
-                response = new TokenResponse.Builder(mRequest).fromResponseJson(json).build();
+                response = new TokenResponse.Builder(mRequest)
+                        .fromResponseJson(json, mClock)
+                        .build();
             } catch (JSONException jsonEx) {
                 mCallback.onTokenRequestCompleted(null,
                         AuthorizationException.fromTemplate(
@@ -682,35 +922,58 @@ public class AuthorizationService {
                 return;
             }
 
-            if (response.idToken != null) {
-                IdToken idToken;
-                try {
-                    idToken = IdToken.from(response.idToken);
-                } catch (IdTokenException | JSONException ex) {
-                    mCallback.onTokenRequestCompleted(null,
-                            AuthorizationException.fromTemplate(
-                                    GeneralErrors.ID_TOKEN_PARSING_ERROR,
-                                    ex));
-                    return;
-                }
-
-                try {
-                    idToken.validate(
-                            mRequest,
-                            mClock,
-                            mSkipIssuerHttpsCheck,
-                            mSkipNonceVerification
-                    );
-                } catch (AuthorizationException ex) {
-                    mCallback.onTokenRequestCompleted(null, ex);
-                    return;
-                }
-            }
             Logger.debug("Token exchange with %s completed",
                     mRequest.configuration.tokenEndpoint);
             mCallback.onTokenRequestCompleted(response, null);
         }
 
+        /**
+         * Parses and validates the ID token of the response, if present.
+         *
+         * @return the reason the ID token is invalid, or `null` if it is valid or absent.
+         */
+        @Nullable
+        private AuthorizationException validateIdToken(@Nullable String idTokenString) {
+            if (idTokenString == null) {
+                return null;
+            }
+
+            try {
+                IdToken idToken = IdTokenValidationCache.INSTANCE.validateClaims(
+                        idTokenString,
+                        mRequest,
+                        mClock,
+                        mSkipIssuerHttpsCheck,
+                        mSkipNonceVerification,
+                        mIdTokenKeyStore);
+
+                // the server time is only estimated from the transport, never from the token
+                // under validation, which would otherwise vouch for its own freshness
+                idToken.validateTimes(mClock);
+            } catch (AuthorizationException ex) {
+                return ex;
+            }
+            return null;
+        }
+
+        /**
+         * Feeds the `Date` header of the response, if present, to the clock when it estimates
+         * the server time.
+         */
+        private void recordServerDate(HttpURLConnection conn) {
+            if (!(mClock instanceof ServerTimeClock)) {
+                return;
+            }
+
+            long serverDate = conn.getDate();
+            if (serverDate > 0) {
+                ((ServerTimeClock) mClock).recordServerDate(
+                        serverDate,
+                        mRequestStartElapsed,
+                        mResponseElapsed);
+            }
+        }
+
         /**
          * GitHub will only return a spec-compliant response if JSON is explicitly defined
          * as an acceptable response type. As this is essentially harmless for all other
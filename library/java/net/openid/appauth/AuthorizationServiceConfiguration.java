@@ -94,6 +94,9 @@ public class AuthorizationServiceConfiguration {
     @Nullable
     public final AuthorizationServiceDiscovery discoveryDoc;
 
+    @Nullable
+    private volatile IdToken.IssuerChecks mIssuerChecks;
+
     /**
      * Creates a service configuration for a basic OAuth2 provider.
      * @param authorizationEndpoint The
@@ -169,6 +172,25 @@ public class AuthorizationServiceConfiguration {
         this.endSessionEndpoint = discoveryDoc.getEndSessionEndpoint();
     }
 
+    /**
+     * The checks of the issuer of the discovery document which apply to every ID token issued
+     * by this service, or `null` if the service has no discovery document. These are computed
+     * on first use, rather than for every ID token validated.
+     */
+    @Nullable
+    IdToken.IssuerChecks getIssuerChecks() {
+        if (discoveryDoc == null) {
+            return null;
+        }
+
+        IdToken.IssuerChecks checks = mIssuerChecks;
+        if (checks == null) {
+            checks = IdToken.IssuerChecks.forIssuer(discoveryDoc.getIssuer());
+            mIssuerChecks = checks;
+        }
+        return checks;
+    }
+
     /**
      * Converts the authorization service configuration to JSON for storage or transmission.
      */
@@ -189,6 +211,20 @@ public class AuthorizationServiceConfiguration {
         return json;
     }
 
+    /**
+     * Converts the authorization service configuration to JSON as {@link #toJson()} does, but
+     * with the discovery document reduced to its
+     * {@link AuthorizationServiceDiscovery#toCompactJson() compact form}.
+     */
+    @NonNull
+    JSONObject toCompactJson() {
+        JSONObject json = toJson();
+        if (discoveryDoc != null) {
+            JsonUtil.put(json, KEY_DISCOVERY_DOC, discoveryDoc.toCompactJson());
+        }
+        return json;
+    }
+
     /**
      * Converts the authorization service configuration to a JSON string for storage or
      * transmission.
@@ -178,6 +178,22 @@ public class AuthorizationServiceDiscovery {
             SUBJECT_TYPES_SUPPORTED.key,
             ID_TOKEN_SIGNING_ALG_VALUES_SUPPORTED.key);
 
+    /**
+     * The fields which are retained by {@link #toCompactJson()}: the mandatory fields, and the
+     * endpoints which may be used once an authorization flow has completed.
+     */
+    private static final List<String> COMPACT_METADATA = Arrays.asList(
+            ISSUER.key,
+            AUTHORIZATION_ENDPOINT.key,
+            TOKEN_ENDPOINT.key,
+            REGISTRATION_ENDPOINT.key,
+            END_SESSION_ENDPOINT.key,
+            USERINFO_ENDPOINT.key,
+            JWKS_URI.key,
+            RESPONSE_TYPES_SUPPORTED.key,
+            SUBJECT_TYPES_SUPPORTED.key,
+            ID_TOKEN_SIGNING_ALG_VALUES_SUPPORTED.key);
+
     /**
      * The JSON representation of the discovery document.
      */
@@ -200,6 +216,30 @@ public class AuthorizationServiceDiscovery {
         }
     }
 
+    /**
+     * Produces a copy of the discovery document which retains only the mandatory fields and
+     * the endpoints, omitting the (often large) lists of supported features. The copy is
+     * itself a valid discovery document.
+     */
+    @NonNull
+    JSONObject toCompactJson() {
+        JSONObject json = new JSONObject();
+        for (String key : COMPACT_METADATA) {
+            Object value = docJson.opt(key);
+            if (value == null) {
+                continue;
+            }
+
+            try {
+                json.put(key, value);
+            } catch (JSONException ex) {
+                throw new IllegalStateException(
+                        "JSONException thrown in violation of contract", ex);
+            }
+        }
+        return json;
+    }
+
     /**
      * Thrown when a mandatory property is missing from the discovery document.
      */
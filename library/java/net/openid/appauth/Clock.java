@@ -15,9 +15,13 @@
 package net.openid.appauth;
 
 /**
- * Simple time interface used for deterministic testing.
+ * Simple time interface used for deterministic testing, and to allow the source of the current
+ * time to be replaced where device wall time is unreliable.
+ *
+ * @see ServerTimeClock
+ * @see AppAuthConfiguration.Builder#setClock(Clock)
  */
-interface Clock {
+public interface Clock {
 
     /**
      * The current time, in milliseconds since the UNIX epoch.
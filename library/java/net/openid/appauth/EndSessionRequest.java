@@ -148,8 +148,17 @@ public class EndSessionRequest extends AuthorizationManagementRequest {
      */
     @Override
     public JSONObject jsonSerialize() {
+        return jsonSerialize(configuration.toJson());
+    }
+
+    @Override
+    JSONObject jsonSerializeCompact() {
+        return jsonSerialize(configuration.toCompactJson());
+    }
+
+    private JSONObject jsonSerialize(JSONObject configurationJson) {
         JSONObject json = new JSONObject();
-        JsonUtil.put(json, KEY_CONFIGURATION, configuration.toJson());
+        JsonUtil.put(json, KEY_CONFIGURATION, configurationJson);
         JsonUtil.put(json, KEY_CLIENT_ID, clientId);
         JsonUtil.put(json, KEY_LOGOUT_URI, logoutUri.toString());
         return json;
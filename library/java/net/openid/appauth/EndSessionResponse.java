@@ -146,6 +146,7 @@ public class EndSessionResponse extends AuthorizationManagementResponse {
     public Intent toIntent() {
         Intent data = new Intent();
         data.putExtra(EXTRA_RESPONSE, this.jsonSerializeString());
+        IntentResultRegistry.INSTANCE.putHandle(data, EXTRA_RESPONSE, this);
         return data;
     }
 
@@ -153,6 +154,9 @@ public class EndSessionResponse extends AuthorizationManagementResponse {
      * Extracts an end session response from an intent produced by {@link #toIntent()}. This is
      * used to extract the response from the intent data passed to an activity registered as the
      * handler for {@link AuthorizationService#performEndSessionRequest}.
+     *
+     * Within the process which produced the intent, the original response is returned without
+     * parsing; otherwise, the response is read from its JSON form.
      */
     @Nullable
     public static EndSessionResponse fromIntent(@NonNull Intent dataIntent) {
@@ -161,6 +165,14 @@ public class EndSessionResponse extends AuthorizationManagementResponse {
             return null;
         }
 
+        EndSessionResponse response = IntentResultRegistry.INSTANCE.get(
+                dataIntent,
+                EXTRA_RESPONSE,
+                EndSessionResponse.class);
+        if (response != null) {
+            return response;
+        }
+
         try {
             return EndSessionResponse.jsonDeserialize(dataIntent.getStringExtra(EXTRA_RESPONSE));
         } catch (JSONException ex) {
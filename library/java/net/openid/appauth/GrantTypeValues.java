@@ -44,6 +44,15 @@ public final class GrantTypeValues {
      */
     public static final String REFRESH_TOKEN = "refresh_token";
 
+    /**
+     * The grant type used when exchanging a security token, such as an access token, for a new
+     * token for a different audience or set of scopes.
+     *
+     * @see "OAuth 2.0 Token Exchange (RFC 8693), Section 2.1
+     * <https://tools.ietf.org/html/rfc8693#section-2.1>"
+     */
+    public static final String TOKEN_EXCHANGE = "urn:ietf:params:oauth:grant-type:token-exchange";
+
     private GrantTypeValues() {
         throw new IllegalStateException("This type is not intended to be instantiated");
     }
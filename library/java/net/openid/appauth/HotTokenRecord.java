@@ -0,0 +1,286 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.Preconditions.checkNotEmpty;
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import net.openid.appauth.internal.Logger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * The current access token of a persisted {@link AuthState}, stored separately from the state
+ * in a small binary record, so that it can be read at process start without deserializing the
+ * full state.
+ *
+ * The record has a fixed layout (all integers big-endian):
+ *
+ * | Offset | Size | Field                                                   |
+ * |--------|------|---------------------------------------------------------|
+ * | 0      | 4    | magic, `ATHT`                                           |
+ * | 4      | 4    | layout version, currently 1                             |
+ * | 8      | 8    | state version, the sequence number of the stored state |
+ * | 16     | 8    | access token expiration time, or -1 if unknown          |
+ * | 24     | 2    | length of the token type, in bytes (`t`)                |
+ * | 26     | 2    | length of the access token, in bytes (`a`)              |
+ * | 28     | t    | token type, UTF-8                                       |
+ * | 28 + t | a    | access token, UTF-8                                     |
+ * | 28+t+a | 4    | CRC-32 of all preceding bytes                           |
+ *
+ * @see AuthStateStore#readHotTokenRecord()
+ */
+public final class HotTokenRecord {
+
+    @VisibleForTesting
+    static final int MAGIC = 0x41544854; // "ATHT"
+
+    private static final int LAYOUT_VERSION = 1;
+    private static final int HEADER_LENGTH = 28;
+    private static final int CHECKSUM_LENGTH = 4;
+    private static final int MAX_FIELD_LENGTH = 0xFFFF;
+    private static final long NO_EXPIRATION_TIME = -1L;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The access token.
+     */
+    @NonNull
+    public final String accessToken;
+
+    /**
+     * The type of the access token, typically "Bearer", if known.
+     */
+    @Nullable
+    public final String tokenType;
+
+    /**
+     * The expiration time of the access token, if known.
+     */
+    @Nullable
+    public final Long accessTokenExpirationTime;
+
+    /**
+     * The version of the stored state which this record was derived from. This increases with
+     * every write of the state.
+     */
+    public final long stateVersion;
+
+    /**
+     * The clock of the store the record was read from, against which the remaining lifetime of
+     * the access token is measured.
+     */
+    @NonNull
+    private final Clock mClock;
+
+    HotTokenRecord(
+            @NonNull String accessToken,
+            @Nullable String tokenType,
+            @Nullable Long accessTokenExpirationTime,
+            long stateVersion) {
+        this(accessToken, tokenType, accessTokenExpirationTime, stateVersion, SystemClock.INSTANCE);
+    }
+
+    HotTokenRecord(
+            @NonNull String accessToken,
+            @Nullable String tokenType,
+            @Nullable Long accessTokenExpirationTime,
+            long stateVersion,
+            @NonNull Clock clock) {
+        this.accessToken = checkNotEmpty(accessToken, "accessToken cannot be null or empty");
+        this.tokenType = tokenType;
+        this.accessTokenExpirationTime = accessTokenExpirationTime;
+        this.stateVersion = stateVersion;
+        mClock = checkNotNull(clock, "clock cannot be null");
+    }
+
+    /**
+     * Creates a record of the current access token of the state, or returns `null` if the state
+     * has no access token.
+     */
+    @Nullable
+    static HotTokenRecord fromSnapshot(@NonNull AuthStateSnapshot snapshot, long stateVersion) {
+        String accessToken = snapshot.getAccessToken();
+        if (accessToken == null) {
+            return null;
+        }
+
+        String tokenType = null;
+        TokenResponse tokenResponse = snapshot.getLastTokenResponse();
+        AuthorizationResponse authResponse = snapshot.getLastAuthorizationResponse();
+        if (tokenResponse != null && tokenResponse.accessToken != null) {
+            tokenType = tokenResponse.tokenType;
+        } else if (authResponse != null) {
+            tokenType = authResponse.tokenType;
+        }
+
+        return new HotTokenRecord(
+                accessToken,
+                tokenType,
+                snapshot.getAccessTokenExpirationTime(),
+                stateVersion);
+    }
+
+    /**
+     * Determines whether the access token remains valid for at least the specified duration,
+     * as of the current time of the clock of the store the record was read from. An access token
+     * with an unknown expiration time is assumed to be valid.
+     *
+     * @see AuthStateStore.Builder#setClock(Clock)
+     */
+    public boolean isValidFor(long durationMs) {
+        return accessTokenExpirationTime == null
+                || accessTokenExpirationTime > mClock.getCurrentTimeMillis() + durationMs;
+    }
+
+    /**
+     * Reads a record by mapping the specified file into memory, returning `null` if the file
+     * does not exist, or does not contain a valid record. The validity of the record is
+     * measured against the specified clock.
+     */
+    @WorkerThread
+    @Nullable
+    static HotTokenRecord read(@NonNull File file, @NonNull Clock clock) {
+        checkNotNull(file, "file cannot be null");
+        checkNotNull(clock, "clock cannot be null");
+        if (!file.exists()) {
+            return null;
+        }
+
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            if (length < HEADER_LENGTH + CHECKSUM_LENGTH
+                    || length > HEADER_LENGTH + 2 * MAX_FIELD_LENGTH + CHECKSUM_LENGTH) {
+                return null;
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            return decode(buffer, clock);
+        } catch (IOException ex) {
+            Logger.warnWithStack(ex, "Unable to read hot token record %s", file);
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException ignored) {
+                    // deliberately do nothing
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the record to a temporary file, which then replaces the specified file.
+     */
+    @WorkerThread
+    void write(@NonNull File file) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            ByteBuffer buffer = encode();
+            out.write(buffer.array(), 0, buffer.limit());
+        } finally {
+            out.close();
+        }
+
+        if (!tempFile.renameTo(file)) {
+            throw new IOException("Unable to replace " + file);
+        }
+    }
+
+    @VisibleForTesting
+    @NonNull
+    ByteBuffer encode() {
+        byte[] tokenTypeBytes = tokenType != null ? tokenType.getBytes(UTF_8) : new byte[0];
+        byte[] accessTokenBytes = accessToken.getBytes(UTF_8);
+        if (tokenTypeBytes.length > MAX_FIELD_LENGTH
+                || accessTokenBytes.length > MAX_FIELD_LENGTH) {
+            throw new IllegalStateException("Token too large for hot token record");
+        }
+
+        int dataLength = HEADER_LENGTH + tokenTypeBytes.length + accessTokenBytes.length;
+        ByteBuffer buffer = ByteBuffer.allocate(dataLength + CHECKSUM_LENGTH);
+        buffer.putInt(MAGIC);
+        buffer.putInt(LAYOUT_VERSION);
+        buffer.putLong(stateVersion);
+        buffer.putLong(accessTokenExpirationTime != null
+                ? accessTokenExpirationTime
+                : NO_EXPIRATION_TIME);
+        buffer.putShort((short) tokenTypeBytes.length);
+        buffer.putShort((short) accessTokenBytes.length);
+        buffer.put(tokenTypeBytes);
+        buffer.put(accessTokenBytes);
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, dataLength);
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        return buffer;
+    }
+
+    @VisibleForTesting
+    @Nullable
+    static HotTokenRecord decode(@NonNull ByteBuffer buffer, @NonNull Clock clock) {
+        int length = buffer.remaining();
+        if (length < HEADER_LENGTH + CHECKSUM_LENGTH
+                || buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != LAYOUT_VERSION) {
+            return null;
+        }
+
+        int tokenTypeLength = buffer.getShort(24) & MAX_FIELD_LENGTH;
+        int accessTokenLength = buffer.getShort(26) & MAX_FIELD_LENGTH;
+        int dataLength = HEADER_LENGTH + tokenTypeLength + accessTokenLength;
+        if (accessTokenLength == 0 || length != dataLength + CHECKSUM_LENGTH) {
+            return null;
+        }
+
+        byte[] data = new byte[dataLength];
+        buffer.get(data);
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, dataLength);
+        if (buffer.getInt(dataLength) != (int) crc.getValue()) {
+            return null;
+        }
+
+        long expirationTime = buffer.getLong(16);
+        String tokenType = tokenTypeLength > 0
+                ? new String(data, HEADER_LENGTH, tokenTypeLength, UTF_8)
+                : null;
+        return new HotTokenRecord(
+                new String(data, HEADER_LENGTH + tokenTypeLength, accessTokenLength, UTF_8),
+                tokenType,
+                expirationTime != NO_EXPIRATION_TIME ? expirationTime : null,
+                buffer.getLong(8),
+                clock);
+    }
+}
@@ -16,16 +16,20 @@ package net.openid.appauth;
 
 import android.net.Uri;
 import android.text.TextUtils;
-import android.util.Base64;
+import android.util.JsonReader;
+import android.util.JsonToken;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
 
 import net.openid.appauth.AuthorizationException.GeneralErrors;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
 import java.util.List;
 
 /**
@@ -46,6 +50,8 @@ class IdToken {
     private static final String KEY_EXPIRATION = "exp";
     private static final String KEY_ISSUED_AT = "iat";
     private static final String KEY_NONCE = "nonce";
+    private static final String KEY_ALGORITHM = "alg";
+    private static final String KEY_KEY_ID = "kid";
     private static final Long MILLIS_PER_SECOND = 1000L;
     private static final Long TEN_MINUTES_IN_SECONDS = 600L;
 
@@ -56,60 +62,187 @@ class IdToken {
     public final Long issuedAt;
     public final String nonce;
 
+    @Nullable
+    private final String mAlgorithm;
+
+    @Nullable
+    private final String mKeyId;
+
+    @Nullable
+    private final byte[] mSigningInput;
+
+    @Nullable
+    private final byte[] mSignature;
+
+    @Nullable
+    private final String mRawClaims;
+
+    @Nullable
+    private IdTokenClaims mClaims;
+
     IdToken(@NonNull String issuer,
             @NonNull String subject,
             @NonNull List<String> audience,
             @NonNull Long expiration,
             @NonNull Long issuedAt,
             @Nullable String nonce) {
+        this(issuer, subject, audience, expiration, issuedAt, nonce,
+                null, null, null, null, null);
+    }
+
+    IdToken(@NonNull String issuer,
+            @NonNull String subject,
+            @NonNull List<String> audience,
+            @NonNull Long expiration,
+            @NonNull Long issuedAt,
+            @Nullable String nonce,
+            @Nullable String algorithm,
+            @Nullable String keyId,
+            @Nullable byte[] signingInput,
+            @Nullable byte[] signature,
+            @Nullable String rawClaims) {
         this.issuer = issuer;
         this.subject = subject;
         this.audience = audience;
         this.expiration = expiration;
         this.issuedAt = issuedAt;
         this.nonce = nonce;
-    }
-
-    private static JSONObject parseJwtSection(String section) throws JSONException {
-        byte[] decodedSection = Base64.decode(section,Base64.URL_SAFE);
-        String jsonString = new String(decodedSection);
-        return new JSONObject(jsonString);
+        mAlgorithm = algorithm;
+        mKeyId = keyId;
+        mSigningInput = signingInput;
+        mSignature = signature;
+        mRawClaims = rawClaims;
     }
 
     static IdToken from(String token) throws JSONException, IdTokenException {
-        String[] sections = token.split("\\.");
+        JwtParser jwt = new JwtParser(token);
 
-        if (sections.length <= 1) {
-            throw new IdTokenException("ID token must have both header and claims section");
+        // The header is only used to verify the signature, if required, but is always parsed to
+        // check that it is structurally valid JSON
+        String algorithm = null;
+        String keyId = null;
+        JsonReader header = JwtParser.createReader(jwt.decodeHeader());
+        try {
+            header.beginObject();
+            while (header.hasNext()) {
+                String name = header.nextName();
+                if (KEY_ALGORITHM.equals(name)) {
+                    algorithm = header.nextString();
+                } else if (KEY_KEY_ID.equals(name)) {
+                    keyId = header.nextString();
+                } else {
+                    header.skipValue();
+                }
+            }
+            header.endObject();
+        } catch (IOException | IllegalStateException ex) {
+            throw JwtParser.toJsonException(ex);
         }
 
-        // We ignore header contents, but parse it to check that it is structurally valid JSON
-        parseJwtSection(sections[0]);
-        JSONObject claims = parseJwtSection(sections[1]);
-
-        String issuer = JsonUtil.getString(claims, KEY_ISSUER);
-        String subject = JsonUtil.getString(claims, KEY_SUBJECT);
-        List<String> audience;
+        // Only the claims required for validation are extracted; the others remain available
+        // from the raw claims JSON
+        String claimsJson = jwt.decodePayload();
+        String issuer = null;
+        String subject = null;
+        List<String> audience = null;
+        Long expiration = null;
+        Long issuedAt = null;
+        String nonce = null;
+        JsonReader claims = JwtParser.createReader(claimsJson);
         try {
-            audience = JsonUtil.getStringList(claims, KEY_AUDIENCE);
-        } catch (JSONException jsonEx) {
-            audience = new ArrayList<>();
-            audience.add(JsonUtil.getString(claims, KEY_AUDIENCE));
+            claims.beginObject();
+            while (claims.hasNext()) {
+                String name = claims.nextName();
+                if (claims.peek() == JsonToken.NULL) {
+                    claims.skipValue();
+                    continue;
+                }
+
+                switch (name) {
+                    case KEY_ISSUER:
+                        issuer = claims.nextString();
+                        break;
+                    case KEY_SUBJECT:
+                        subject = claims.nextString();
+                        break;
+                    case KEY_AUDIENCE:
+                        audience = JwtParser.readStringOrArray(claims);
+                        break;
+                    case KEY_EXPIRATION:
+                        expiration = JwtParser.readLong(claims);
+                        break;
+                    case KEY_ISSUED_AT:
+                        issuedAt = JwtParser.readLong(claims);
+                        break;
+                    case KEY_NONCE:
+                        nonce = claims.nextString();
+                        break;
+                    default:
+                        claims.skipValue();
+                        break;
+                }
+            }
+            claims.endObject();
+        } catch (IOException | IllegalStateException | NumberFormatException ex) {
+            throw JwtParser.toJsonException(ex);
         }
-        Long expiration = claims.getLong(KEY_EXPIRATION);
-        Long issuedAt = claims.getLong(KEY_ISSUED_AT);
-        String nonce = JsonUtil.getStringIfDefined(claims, KEY_NONCE);
 
         return new IdToken(
-            issuer,
-            subject,
-            audience,
-            expiration,
-            issuedAt,
-            nonce
+            checkClaim(issuer, KEY_ISSUER),
+            checkClaim(subject, KEY_SUBJECT),
+            checkClaim(audience, KEY_AUDIENCE),
+            checkClaim(expiration, KEY_EXPIRATION),
+            checkClaim(issuedAt, KEY_ISSUED_AT),
+            nonce,
+            algorithm,
+            keyId,
+            jwt.getSigningInput(),
+            jwt.decodeSignature(),
+            claimsJson
         );
     }
 
+    @NonNull
+    private static <T> T checkClaim(@Nullable T value, @NonNull String name)
+            throws JSONException {
+        if (value == null) {
+            throw new JSONException("field \"" + name + "\" not found in ID token claims");
+        }
+        return value;
+    }
+
+    /**
+     * The JSON of the claims section of the token, if parsed from a token, from which claims
+     * other than those extracted into fields can be read.
+     */
+    @Nullable
+    String getRawClaims() {
+        return mRawClaims;
+    }
+
+    /**
+     * A view of all claims of the token. The claims JSON is parsed on first access to a claim,
+     * and retained by this token.
+     */
+    @NonNull
+    synchronized IdTokenClaims getClaims() {
+        if (mClaims == null) {
+            if (mRawClaims != null) {
+                mClaims = new IdTokenClaims(mRawClaims);
+            } else {
+                JSONObject claims = new JSONObject();
+                JsonUtil.put(claims, KEY_ISSUER, issuer);
+                JsonUtil.put(claims, KEY_SUBJECT, subject);
+                JsonUtil.put(claims, KEY_AUDIENCE, JsonUtil.toJsonArray(audience));
+                JsonUtil.putIfNotNull(claims, KEY_EXPIRATION, expiration);
+                JsonUtil.putIfNotNull(claims, KEY_ISSUED_AT, issuedAt);
+                JsonUtil.putIfNotNull(claims, KEY_NONCE, nonce);
+                mClaims = new IdTokenClaims(claims);
+            }
+        }
+        return mClaims;
+    }
+
     @VisibleForTesting
     void validate(@NonNull TokenRequest tokenRequest, Clock clock) throws AuthorizationException {
         validate(tokenRequest, clock, false, false);
@@ -119,43 +252,40 @@ class IdToken {
                   Clock clock,
                   boolean skipIssuerHttpsCheck,
                   boolean skipNonceVerification) throws AuthorizationException {
+        validate(tokenRequest, clock, skipIssuerHttpsCheck, skipNonceVerification, null);
+    }
+
+    @WorkerThread
+    void validate(@NonNull TokenRequest tokenRequest,
+                  Clock clock,
+                  boolean skipIssuerHttpsCheck,
+                  boolean skipNonceVerification,
+                  @Nullable JwksKeyStore keyStore) throws AuthorizationException {
+        validateClaims(tokenRequest, skipIssuerHttpsCheck, skipNonceVerification, keyStore);
+        validateTimes(clock);
+    }
+
+    /**
+     * Performs the checks of the ID token which do not depend on the current time. The outcome
+     * of these is fixed for a given token and set of parameters, and so may be cached.
+     *
+     * @see IdTokenValidationCache
+     */
+    @WorkerThread
+    void validateClaims(@NonNull TokenRequest tokenRequest,
+                        boolean skipIssuerHttpsCheck,
+                        boolean skipNonceVerification,
+                        @Nullable JwksKeyStore keyStore) throws AuthorizationException {
         // OpenID Connect Core Section 3.1.3.7. rule #1
         // Not enforced: AppAuth does not support JWT encryption.
 
         // OpenID Connect Core Section 3.1.3.7. rule #2
         // Validates that the issuer in the ID Token matches that of the discovery document.
-        AuthorizationServiceDiscovery discoveryDoc = tokenRequest.configuration.discoveryDoc;
-        if (discoveryDoc != null) {
-            String expectedIssuer = discoveryDoc.getIssuer();
-            if (!this.issuer.equals(expectedIssuer)) {
-                throw AuthorizationException.fromTemplate(GeneralErrors.ID_TOKEN_VALIDATION_ERROR,
-                    new IdTokenException("Issuer mismatch"));
-            }
-
-            // OpenID Connect Core Section 2.
-            // The iss value is a case sensitive URL using the https scheme that contains scheme,
-            // host, and optionally, port number and path components and no query or fragment
-            // components.
-            Uri issuerUri = Uri.parse(this.issuer);
-
-            if (!skipIssuerHttpsCheck && !issuerUri.getScheme().equals("https")) {
-                throw AuthorizationException.fromTemplate(GeneralErrors.ID_TOKEN_VALIDATION_ERROR,
-                    new IdTokenException("Issuer must be an https URL"));
-            }
-
-            if (TextUtils.isEmpty(issuerUri.getHost())) {
-                throw AuthorizationException.fromTemplate(GeneralErrors.ID_TOKEN_VALIDATION_ERROR,
-                    new IdTokenException("Issuer host can not be empty"));
-            }
-
-            if (issuerUri.getFragment() != null || issuerUri.getQueryParameterNames().size() > 0) {
-                throw AuthorizationException.fromTemplate(GeneralErrors.ID_TOKEN_VALIDATION_ERROR,
-                    new IdTokenException(
-                        "Issuer URL should not containt query parameters or fragment components"));
-            }
+        IssuerChecks issuerChecks = tokenRequest.configuration.getIssuerChecks();
+        if (issuerChecks != null) {
+            issuerChecks.check(this.issuer, skipIssuerHttpsCheck);
         }
 
-
         // OpenID Connect Core Section 3.1.3.7. rule #3
         // Validates that the audience of the ID Token matches the client ID.
         String clientId = tokenRequest.clientId;
@@ -169,13 +299,39 @@ class IdToken {
 
         // OpenID Connect Core Section 3.1.3.7. rule #6
         // As noted above, AppAuth only supports the code flow which results in direct
-        // communication of the ID Token from the Token Endpoint to the Client, and we are
-        // exercising the option to use TLS server validation instead of checking the token
-        // signature. Users may additionally check the token signature should they wish.
+        // communication of the ID Token from the Token Endpoint to the Client, so by default we
+        // exercise the option to use TLS server validation instead of checking the token
+        // signature. If a key store is provided, the signature is additionally verified using
+        // the keys published by the issuer.
 
         // OpenID Connect Core Section 3.1.3.7. rules #7 & #8
-        // Not enforced. See rule #6.
+        // Only asymmetric algorithms are supported; tokens signed using the client secret (HS*)
+        // or not signed at all are rejected when the signature is verified.
+        if (keyStore != null) {
+            verifySignature(tokenRequest.configuration.discoveryDoc, keyStore);
+        }
+
+        // Only relevant for the authorization_code response type
+        if (GrantTypeValues.AUTHORIZATION_CODE.equals(tokenRequest.grantType)) {
+            // OpenID Connect Core Section 3.1.3.7. rule #11
+            // Validates the nonce.
+            String expectedNonce = tokenRequest.nonce;
+            if (!skipNonceVerification && !TextUtils.equals(this.nonce, expectedNonce)) {
+                throw AuthorizationException.fromTemplate(GeneralErrors.ID_TOKEN_VALIDATION_ERROR,
+                    new IdTokenException("Nonce mismatch"));
+            }
+        }
+        // OpenID Connect Core Section 3.1.3.7. rules #12
+        // ACR is not directly supported by AppAuth.
 
+        // OpenID Connect Core Section 3.1.3.7. rules #12
+        // max_age is not directly supported by AppAuth.
+    }
+
+    /**
+     * Performs the checks of the ID token against the current time.
+     */
+    void validateTimes(Clock clock) throws AuthorizationException {
         // OpenID Connect Core Section 3.1.3.7. rule #9
         // Validates that the current time is before the expiry time.
         Long nowInSeconds = clock.getCurrentTimeMillis() / MILLIS_PER_SECOND;
@@ -192,22 +348,119 @@ class IdToken {
                 new IdTokenException("Issued at time is more than 10 minutes "
                     + "before or after the current time"));
         }
+    }
 
-        // Only relevant for the authorization_code response type
-        if (GrantTypeValues.AUTHORIZATION_CODE.equals(tokenRequest.grantType)) {
-            // OpenID Connect Core Section 3.1.3.7. rule #11
-            // Validates the nonce.
-            String expectedNonce = tokenRequest.nonce;
-            if (!skipNonceVerification && !TextUtils.equals(this.nonce, expectedNonce)) {
+    @WorkerThread
+    private void verifySignature(
+            @Nullable AuthorizationServiceDiscovery discoveryDoc,
+            @NonNull JwksKeyStore keyStore) throws AuthorizationException {
+        if (mSigningInput == null || mSignature == null) {
+            throw AuthorizationException.fromTemplate(GeneralErrors.ID_TOKEN_VALIDATION_ERROR,
+                new IdTokenException("ID Token is not signed"));
+        }
+
+        if (!JwsAlgorithms.isSupported(mAlgorithm)) {
+            throw AuthorizationException.fromTemplate(GeneralErrors.ID_TOKEN_VALIDATION_ERROR,
+                new IdTokenException("Unsupported ID Token signature algorithm: " + mAlgorithm));
+        }
+
+        Uri jwksUri = discoveryDoc != null ? discoveryDoc.getJwksUri() : null;
+        if (jwksUri == null) {
+            throw AuthorizationException.fromTemplate(GeneralErrors.ID_TOKEN_VALIDATION_ERROR,
+                new IdTokenException("No JWKS URI available to verify the ID Token signature"));
+        }
+
+        PublicKey key;
+        try {
+            key = keyStore.getKey(jwksUri, mKeyId, mAlgorithm);
+        } catch (IOException ex) {
+            throw AuthorizationException.fromTemplate(GeneralErrors.NETWORK_ERROR, ex);
+        }
+
+        if (key == null) {
+            throw AuthorizationException.fromTemplate(GeneralErrors.ID_TOKEN_VALIDATION_ERROR,
+                new IdTokenException("No key found to verify the ID Token signature"));
+        }
+
+        boolean verified;
+        try {
+            verified = JwsAlgorithms.verify(mAlgorithm, key, mSigningInput, mSignature);
+        } catch (GeneralSecurityException ex) {
+            throw AuthorizationException.fromTemplate(GeneralErrors.ID_TOKEN_VALIDATION_ERROR, ex);
+        }
+
+        if (!verified) {
+            throw AuthorizationException.fromTemplate(GeneralErrors.ID_TOKEN_VALIDATION_ERROR,
+                new IdTokenException("ID Token signature is invalid"));
+        }
+    }
+
+    /**
+     * The checks of the expected issuer of ID tokens, derived once from the discovery document
+     * of a service rather than for every token validated.
+     *
+     * @see AuthorizationServiceConfiguration#getIssuerChecks()
+     */
+    static final class IssuerChecks {
+
+        @NonNull
+        final String expectedIssuer;
+
+        private final boolean mHttps;
+        private final boolean mHasHost;
+        private final boolean mHasQueryOrFragment;
+
+        private IssuerChecks(
+                @NonNull String expectedIssuer,
+                boolean https,
+                boolean hasHost,
+                boolean hasQueryOrFragment) {
+            this.expectedIssuer = expectedIssuer;
+            mHttps = https;
+            mHasHost = hasHost;
+            mHasQueryOrFragment = hasQueryOrFragment;
+        }
+
+        @NonNull
+        static IssuerChecks forIssuer(@NonNull String expectedIssuer) {
+            // OpenID Connect Core Section 2.
+            // The iss value is a case sensitive URL using the https scheme that contains scheme,
+            // host, and optionally, port number and path components and no query or fragment
+            // components.
+            // As the issuer of the ID token must match the expected issuer exactly, the URL
+            // checks are performed on the expected issuer.
+            Uri issuerUri = Uri.parse(expectedIssuer);
+            return new IssuerChecks(
+                    expectedIssuer,
+                    "https".equals(issuerUri.getScheme()),
+                    !TextUtils.isEmpty(issuerUri.getHost()),
+                    issuerUri.getFragment() != null
+                            || issuerUri.getQueryParameterNames().size() > 0);
+        }
+
+        void check(@NonNull String issuer, boolean skipIssuerHttpsCheck)
+                throws AuthorizationException {
+            if (!issuer.equals(expectedIssuer)) {
                 throw AuthorizationException.fromTemplate(GeneralErrors.ID_TOKEN_VALIDATION_ERROR,
-                    new IdTokenException("Nonce mismatch"));
+                    new IdTokenException("Issuer mismatch"));
             }
-        }
-        // OpenID Connect Core Section 3.1.3.7. rules #12
-        // ACR is not directly supported by AppAuth.
 
-        // OpenID Connect Core Section 3.1.3.7. rules #12
-        // max_age is not directly supported by AppAuth.
+            if (!skipIssuerHttpsCheck && !mHttps) {
+                throw AuthorizationException.fromTemplate(GeneralErrors.ID_TOKEN_VALIDATION_ERROR,
+                    new IdTokenException("Issuer must be an https URL"));
+            }
+
+            if (!mHasHost) {
+                throw AuthorizationException.fromTemplate(GeneralErrors.ID_TOKEN_VALIDATION_ERROR,
+                    new IdTokenException("Issuer host can not be empty"));
+            }
+
+            if (mHasQueryOrFragment) {
+                throw AuthorizationException.fromTemplate(GeneralErrors.ID_TOKEN_VALIDATION_ERROR,
+                    new IdTokenException(
+                        "Issuer URL should not containt query parameters or fragment components"));
+            }
+        }
     }
 
     static class IdTokenException extends Exception {
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A read-only view of all claims of an ID token, including those which are not used for
+ * validation, such as `auth_time`, `acr`, `amr`, `azp` and custom claims.
+ *
+ * The claims JSON is only parsed on first access to a claim, and the result is retained for
+ * subsequent accesses. Getters return `null` if the claim is absent, is `null`, or is not of the
+ * requested type.
+ *
+ * @see AuthState#getIdTokenClaims()
+ * @see "OpenID Connect Core ID Token, Section 2
+ * <http://openid.net/specs/openid-connect-core-1_0.html#IDToken>"
+ */
+public final class IdTokenClaims {
+
+    private static final String KEY_AUTH_TIME = "auth_time";
+    private static final String KEY_ACR = "acr";
+    private static final String KEY_AMR = "amr";
+    private static final String KEY_AZP = "azp";
+
+    @Nullable
+    private final String mClaimsJson;
+
+    @Nullable
+    private JSONObject mClaims;
+
+    IdTokenClaims(@NonNull String claimsJson) {
+        mClaimsJson = checkNotNull(claimsJson, "claimsJson cannot be null");
+    }
+
+    IdTokenClaims(@NonNull JSONObject claims) {
+        mClaimsJson = null;
+        mClaims = checkNotNull(claims, "claims cannot be null");
+    }
+
+    /**
+     * Determines whether the token has a non-null value for the specified claim.
+     */
+    public boolean has(@NonNull String name) {
+        return getValue(name) != null;
+    }
+
+    /**
+     * The names of all claims of the token.
+     */
+    @NonNull
+    public Set<String> getNames() {
+        Set<String> names = new LinkedHashSet<>();
+        Iterator<String> keys = getClaims().keys();
+        while (keys.hasNext()) {
+            names.add(keys.next());
+        }
+        return Collections.unmodifiableSet(names);
+    }
+
+    /**
+     * Returns the specified claim, if it is a string.
+     */
+    @Nullable
+    public String getString(@NonNull String name) {
+        Object value = getValue(name);
+        return value instanceof String ? (String) value : null;
+    }
+
+    /**
+     * Returns the specified claim, if it is an integral number, or a string representation of
+     * one. Numbers with a fractional part are truncated, as for numeric dates.
+     */
+    @Nullable
+    public Long getLong(@NonNull String name) {
+        Object value = getValue(name);
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+
+        if (value instanceof String) {
+            try {
+                return (long) Double.parseDouble((String) value);
+            } catch (NumberFormatException ex) {
+                return null;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the specified claim, if it is a boolean.
+     */
+    @Nullable
+    public Boolean getBoolean(@NonNull String name) {
+        Object value = getValue(name);
+        return value instanceof Boolean ? (Boolean) value : null;
+    }
+
+    /**
+     * Returns the specified claim, if it is an array of strings. As with the `aud` claim, a
+     * single string is returned as a list with one element.
+     */
+    @Nullable
+    public List<String> getStringList(@NonNull String name) {
+        Object value = getValue(name);
+        if (value instanceof String) {
+            return Collections.singletonList((String) value);
+        }
+
+        if (!(value instanceof JSONArray)) {
+            return null;
+        }
+
+        JSONArray array = (JSONArray) value;
+        List<String> values = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            Object element = array.opt(i);
+            if (!(element instanceof String)) {
+                return null;
+            }
+            values.add((String) element);
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    /**
+     * Returns the specified claim, if it is a JSON object, as a view of a copy of its members.
+     */
+    @Nullable
+    public IdTokenClaims getObject(@NonNull String name) {
+        Object value = getValue(name);
+        // the object is copied through its JSON, so that the view shares no state with this one
+        return value instanceof JSONObject ? new IdTokenClaims(value.toString()) : null;
+    }
+
+    /**
+     * The time at which the End-User authenticated, in seconds since the epoch.
+     */
+    @Nullable
+    public Long getAuthTime() {
+        return getLong(KEY_AUTH_TIME);
+    }
+
+    /**
+     * The Authentication Context Class Reference satisfied by the authentication.
+     */
+    @Nullable
+    public String getAuthenticationContextClassReference() {
+        return getString(KEY_ACR);
+    }
+
+    /**
+     * The identifiers of the authentication methods used in the authentication.
+     */
+    @Nullable
+    public List<String> getAuthenticationMethodsReferences() {
+        return getStringList(KEY_AMR);
+    }
+
+    /**
+     * The client ID of the party to which the token was issued.
+     */
+    @Nullable
+    public String getAuthorizedParty() {
+        return getString(KEY_AZP);
+    }
+
+    @Nullable
+    private Object getValue(@NonNull String name) {
+        checkNotNull(name, "name cannot be null");
+        Object value = getClaims().opt(name);
+        return value == JSONObject.NULL ? null : value;
+    }
+
+    @NonNull
+    private synchronized JSONObject getClaims() {
+        if (mClaims == null) {
+            try {
+                mClaims = new JSONObject(mClaimsJson);
+            } catch (JSONException ex) {
+                // the claims were already read successfully when the token was parsed
+                throw new IllegalStateException("ID token claims are not a valid JSON object", ex);
+            }
+        }
+        return mClaims;
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.Preconditions.checkArgument;
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import android.net.Uri;
+import android.text.TextUtils;
+import android.util.Base64;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import net.openid.appauth.AuthorizationException.GeneralErrors;
+import net.openid.appauth.IdToken.IdTokenException;
+import org.json.JSONException;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of ID tokens which have been parsed and passed the
+ * {@link IdToken#validateClaims(TokenRequest, boolean, boolean, JwksKeyStore) time-independent
+ * validation checks}, keyed by the hash of the token and the parameters it was validated against.
+ * This avoids decoding and re-validating the same ID token each time it is checked.
+ *
+ * Entries are retained until the token expires, or until evicted as the least recently used
+ * entry. The checks against the current time are cheap, and are always performed. Failed
+ * validations are not cached, as they may be transient; for instance, the signing key of the
+ * token may not yet have been published.
+ */
+final class IdTokenValidationCache {
+
+    @VisibleForTesting
+    static final int DEFAULT_MAX_ENTRIES = 16;
+
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The cache shared by all authorization services in the process.
+     */
+    static final IdTokenValidationCache INSTANCE =
+            new IdTokenValidationCache(DEFAULT_MAX_ENTRIES);
+
+    private final Map<Key, IdToken> mEntries;
+
+    @VisibleForTesting
+    IdTokenValidationCache(final int maxEntries) {
+        checkArgument(maxEntries > 0, "maxEntries must be positive");
+        mEntries = new LinkedHashMap<Key, IdToken>(maxEntries, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, IdToken> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Parses the specified ID token and performs the time-independent validation checks, or
+     * returns the token from the cache if it has previously passed these checks with the same
+     * parameters. The caller is responsible for then calling
+     * {@link IdToken#validateTimes(Clock)}.
+     *
+     * @throws AuthorizationException if the token cannot be parsed, or is invalid.
+     */
+    @WorkerThread
+    @NonNull
+    IdToken validateClaims(
+            @NonNull String idToken,
+            @NonNull TokenRequest tokenRequest,
+            @NonNull Clock clock,
+            boolean skipIssuerHttpsCheck,
+            boolean skipNonceVerification,
+            @Nullable JwksKeyStore keyStore) throws AuthorizationException {
+        checkNotNull(idToken, "idToken cannot be null");
+        checkNotNull(tokenRequest, "tokenRequest cannot be null");
+
+        Key key = new Key(
+                idToken,
+                tokenRequest,
+                skipIssuerHttpsCheck,
+                skipNonceVerification,
+                keyStore);
+        long nowInSeconds = clock.getCurrentTimeMillis() / MILLIS_PER_SECOND;
+
+        synchronized (mEntries) {
+            IdToken cached = mEntries.get(key);
+            if (cached != null) {
+                if (nowInSeconds <= cached.expiration) {
+                    return cached;
+                }
+                mEntries.remove(key);
+            }
+        }
+
+        IdToken token;
+        try {
+            token = IdToken.from(idToken);
+        } catch (IdTokenException | JSONException ex) {
+            throw AuthorizationException.fromTemplate(
+                    GeneralErrors.ID_TOKEN_PARSING_ERROR,
+                    ex);
+        }
+
+        token.validateClaims(tokenRequest, skipIssuerHttpsCheck, skipNonceVerification, keyStore);
+
+        if (nowInSeconds <= token.expiration) {
+            synchronized (mEntries) {
+                mEntries.put(key, token);
+            }
+        }
+        return token;
+    }
+
+    /**
+     * Discards all cached tokens.
+     */
+    void clear() {
+        synchronized (mEntries) {
+            mEntries.clear();
+        }
+    }
+
+    @VisibleForTesting
+    int size() {
+        synchronized (mEntries) {
+            return mEntries.size();
+        }
+    }
+
+    /**
+     * Identifies a validated token by its hash, and the parameters which influence the outcome
+     * of the time-independent checks.
+     */
+    private static final class Key {
+
+        @NonNull
+        private final String mTokenHash;
+
+        @Nullable
+        private final String mExpectedIssuer;
+
+        @Nullable
+        private final String mClientId;
+
+        @Nullable
+        private final String mExpectedNonce;
+
+        @Nullable
+        private final String mJwksUri;
+
+        @Nullable
+        private final JwksKeyStore mKeyStore;
+
+        private final boolean mCheckNonce;
+        private final boolean mSkipIssuerHttpsCheck;
+
+        Key(@NonNull String idToken,
+                @NonNull TokenRequest tokenRequest,
+                boolean skipIssuerHttpsCheck,
+                boolean skipNonceVerification,
+                @Nullable JwksKeyStore keyStore) {
+            AuthorizationServiceDiscovery discoveryDoc = tokenRequest.configuration.discoveryDoc;
+            mTokenHash = hash(idToken);
+            mExpectedIssuer = discoveryDoc != null ? discoveryDoc.getIssuer() : null;
+            mClientId = tokenRequest.clientId;
+            mCheckNonce = !skipNonceVerification
+                    && GrantTypeValues.AUTHORIZATION_CODE.equals(tokenRequest.grantType);
+            mExpectedNonce = mCheckNonce ? tokenRequest.nonce : null;
+            Uri jwksUri = keyStore != null && discoveryDoc != null
+                    ? discoveryDoc.getJwksUri()
+                    : null;
+            mJwksUri = jwksUri != null ? jwksUri.toString() : null;
+            mKeyStore = keyStore;
+            mSkipIssuerHttpsCheck = skipIssuerHttpsCheck;
+        }
+
+        @NonNull
+        private static String hash(@NonNull String idToken) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256")
+                        .digest(idToken.getBytes(UTF_8));
+                return Base64.encodeToString(digest, Base64.NO_WRAP);
+            } catch (NoSuchAlgorithmException ex) {
+                // fall back to keying on the token itself
+                return idToken;
+            }
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key) other;
+            return mTokenHash.equals(key.mTokenHash)
+                    && mCheckNonce == key.mCheckNonce
+                    && mSkipIssuerHttpsCheck == key.mSkipIssuerHttpsCheck
+                    && mKeyStore == key.mKeyStore
+                    && TextUtils.equals(mExpectedIssuer, key.mExpectedIssuer)
+                    && TextUtils.equals(mClientId, key.mClientId)
+                    && TextUtils.equals(mExpectedNonce, key.mExpectedNonce)
+                    && TextUtils.equals(mJwksUri, key.mJwksUri);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mTokenHash.hashCode();
+            result = 31 * result + (mExpectedIssuer != null ? mExpectedIssuer.hashCode() : 0);
+            result = 31 * result + (mClientId != null ? mClientId.hashCode() : 0);
+            result = 31 * result + (mExpectedNonce != null ? mExpectedNonce.hashCode() : 0);
+            result = 31 * result + (mJwksUri != null ? mJwksUri.hashCode() : 0);
+            result = 31 * result + System.identityHashCode(mKeyStore);
+            result = 31 * result + (mCheckNonce ? 1 : 0);
+            return 31 * result + (mSkipIssuerHttpsCheck ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.Preconditions.checkArgument;
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import android.content.Intent;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Retains recently produced authorization results in memory, so that an intent produced by
+ * {@link AuthorizationResponse#toIntent()}, {@link EndSessionResponse#toIntent()} or
+ * {@link AuthorizationException#toIntent()} can be read back in the same process without
+ * parsing its JSON form. The intent carries a small opaque handle to the result alongside the
+ * JSON, under the key of the JSON extra with {@link #HANDLE_SUFFIX} appended.
+ *
+ * The JSON form remains in the intent as the compatibility path: it is used when the intent is
+ * read by another process, or after the process was killed (for instance, when an activity is
+ * recreated with its original intent). Results are never released explicitly, as an intent may
+ * be read any number of times, but only the most recently produced results are retained.
+ */
+final class IntentResultRegistry {
+
+    @VisibleForTesting
+    static final int DEFAULT_MAX_ENTRIES = 16;
+
+    @VisibleForTesting
+    static final String HANDLE_SUFFIX = ".handle";
+
+    /**
+     * The registry shared by all results in the process.
+     */
+    static final IntentResultRegistry INSTANCE = new IntentResultRegistry(DEFAULT_MAX_ENTRIES);
+
+    private final Map<String, Object> mResults;
+
+    @NonNull
+    private final String mHandlePrefix;
+
+    private long mNextId;
+
+    @VisibleForTesting
+    IntentResultRegistry(final int maxEntries) {
+        checkArgument(maxEntries > 0, "maxEntries must be positive");
+        mResults = new LinkedHashMap<String, Object>(maxEntries, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        mHandlePrefix = Long.toHexString(new SecureRandom().nextLong()) + "-";
+    }
+
+    /**
+     * Retains the specified result, and adds a handle to it to the intent, under the specified
+     * extra key with {@link #HANDLE_SUFFIX} appended.
+     */
+    void putHandle(@NonNull Intent data, @NonNull String extraKey, @NonNull Object result) {
+        checkNotNull(result, "result cannot be null");
+        String handle;
+        synchronized (mResults) {
+            handle = mHandlePrefix + Long.toHexString(mNextId++);
+            mResults.put(handle, result);
+        }
+        data.putExtra(extraKey + HANDLE_SUFFIX, handle);
+    }
+
+    /**
+     * Retrieves the result of the specified type which the intent holds a handle to, or `null`
+     * if it holds no handle, or the handle cannot be resolved by this process.
+     */
+    @Nullable
+    <T> T get(@NonNull Intent data, @NonNull String extraKey, @NonNull Class<T> type) {
+        String handle = data.getStringExtra(extraKey + HANDLE_SUFFIX);
+        if (handle == null) {
+            return null;
+        }
+
+        Object result;
+        synchronized (mResults) {
+            result = mResults.get(handle);
+        }
+        return type.isInstance(result) ? type.cast(result) : null;
+    }
+
+    /**
+     * Releases all retained results.
+     */
+    void clear() {
+        synchronized (mResults) {
+            mResults.clear();
+        }
+    }
+
+    @VisibleForTesting
+    int size() {
+        synchronized (mResults) {
+            return mResults.size();
+        }
+    }
+}
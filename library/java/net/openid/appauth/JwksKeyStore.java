@@ -0,0 +1,474 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import android.content.Context;
+import android.net.Uri;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import net.openid.appauth.connectivity.ConnectionBuilder;
+import net.openid.appauth.connectivity.DefaultConnectionBuilder;
+import net.openid.appauth.internal.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the JSON Web Key Sets (JWKS) of authorization servers, for the verification of ID token
+ * signatures.
+ *
+ * Keys are indexed by their key ID (`kid`), and are converted into {@link PublicKey} instances
+ * once, when the key set is fetched or read from disk, rather than for each verified token. Key
+ * sets are cached for the lifetime indicated by the `Cache-Control` header of the JWKS
+ * response, and are persisted so that they remain available across application restarts.
+ *
+ * A token signed with a key ID which is not in the cached key set, typically following key
+ * rotation by the authorization server, causes the key set to be fetched again; to avoid
+ * repeatedly fetching the key set for tokens signed with a key that the server does not publish,
+ * a key set is fetched at most once per {@link #MIN_REFETCH_INTERVAL_MS}. Concurrent requests
+ * for keys from the same key set share a single fetch.
+ *
+ * @see AppAuthConfiguration.Builder#setIdTokenKeyStore(JwksKeyStore)
+ * @see "JSON Web Key (JWK) (RFC 7517), Section 5 <https://tools.ietf.org/html/rfc7517#section-5>"
+ */
+public final class JwksKeyStore {
+
+    /**
+     * The lifetime of a key set whose response does not specify a `max-age`.
+     */
+    public static final long DEFAULT_MAX_AGE_MS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * The maximum lifetime of a key set, regardless of the `max-age` of its response.
+     */
+    public static final long MAX_MAX_AGE_MS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * The minimum interval between fetches of the same key set.
+     */
+    public static final long MIN_REFETCH_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+
+    @VisibleForTesting
+    static final String CACHE_DIRECTORY = "appauth-jwks";
+
+    private static final String CACHE_FILE_SUFFIX = ".jwks";
+    private static final String KEY_KEY_SET = "jwks";
+    private static final String KEY_EXPIRATION_TIME = "expiresAt";
+    private static final String KEY_FETCH_TIME = "fetchedAt";
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String DIRECTIVE_MAX_AGE = "max-age=";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Nullable
+    private final File mDirectory;
+
+    @NonNull
+    private final ConnectionBuilder mConnectionBuilder;
+
+    @NonNull
+    private final Clock mClock;
+
+    private final Map<String, KeySet> mKeySets = new HashMap<>();
+
+    private int mFetchCount;
+
+    /**
+     * Creates a key store which persists key sets in the application's cache directory.
+     */
+    @NonNull
+    public static JwksKeyStore create(@NonNull Context context) {
+        checkNotNull(context, "context cannot be null");
+        return new JwksKeyStore(
+                new File(context.getCacheDir(), CACHE_DIRECTORY),
+                DefaultConnectionBuilder.INSTANCE);
+    }
+
+    /**
+     * Creates a key store which persists key sets in the specified directory, or only in memory
+     * if the directory is `null`, and fetches them using the specified connection builder.
+     */
+    public JwksKeyStore(@Nullable File directory, @NonNull ConnectionBuilder connectionBuilder) {
+        this(directory, connectionBuilder, SystemClock.INSTANCE);
+    }
+
+    @VisibleForTesting
+    JwksKeyStore(
+            @Nullable File directory,
+            @NonNull ConnectionBuilder connectionBuilder,
+            @NonNull Clock clock) {
+        mDirectory = directory;
+        mConnectionBuilder = checkNotNull(connectionBuilder, "connectionBuilder cannot be null");
+        mClock = checkNotNull(clock, "clock cannot be null");
+    }
+
+    /**
+     * Returns the key with the specified key ID from the specified key set, which can be used
+     * with the specified algorithm. If the token does not specify a key ID, the key set must
+     * contain exactly one key which can be used with the algorithm.
+     *
+     * @return the key, or `null` if the key set does not contain a matching key.
+     * @throws IOException if the key set is not cached and could not be fetched.
+     */
+    @WorkerThread
+    @Nullable
+    public PublicKey getKey(
+            @NonNull Uri jwksUri,
+            @Nullable String keyId,
+            @NonNull String algorithm) throws IOException {
+        checkNotNull(jwksUri, "jwksUri cannot be null");
+        checkNotNull(algorithm, "algorithm cannot be null");
+
+        KeySet keySet;
+        synchronized (mKeySets) {
+            keySet = mKeySets.get(jwksUri.toString());
+            if (keySet == null) {
+                keySet = new KeySet(jwksUri);
+                mKeySets.put(jwksUri.toString(), keySet);
+            }
+        }
+
+        // holding the lock of the key set while fetching ensures that concurrent requests share
+        // the result of a single fetch
+        synchronized (keySet) {
+            if (!keySet.mLoaded) {
+                readKeySet(keySet);
+                keySet.mLoaded = true;
+            }
+
+            long now = mClock.getCurrentTimeMillis();
+            PublicKey key = keySet.findKey(keyId, algorithm);
+            if (key != null && now < keySet.mExpirationTime) {
+                return key;
+            }
+
+            // a fetch time in the future means that the clock was set back
+            long sinceLastFetch = now - keySet.mLastFetchAttemptTime;
+            if (sinceLastFetch >= 0 && sinceLastFetch < MIN_REFETCH_INTERVAL_MS) {
+                return key;
+            }
+
+            keySet.mLastFetchAttemptTime = now;
+            try {
+                fetchKeySet(keySet, now);
+            } catch (IOException ex) {
+                if (keySet.mKeys == null) {
+                    throw ex;
+                }
+                Logger.warnWithStack(ex, "Unable to refresh JWKS %s, using cached keys", jwksUri);
+            }
+
+            return keySet.findKey(keyId, algorithm);
+        }
+    }
+
+    /**
+     * Discards all cached key sets, from memory and from disk.
+     */
+    @WorkerThread
+    public void clear() {
+        synchronized (mKeySets) {
+            mKeySets.clear();
+            if (mDirectory != null) {
+                File[] files = mDirectory.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        if (!file.delete()) {
+                            Logger.warn("Unable to delete cached JWKS %s", file);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @VisibleForTesting
+    int getFetchCount() {
+        synchronized (mKeySets) {
+            return mFetchCount;
+        }
+    }
+
+    @WorkerThread
+    private void fetchKeySet(@NonNull KeySet keySet, long now) throws IOException {
+        synchronized (mKeySets) {
+            mFetchCount++;
+        }
+
+        InputStream is = null;
+        JSONObject json;
+        long maxAge;
+        try {
+            HttpURLConnection conn = mConnectionBuilder.openConnection(keySet.mUri);
+            conn.setRequestMethod("GET");
+            conn.setRequestProperty("Accept", "application/json");
+            conn.setDoInput(true);
+            conn.connect();
+
+            int responseCode = conn.getResponseCode();
+            if (responseCode < HttpURLConnection.HTTP_OK
+                    || responseCode >= HttpURLConnection.HTTP_MULT_CHOICE) {
+                throw new IOException("Unexpected JWKS response code " + responseCode);
+            }
+
+            maxAge = parseMaxAge(conn.getHeaderField(HEADER_CACHE_CONTROL));
+            is = conn.getInputStream();
+            json = new JSONObject(Utils.readInputStream(is));
+        } catch (JSONException ex) {
+            throw new IOException("Malformed JWKS response", ex);
+        } finally {
+            Utils.closeQuietly(is);
+        }
+
+        keySet.update(json, now + maxAge, now);
+        writeKeySet(keySet, json);
+    }
+
+    @WorkerThread
+    private void readKeySet(@NonNull KeySet keySet) {
+        File file = getCacheFile(keySet.mUri);
+        if (file == null || !file.exists()) {
+            return;
+        }
+
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            JSONObject json = new JSONObject(Utils.readInputStream(is));
+            keySet.update(
+                    json.getJSONObject(KEY_KEY_SET),
+                    json.getLong(KEY_EXPIRATION_TIME),
+                    json.getLong(KEY_FETCH_TIME));
+        } catch (IOException | JSONException ex) {
+            Logger.warnWithStack(ex, "Discarding unreadable cached JWKS %s", file);
+            if (!file.delete()) {
+                Logger.warn("Unable to delete cached JWKS %s", file);
+            }
+        } finally {
+            Utils.closeQuietly(is);
+        }
+    }
+
+    @WorkerThread
+    private void writeKeySet(@NonNull KeySet keySet, @NonNull JSONObject keySetJson) {
+        File file = getCacheFile(keySet.mUri);
+        if (file == null) {
+            return;
+        }
+
+        JSONObject json = new JSONObject();
+        JsonUtil.put(json, KEY_KEY_SET, keySetJson);
+        JsonUtil.putIfNotNull(json, KEY_EXPIRATION_TIME, keySet.mExpirationTime);
+        JsonUtil.putIfNotNull(json, KEY_FETCH_TIME, keySet.mLastFetchAttemptTime);
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        try {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                throw new IOException("Unable to create directory " + mDirectory);
+            }
+
+            FileOutputStream out = new FileOutputStream(tempFile);
+            try {
+                out.write(json.toString().getBytes(UTF_8));
+            } finally {
+                out.close();
+            }
+
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Unable to replace " + file);
+            }
+        } catch (IOException ex) {
+            Logger.warnWithStack(ex, "Unable to persist JWKS %s", keySet.mUri);
+        }
+    }
+
+    @Nullable
+    private File getCacheFile(@NonNull Uri jwksUri) {
+        if (mDirectory == null) {
+            return null;
+        }
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(jwksUri.toString().getBytes(UTF_8));
+            StringBuilder name = new StringBuilder(digest.length * 2 + CACHE_FILE_SUFFIX.length());
+            for (byte b : digest) {
+                name.append(String.format(Locale.US, "%02x", b));
+            }
+            return new File(mDirectory, name.append(CACHE_FILE_SUFFIX).toString());
+        } catch (NoSuchAlgorithmException ex) {
+            Logger.warn("SHA-256 is not available, JWKS will not be persisted");
+            return null;
+        }
+    }
+
+    /**
+     * Determines the lifetime of a key set from the `Cache-Control` header of its response.
+     * Responses which must not be cached are given a zero lifetime, so that they are fetched
+     * again on next use, subject to {@link #MIN_REFETCH_INTERVAL_MS}.
+     */
+    @VisibleForTesting
+    static long parseMaxAge(@Nullable String cacheControl) {
+        if (cacheControl == null) {
+            return DEFAULT_MAX_AGE_MS;
+        }
+
+        for (String directive : cacheControl.split(",")) {
+            String value = directive.trim().toLowerCase(Locale.US);
+            if (value.equals("no-store") || value.equals("no-cache")) {
+                return 0L;
+            }
+
+            if (value.startsWith(DIRECTIVE_MAX_AGE)) {
+                try {
+                    long maxAge = TimeUnit.SECONDS.toMillis(
+                            Long.parseLong(value.substring(DIRECTIVE_MAX_AGE.length())));
+                    return Math.max(0L, Math.min(maxAge, MAX_MAX_AGE_MS));
+                } catch (NumberFormatException ex) {
+                    return DEFAULT_MAX_AGE_MS;
+                }
+            }
+        }
+
+        return DEFAULT_MAX_AGE_MS;
+    }
+
+    private static final class KeySet {
+
+        @NonNull
+        final Uri mUri;
+
+        boolean mLoaded;
+
+        @Nullable
+        List<Jwk> mKeys;
+
+        final Map<String, Jwk> mKeysById = new HashMap<>();
+
+        long mExpirationTime;
+
+        long mLastFetchAttemptTime;
+
+        KeySet(@NonNull Uri uri) {
+            mUri = uri;
+        }
+
+        void update(@NonNull JSONObject json, long expirationTime, long fetchTime) {
+            List<Jwk> keys = new ArrayList<>();
+            mKeysById.clear();
+
+            JSONArray keysJson = json.optJSONArray("keys");
+            int count = keysJson != null ? keysJson.length() : 0;
+            for (int i = 0; i < count; i++) {
+                JSONObject keyJson = keysJson.optJSONObject(i);
+                if (keyJson == null) {
+                    continue;
+                }
+
+                try {
+                    PublicKey key = JwsAlgorithms.parsePublicKey(keyJson);
+                    if (key == null) {
+                        continue;
+                    }
+
+                    Jwk jwk = new Jwk(
+                            JsonUtil.getStringIfDefined(keyJson, "kid"),
+                            JsonUtil.getStringIfDefined(keyJson, "alg"),
+                            key);
+                    keys.add(jwk);
+                    if (jwk.mKeyId != null) {
+                        mKeysById.put(jwk.mKeyId, jwk);
+                    }
+                } catch (JSONException | GeneralSecurityException ex) {
+                    // a single malformed key should not prevent the use of the others
+                    Logger.warnWithStack(ex, "Ignoring malformed key in JWKS %s", mUri);
+                }
+            }
+
+            mKeys = keys;
+            mExpirationTime = expirationTime;
+            mLastFetchAttemptTime = fetchTime;
+        }
+
+        @Nullable
+        PublicKey findKey(@Nullable String keyId, @NonNull String algorithm) {
+            if (mKeys == null) {
+                return null;
+            }
+
+            if (keyId != null) {
+                Jwk jwk = mKeysById.get(keyId);
+                return jwk != null && jwk.isUsableWith(algorithm) ? jwk.mKey : null;
+            }
+
+            Jwk match = null;
+            for (Jwk jwk : mKeys) {
+                if (jwk.isUsableWith(algorithm)) {
+                    if (match != null) {
+                        // ambiguous without a key ID
+                        return null;
+                    }
+                    match = jwk;
+                }
+            }
+            return match != null ? match.mKey : null;
+        }
+    }
+
+    private static final class Jwk {
+
+        @Nullable
+        final String mKeyId;
+
+        @Nullable
+        final String mAlgorithm;
+
+        @NonNull
+        final PublicKey mKey;
+
+        Jwk(@Nullable String keyId, @Nullable String algorithm, @NonNull PublicKey key) {
+            mKeyId = keyId;
+            mAlgorithm = algorithm;
+            mKey = key;
+        }
+
+        boolean isUsableWith(@NonNull String algorithm) {
+            return (mAlgorithm == null || mAlgorithm.equals(algorithm))
+                    && JwsAlgorithms.isCompatible(algorithm, mKey);
+        }
+    }
+}
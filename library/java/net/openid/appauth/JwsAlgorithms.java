@@ -0,0 +1,243 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import android.util.Base64;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECFieldFp;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.EllipticCurve;
+import java.security.spec.RSAPublicKeySpec;
+
+/**
+ * The JSON Web Signature algorithms supported for ID token signature verification, and the
+ * conversion of JSON Web Keys for them into {@link PublicKey} instances.
+ *
+ * @see "JSON Web Algorithms (JWA) (RFC 7518), Section 3
+ * <https://tools.ietf.org/html/rfc7518#section-3>"
+ */
+final class JwsAlgorithms {
+
+    static final String RS256 = "RS256";
+    static final String ES256 = "ES256";
+    static final String PS256 = "PS256";
+
+    static final String KEY_TYPE_RSA = "RSA";
+    static final String KEY_TYPE_EC = "EC";
+
+    /**
+     * The platform name of the RSASSA-PSS signature algorithm used by PS256. This is only
+     * provided from API 23 onwards, so PS256 is not supported on older platform versions.
+     */
+    private static final String PS256_SIGNATURE_ALGORITHM = "SHA256withRSA/PSS";
+
+    private static final String CURVE_P256 = "P-256";
+    private static final int P256_COORDINATE_LENGTH = 32;
+
+    /**
+     * The domain parameters of the NIST P-256 curve. These are defined here rather than obtained
+     * from the platform, as older platform versions cannot look up curves by name.
+     *
+     * @see "SEC 2: Recommended Elliptic Curve Domain Parameters, Section 2.4.2
+     * <https://www.secg.org/sec2-v2.pdf>"
+     */
+    private static final ECParameterSpec P256 = new ECParameterSpec(
+            new EllipticCurve(
+                    new ECFieldFp(hex(
+                            "FFFFFFFF00000001000000000000000000000000FFFFFFFFFFFFFFFFFFFFFFFF")),
+                    hex("FFFFFFFF00000001000000000000000000000000FFFFFFFFFFFFFFFFFFFFFFFC"),
+                    hex("5AC635D8AA3A93E7B3EBBD55769886BC651D06B0CC53B0F63BCE3C3E27D2604B")),
+            new ECPoint(
+                    hex("6B17D1F2E12C4247F8BCE6E563A440F277037D812DEB33A0F4A13945D898C296"),
+                    hex("4FE342E2FE1A7F9B8EE7EB4A7C0F9E162BCE33576B315ECECBB6406837BF51F5")),
+            hex("FFFFFFFF00000000FFFFFFFFFFFFFFFFBCE6FAADA7179E84F3B9CAC2FC632551"),
+            1);
+
+    private JwsAlgorithms() {
+        throw new IllegalStateException("This type is not intended to be instantiated");
+    }
+
+    /**
+     * Determines whether the specified algorithm is supported. PS256 is only supported where the
+     * platform provides RSASSA-PSS signatures, which is from API 23 onwards.
+     */
+    static boolean isSupported(@Nullable String algorithm) {
+        if (PS256.equals(algorithm)) {
+            return Ps256Availability.AVAILABLE;
+        }
+        return RS256.equals(algorithm) || ES256.equals(algorithm);
+    }
+
+    /**
+     * Returns the JSON Web Key type required by the specified algorithm.
+     */
+    @NonNull
+    static String getKeyType(@NonNull String algorithm) {
+        return ES256.equals(algorithm) ? KEY_TYPE_EC : KEY_TYPE_RSA;
+    }
+
+    /**
+     * Converts a JSON Web Key into a public key, or returns `null` if the key is not of a
+     * supported type or is not usable for signatures.
+     */
+    @Nullable
+    static PublicKey parsePublicKey(@NonNull JSONObject jwk)
+            throws JSONException, GeneralSecurityException {
+        String use = jwk.optString("use", null);
+        if (use != null && !"sig".equals(use)) {
+            return null;
+        }
+
+        String keyType = jwk.getString("kty");
+        if (KEY_TYPE_RSA.equals(keyType)) {
+            RSAPublicKeySpec spec = new RSAPublicKeySpec(
+                    decodeUnsigned(jwk.getString("n")),
+                    decodeUnsigned(jwk.getString("e")));
+            return KeyFactory.getInstance(KEY_TYPE_RSA).generatePublic(spec);
+        }
+
+        if (KEY_TYPE_EC.equals(keyType) && CURVE_P256.equals(jwk.getString("crv"))) {
+            ECPublicKeySpec spec = new ECPublicKeySpec(
+                    new ECPoint(
+                            decodeUnsigned(jwk.getString("x")),
+                            decodeUnsigned(jwk.getString("y"))),
+                    P256);
+            return KeyFactory.getInstance(KEY_TYPE_EC).generatePublic(spec);
+        }
+
+        return null;
+    }
+
+    /**
+     * Determines whether the specified key can be used with the specified algorithm.
+     */
+    static boolean isCompatible(@NonNull String algorithm, @NonNull PublicKey key) {
+        return ES256.equals(algorithm)
+                ? key instanceof ECPublicKey
+                : key instanceof RSAPublicKey;
+    }
+
+    /**
+     * Verifies a JWS signature over the specified signing input.
+     */
+    static boolean verify(
+            @NonNull String algorithm,
+            @NonNull PublicKey key,
+            @NonNull byte[] signingInput,
+            @NonNull byte[] signature) throws GeneralSecurityException {
+        Signature verifier;
+        byte[] encodedSignature = signature;
+        switch (algorithm) {
+            case RS256:
+                verifier = Signature.getInstance("SHA256withRSA");
+                break;
+            case PS256:
+                // the platform defaults match RFC 7518: MGF1 with SHA-256, and a 32 byte salt
+                try {
+                    verifier = Signature.getInstance(PS256_SIGNATURE_ALGORITHM);
+                } catch (NoSuchAlgorithmException ex) {
+                    throw new GeneralSecurityException("Unsupported algorithm: " + algorithm, ex);
+                }
+                break;
+            case ES256:
+                if (signature.length != 2 * P256_COORDINATE_LENGTH) {
+                    return false;
+                }
+                verifier = Signature.getInstance("SHA256withECDSA");
+                encodedSignature = toDerSignature(signature);
+                break;
+            default:
+                throw new GeneralSecurityException("Unsupported algorithm: " + algorithm);
+        }
+
+        verifier.initVerify(key);
+        verifier.update(signingInput);
+        return verifier.verify(encodedSignature);
+    }
+
+    /**
+     * Converts the concatenated R and S values of a JWS ECDSA signature into the ASN.1 DER
+     * sequence expected by {@link Signature}.
+     */
+    @NonNull
+    private static byte[] toDerSignature(@NonNull byte[] signature) {
+        byte[] r = toDerInteger(signature, 0, P256_COORDINATE_LENGTH);
+        byte[] s = toDerInteger(signature, P256_COORDINATE_LENGTH, P256_COORDINATE_LENGTH);
+
+        // for P-256, the sequence is always shorter than 128 bytes, so short form lengths apply
+        byte[] der = new byte[2 + 2 + r.length + 2 + s.length];
+        int offset = 0;
+        der[offset++] = 0x30;
+        der[offset++] = (byte) (der.length - 2);
+        der[offset++] = 0x02;
+        der[offset++] = (byte) r.length;
+        System.arraycopy(r, 0, der, offset, r.length);
+        offset += r.length;
+        der[offset++] = 0x02;
+        der[offset++] = (byte) s.length;
+        System.arraycopy(s, 0, der, offset, s.length);
+        return der;
+    }
+
+    @NonNull
+    private static byte[] toDerInteger(@NonNull byte[] data, int offset, int length) {
+        // BigInteger produces the minimal two's complement encoding required by DER
+        byte[] value = new byte[length];
+        System.arraycopy(data, offset, value, 0, length);
+        return new BigInteger(1, value).toByteArray();
+    }
+
+    @NonNull
+    private static BigInteger decodeUnsigned(@NonNull String base64Url) {
+        return new BigInteger(1, Base64.decode(base64Url, Base64.URL_SAFE));
+    }
+
+    @NonNull
+    private static BigInteger hex(@NonNull String value) {
+        return new BigInteger(value, 16);
+    }
+
+    /**
+     * Holds whether the platform provides the PS256 signature algorithm, determined once on
+     * first use.
+     */
+    private static final class Ps256Availability {
+        static final boolean AVAILABLE = isAvailable();
+
+        private static boolean isAvailable() {
+            try {
+                Signature.getInstance(PS256_SIGNATURE_ALGORITHM);
+                return true;
+            } catch (NoSuchAlgorithmException ex) {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import net.openid.appauth.IdToken.IdTokenException;
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the segments of a JWT compact serialization, without the intermediate copies and
+ * object trees of a general purpose JSON parser.
+ *
+ * The segment boundaries are found in a single scan of the token, and each segment is decoded
+ * from base64url into a buffer which is reused by all parses on the same thread. Decoded JSON
+ * segments are read with a streaming {@link JsonReader}, so that callers can extract only the
+ * members they need and skip the rest.
+ *
+ * @see "JSON Web Token (JWT) (RFC 7519), Section 7.2
+ * <https://tools.ietf.org/html/rfc7519#section-7.2>"
+ */
+final class JwtParser {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    /**
+     * Buffers larger than this are not retained after use, so that parsing an unusually large
+     * token does not permanently increase the memory used by the thread.
+     */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<byte[]> DECODE_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[INITIAL_BUFFER_SIZE];
+        }
+    };
+
+    @NonNull
+    private final String mToken;
+
+    private final int mHeaderEnd;
+    private final int mPayloadEnd;
+    private final int mSignatureEnd;
+
+    /**
+     * Locates the segments of the specified token.
+     *
+     * @throws IdTokenException if the token does not have both a header and a payload segment.
+     */
+    JwtParser(@NonNull String token) throws IdTokenException {
+        mToken = token;
+        mHeaderEnd = token.indexOf('.');
+        int payloadEnd = mHeaderEnd >= 0 ? token.indexOf('.', mHeaderEnd + 1) : -1;
+        mPayloadEnd = payloadEnd >= 0 ? payloadEnd : token.length();
+        int signatureEnd = payloadEnd >= 0 ? token.indexOf('.', payloadEnd + 1) : -1;
+        mSignatureEnd = signatureEnd >= 0 ? signatureEnd : token.length();
+
+        if (mHeaderEnd <= 0 || mPayloadEnd == mHeaderEnd + 1) {
+            throw new IdTokenException("ID token must have both header and claims section");
+        }
+    }
+
+    /**
+     * Decodes the header segment into a JSON string.
+     */
+    @NonNull
+    String decodeHeader() throws JSONException {
+        return decodeUtf8(mToken, 0, mHeaderEnd);
+    }
+
+    /**
+     * Decodes the payload segment into a JSON string.
+     */
+    @NonNull
+    String decodePayload() throws JSONException {
+        return decodeUtf8(mToken, mHeaderEnd + 1, mPayloadEnd);
+    }
+
+    /**
+     * Determines whether the token has a non-empty signature segment.
+     */
+    boolean isSigned() {
+        return mPayloadEnd < mToken.length() && mSignatureEnd > mPayloadEnd + 1;
+    }
+
+    /**
+     * Returns the input over which the signature was computed, or `null` if the token is not
+     * signed.
+     */
+    @Nullable
+    byte[] getSigningInput() {
+        return isSigned() ? mToken.substring(0, mPayloadEnd).getBytes(US_ASCII) : null;
+    }
+
+    /**
+     * Decodes the signature segment, or returns `null` if the token is not signed.
+     */
+    @Nullable
+    byte[] decodeSignature() throws JSONException {
+        if (!isSigned()) {
+            return null;
+        }
+
+        byte[] buffer = acquireBuffer(mSignatureEnd - mPayloadEnd - 1);
+        int length = decode(mToken, mPayloadEnd + 1, mSignatureEnd, buffer);
+        byte[] signature = new byte[length];
+        System.arraycopy(buffer, 0, signature, 0, length);
+        releaseBuffer(buffer);
+        return signature;
+    }
+
+    /**
+     * Creates a streaming reader of the specified JSON string.
+     */
+    @NonNull
+    static JsonReader createReader(@NonNull String json) {
+        return new JsonReader(new StringReader(json));
+    }
+
+    /**
+     * Reads a string, or an array of strings, from the reader.
+     */
+    @NonNull
+    static List<String> readStringOrArray(@NonNull JsonReader reader) throws IOException {
+        List<String> values = new ArrayList<>();
+        if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                values.add(reader.nextString());
+            }
+            reader.endArray();
+        } else {
+            values.add(reader.nextString());
+        }
+        return values;
+    }
+
+    /**
+     * Reads a numeric date from the reader. As with {@link org.json.JSONObject#getLong(String)},
+     * numbers represented as strings and numbers with a fractional part are accepted.
+     */
+    static long readLong(@NonNull JsonReader reader) throws IOException {
+        String value = reader.nextString();
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException ex) {
+            return (long) Double.parseDouble(value);
+        }
+    }
+
+    /**
+     * Converts a failure of the streaming reader into the exception reported for malformed
+     * JSON by the rest of the library.
+     */
+    @NonNull
+    static JSONException toJsonException(@NonNull Exception ex) {
+        JSONException jsonEx = new JSONException("Malformed JWT: " + ex.getMessage());
+        jsonEx.initCause(ex);
+        return jsonEx;
+    }
+
+    @NonNull
+    private static String decodeUtf8(@NonNull String token, int start, int end)
+            throws JSONException {
+        byte[] buffer = acquireBuffer(end - start);
+        int length = decode(token, start, end, buffer);
+        String value = new String(buffer, 0, length, UTF_8);
+        releaseBuffer(buffer);
+        return value;
+    }
+
+    /**
+     * Returns the reusable buffer of the current thread, if it is large enough to hold the
+     * decoded form of the specified number of base64url characters, or a new buffer otherwise.
+     * The buffer should be {@link #releaseBuffer(byte[]) released} after use.
+     */
+    @NonNull
+    private static byte[] acquireBuffer(int encodedLength) {
+        int decodedLength = encodedLength * 3 / 4 + 1;
+        byte[] buffer = DECODE_BUFFER.get();
+        return buffer.length >= decodedLength ? buffer : new byte[decodedLength];
+    }
+
+    private static void releaseBuffer(@NonNull byte[] buffer) {
+        if (buffer.length <= MAX_RETAINED_BUFFER_SIZE && buffer != DECODE_BUFFER.get()) {
+            DECODE_BUFFER.set(buffer);
+        }
+    }
+
+    /**
+     * Decodes a base64url segment, with or without padding, into the specified buffer.
+     *
+     * @return the number of decoded bytes.
+     */
+    private static int decode(@NonNull String token, int start, int end, @NonNull byte[] buffer)
+            throws JSONException {
+        int accumulator = 0;
+        int bits = 0;
+        int out = 0;
+        for (int i = start; i < end; i++) {
+            char c = token.charAt(i);
+            if (c == '=') {
+                break;
+            }
+
+            int value = decodeChar(c);
+            if (value < 0) {
+                throw new JSONException("Malformed JWT: invalid base64url character");
+            }
+
+            accumulator = (accumulator << 6) | value;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                buffer[out++] = (byte) (accumulator >> bits);
+                accumulator &= (1 << bits) - 1;
+            }
+        }
+        return out;
+    }
+
+    private static int decodeChar(char c) {
+        if (c >= 'A' && c <= 'Z') {
+            return c - 'A';
+        } else if (c >= 'a' && c <= 'z') {
+            return c - 'a' + 26;
+        } else if (c >= '0' && c <= '9') {
+            return c - '0' + 52;
+        } else if (c == '-' || c == '+') {
+            return 62;
+        } else if (c == '_' || c == '/') {
+            return 63;
+        }
+        return -1;
+    }
+}
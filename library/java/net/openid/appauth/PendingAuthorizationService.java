@@ -0,0 +1,467 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.AuthorizationException.AuthorizationRequestErrors;
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import android.app.PendingIntent;
+import android.app.PendingIntent.CanceledException;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import net.openid.appauth.browser.BrowserDescriptor;
+import net.openid.appauth.internal.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * An {@link AuthorizationService} which is being created in the background. Selecting a browser
+ * and binding to its custom tabs service can take tens of milliseconds on devices with many
+ * browsers installed, so {@link AuthorizationService#createAsync(Context, AppAuthConfiguration)}
+ * performs this work on a background executor rather than the calling thread.
+ *
+ * Actions can be queued against the service immediately; they are run on the main thread, in
+ * the order they were queued, once the service is ready. If the service cannot be created,
+ * queued actions are instead failed on the main thread, through their
+ * {@link FailureCallback failure callback}. Like the service itself, a pending service _must be
+ * manually disposed_ when no longer required (see {@link #dispose()}).
+ */
+public final class PendingAuthorizationService {
+
+    /**
+     * Receives the authorization service once it is ready.
+     */
+    public interface ReadyCallback {
+        /**
+         * Invoked on the main thread with the ready authorization service. The service is owned
+         * by the {@link PendingAuthorizationService}, and should not be disposed directly.
+         */
+        void onAuthorizationServiceReady(@NonNull AuthorizationService service);
+    }
+
+    /**
+     * Receives the failure to create the authorization service.
+     */
+    public interface FailureCallback {
+        /**
+         * Invoked on the main thread if the authorization service could not be created, for
+         * example because browser selection failed.
+         */
+        void onAuthorizationServiceFailed(@NonNull AuthorizationException ex);
+    }
+
+    @NonNull
+    private final Context mContext;
+
+    @NonNull
+    private final Handler mMainHandler;
+
+    @NonNull
+    private final Object mLock = new Object();
+
+    @Nullable
+    private AuthorizationService mService;
+
+    @Nullable
+    private AuthorizationException mFailure;
+
+    @NonNull
+    private List<QueuedAction> mPendingActions = new ArrayList<>();
+
+    private boolean mDisposed;
+
+    PendingAuthorizationService(
+            @NonNull final Context context,
+            @NonNull final AppAuthConfiguration clientConfiguration,
+            @NonNull Executor executor) {
+        mContext = checkNotNull(context, "context cannot be null");
+        checkNotNull(clientConfiguration, "clientConfiguration cannot be null");
+        mMainHandler = new Handler(Looper.getMainLooper());
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (isDisposed()) {
+                    return;
+                }
+
+                final AuthorizationService service;
+                try {
+                    BrowserDescriptor browser = clientConfiguration.getBrowserSelectionStrategy()
+                            .select(context, clientConfiguration.getBrowserMatcher());
+                    service = new AuthorizationService(
+                            context,
+                            clientConfiguration,
+                            browser,
+                            AuthorizationService.createCustomTabManager(
+                                    context,
+                                    clientConfiguration,
+                                    browser));
+                } catch (RuntimeException ex) {
+                    Logger.errorWithStack(ex, "Unable to create authorization service");
+                    final AuthorizationException failure =
+                            AuthorizationException.fromTemplate(
+                                    AuthorizationRequestErrors.CLIENT_ERROR, ex);
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            fail(failure);
+                        }
+                    });
+                    return;
+                }
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        publish(service);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Determines whether the authorization service is ready.
+     */
+    public boolean isReady() {
+        synchronized (mLock) {
+            return mService != null && !mDisposed;
+        }
+    }
+
+    /**
+     * Returns the authorization service if it is ready, or `null` otherwise.
+     */
+    @Nullable
+    public AuthorizationService getServiceIfReady() {
+        synchronized (mLock) {
+            return mDisposed ? null : mService;
+        }
+    }
+
+    /**
+     * Returns the reason the authorization service could not be created, or `null` if it has
+     * not failed.
+     */
+    @Nullable
+    public AuthorizationException getFailure() {
+        synchronized (mLock) {
+            return mFailure;
+        }
+    }
+
+    /**
+     * Queues an action to be run with the authorization service once it is ready. If the
+     * service is already ready and this is called on the main thread, the action is run
+     * immediately. Actions queued after the pending service is disposed, or which cannot be
+     * run because the service could not be created, are discarded.
+     */
+    public void whenReady(@NonNull ReadyCallback callback) {
+        whenReady(callback, null);
+    }
+
+    /**
+     * Queues an action to be run with the authorization service once it is ready. If the
+     * service is already ready and this is called on the main thread, the action is run
+     * immediately. If the service could not be created, the failure callback is invoked instead,
+     * on the main thread. Actions queued after the pending service is disposed are discarded.
+     */
+    public void whenReady(
+            @NonNull ReadyCallback callback,
+            @Nullable FailureCallback failureCallback) {
+        checkNotNull(callback, "callback cannot be null");
+
+        final QueuedAction action = new QueuedAction(callback, failureCallback);
+        final AuthorizationService service;
+        final AuthorizationException failure;
+        synchronized (mLock) {
+            if (mDisposed) {
+                Logger.debug("Pending authorization service disposed, discarding action");
+                return;
+            }
+
+            if (mService == null && mFailure == null) {
+                mPendingActions.add(action);
+                return;
+            }
+
+            service = mService;
+            failure = mFailure;
+        }
+
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            action.run(service, failure);
+        } else {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isDisposed()) {
+                        action.run(service, failure);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Prefetches an authorization request once the service is ready.
+     *
+     * @see AuthorizationService#prefetchAuthorizationRequest(AuthorizationRequest)
+     */
+    public void prefetchAuthorizationRequest(@NonNull final AuthorizationRequest request) {
+        whenReady(new ReadyCallback() {
+            @Override
+            public void onAuthorizationServiceReady(@NonNull AuthorizationService service) {
+                service.prefetchAuthorizationRequest(request);
+            }
+        });
+    }
+
+    /**
+     * Sends an authorization request once the service is ready.
+     *
+     * @see AuthorizationService#performAuthorizationRequest(AuthorizationRequest, PendingIntent)
+     */
+    public void performAuthorizationRequest(
+            @NonNull final AuthorizationRequest request,
+            @NonNull final PendingIntent completedIntent) {
+        whenReady(new ReadyCallback() {
+            @Override
+            public void onAuthorizationServiceReady(@NonNull AuthorizationService service) {
+                service.performAuthorizationRequest(request, completedIntent);
+            }
+        }, new PendingIntentFailureCallback(completedIntent));
+    }
+
+    /**
+     * Sends an authorization request once the service is ready.
+     *
+     * @see AuthorizationService#performAuthorizationRequest(AuthorizationRequest, PendingIntent,
+     *     PendingIntent)
+     */
+    public void performAuthorizationRequest(
+            @NonNull final AuthorizationRequest request,
+            @NonNull final PendingIntent completedIntent,
+            @NonNull final PendingIntent canceledIntent) {
+        whenReady(new ReadyCallback() {
+            @Override
+            public void onAuthorizationServiceReady(@NonNull AuthorizationService service) {
+                service.performAuthorizationRequest(request, completedIntent, canceledIntent);
+            }
+        }, new PendingIntentFailureCallback(canceledIntent));
+    }
+
+    /**
+     * Sends an end session request once the service is ready.
+     *
+     * @see AuthorizationService#performEndSessionRequest(EndSessionRequest, PendingIntent)
+     */
+    public void performEndSessionRequest(
+            @NonNull final EndSessionRequest request,
+            @NonNull final PendingIntent completedIntent) {
+        whenReady(new ReadyCallback() {
+            @Override
+            public void onAuthorizationServiceReady(@NonNull AuthorizationService service) {
+                service.performEndSessionRequest(request, completedIntent);
+            }
+        }, new PendingIntentFailureCallback(completedIntent));
+    }
+
+    /**
+     * Sends a token request once the service is ready.
+     *
+     * @see AuthorizationService#performTokenRequest(TokenRequest,
+     *     AuthorizationService.TokenResponseCallback)
+     */
+    public void performTokenRequest(
+            @NonNull final TokenRequest request,
+            @NonNull final AuthorizationService.TokenResponseCallback callback) {
+        performTokenRequest(request, NoClientAuthentication.INSTANCE, callback);
+    }
+
+    /**
+     * Sends a token request once the service is ready.
+     *
+     * @see AuthorizationService#performTokenRequest(TokenRequest, ClientAuthentication,
+     *     AuthorizationService.TokenResponseCallback)
+     */
+    public void performTokenRequest(
+            @NonNull final TokenRequest request,
+            @NonNull final ClientAuthentication clientAuthentication,
+            @NonNull final AuthorizationService.TokenResponseCallback callback) {
+        whenReady(new ReadyCallback() {
+            @Override
+            public void onAuthorizationServiceReady(@NonNull AuthorizationService service) {
+                service.performTokenRequest(request, clientAuthentication, callback);
+            }
+        }, new FailureCallback() {
+            @Override
+            public void onAuthorizationServiceFailed(@NonNull AuthorizationException ex) {
+                callback.onTokenRequestCompleted(null, ex);
+            }
+        });
+    }
+
+    /**
+     * Sends a dynamic client registration request once the service is ready.
+     *
+     * @see AuthorizationService#performRegistrationRequest(RegistrationRequest,
+     *     AuthorizationService.RegistrationResponseCallback)
+     */
+    public void performRegistrationRequest(
+            @NonNull final RegistrationRequest request,
+            @NonNull final AuthorizationService.RegistrationResponseCallback callback) {
+        whenReady(new ReadyCallback() {
+            @Override
+            public void onAuthorizationServiceReady(@NonNull AuthorizationService service) {
+                service.performRegistrationRequest(request, callback);
+            }
+        }, new FailureCallback() {
+            @Override
+            public void onAuthorizationServiceFailed(@NonNull AuthorizationException ex) {
+                callback.onRegistrationRequestCompleted(null, ex);
+            }
+        });
+    }
+
+    /**
+     * Disposes the authorization service, if it is ready, or otherwise ensures it is disposed as
+     * soon as it is created. Queued actions which have not yet run are discarded.
+     */
+    @MainThread
+    public void dispose() {
+        AuthorizationService service;
+        synchronized (mLock) {
+            if (mDisposed) {
+                return;
+            }
+            mDisposed = true;
+            mPendingActions.clear();
+            service = mService;
+        }
+
+        if (service != null) {
+            service.dispose();
+        }
+    }
+
+    private boolean isDisposed() {
+        synchronized (mLock) {
+            return mDisposed;
+        }
+    }
+
+    @MainThread
+    private void publish(@NonNull AuthorizationService service) {
+        List<QueuedAction> actions;
+        synchronized (mLock) {
+            if (mDisposed) {
+                service.dispose();
+                return;
+            }
+            mService = service;
+            actions = mPendingActions;
+            mPendingActions = new ArrayList<>();
+        }
+
+        Logger.debug("Authorization service ready, running %d queued actions", actions.size());
+        for (QueuedAction action : actions) {
+            if (isDisposed()) {
+                return;
+            }
+            action.run(service, null);
+        }
+    }
+
+    @MainThread
+    private void fail(@NonNull AuthorizationException failure) {
+        List<QueuedAction> actions;
+        synchronized (mLock) {
+            if (mDisposed) {
+                return;
+            }
+            mFailure = failure;
+            actions = mPendingActions;
+            mPendingActions = new ArrayList<>();
+        }
+
+        Logger.debug("Authorization service failed, failing %d queued actions", actions.size());
+        for (QueuedAction action : actions) {
+            if (isDisposed()) {
+                return;
+            }
+            action.run(null, failure);
+        }
+    }
+
+    private static final class QueuedAction {
+        @NonNull
+        private final ReadyCallback mReadyCallback;
+
+        @Nullable
+        private final FailureCallback mFailureCallback;
+
+        QueuedAction(
+                @NonNull ReadyCallback readyCallback,
+                @Nullable FailureCallback failureCallback) {
+            mReadyCallback = readyCallback;
+            mFailureCallback = failureCallback;
+        }
+
+        @MainThread
+        void run(
+                @Nullable AuthorizationService service,
+                @Nullable AuthorizationException failure) {
+            if (service != null) {
+                mReadyCallback.onAuthorizationServiceReady(service);
+            } else if (mFailureCallback != null) {
+                mFailureCallback.onAuthorizationServiceFailed(failure);
+            } else {
+                Logger.debug("Authorization service failed, discarding action");
+            }
+        }
+    }
+
+    /**
+     * Delivers the failure to create the service through the pending intent of a queued
+     * authorization or end session request, as {@link AuthorizationManagementActivity} does for
+     * a failed flow.
+     */
+    private final class PendingIntentFailureCallback implements FailureCallback {
+        @NonNull
+        private final PendingIntent mIntent;
+
+        PendingIntentFailureCallback(@NonNull PendingIntent intent) {
+            mIntent = intent;
+        }
+
+        @Override
+        public void onAuthorizationServiceFailed(@NonNull AuthorizationException ex) {
+            try {
+                mIntent.send(mContext, 0, ex.toIntent());
+            } catch (CanceledException canceledEx) {
+                Logger.error("Failed to send failure intent", canceledEx);
+            }
+        }
+    }
+}
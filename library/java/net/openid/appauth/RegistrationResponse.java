@@ -22,7 +22,6 @@ import static net.openid.appauth.Preconditions.checkNotNull;
 import android.net.Uri;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.annotation.VisibleForTesting;
 
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -483,14 +482,19 @@ public class RegistrationResponse {
     }
 
     /**
-     * Determines whether the returned access token has expired.
+     * Determines whether the returned client secret has expired, according to the system clock.
+     * Use {@link #hasClientSecretExpired(Clock)} with the clock of the
+     * {@link AppAuthConfiguration#getClock() configuration} if it is not the system clock.
      */
     public boolean hasClientSecretExpired() {
         return hasClientSecretExpired(SystemClock.INSTANCE);
     }
 
-    @VisibleForTesting
-    boolean hasClientSecretExpired(@NonNull Clock clock) {
+    /**
+     * Determines whether the returned client secret has expired, according to the provided
+     * clock.
+     */
+    public boolean hasClientSecretExpired(@NonNull Clock clock) {
         Long now = TimeUnit.MILLISECONDS.toSeconds(checkNotNull(clock).getCurrentTimeMillis());
         return clientSecretExpiresAt != null && now > clientSecretExpiresAt;
 
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.Preconditions.checkArgument;
+import static net.openid.appauth.Preconditions.checkNullOrNotEmpty;
+
+import android.text.TextUtils;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Access tokens obtained for a specific audience and set of scopes, in addition to the primary
+ * access token of an {@link AuthState}. Each entry tracks its own expiration time, and the
+ * actions waiting for the token of an entry, so that at most one token request per entry is
+ * in flight at any time.
+ *
+ * @see AuthState#performActionWithScopedTokens(AuthorizationService, String, Iterable,
+ *     AuthState.AuthStateAction)
+ */
+final class ScopedTokenCache {
+
+    private final Map<Key, Entry> mEntries = new HashMap<>();
+
+    /**
+     * Incremented whenever the cache is cleared, so that token requests started before then
+     * do not populate the cache on completion.
+     */
+    private int mGeneration;
+
+    /**
+     * Returns the cached access token for the specified key, if it does not expire before the
+     * specified time. An entry whose token expires before then is discarded, unless a token
+     * request for it is in flight.
+     */
+    @Nullable
+    synchronized String getAccessToken(@NonNull Key key, long validUntil) {
+        Entry entry = mEntries.get(key);
+        if (entry == null || entry.mAccessToken == null) {
+            return null;
+        }
+
+        if (entry.mExpirationTime != null && entry.mExpirationTime <= validUntil) {
+            if (entry.mPendingActions == null) {
+                mEntries.remove(key);
+            }
+            return null;
+        }
+
+        return entry.mAccessToken;
+    }
+
+    /**
+     * Queues an action waiting for the token of the specified key.
+     *
+     * @return the generation of the cache, if the caller must start a token request for the key,
+     *     or `-1` if a request is already in flight and the action will be processed when it
+     *     completes.
+     */
+    synchronized int addPendingAction(@NonNull Key key, @NonNull AuthState.AuthStateAction action) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            entry = new Entry();
+            mEntries.put(key, entry);
+        }
+
+        if (entry.mPendingActions != null) {
+            entry.mPendingActions.add(action);
+            return -1;
+        }
+
+        entry.mPendingActions = new ArrayList<>();
+        entry.mPendingActions.add(action);
+        return mGeneration;
+    }
+
+    /**
+     * Records the result of the token request for the specified key, and returns the actions
+     * that were waiting for it.
+     */
+    @NonNull
+    synchronized List<AuthState.AuthStateAction> complete(
+            @NonNull Key key,
+            int generation,
+            @Nullable TokenResponse response) {
+        Entry entry = mEntries.get(key);
+        if (entry == null || entry.mPendingActions == null) {
+            return Collections.emptyList();
+        }
+
+        List<AuthState.AuthStateAction> actions = entry.mPendingActions;
+        entry.mPendingActions = null;
+
+        if (generation == mGeneration) {
+            if (response != null) {
+                entry.mAccessToken = response.accessToken;
+                entry.mExpirationTime = response.accessTokenExpirationTime;
+            } else {
+                entry.mAccessToken = null;
+                entry.mExpirationTime = null;
+            }
+        }
+
+        if (entry.mAccessToken == null) {
+            mEntries.remove(key);
+        }
+        return actions;
+    }
+
+    /**
+     * Discards all cached tokens. Actions already waiting for a token request will still be
+     * processed when it completes.
+     */
+    synchronized void clear() {
+        mGeneration++;
+        Iterator<Entry> entries = mEntries.values().iterator();
+        while (entries.hasNext()) {
+            Entry entry = entries.next();
+            if (entry.mPendingActions == null) {
+                entries.remove();
+            } else {
+                entry.mAccessToken = null;
+                entry.mExpirationTime = null;
+            }
+        }
+    }
+
+    @VisibleForTesting
+    synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Identifies a cached token by the audience and set of scopes it was requested for. The
+     * order of scopes is not significant.
+     */
+    static final class Key {
+
+        @Nullable
+        final String audience;
+
+        @Nullable
+        final String scope;
+
+        Key(@Nullable String audience, @Nullable Iterable<String> scopes) {
+            TreeSet<String> sortedScopes = new TreeSet<>();
+            if (scopes != null) {
+                for (String scope : scopes) {
+                    checkArgument(!TextUtils.isEmpty(scope), "individual scopes cannot be empty");
+                    sortedScopes.add(scope);
+                }
+            }
+            checkArgument(audience != null || !sortedScopes.isEmpty(),
+                    "at least one of audience or scopes must be specified");
+
+            this.audience = checkNullOrNotEmpty(audience, "audience must be null or not empty");
+            this.scope = sortedScopes.isEmpty()
+                    ? null
+                    : AsciiStringListUtil.iterableToString(sortedScopes);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Key)) {
+                return false;
+            }
+
+            Key key = (Key) other;
+            return TextUtils.equals(audience, key.audience) && TextUtils.equals(scope, key.scope);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = audience != null ? audience.hashCode() : 0;
+            return 31 * result + (scope != null ? scope.hashCode() : 0);
+        }
+    }
+
+    private static final class Entry {
+        @Nullable
+        String mAccessToken;
+
+        @Nullable
+        Long mExpirationTime;
+
+        @Nullable
+        List<AuthState.AuthStateAction> mPendingActions;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import net.openid.appauth.internal.Logger;
+
+/**
+ * A {@link Clock} which estimates the current time of the authorization server, to tolerate
+ * devices with a skewed wall clock. The server time is sampled from the `Date` header of token
+ * endpoint responses, and anchored to the device's monotonic clock, so that subsequent changes
+ * to the device wall clock do not affect the estimate. Until a sample has been recorded, device
+ * wall time is used. Claims of the tokens being validated, such as the `iat` claim of ID
+ * tokens, are never used as samples, as a stale token would then appear fresh.
+ *
+ * Of the samples received, the estimate uses the one with the lowest uncertainty, where the
+ * uncertainty of a sample is derived from the round trip time of the request it was taken from
+ * and the resolution of the timestamp, and grows with the age of the sample to allow for drift
+ * between the device and server clocks.
+ *
+ * To be effective, the same instance should be provided to both
+ * {@link AppAuthConfiguration.Builder#setClock(Clock)} and {@link AuthState#setClock(Clock)},
+ * so that access token expiration times are both computed and checked against the same clock.
+ */
+public class ServerTimeClock implements Clock {
+
+    /**
+     * The resolution of HTTP `Date` headers, in milliseconds.
+     */
+    private static final long TIMESTAMP_RESOLUTION_MS = 1000L;
+
+    /**
+     * The assumed maximum drift between the device and server clocks, in parts per million.
+     */
+    private static final long MAX_DRIFT_PPM = 200L;
+
+    @NonNull
+    private final Clock mDeviceClock;
+
+    @NonNull
+    private final Clock mElapsedRealtimeClock;
+
+    private boolean mHasEstimate;
+    private long mAnchorServerTimeMs;
+    private long mAnchorElapsedMs;
+    private long mAnchorUncertaintyMs;
+
+    /**
+     * Creates a server time clock, which reports device wall time until the first server time
+     * sample is recorded.
+     */
+    public ServerTimeClock() {
+        this(SystemClock.INSTANCE, ElapsedRealtimeClock.INSTANCE);
+    }
+
+    @VisibleForTesting
+    ServerTimeClock(@NonNull Clock deviceClock, @NonNull Clock elapsedRealtimeClock) {
+        mDeviceClock = checkNotNull(deviceClock, "deviceClock cannot be null");
+        mElapsedRealtimeClock =
+                checkNotNull(elapsedRealtimeClock, "elapsedRealtimeClock cannot be null");
+    }
+
+    @Override
+    public synchronized long getCurrentTimeMillis() {
+        if (!mHasEstimate) {
+            return mDeviceClock.getCurrentTimeMillis();
+        }
+
+        return mAnchorServerTimeMs + (mElapsedRealtimeClock.getCurrentTimeMillis()
+                - mAnchorElapsedMs);
+    }
+
+    /**
+     * The estimated offset of the server clock from the device wall clock, in milliseconds,
+     * or `null` if no server time sample has been recorded yet. A positive value indicates that
+     * the device clock is behind the server clock.
+     */
+    @Nullable
+    public synchronized Long getEstimatedOffsetMillis() {
+        if (!mHasEstimate) {
+            return null;
+        }
+
+        return getCurrentTimeMillis() - mDeviceClock.getCurrentTimeMillis();
+    }
+
+    /**
+     * Records a server time sample, taken from the `Date` header of a response.
+     *
+     * @param serverDateMs the value of the `Date` header, in milliseconds since the UNIX epoch.
+     * @param requestStartElapsedMs the monotonic time at which the request was sent, as returned
+     *     by {@link android.os.SystemClock#elapsedRealtime()}.
+     * @param responseElapsedMs the monotonic time at which the response was received.
+     */
+    public void recordServerDate(
+            long serverDateMs,
+            long requestStartElapsedMs,
+            long responseElapsedMs) {
+        recordSample(serverDateMs, requestStartElapsedMs, responseElapsedMs);
+    }
+
+    /**
+     * Discards the current estimate, reverting to device wall time.
+     */
+    public synchronized void reset() {
+        mHasEstimate = false;
+    }
+
+    private synchronized void recordSample(
+            long serverTimestampMs,
+            long requestStartElapsedMs,
+            long responseElapsedMs) {
+        // the timestamp is truncated to whole seconds, and was produced at some point during the
+        // round trip; by the time the response was received, the server time is within an
+        // interval of the resolution plus round trip time after it. Assume the middle.
+        long roundTripMs = Math.max(0, responseElapsedMs - requestStartElapsedMs);
+        long uncertaintyMs = (roundTripMs + TIMESTAMP_RESOLUTION_MS) / 2;
+
+        if (mHasEstimate) {
+            long age = Math.max(0, responseElapsedMs - mAnchorElapsedMs);
+            long currentUncertaintyMs = mAnchorUncertaintyMs + age * MAX_DRIFT_PPM / 1000000L;
+            if (uncertaintyMs > currentUncertaintyMs) {
+                return;
+            }
+        }
+
+        mHasEstimate = true;
+        mAnchorServerTimeMs = serverTimestampMs + uncertaintyMs;
+        mAnchorElapsedMs = responseElapsedMs;
+        mAnchorUncertaintyMs = uncertaintyMs;
+        Logger.debug("Server clock offset estimated as %d ms (+/- %d ms)",
+                getEstimatedOffsetMillis(),
+                uncertaintyMs);
+    }
+
+    /**
+     * Adapts {@link android.os.SystemClock#elapsedRealtime()} to the clock interface.
+     */
+    private static final class ElapsedRealtimeClock implements Clock {
+        static final ElapsedRealtimeClock INSTANCE = new ElapsedRealtimeClock();
+
+        @Override
+        public long getCurrentTimeMillis() {
+            return android.os.SystemClock.elapsedRealtime();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.browser.customtabs.CustomTabsCallback;
+
+import net.openid.appauth.browser.TabLaunchListener;
+
+/**
+ * The callbacks of the custom tab sessions created by an {@link AuthorizationService}, which
+ * measure the time from the launch of a request to the events reported by the browser, and
+ * report these to the {@link TabLaunchListener} of the service.
+ */
+final class TabLaunchTracker extends CustomTabsCallback {
+
+    /**
+     * The extra callback through which Chrome reports page load metrics, if it chooses to.
+     */
+    @VisibleForTesting
+    static final String NAVIGATION_METRICS_CALLBACK = "NavigationMetrics";
+
+    @VisibleForTesting
+    static final String KEY_FIRST_CONTENTFUL_PAINT = "firstContentfulPaint";
+
+    /**
+     * A pseudo navigation event for the page load metrics reported through an extra callback.
+     */
+    private static final int FIRST_CONTENTFUL_PAINT = -1;
+
+    private static final long NOT_LAUNCHED = -1L;
+
+    @NonNull
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    @Nullable
+    private volatile TabLaunchListener mListener;
+
+    private long mLaunchTime = NOT_LAUNCHED;
+    private boolean mShownReported;
+    private boolean mPaintReported;
+    private boolean mLoadReported;
+
+    void setListener(@Nullable TabLaunchListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Records the launch of a request, from which subsequent events are measured.
+     */
+    synchronized void markLaunch() {
+        mLaunchTime = android.os.SystemClock.elapsedRealtime();
+        mShownReported = false;
+        mPaintReported = false;
+        mLoadReported = false;
+    }
+
+    @Override
+    public void onNavigationEvent(int navigationEvent, @Nullable Bundle extras) {
+        if (navigationEvent == TAB_SHOWN || navigationEvent == NAVIGATION_FINISHED) {
+            report(navigationEvent);
+        }
+    }
+
+    @Override
+    public void extraCallback(@NonNull String callbackName, @Nullable Bundle args) {
+        if (NAVIGATION_METRICS_CALLBACK.equals(callbackName)
+                && args != null
+                && args.containsKey(KEY_FIRST_CONTENTFUL_PAINT)) {
+            report(FIRST_CONTENTFUL_PAINT);
+        }
+    }
+
+    private void report(final int event) {
+        final long elapsed;
+        synchronized (this) {
+            if (mLaunchTime == NOT_LAUNCHED) {
+                return;
+            }
+
+            if (event == TAB_SHOWN) {
+                if (mShownReported) {
+                    return;
+                }
+                mShownReported = true;
+            } else if (event == NAVIGATION_FINISHED) {
+                if (mLoadReported) {
+                    return;
+                }
+                mLoadReported = true;
+            } else {
+                if (mPaintReported) {
+                    return;
+                }
+                mPaintReported = true;
+            }
+            elapsed = android.os.SystemClock.elapsedRealtime() - mLaunchTime;
+        }
+
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                TabLaunchListener listener = mListener;
+                if (listener == null) {
+                    return;
+                }
+
+                if (event == TAB_SHOWN) {
+                    listener.onTabShown(elapsed);
+                } else if (event == NAVIGATION_FINISHED) {
+                    listener.onNavigationFinished(elapsed);
+                } else {
+                    listener.onFirstContentfulPaint(elapsed);
+                }
+            }
+        });
+    }
+}
@@ -213,11 +213,23 @@ public class TokenResponse {
          */
         @NonNull
         public Builder fromResponseJson(@NonNull JSONObject json) throws JSONException {
+            return fromResponseJson(json, SystemClock.INSTANCE);
+        }
+
+        /**
+         * Extracts token response fields from a JSON object, using the provided clock as the
+         * source of the current time for relative expiration times.
+         *
+         * @throws JSONException if the JSON is malformed or has incorrect value types for fields.
+         */
+        @NonNull
+        Builder fromResponseJson(@NonNull JSONObject json, @NonNull Clock clock)
+                throws JSONException {
             setTokenType(JsonUtil.getString(json, KEY_TOKEN_TYPE));
             setAccessToken(JsonUtil.getStringIfDefined(json, KEY_ACCESS_TOKEN));
             setAccessTokenExpirationTime(JsonUtil.getLongIfDefined(json, KEY_EXPIRES_AT));
             if (json.has(KEY_EXPIRES_IN)) {
-                setAccessTokenExpiresIn(json.getLong(KEY_EXPIRES_IN));
+                setAccessTokenExpiresIn(json.getLong(KEY_EXPIRES_IN), clock);
             }
             setRefreshToken(JsonUtil.getStringIfDefined(json, KEY_REFRESH_TOKEN));
             setIdToken(JsonUtil.getStringIfDefined(json, KEY_ID_TOKEN));
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth.browser;
+
+import static net.openid.appauth.Preconditions.checkArgument;
+
+import android.content.Context;
+import android.os.Looper;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import net.openid.appauth.internal.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selects the browser which has performed best in previous authorization flows, as recorded
+ * by {@link BrowserTelemetry}. Browsers are ranked by an expected cost, which is the mean time
+ * from launch to redirect plus a penalty in proportion to the rate of canceled flows and of
+ * failed redirects. As with the {@link DefaultBrowserSelectionStrategy default strategy},
+ * browsers which support custom tabs are preferred, if the matcher permits them.
+ *
+ * Selection falls back to the default ordering deterministically: until the browser which the
+ * default strategy would select has at least the minimum number of (decayed) samples, it is
+ * selected, so that it is measured before any alternative is considered. Only browsers with the
+ * minimum number of samples are ranked as alternatives, and ties are broken by the default
+ * ordering. As outcomes are only recorded for the selected browser, the alternatives are
+ * measured by exploration: once the default browser has been measured, an undersampled
+ * alternative is selected whenever its share of the recorded samples would otherwise fall below
+ * one in the {@link #DEFAULT_EXPLORATION_INTERVAL exploration interval}. Alternatives are
+ * explored in the default order, so at most one flow in each interval is spent on exploration
+ * until every alternative has been measured. As recorded outcomes decay, a browser which was
+ * passed over falls back below the minimum, and is selected and measured again.
+ *
+ * The recorded outcomes are read from shared preferences when a browser is selected, which
+ * blocks until they have been loaded from disk. This strategy should therefore be used with
+ * {@link net.openid.appauth.AuthorizationService#createAsync(Context,
+ * net.openid.appauth.AppAuthConfiguration)}, which selects the browser on a background thread,
+ * rather than by creating the authorization service on the main thread.
+ */
+public final class AdaptiveBrowserSelectionStrategy implements BrowserSelectionStrategy {
+
+    /**
+     * The default minimum number of decayed samples for a browser's measurements to be used.
+     */
+    public static final int DEFAULT_MIN_SAMPLES = 3;
+
+    /**
+     * The default number of authorization flows for each flow which is used to measure an
+     * undersampled alternative browser.
+     */
+    public static final int DEFAULT_EXPLORATION_INTERVAL = 10;
+
+    /**
+     * The cost of a canceled flow, which is assumed to indicate that the authorization page
+     * took too long to load, or did not work.
+     */
+    @VisibleForTesting
+    static final long CANCEL_PENALTY_MS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * The cost of a failed redirect, which requires the user to start the flow again.
+     */
+    @VisibleForTesting
+    static final long REDIRECT_FAILURE_PENALTY_MS = TimeUnit.SECONDS.toMillis(60);
+
+    private final double mMinSamples;
+    private final int mExplorationInterval;
+
+    /**
+     * Creates an adaptive strategy which uses the measurements of a browser once it has
+     * {@link #DEFAULT_MIN_SAMPLES} recorded outcomes.
+     */
+    public AdaptiveBrowserSelectionStrategy() {
+        this(DEFAULT_MIN_SAMPLES);
+    }
+
+    /**
+     * Creates an adaptive strategy which uses the measurements of a browser once it has the
+     * specified number of recorded outcomes.
+     */
+    public AdaptiveBrowserSelectionStrategy(int minSamples) {
+        this(minSamples, DEFAULT_EXPLORATION_INTERVAL);
+    }
+
+    /**
+     * Creates an adaptive strategy which uses the measurements of a browser once it has the
+     * specified number of recorded outcomes, and which spends one in the specified number of
+     * authorization flows on measuring an undersampled alternative browser.
+     */
+    public AdaptiveBrowserSelectionStrategy(int minSamples, int explorationInterval) {
+        checkArgument(minSamples > 0, "minSamples must be positive");
+        checkArgument(explorationInterval > 0, "explorationInterval must be positive");
+        mMinSamples = minSamples;
+        mExplorationInterval = explorationInterval;
+    }
+
+    @Nullable
+    @Override
+    public BrowserDescriptor select(
+            @NonNull Context context,
+            @NonNull BrowserMatcher browserMatcher) {
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            Logger.warn("Adaptive browser selection reads from disk on the main thread; "
+                    + "use AuthorizationService.createAsync instead");
+        }
+        return select(
+                BrowserInventory.getInstance().getBrowsers(context),
+                browserMatcher,
+                BrowserTelemetry.getInstance(context));
+    }
+
+    @Override
+    public boolean recordsOutcomes() {
+        return true;
+    }
+
+    @VisibleForTesting
+    @Nullable
+    BrowserDescriptor select(
+            @NonNull List<BrowserDescriptor> browsers,
+            @NonNull BrowserMatcher browserMatcher,
+            @NonNull BrowserTelemetry telemetry) {
+        List<BrowserDescriptor> customTabBrowsers = new ArrayList<>();
+        List<BrowserDescriptor> standaloneBrowsers = new ArrayList<>();
+        for (BrowserDescriptor browser : browsers) {
+            if (browserMatcher.matches(browser)) {
+                (browser.useCustomTab ? customTabBrowsers : standaloneBrowsers).add(browser);
+            }
+        }
+
+        List<BrowserDescriptor> candidates =
+                !customTabBrowsers.isEmpty() ? customTabBrowsers : standaloneBrowsers;
+        if (candidates.isEmpty()) {
+            return null;
+        }
+
+        List<BrowserTelemetry.BrowserStats> stats = new ArrayList<>();
+        double totalSamples = 0;
+        for (BrowserDescriptor candidate : candidates) {
+            BrowserTelemetry.BrowserStats candidateStats =
+                    telemetry.getStats(candidate.packageName, candidate.useCustomTab);
+            stats.add(candidateStats);
+            totalSamples += getSampleCount(candidateStats);
+        }
+
+        BrowserDescriptor best = candidates.get(0);
+        if (getSampleCount(stats.get(0)) < mMinSamples) {
+            return best;
+        }
+
+        for (int i = 1; i < candidates.size(); i++) {
+            double sampleCount = getSampleCount(stats.get(i));
+            if (sampleCount < mMinSamples
+                    && totalSamples >= (sampleCount + 1) * mExplorationInterval) {
+                Logger.debug("Selected %s to measure it against %s",
+                        candidates.get(i).packageName, best.packageName);
+                return candidates.get(i);
+            }
+        }
+
+        double bestCost = getCost(stats.get(0));
+        for (int i = 1; i < candidates.size(); i++) {
+            if (getSampleCount(stats.get(i)) < mMinSamples) {
+                continue;
+            }
+
+            double cost = getCost(stats.get(i));
+            if (cost < bestCost) {
+                best = candidates.get(i);
+                bestCost = cost;
+            }
+        }
+
+        if (best != candidates.get(0)) {
+            Logger.debug("Selected %s over %s based on previous authorization flows",
+                    best.packageName, candidates.get(0).packageName);
+        }
+        return best;
+    }
+
+    private static double getSampleCount(@Nullable BrowserTelemetry.BrowserStats stats) {
+        return stats != null ? stats.sampleCount : 0;
+    }
+
+    /**
+     * Computes the expected cost of an authorization flow in a browser with the specified
+     * measurements.
+     */
+    private static double getCost(@NonNull BrowserTelemetry.BrowserStats stats) {
+        double latency = stats.meanRedirectLatencyMs != null ? stats.meanRedirectLatencyMs : 0;
+        return latency
+                + stats.cancelRate * CANCEL_PENALTY_MS
+                + stats.redirectFailureRate * REDIRECT_FAILURE_PENALTY_MS;
+    }
+}
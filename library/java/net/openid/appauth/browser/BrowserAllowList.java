@@ -51,6 +51,14 @@ public class BrowserAllowList implements BrowserMatcher {
         mBrowserMatchers = Arrays.asList(matchers);
     }
 
+    /**
+     * The matchers of the list, in the order provided.
+     */
+    @NonNull
+    List<BrowserMatcher> getMatchers() {
+        return mBrowserMatchers;
+    }
+
     @Override
     public boolean matches(@NonNull BrowserDescriptor descriptor) {
         for (BrowserMatcher matcher : mBrowserMatchers) {
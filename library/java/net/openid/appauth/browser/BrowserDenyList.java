@@ -55,6 +55,14 @@ public class BrowserDenyList implements BrowserMatcher {
         mBrowserMatchers = Arrays.asList(matchers);
     }
 
+    /**
+     * The matchers of the list, in the order provided.
+     */
+    @NonNull
+    List<BrowserMatcher> getMatchers() {
+        return mBrowserMatchers;
+    }
+
     @Override
     public boolean matches(@NonNull BrowserDescriptor descriptor) {
         for (BrowserMatcher matcher : mBrowserMatchers) {
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth.browser;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.text.TextUtils;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import net.openid.appauth.internal.Logger;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A process-wide cache of the browsers installed on the device, as retrieved by
+ * {@link BrowserSelector#getAllBrowsers(Context)}. Building the list requires several package
+ * manager calls per browser and the hashing of every browser signature, so it is retained until
+ * a package is installed, updated or removed.
+ *
+ * The user's preferred browser can change without any package broadcast, so it is resolved
+ * again on every retrieval (a single package manager call), and the list is rebuilt if it
+ * differs from the one the cached list was ordered by.
+ */
+final class BrowserInventory {
+
+    private static final BrowserInventory INSTANCE = new BrowserInventory();
+
+    private final Object mLock = new Object();
+
+    @Nullable
+    private List<BrowserDescriptor> mBrowsers;
+
+    @Nullable
+    private String mDefaultBrowserPackage;
+
+    /**
+     * Incremented whenever the inventory is invalidated, so that a list built concurrently with
+     * a package change is not retained.
+     */
+    private int mGeneration;
+
+    /**
+     * The application context the package change receiver is registered with. The cached list
+     * only reflects the packages visible to this context.
+     */
+    @Nullable
+    private Context mReceiverContext;
+
+    private int mBuildCount;
+
+    @NonNull
+    static BrowserInventory getInstance() {
+        return INSTANCE;
+    }
+
+    @VisibleForTesting
+    BrowserInventory() {}
+
+    /**
+     * Retrieves the browsers installed on the device, in the same form and order as
+     * {@link BrowserSelector#getAllBrowsers(Context)}. The returned list is unmodifiable.
+     *
+     * If the context does not provide an application context to receive package broadcasts
+     * with, the list cannot be kept up to date, and is built on every call.
+     */
+    @NonNull
+    List<BrowserDescriptor> getBrowsers(@NonNull Context context) {
+        Context appContext = context.getApplicationContext();
+        if (appContext == null) {
+            return BrowserSelector.getAllBrowsers(context);
+        }
+
+        registerReceiverIfNeeded(appContext);
+
+        PackageManager pm = context.getPackageManager();
+        String defaultBrowserPackage = BrowserSelector.getDefaultBrowserPackage(pm);
+
+        int generation;
+        synchronized (mLock) {
+            if (mBrowsers != null
+                    && TextUtils.equals(mDefaultBrowserPackage, defaultBrowserPackage)) {
+                return mBrowsers;
+            }
+            generation = mGeneration;
+        }
+
+        List<BrowserDescriptor> browsers = Collections.unmodifiableList(
+                BrowserSelector.getAllBrowsers(pm, defaultBrowserPackage));
+
+        synchronized (mLock) {
+            mBuildCount++;
+            if (generation == mGeneration) {
+                mBrowsers = browsers;
+                mDefaultBrowserPackage = defaultBrowserPackage;
+            }
+        }
+
+        return browsers;
+    }
+
+    /**
+     * Discards the cached list of browsers, so that it is rebuilt on the next retrieval.
+     */
+    void invalidate() {
+        synchronized (mLock) {
+            mBrowsers = null;
+            mDefaultBrowserPackage = null;
+            mGeneration++;
+        }
+    }
+
+    /**
+     * The number of times the list of browsers has been built.
+     */
+    @VisibleForTesting
+    int getBuildCount() {
+        synchronized (mLock) {
+            return mBuildCount;
+        }
+    }
+
+    private void registerReceiverIfNeeded(@NonNull Context appContext) {
+        synchronized (mLock) {
+            if (mReceiverContext == appContext) {
+                return;
+            }
+
+            // the application context only changes where several applications are created in
+            // one process, as Robolectric does for each test; the list cached for the previous
+            // application does not apply to this one
+            mReceiverContext = appContext;
+            mBrowsers = null;
+            mDefaultBrowserPackage = null;
+            mGeneration++;
+        }
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+        appContext.registerReceiver(new PackageChangeReceiver(), filter);
+    }
+
+    private final class PackageChangeReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Logger.debug("Package change (%s), invalidating browser inventory",
+                    intent.getAction());
+            invalidate();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth.browser;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Selects the browser used for authorization flows from those installed on the device.
+ *
+ * @see DefaultBrowserSelectionStrategy
+ * @see AdaptiveBrowserSelectionStrategy
+ * @see net.openid.appauth.AppAuthConfiguration.Builder#setBrowserSelectionStrategy(
+ *     BrowserSelectionStrategy)
+ */
+public interface BrowserSelectionStrategy {
+
+    /**
+     * Selects a browser permitted by the specified matcher, or returns `null` if there is no
+     * such browser. This is called on the thread which creates the authorization service;
+     * strategies which read from disk should be used with
+     * {@link net.openid.appauth.AuthorizationService#createAsync(Context,
+     * net.openid.appauth.AppAuthConfiguration)}, which calls them on a background thread.
+     */
+    @Nullable
+    BrowserDescriptor select(@NonNull Context context, @NonNull BrowserMatcher browserMatcher);
+
+    /**
+     * Whether the outcomes of authorization flows should be recorded by
+     * {@link BrowserTelemetry}, for use by subsequent selections.
+     */
+    boolean recordsOutcomes();
+}
@@ -72,17 +72,17 @@ public final class BrowserSelector {
      * order returned by the package manager, so indirectly reflects the user's preferences
      * (i.e. their default browser, if set, should be the first entry in the list).
      */
-    @SuppressLint("PackageManagerGetSignatures")
     @NonNull
     public static List<BrowserDescriptor> getAllBrowsers(Context context) {
         PackageManager pm = context.getPackageManager();
-        List<BrowserDescriptor> browsers = new ArrayList<>();
-        String defaultBrowserPackage = null;
+        return getAllBrowsers(pm, getDefaultBrowserPackage(pm));
+    }
 
-        int queryFlag = PackageManager.GET_RESOLVED_FILTER;
-        if (VERSION.SDK_INT >= VERSION_CODES.M) {
-            queryFlag |= PackageManager.MATCH_ALL;
-        }
+    /**
+     * Determines the package name of the user's preferred browser, if set.
+     */
+    @Nullable
+    static String getDefaultBrowserPackage(@NonNull PackageManager pm) {
         // When requesting all matching activities for an intent from the package manager,
         // the user's preferred browser is not guaranteed to be at the head of this list.
         // Therefore, the preferred browser must be separately determined and the resultant
@@ -90,7 +90,21 @@ public final class BrowserSelector {
         ResolveInfo resolvedDefaultActivity =
                 pm.resolveActivity(BROWSER_INTENT, 0);
         if (resolvedDefaultActivity != null) {
-            defaultBrowserPackage = resolvedDefaultActivity.activityInfo.packageName;
+            return resolvedDefaultActivity.activityInfo.packageName;
+        }
+        return null;
+    }
+
+    @SuppressLint("PackageManagerGetSignatures")
+    @NonNull
+    static List<BrowserDescriptor> getAllBrowsers(
+            @NonNull PackageManager pm,
+            @Nullable String defaultBrowserPackage) {
+        List<BrowserDescriptor> browsers = new ArrayList<>();
+
+        int queryFlag = PackageManager.GET_RESOLVED_FILTER;
+        if (VERSION.SDK_INT >= VERSION_CODES.M) {
+            queryFlag |= PackageManager.MATCH_ALL;
         }
         List<ResolveInfo> resolvedActivityList =
                 pm.queryIntentActivities(BROWSER_INTENT, queryFlag);
@@ -144,13 +158,17 @@ public final class BrowserSelector {
      * are evaluated in the order returned by the package manager, which should indirectly match
      * the user's preferences.
      *
+     * The installed browsers are retrieved from a process-wide {@link BrowserInventory}, which
+     * is only rebuilt when packages are installed, updated or removed, or the user's preferred
+     * browser changes.
+     *
      * @param context {@link Context} to use for accessing {@link PackageManager}.
      * @return The package name recommended to use for connecting to custom tabs related components.
      */
     @SuppressLint("PackageManagerGetSignatures")
     @Nullable
     public static BrowserDescriptor select(Context context, BrowserMatcher browserMatcher) {
-        List<BrowserDescriptor> allBrowsers = getAllBrowsers(context);
+        List<BrowserDescriptor> allBrowsers = BrowserInventory.getInstance().getBrowsers(context);
         BrowserDescriptor bestMatch = null;
         for (BrowserDescriptor browser : allBrowsers) {
             if (!browserMatcher.matches(browser)) {
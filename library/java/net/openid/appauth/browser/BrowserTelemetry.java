@@ -0,0 +1,283 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth.browser;
+
+import static net.openid.appauth.Preconditions.checkArgument;
+import static net.openid.appauth.Preconditions.checkNotEmpty;
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import net.openid.appauth.Clock;
+import net.openid.appauth.internal.Logger;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the outcomes of the authorization flows performed in each browser on the device, so
+ * that {@link AdaptiveBrowserSelectionStrategy} can prefer browsers which perform well. The
+ * outcomes are stored locally, in the shared preferences of the app, and are never sent
+ * anywhere.
+ *
+ * Older outcomes carry less weight than recent ones: each recorded outcome decays
+ * exponentially, halving in weight every {@link #DEFAULT_HALF_LIFE_MS fourteen days}, so that
+ * an update to a browser which fixes (or introduces) a problem is reflected in its measurements
+ * within a few weeks.
+ *
+ * Outcomes are recorded by {@link net.openid.appauth.AuthorizationManagementActivity} only when
+ * the browser selection strategy of the authorization service
+ * {@link BrowserSelectionStrategy#recordsOutcomes() records outcomes}, as the
+ * {@link AdaptiveBrowserSelectionStrategy} does.
+ */
+public final class BrowserTelemetry {
+
+    /**
+     * The time over which the weight of a recorded outcome halves.
+     */
+    public static final long DEFAULT_HALF_LIFE_MS = TimeUnit.DAYS.toMillis(14);
+
+    @VisibleForTesting
+    static final String PREFS_NAME = "net.openid.appauth.browser.BrowserTelemetry";
+
+    private static final String KEY_OUTCOMES = "outcomes";
+    private static final String KEY_REDIRECTS = "redirects";
+    private static final String KEY_CANCELS = "cancels";
+    private static final String KEY_REDIRECT_FAILURES = "redirectFailures";
+    private static final String KEY_TOTAL_REDIRECT_LATENCY = "totalRedirectLatencyMs";
+    private static final String KEY_UPDATED_AT = "updatedAt";
+
+    private static final Clock WALL_CLOCK = new Clock() {
+        @Override
+        public long getCurrentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    /**
+     * The decayed measurements of a browser, at the time they were retrieved.
+     */
+    public static final class BrowserStats {
+
+        /**
+         * The decayed number of recorded outcomes. An outcome recorded one half-life ago
+         * contributes 0.5 to this count.
+         */
+        public final double sampleCount;
+
+        /**
+         * The mean time from the launch of an authorization request to the redirect back to
+         * the app, in milliseconds, or `null` if no redirects have been recorded.
+         */
+        @Nullable
+        public final Double meanRedirectLatencyMs;
+
+        /**
+         * The proportion of authorization flows which were canceled, as the user returned to
+         * the app without a redirect.
+         */
+        public final double cancelRate;
+
+        /**
+         * The proportion of authorization flows which redirected back to the app with a
+         * response which could not be processed.
+         */
+        public final double redirectFailureRate;
+
+        BrowserStats(
+                double sampleCount,
+                @Nullable Double meanRedirectLatencyMs,
+                double cancelRate,
+                double redirectFailureRate) {
+            this.sampleCount = sampleCount;
+            this.meanRedirectLatencyMs = meanRedirectLatencyMs;
+            this.cancelRate = cancelRate;
+            this.redirectFailureRate = redirectFailureRate;
+        }
+    }
+
+    private static BrowserTelemetry sInstance;
+
+    @NonNull
+    private final SharedPreferences mPrefs;
+
+    @NonNull
+    private final Clock mClock;
+
+    private final long mHalfLifeMs;
+
+    /**
+     * Retrieves the telemetry of the app.
+     */
+    @NonNull
+    public static synchronized BrowserTelemetry getInstance(@NonNull Context context) {
+        checkNotNull(context, "context cannot be null");
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new BrowserTelemetry(
+                    (appContext != null ? appContext : context)
+                            .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE),
+                    WALL_CLOCK,
+                    DEFAULT_HALF_LIFE_MS);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    BrowserTelemetry(@NonNull SharedPreferences prefs, @NonNull Clock clock, long halfLifeMs) {
+        checkArgument(halfLifeMs > 0, "halfLifeMs must be positive");
+        mPrefs = checkNotNull(prefs, "prefs cannot be null");
+        mClock = checkNotNull(clock, "clock cannot be null");
+        mHalfLifeMs = halfLifeMs;
+    }
+
+    /**
+     * Records that an authorization flow in the specified browser redirected back to the app,
+     * the specified time after it was launched.
+     */
+    public void recordRedirect(
+            @NonNull String packageName,
+            boolean useCustomTab,
+            long latencyMs) {
+        checkArgument(latencyMs >= 0, "latencyMs must not be negative");
+        record(packageName, useCustomTab, KEY_REDIRECTS, latencyMs);
+    }
+
+    /**
+     * Records that an authorization flow in the specified browser was canceled.
+     */
+    public void recordCancel(@NonNull String packageName, boolean useCustomTab) {
+        record(packageName, useCustomTab, KEY_CANCELS, 0L);
+    }
+
+    /**
+     * Records that an authorization flow in the specified browser redirected back to the app
+     * with a response which could not be processed.
+     */
+    public void recordRedirectFailure(@NonNull String packageName, boolean useCustomTab) {
+        record(packageName, useCustomTab, KEY_REDIRECT_FAILURES, 0L);
+    }
+
+    /**
+     * Retrieves the decayed measurements of the specified browser, or `null` if no outcomes
+     * have been recorded for it.
+     */
+    @Nullable
+    public synchronized BrowserStats getStats(@NonNull String packageName, boolean useCustomTab) {
+        JSONObject record = read(key(packageName, useCustomTab));
+        if (record == null) {
+            return null;
+        }
+
+        double outcomes = record.optDouble(KEY_OUTCOMES, 0);
+        if (outcomes <= 0) {
+            return null;
+        }
+
+        double redirects = record.optDouble(KEY_REDIRECTS, 0);
+        Double meanLatency = redirects > 0
+                ? record.optDouble(KEY_TOTAL_REDIRECT_LATENCY, 0) / redirects
+                : null;
+
+        // the stored counts have all been decayed by the same factor, so the rates are
+        // unaffected by decay; only the sample count is decayed to the present
+        return new BrowserStats(
+                outcomes * decaySince(record.optLong(KEY_UPDATED_AT)),
+                meanLatency,
+                record.optDouble(KEY_CANCELS, 0) / outcomes,
+                record.optDouble(KEY_REDIRECT_FAILURES, 0) / outcomes);
+    }
+
+    /**
+     * Discards all recorded outcomes.
+     */
+    public synchronized void clear() {
+        mPrefs.edit().clear().apply();
+    }
+
+    private synchronized void record(
+            @NonNull String packageName,
+            boolean useCustomTab,
+            @NonNull String outcomeKey,
+            long latencyMs) {
+        checkNotEmpty(packageName, "packageName cannot be null or empty");
+
+        String key = key(packageName, useCustomTab);
+        JSONObject record = read(key);
+        if (record == null) {
+            record = new JSONObject();
+        }
+
+        long now = mClock.getCurrentTimeMillis();
+        double decay = decaySince(record.optLong(KEY_UPDATED_AT, now));
+        try {
+            for (String counter : new String[] {
+                    KEY_OUTCOMES,
+                    KEY_REDIRECTS,
+                    KEY_CANCELS,
+                    KEY_REDIRECT_FAILURES,
+                    KEY_TOTAL_REDIRECT_LATENCY }) {
+                record.put(counter, record.optDouble(counter, 0) * decay);
+            }
+
+            record.put(KEY_OUTCOMES, record.getDouble(KEY_OUTCOMES) + 1);
+            record.put(outcomeKey, record.getDouble(outcomeKey) + 1);
+            if (KEY_REDIRECTS.equals(outcomeKey)) {
+                record.put(
+                        KEY_TOTAL_REDIRECT_LATENCY,
+                        record.getDouble(KEY_TOTAL_REDIRECT_LATENCY) + latencyMs);
+            }
+            record.put(KEY_UPDATED_AT, now);
+        } catch (JSONException ex) {
+            // only thrown for non-finite values, which the decay cannot produce
+            throw new IllegalStateException("Unable to update browser telemetry", ex);
+        }
+
+        mPrefs.edit().putString(key, record.toString()).apply();
+    }
+
+    @Nullable
+    private JSONObject read(@NonNull String key) {
+        String json = mPrefs.getString(key, null);
+        if (json == null) {
+            return null;
+        }
+
+        try {
+            return new JSONObject(json);
+        } catch (JSONException ex) {
+            Logger.warn("Discarding corrupt browser telemetry for %s", key);
+            return null;
+        }
+    }
+
+    private double decaySince(long time) {
+        long elapsed = mClock.getCurrentTimeMillis() - time;
+        if (elapsed <= 0) {
+            return 1;
+        }
+        return Math.pow(0.5, (double) elapsed / mHalfLifeMs);
+    }
+
+    @NonNull
+    private static String key(@NonNull String packageName, boolean useCustomTab) {
+        return packageName + (useCustomTab ? "|customTab" : "|browser");
+    }
+}
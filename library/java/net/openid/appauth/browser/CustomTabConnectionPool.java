@@ -0,0 +1,471 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth.browser;
+
+import static net.openid.appauth.Preconditions.checkArgument;
+import static net.openid.appauth.Preconditions.checkNotEmpty;
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+import androidx.browser.customtabs.CustomTabsCallback;
+import androidx.browser.customtabs.CustomTabsClient;
+import androidx.browser.customtabs.CustomTabsIntent;
+import androidx.browser.customtabs.CustomTabsSession;
+
+import net.openid.appauth.internal.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A process-wide pool of connections to the custom tabs services of browsers, keyed by browser
+ * package. Binding to a browser and warming it up is relatively expensive, so rather than each
+ * {@link net.openid.appauth.AuthorizationService} binding its own connection and unbinding it
+ * when disposed, services {@link #acquire(String) acquire} a reference to a shared connection.
+ * When the last reference is released, the connection is retained for a grace period before it
+ * is unbound, so that moving between activities does not repeatedly bind, warm up and unbind the
+ * browser.
+ *
+ * Connections are bound using the application context.
+ */
+public final class CustomTabConnectionPool {
+
+    /**
+     * The default time for which an unreferenced connection is retained before it is unbound.
+     */
+    public static final long DEFAULT_GRACE_PERIOD_MS = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * The states of a pooled connection.
+     */
+    public enum ConnectionState {
+        /**
+         * The custom tabs service is being bound.
+         */
+        BINDING,
+
+        /**
+         * The custom tabs service is connected, and the browser has been warmed up.
+         */
+        CONNECTED,
+
+        /**
+         * The custom tabs service was connected, but has since disconnected; the connection
+         * will be bound again when it is next acquired.
+         */
+        DISCONNECTED,
+
+        /**
+         * The browser does not provide a custom tabs service.
+         */
+        UNAVAILABLE
+    }
+
+    /**
+     * A snapshot of the state and metrics of a pooled connection.
+     */
+    public static final class ConnectionStats {
+
+        /**
+         * The current state of the connection.
+         */
+        @NonNull
+        public final ConnectionState state;
+
+        /**
+         * The number of unreleased references to the connection.
+         */
+        public final int referenceCount;
+
+        /**
+         * The number of times the custom tabs service of the browser has been bound.
+         */
+        public final int bindCount;
+
+        /**
+         * The number of acquisitions which reused an existing connection, rather than binding.
+         */
+        public final int reuseCount;
+
+        /**
+         * The time taken for the most recent bind to connect, in milliseconds, or `null` if no
+         * bind has yet connected.
+         */
+        @Nullable
+        public final Long lastConnectLatencyMs;
+
+        /**
+         * Whether the connection is unreferenced, and will be unbound once its grace period
+         * elapses.
+         */
+        public final boolean pendingUnbind;
+
+        ConnectionStats(
+                @NonNull ConnectionState state,
+                int referenceCount,
+                int bindCount,
+                int reuseCount,
+                @Nullable Long lastConnectLatencyMs,
+                boolean pendingUnbind) {
+            this.state = state;
+            this.referenceCount = referenceCount;
+            this.bindCount = bindCount;
+            this.reuseCount = reuseCount;
+            this.lastConnectLatencyMs = lastConnectLatencyMs;
+            this.pendingUnbind = pendingUnbind;
+        }
+    }
+
+    private static CustomTabConnectionPool sInstance;
+
+    @NonNull
+    private final Context mContext;
+
+    private final long mGracePeriodMs;
+
+    @NonNull
+    private final Handler mHandler;
+
+    @NonNull
+    private final Map<String, PooledConnection> mConnections = new HashMap<>();
+
+    /**
+     * Retrieves the pool shared by all authorization services in the process.
+     */
+    @NonNull
+    public static synchronized CustomTabConnectionPool getInstance(@NonNull Context context) {
+        checkNotNull(context, "context cannot be null");
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new CustomTabConnectionPool(
+                    appContext != null ? appContext : context,
+                    DEFAULT_GRACE_PERIOD_MS);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    CustomTabConnectionPool(@NonNull Context context, long gracePeriodMs) {
+        checkArgument(gracePeriodMs >= 0, "gracePeriodMs must not be negative");
+        mContext = checkNotNull(context, "context cannot be null");
+        mGracePeriodMs = gracePeriodMs;
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Acquires a reference to the connection to the custom tabs service of the specified
+     * browser, binding to it if not already bound. The returned manager must be
+     * {@link CustomTabManager#dispose() disposed} when no longer required, which releases the
+     * reference; it cannot be bound to any other browser. The browser is warmed up as soon as
+     * it is connected.
+     */
+    @NonNull
+    public CustomTabManager acquire(@NonNull String browserPackage) {
+        return acquire(browserPackage, WarmupPolicies.ALWAYS);
+    }
+
+    /**
+     * Acquires a reference to the connection to the custom tabs service of the specified
+     * browser, which is warmed up when permitted by the specified policy. If the connection is
+     * already bound, the policy applies only to subsequent
+     * {@link CustomTabManager#warmup(WarmupPolicy.Trigger) warmup triggers}; a browser already
+     * warmed up by another reference is not cooled down.
+     *
+     * @see #acquire(String)
+     */
+    @NonNull
+    public CustomTabManager acquire(
+            @NonNull String browserPackage,
+            @NonNull WarmupPolicy warmupPolicy) {
+        checkNotEmpty(browserPackage, "browserPackage cannot be null or empty");
+        checkNotNull(warmupPolicy, "warmupPolicy cannot be null");
+
+        Lease lease;
+        synchronized (this) {
+            PooledConnection connection;
+            connection = mConnections.get(browserPackage);
+            if (connection == null) {
+                connection = new PooledConnection(browserPackage, warmupPolicy);
+                mConnections.put(browserPackage, connection);
+            } else if (connection.mState == ConnectionState.DISCONNECTED) {
+                connection.mManager.dispose();
+                connection.bind(warmupPolicy);
+            } else {
+                connection.mReuseCount++;
+            }
+
+            connection.mReferenceCount++;
+            if (connection.mPendingUnbind != null) {
+                mHandler.removeCallbacks(connection.mPendingUnbind);
+                connection.mPendingUnbind = null;
+            }
+
+            lease = new Lease(mContext, connection, warmupPolicy);
+            connection.mLeases.add(lease);
+        }
+
+        return lease;
+    }
+
+    /**
+     * Returns the state and metrics of the pooled connection to the specified browser, or
+     * `null` if there is no such connection.
+     */
+    @Nullable
+    public synchronized ConnectionStats getConnectionStats(@NonNull String browserPackage) {
+        PooledConnection connection = mConnections.get(browserPackage);
+        if (connection == null) {
+            return null;
+        }
+
+        return new ConnectionStats(
+                connection.mState,
+                connection.mReferenceCount,
+                connection.mBindCount,
+                connection.mReuseCount,
+                connection.mLastConnectLatencyMs,
+                connection.mPendingUnbind != null);
+    }
+
+    private synchronized void release(
+            @NonNull final PooledConnection connection,
+            @NonNull Lease lease) {
+        connection.mLeases.remove(lease);
+        connection.mReferenceCount--;
+        if (connection.mReferenceCount > 0) {
+            return;
+        }
+
+        connection.mPendingUnbind = new Runnable() {
+            @Override
+            public void run() {
+                unbindIfUnreferenced(connection, this);
+            }
+        };
+        mHandler.postDelayed(connection.mPendingUnbind, mGracePeriodMs);
+    }
+
+    private synchronized void unbindIfUnreferenced(
+            @NonNull PooledConnection connection,
+            @NonNull Runnable unbind) {
+        if (connection.mPendingUnbind != unbind || connection.mReferenceCount > 0) {
+            return;
+        }
+
+        Logger.debug("Unbinding unused custom tabs connection to %s", connection.mPackage);
+        connection.mPendingUnbind = null;
+        connection.mManager.dispose();
+        mConnections.remove(connection.mPackage);
+    }
+
+    /**
+     * A shared connection to the custom tabs service of a browser. Guarded by the pool.
+     */
+    private final class PooledConnection implements CustomTabManager.ConnectionListener {
+
+        @NonNull
+        final String mPackage;
+
+        @NonNull
+        volatile CustomTabManager mManager;
+
+        @NonNull
+        ConnectionState mState;
+
+        int mReferenceCount;
+        int mBindCount;
+        int mReuseCount;
+        long mBindStartTime;
+
+        @Nullable
+        Long mLastConnectLatencyMs;
+
+        @Nullable
+        Runnable mPendingUnbind;
+
+        /**
+         * The unreleased references to the connection, which are informed when it disconnects.
+         */
+        @NonNull
+        final List<Lease> mLeases = new ArrayList<>();
+
+        PooledConnection(@NonNull String browserPackage, @NonNull WarmupPolicy warmupPolicy) {
+            mPackage = browserPackage;
+            bind(warmupPolicy);
+        }
+
+        void bind(@NonNull WarmupPolicy warmupPolicy) {
+            mState = ConnectionState.BINDING;
+            mBindCount++;
+            mBindStartTime = SystemClock.elapsedRealtime();
+            mManager = new CustomTabManager(mContext, warmupPolicy);
+            mManager.setConnectionListener(this);
+            mManager.bind(mPackage);
+        }
+
+        @Override
+        public void onConnected() {
+            synchronized (CustomTabConnectionPool.this) {
+                mState = ConnectionState.CONNECTED;
+                mLastConnectLatencyMs = SystemClock.elapsedRealtime() - mBindStartTime;
+                Logger.debug("Custom tabs connection to %s established in %d ms",
+                        mPackage, mLastConnectLatencyMs);
+            }
+        }
+
+        @Override
+        public void onDisconnected() {
+            List<Lease> leases;
+            synchronized (CustomTabConnectionPool.this) {
+                mState = ConnectionState.DISCONNECTED;
+                leases = new ArrayList<>(mLeases);
+            }
+
+            for (Lease lease : leases) {
+                lease.notifyDisconnected();
+            }
+        }
+
+        @Override
+        public void onBindFailed() {
+            synchronized (CustomTabConnectionPool.this) {
+                mState = ConnectionState.UNAVAILABLE;
+            }
+        }
+    }
+
+    /**
+     * A reference to a pooled connection, presented as a {@link CustomTabManager} so that it
+     * can be used in place of an unshared one.
+     */
+    private final class Lease extends CustomTabManager {
+
+        @NonNull
+        private final PooledConnection mConnection;
+
+        @NonNull
+        private final AtomicBoolean mReleased = new AtomicBoolean();
+
+        Lease(
+                @NonNull Context context,
+                @NonNull PooledConnection connection,
+                @NonNull WarmupPolicy warmupPolicy) {
+            super(context, warmupPolicy);
+            mConnection = connection;
+        }
+
+        @Override
+        public void bind(@NonNull String browserPackage) {
+            if (!mConnection.mPackage.equals(browserPackage)) {
+                throw new IllegalStateException(
+                        "Pooled connection to " + mConnection.mPackage
+                                + " cannot be bound to " + browserPackage);
+            }
+        }
+
+        @Override
+        public boolean warmup(@NonNull WarmupPolicy.Trigger trigger) {
+            if (mReleased.get()) {
+                return false;
+            }
+            return mConnection.mManager.warmup(getWarmupPolicy(), trigger);
+        }
+
+        @Override
+        void runWhenConnectionResolved(@NonNull Runnable action) {
+            mConnection.mManager.runWhenConnectionResolved(action);
+        }
+
+        @Override
+        public void recordLaunch() {
+            mConnection.mManager.recordLaunch();
+        }
+
+        @WorkerThread
+        @NonNull
+        @Override
+        public CustomTabsIntent.Builder createTabBuilder(@Nullable Uri... possibleUris) {
+            return mConnection.mManager.createTabBuilder(possibleUris);
+        }
+
+        @NonNull
+        @Override
+        public CustomTabsIntent.Builder createTabBuilderIfConnected(
+                @Nullable Uri... possibleUris) {
+            return mConnection.mManager.createTabBuilderIfConnected(possibleUris);
+        }
+
+        @Nullable
+        @Override
+        public CustomTabsSession createSessionIfConnected(
+                @Nullable CustomTabsCallback callbacks,
+                @Nullable Uri... possibleUris) {
+            return mConnection.mManager.createSessionIfConnected(callbacks, possibleUris);
+        }
+
+        @Override
+        public void createTabBuilderAsync(
+                @NonNull TabBuilderCallback callback,
+                @Nullable Uri... possibleUris) {
+            mConnection.mManager.createTabBuilderAsync(callback, possibleUris);
+        }
+
+        @Override
+        public void createSessionAsync(
+                @Nullable CustomTabsCallback callbacks,
+                @NonNull SessionCallback sessionCallback,
+                @Nullable Uri... possibleUris) {
+            mConnection.mManager.createSessionAsync(callbacks, sessionCallback, possibleUris);
+        }
+
+        @WorkerThread
+        @Nullable
+        @Override
+        public CustomTabsSession createSession(
+                @Nullable CustomTabsCallback callbacks,
+                @Nullable Uri... possibleUris) {
+            return mConnection.mManager.createSession(callbacks, possibleUris);
+        }
+
+        @WorkerThread
+        @Override
+        public CustomTabsClient getClient() {
+            return mConnection.mManager.getClient();
+        }
+
+        /**
+         * Releases the reference to the pooled connection. The connection is unbound once the
+         * grace period elapses, unless acquired again in the meantime.
+         */
+        @Override
+        public void dispose() {
+            if (mReleased.compareAndSet(false, true)) {
+                release(mConnection, this);
+            }
+        }
+    }
+}
@@ -18,8 +18,11 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.annotation.WorkerThread;
 import androidx.browser.customtabs.CustomTabsCallback;
 import androidx.browser.customtabs.CustomTabsClient;
@@ -31,9 +34,11 @@ import net.openid.appauth.internal.Logger;
 import net.openid.appauth.internal.UriUtil;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -42,6 +47,39 @@ import java.util.concurrent.atomic.AtomicReference;
  */
 public class CustomTabManager {
 
+    /**
+     * Receives a custom tab session once the connection to the browser is established.
+     */
+    public interface SessionCallback {
+        /**
+         * Invoked on the main thread with the created session, or `null` if the browser does
+         * not support custom tabs, or the connection was not established in time.
+         */
+        void onSessionReady(@Nullable CustomTabsSession session);
+    }
+
+    /**
+     * Receives a custom tab builder once the connection to the browser is established.
+     */
+    public interface TabBuilderCallback {
+        /**
+         * Invoked on the main thread with a builder, which uses a session from the browser
+         * connection if one could be established.
+         */
+        void onTabBuilderReady(@NonNull CustomTabsIntent.Builder builder);
+    }
+
+    /**
+     * Informed when the connection to the browser is lost, after which sessions created from it
+     * can no longer be used.
+     */
+    public interface DisconnectCallback {
+        /**
+         * Invoked on the main thread when the custom tabs service of the browser disconnects.
+         */
+        void onDisconnected();
+    }
+
     /**
      * Wait for at most this amount of time for the browser connection to be established.
      */
@@ -56,13 +94,68 @@ public class CustomTabManager {
     @NonNull
     private final CountDownLatch mClientLatch;
 
+    @NonNull
+    private final Handler mMainHandler;
+
+    /**
+     * Actions, such as the delivery of asynchronously created sessions, waiting for the
+     * connection to the browser to be established or to fail.
+     */
+    @NonNull
+    private final List<Runnable> mConnectionWaiters;
+
     @Nullable
     private CustomTabsServiceConnection mConnection;
 
+    @Nullable
+    private volatile ConnectionListener mConnectionListener;
+
+    @Nullable
+    private volatile DisconnectCallback mDisconnectCallback;
+
+    @NonNull
+    private final WarmupPolicy mWarmupPolicy;
+
+    @NonNull
+    private final WarmupStatistics mWarmupStatistics;
+
+    /**
+     * Whether the browser has been warmed up on the current connection.
+     */
+    @NonNull
+    private final AtomicBoolean mWarmedUp = new AtomicBoolean();
+
+    /**
+     * Whether the browser has been warmed up on the current connection, and no authorization
+     * request has since been launched.
+     */
+    @NonNull
+    private final AtomicBoolean mWarmupAwaitingLaunch = new AtomicBoolean();
+
     public CustomTabManager(@NonNull Context context) {
+        this(context, WarmupPolicies.ALWAYS);
+    }
+
+    /**
+     * Creates a custom tab manager which warms up the browser when permitted by the specified
+     * policy.
+     */
+    public CustomTabManager(@NonNull Context context, @NonNull WarmupPolicy warmupPolicy) {
+        this(context, warmupPolicy, WarmupStatistics.getInstance());
+    }
+
+    @VisibleForTesting
+    CustomTabManager(
+            @NonNull Context context,
+            @NonNull WarmupPolicy warmupPolicy,
+            @NonNull WarmupStatistics warmupStatistics) {
         mContextRef = new WeakReference<>(context);
         mClient = new AtomicReference<>();
         mClientLatch = new CountDownLatch(1);
+        mMainHandler = new Handler(Looper.getMainLooper());
+        mConnectionWaiters = new ArrayList<>();
+        mWarmupPolicy = warmupPolicy;
+        mWarmupStatistics = warmupStatistics;
     }
 
     public synchronized void bind(@NonNull String browserPackage) {
@@ -74,20 +167,31 @@ public class CustomTabManager {
             @Override
             public void onServiceDisconnected(ComponentName componentName) {
                 Logger.debug("CustomTabsService is disconnected");
+                mWarmedUp.set(false);
+                mWarmupAwaitingLaunch.set(false);
                 setClient(null);
+                ConnectionListener listener = mConnectionListener;
+                if (listener != null) {
+                    listener.onDisconnected();
+                }
+                notifyDisconnected();
             }
 
             @Override
             public void onCustomTabsServiceConnected(ComponentName componentName,
                                                      CustomTabsClient customTabsClient) {
                 Logger.debug("CustomTabsService is connected");
-                customTabsClient.warmup(0);
+                warmup(customTabsClient, mWarmupPolicy, WarmupPolicy.Trigger.CONNECTED);
                 setClient(customTabsClient);
+                ConnectionListener listener = mConnectionListener;
+                if (listener != null) {
+                    listener.onConnected();
+                }
             }
 
             private void setClient(@Nullable CustomTabsClient client) {
                 mClient.set(client);
-                mClientLatch.countDown();
+                onConnectionResolved();
             }
         };
 
@@ -98,8 +202,112 @@ public class CustomTabManager {
                 mConnection)) {
             // this is expected if the browser does not support custom tabs
             Logger.info("Unable to bind custom tabs service");
-            mClientLatch.countDown();
+            onConnectionResolved();
+            ConnectionListener listener = mConnectionListener;
+            if (listener != null) {
+                listener.onBindFailed();
+            }
+        }
+    }
+
+    /**
+     * Sets the listener to be notified of changes to the state of the connection to the
+     * browser. This must be set before {@link #bind(String)} is called.
+     */
+    void setConnectionListener(@Nullable ConnectionListener listener) {
+        mConnectionListener = listener;
+    }
+
+    /**
+     * Sets the callback to be informed when the connection to the browser is lost, so that
+     * sessions retained from it can be discarded.
+     */
+    public void setDisconnectCallback(@Nullable DisconnectCallback callback) {
+        mDisconnectCallback = callback;
+    }
+
+    /**
+     * Informs the disconnect callback, if any, that the connection to the browser was lost.
+     */
+    void notifyDisconnected() {
+        DisconnectCallback callback = mDisconnectCallback;
+        if (callback != null) {
+            callback.onDisconnected();
+        }
+    }
+
+    /**
+     * Warms up the browser in response to the specified trigger, if the connection to it is
+     * established and the warmup policy permits it. The browser is warmed up at most once per
+     * connection.
+     *
+     * @return true if the browser has been warmed up.
+     */
+    public boolean warmup(@NonNull WarmupPolicy.Trigger trigger) {
+        return warmup(mClient.get(), mWarmupPolicy, trigger);
+    }
+
+    /**
+     * Warms up the browser in response to the specified trigger once the connection to it is
+     * established, without blocking the calling thread.
+     *
+     * @see #warmup(WarmupPolicy.Trigger)
+     */
+    public void warmupAsync(@NonNull final WarmupPolicy.Trigger trigger) {
+        runWhenConnectionResolved(new Runnable() {
+            @Override
+            public void run() {
+                warmup(trigger);
+            }
+        });
+    }
+
+    /**
+     * Records the launch of an authorization request in a custom tab of the browser, so that
+     * {@link WarmupStatistics} can relate warmups to the launches which followed them.
+     */
+    public void recordLaunch() {
+        mWarmupStatistics.recordLaunch(mWarmupAwaitingLaunch.getAndSet(false));
+    }
+
+    @NonNull
+    WarmupPolicy getWarmupPolicy() {
+        return mWarmupPolicy;
+    }
+
+    /**
+     * Warms up the browser if permitted by the specified policy, which may differ from the
+     * policy of this manager when the connection is shared.
+     */
+    boolean warmup(@NonNull WarmupPolicy policy, @NonNull WarmupPolicy.Trigger trigger) {
+        return warmup(mClient.get(), policy, trigger);
+    }
+
+    private boolean warmup(
+            @Nullable CustomTabsClient client,
+            @NonNull WarmupPolicy policy,
+            @NonNull WarmupPolicy.Trigger trigger) {
+        if (client == null) {
+            return false;
+        }
+
+        if (mWarmedUp.get()) {
+            return true;
         }
+
+        Context context = mContextRef.get();
+        if (context == null || !policy.shouldWarmup(context, trigger)) {
+            Logger.debug("Browser warmup on %s declined by policy", trigger);
+            mWarmupStatistics.recordSkippedWarmup();
+            return false;
+        }
+
+        if (mWarmedUp.compareAndSet(false, true)) {
+            client.warmup(0);
+            mWarmupAwaitingLaunch.set(true);
+            mWarmupStatistics.recordWarmup();
+        }
+        return true;
     }
 
     /**
@@ -114,6 +322,101 @@ public class CustomTabManager {
         return new CustomTabsIntent.Builder(createSession(null, possibleUris));
     }
 
+    /**
+     * Creates a {@link androidx.browser.customtabs.CustomTabsIntent.Builder custom tab builder}
+     * without waiting for the connection to the browser. If the connection is not yet
+     * established, the builder will not use a session; this is suitable for launching a custom
+     * tab from the main thread.
+     */
+    @NonNull
+    public CustomTabsIntent.Builder createTabBuilderIfConnected(@Nullable Uri... possibleUris) {
+        return new CustomTabsIntent.Builder(createSession(mClient.get(), null, possibleUris));
+    }
+
+    /**
+     * Creates a {@link androidx.browser.customtabs.CustomTabsSession custom tab session}
+     * without waiting for the connection to the browser, or returns `null` if the connection is
+     * not yet established.
+     */
+    @Nullable
+    public CustomTabsSession createSessionIfConnected(
+            @Nullable CustomTabsCallback callbacks,
+            @Nullable Uri... possibleUris) {
+        return createSession(mClient.get(), callbacks, possibleUris);
+    }
+
+    /**
+     * Creates a {@link androidx.browser.customtabs.CustomTabsIntent.Builder custom tab builder}
+     * once the connection to the browser is established, without blocking the calling thread.
+     *
+     * @see #createSessionAsync(CustomTabsCallback, SessionCallback, Uri...)
+     */
+    public void createTabBuilderAsync(
+            @NonNull final TabBuilderCallback callback,
+            @Nullable Uri... possibleUris) {
+        createSessionAsync(null, new SessionCallback() {
+            @Override
+            public void onSessionReady(@Nullable CustomTabsSession session) {
+                callback.onTabBuilderReady(new CustomTabsIntent.Builder(session));
+            }
+        }, possibleUris);
+    }
+
+    /**
+     * Creates a {@link androidx.browser.customtabs.CustomTabsSession custom tab session} once
+     * the connection to the browser is established, without blocking the calling thread. The
+     * session is delivered on the main thread, and is `null` if the browser does not support
+     * custom tabs or the connection is not established within the same time that
+     * {@link #getClient()} would wait for it.
+     */
+    public void createSessionAsync(
+            @Nullable final CustomTabsCallback callbacks,
+            @NonNull final SessionCallback sessionCallback,
+            @Nullable final Uri... possibleUris) {
+        runWhenConnectionResolved(new Runnable() {
+            @Override
+            public void run() {
+                sessionCallback.onSessionReady(
+                        createSession(mClient.get(), callbacks, possibleUris));
+            }
+        });
+    }
+
+    /**
+     * Runs the specified action once on the main thread, when the connection to the browser is
+     * established or fails, or after the same time that {@link #getClient()} would wait for it.
+     */
+    void runWhenConnectionResolved(@NonNull final Runnable action) {
+        final AtomicBoolean delivered = new AtomicBoolean();
+        final Runnable delivery = new Runnable() {
+            @Override
+            public void run() {
+                if (!delivered.compareAndSet(false, true)) {
+                    return;
+                }
+
+                synchronized (mConnectionWaiters) {
+                    mConnectionWaiters.remove(this);
+                }
+                action.run();
+            }
+        };
+
+        boolean resolved;
+        synchronized (mConnectionWaiters) {
+            resolved = mClientLatch.getCount() == 0;
+            if (!resolved) {
+                mConnectionWaiters.add(delivery);
+            }
+        }
+
+        if (resolved) {
+            mMainHandler.post(delivery);
+        } else {
+            mMainHandler.postDelayed(delivery, TimeUnit.SECONDS.toMillis(CLIENT_WAIT_TIME));
+        }
+    }
+
     public synchronized void dispose() {
         if (mConnection == null) {
             return;
@@ -139,7 +442,14 @@ public class CustomTabManager {
     public CustomTabsSession createSession(
             @Nullable CustomTabsCallback callbacks,
             @Nullable Uri... possibleUris) {
-        CustomTabsClient client = getClient();
+        return createSession(getClient(), callbacks, possibleUris);
+    }
+
+    @Nullable
+    private CustomTabsSession createSession(
+            @Nullable CustomTabsClient client,
+            @Nullable CustomTabsCallback callbacks,
+            @Nullable Uri... possibleUris) {
         if (client == null) {
             return null;
         }
@@ -173,4 +483,33 @@ public class CustomTabManager {
 
         return mClient.get();
     }
+
+    /**
+     * Releases the threads waiting for the connection to the browser, and schedules the
+     * delivery of asynchronously created sessions.
+     */
+    private void onConnectionResolved() {
+        mClientLatch.countDown();
+
+        List<Runnable> waiters;
+        synchronized (mConnectionWaiters) {
+            waiters = new ArrayList<>(mConnectionWaiters);
+            mConnectionWaiters.clear();
+        }
+
+        for (Runnable waiter : waiters) {
+            mMainHandler.post(waiter);
+        }
+    }
+
+    /**
+     * Notified of changes to the state of the connection to the browser.
+     */
+    interface ConnectionListener {
+        void onConnected();
+
+        void onDisconnected();
+
+        void onBindFailed();
+    }
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth.browser;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Selects the first matching browser in the order of the user's preferences, preferring
+ * browsers which support custom tabs.
+ *
+ * @see BrowserSelector#select(Context, BrowserMatcher)
+ */
+public final class DefaultBrowserSelectionStrategy implements BrowserSelectionStrategy {
+
+    /**
+     * The singleton instance.
+     */
+    public static final DefaultBrowserSelectionStrategy INSTANCE =
+            new DefaultBrowserSelectionStrategy();
+
+    private DefaultBrowserSelectionStrategy() {
+        // no need to construct separate instances
+    }
+
+    @Nullable
+    @Override
+    public BrowserDescriptor select(
+            @NonNull Context context,
+            @NonNull BrowserMatcher browserMatcher) {
+        return BrowserSelector.select(context, browserMatcher);
+    }
+
+    @Override
+    public boolean recordsOutcomes() {
+        return false;
+    }
+}
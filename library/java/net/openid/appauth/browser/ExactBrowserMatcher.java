@@ -30,6 +30,10 @@ public class ExactBrowserMatcher implements BrowserMatcher {
         mBrowser = browser;
     }
 
+    BrowserDescriptor getBrowser() {
+        return mBrowser;
+    }
+
     @Override
     public boolean matches(@NonNull BrowserDescriptor descriptor) {
         return mBrowser.equals(descriptor);
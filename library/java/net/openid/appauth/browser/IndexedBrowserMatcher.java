@@ -0,0 +1,272 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth.browser;
+
+import static net.openid.appauth.Preconditions.checkNotNull;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An allow list or deny list of browsers, compiled for large numbers of rules. The
+ * {@link BrowserAllowList} and {@link BrowserDenyList} check each of their matchers in turn,
+ * parsing the version of the browser again for each {@link VersionedBrowserMatcher}; this
+ * matcher instead indexes {@link VersionedBrowserMatcher} and {@link ExactBrowserMatcher} rules
+ * by package name, custom tab usage and set of signature hashes, so that only the rules for the
+ * browser being matched are considered, and the version of the browser is parsed at most once.
+ * Any other matchers, including subclasses of the indexed matcher classes (which may override
+ * {@link BrowserMatcher#matches(BrowserDescriptor)}), are checked in turn, as by the list
+ * matchers.
+ *
+ * The result of {@link #matches(BrowserDescriptor)} is the same as that of the equivalent list
+ * matcher. Examples:
+ *
+ * ```java
+ * // compile an existing allow list
+ * BrowserMatcher matcher = IndexedBrowserMatcher.compile(allowList);
+ *
+ * // build a deny list from a policy
+ * BrowserMatcher matcher = IndexedBrowserMatcher.denyList(policyMatchers);
+ * ```
+ */
+public final class IndexedBrowserMatcher implements BrowserMatcher {
+
+    private final boolean mDenyList;
+
+    @NonNull
+    private final Map<String, PackageRules> mRulesByPackage;
+
+    @NonNull
+    private final List<BrowserMatcher> mUnindexedMatchers;
+
+    /**
+     * Compiles the specified matcher. A {@link BrowserAllowList} or {@link BrowserDenyList} is
+     * compiled to an indexed allow or deny list of its matchers; any other matcher, including a
+     * subclass of these, is compiled to an allow list of that matcher alone.
+     */
+    @NonNull
+    public static IndexedBrowserMatcher compile(@NonNull BrowserMatcher matcher) {
+        checkNotNull(matcher, "matcher cannot be null");
+        if (matcher instanceof IndexedBrowserMatcher) {
+            return (IndexedBrowserMatcher) matcher;
+        }
+
+        if (matcher.getClass() == BrowserDenyList.class) {
+            return denyList(((BrowserDenyList) matcher).getMatchers());
+        }
+
+        return allowList(Collections.singletonList(matcher));
+    }
+
+    /**
+     * Creates an indexed allow list, which will match if any of the provided matchers do.
+     *
+     * @see BrowserAllowList
+     */
+    @NonNull
+    public static IndexedBrowserMatcher allowList(@NonNull BrowserMatcher... matchers) {
+        return allowList(Arrays.asList(matchers));
+    }
+
+    /**
+     * Creates an indexed allow list, which will match if any of the provided matchers do.
+     *
+     * @see BrowserAllowList
+     */
+    @NonNull
+    public static IndexedBrowserMatcher allowList(
+            @NonNull Collection<? extends BrowserMatcher> matchers) {
+        return new IndexedBrowserMatcher(matchers, false);
+    }
+
+    /**
+     * Creates an indexed deny list, which will reject a match for any browser matched by any of
+     * the provided matchers, and permit all others.
+     *
+     * @see BrowserDenyList
+     */
+    @NonNull
+    public static IndexedBrowserMatcher denyList(@NonNull BrowserMatcher... matchers) {
+        return denyList(Arrays.asList(matchers));
+    }
+
+    /**
+     * Creates an indexed deny list, which will reject a match for any browser matched by any of
+     * the provided matchers, and permit all others.
+     *
+     * @see BrowserDenyList
+     */
+    @NonNull
+    public static IndexedBrowserMatcher denyList(
+            @NonNull Collection<? extends BrowserMatcher> matchers) {
+        return new IndexedBrowserMatcher(matchers, true);
+    }
+
+    private IndexedBrowserMatcher(
+            @NonNull Collection<? extends BrowserMatcher> matchers,
+            boolean denyList) {
+        checkNotNull(matchers, "matchers cannot be null");
+        mDenyList = denyList;
+        mRulesByPackage = new HashMap<>();
+        mUnindexedMatchers = new ArrayList<>();
+        for (BrowserMatcher matcher : matchers) {
+            add(checkNotNull(matcher, "matchers cannot contain null"));
+        }
+    }
+
+    private void add(@NonNull BrowserMatcher matcher) {
+        // only the exact classes are indexed, as a subclass may override matches()
+        Class<?> matcherClass = matcher.getClass();
+        if (matcherClass == BrowserAllowList.class) {
+            // a nested allow list matches if any of its matchers do, as does this list
+            for (BrowserMatcher nested : ((BrowserAllowList) matcher).getMatchers()) {
+                add(nested);
+            }
+        } else if (matcherClass == VersionedBrowserMatcher.class) {
+            VersionedBrowserMatcher versioned = (VersionedBrowserMatcher) matcher;
+            getVersionRules(
+                    versioned.getPackageName(),
+                    versioned.isUsingCustomTab(),
+                    versioned.getSignatureHashes())
+                    .addRange(versioned.getVersionRange());
+        } else if (matcherClass == ExactBrowserMatcher.class
+                && ((ExactBrowserMatcher) matcher).getBrowser() != null) {
+            BrowserDescriptor browser = ((ExactBrowserMatcher) matcher).getBrowser();
+            getVersionRules(
+                    browser.packageName,
+                    browser.useCustomTab,
+                    browser.signatureHashes)
+                    .addExactVersion(browser.version);
+        } else {
+            mUnindexedMatchers.add(matcher);
+        }
+    }
+
+    @NonNull
+    private VersionRules getVersionRules(
+            @NonNull String packageName,
+            boolean useCustomTab,
+            @NonNull Set<String> signatureHashes) {
+        PackageRules packageRules = mRulesByPackage.get(packageName);
+        if (packageRules == null) {
+            packageRules = new PackageRules();
+            mRulesByPackage.put(packageName, packageRules);
+        }
+
+        Map<Set<String>, VersionRules> rulesBySignatures = packageRules.forMode(useCustomTab);
+        VersionRules versionRules = rulesBySignatures.get(signatureHashes);
+        if (versionRules == null) {
+            versionRules = new VersionRules();
+            // copied, so that later changes to the set provided cannot corrupt the index
+            rulesBySignatures.put(
+                    Collections.unmodifiableSet(new HashSet<>(signatureHashes)),
+                    versionRules);
+        }
+        return versionRules;
+    }
+
+    @Override
+    public boolean matches(@NonNull BrowserDescriptor descriptor) {
+        return mDenyList != matchesAnyRule(descriptor);
+    }
+
+    private boolean matchesAnyRule(@NonNull BrowserDescriptor descriptor) {
+        PackageRules packageRules = mRulesByPackage.get(descriptor.packageName);
+        if (packageRules != null) {
+            VersionRules versionRules = packageRules
+                    .forMode(descriptor.useCustomTab)
+                    .get(descriptor.signatureHashes);
+            if (versionRules != null && versionRules.matches(descriptor.version)) {
+                return true;
+            }
+        }
+
+        for (BrowserMatcher matcher : mUnindexedMatchers) {
+            if (matcher.matches(descriptor)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * The rules for a package, separated by custom tab usage and keyed by set of signature
+     * hashes.
+     */
+    private static final class PackageRules {
+        final Map<Set<String>, VersionRules> mCustomTabRules = new HashMap<>();
+        final Map<Set<String>, VersionRules> mStandaloneRules = new HashMap<>();
+
+        @NonNull
+        Map<Set<String>, VersionRules> forMode(boolean useCustomTab) {
+            return useCustomTab ? mCustomTabRules : mStandaloneRules;
+        }
+    }
+
+    /**
+     * The versions matched by the rules for a package, custom tab usage and set of signature
+     * hashes.
+     */
+    private static final class VersionRules {
+        boolean mAnyVersion;
+
+        @NonNull
+        final List<VersionRange> mRanges = new ArrayList<>();
+
+        @NonNull
+        final Set<String> mExactVersions = new HashSet<>();
+
+        void addRange(@NonNull VersionRange range) {
+            if (range.isUnbounded()) {
+                mAnyVersion = true;
+            } else {
+                mRanges.add(range);
+            }
+        }
+
+        void addExactVersion(@Nullable String version) {
+            mExactVersions.add(version);
+        }
+
+        boolean matches(@NonNull String version) {
+            if (mAnyVersion || mExactVersions.contains(version)) {
+                return true;
+            }
+
+            if (mRanges.isEmpty()) {
+                return false;
+            }
+
+            DelimitedVersion parsedVersion = DelimitedVersion.parse(version);
+            for (VersionRange range : mRanges) {
+                if (range.matches(parsedVersion)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
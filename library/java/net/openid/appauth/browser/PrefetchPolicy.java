@@ -0,0 +1,35 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth.browser;
+
+import android.net.Uri;
+import androidx.annotation.NonNull;
+
+/**
+ * Determines whether the browser should be told that a URI may be launched, allowing it to
+ * pre-resolve and preconnect to the host. Implementations of this type can be used to control
+ * how often AppAuth prefetches authorization requests.
+ *
+ * @see net.openid.appauth.AuthorizationService#prefetchAuthorizationRequest(
+ *     net.openid.appauth.AuthorizationRequest)
+ */
+public interface PrefetchPolicy {
+
+    /**
+     * @return true if the specified URI should be prefetched now. Implementations which return
+     *     true are expected to record that the URI was prefetched.
+     */
+    boolean shouldPrefetch(@NonNull Uri uri);
+}
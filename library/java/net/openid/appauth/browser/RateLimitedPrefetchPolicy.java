@@ -0,0 +1,89 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth.browser;
+
+import static net.openid.appauth.Preconditions.checkArgument;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prefetches a URI at most once per interval for each endpoint, where the endpoint is the URI
+ * without its query or fragment. Authorization request URIs differ in their state, nonce and
+ * code challenge parameters, but a preconnection to the endpoint serves any of them.
+ */
+public final class RateLimitedPrefetchPolicy implements PrefetchPolicy {
+
+    /**
+     * The default minimum interval between prefetches of the same endpoint.
+     */
+    public static final long DEFAULT_MIN_INTERVAL_MS = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * The policy shared by all authorization services which do not specify their own, so that
+     * the limit applies across activities.
+     */
+    public static final RateLimitedPrefetchPolicy DEFAULT =
+            new RateLimitedPrefetchPolicy(DEFAULT_MIN_INTERVAL_MS);
+
+    private final long mMinIntervalMs;
+
+    private final Map<String, Long> mLastPrefetchTimes = new HashMap<>();
+
+    /**
+     * Creates a policy which prefetches each endpoint at most once per specified interval.
+     */
+    public RateLimitedPrefetchPolicy(long minIntervalMs) {
+        checkArgument(minIntervalMs >= 0, "minIntervalMs must not be negative");
+        mMinIntervalMs = minIntervalMs;
+    }
+
+    @Override
+    public boolean shouldPrefetch(@NonNull Uri uri) {
+        return shouldPrefetch(uri, SystemClock.elapsedRealtime());
+    }
+
+    @VisibleForTesting
+    synchronized boolean shouldPrefetch(@NonNull Uri uri, long now) {
+        String endpoint = uri.buildUpon()
+                .clearQuery()
+                .fragment(null)
+                .build()
+                .toString();
+
+        Long lastPrefetchTime = mLastPrefetchTimes.get(endpoint);
+        if (lastPrefetchTime != null && now - lastPrefetchTime < mMinIntervalMs) {
+            return false;
+        }
+
+        // discard expired entries, so that the map does not grow without bound
+        Iterator<Long> times = mLastPrefetchTimes.values().iterator();
+        while (times.hasNext()) {
+            if (now - times.next() >= mMinIntervalMs) {
+                times.remove();
+            }
+        }
+
+        mLastPrefetchTimes.put(endpoint, now);
+        return true;
+    }
+}
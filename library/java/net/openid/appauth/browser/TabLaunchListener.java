@@ -0,0 +1,42 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth.browser;
+
+/**
+ * Receives timings of the launch of a custom tab for an authorization or end session request,
+ * measured from the moment the request intent was created (typically, when the user tapped to
+ * log in). Timings are only available for tabs using a session created by AppAuth, and only for
+ * the events the browser reports; all are invoked on the main thread, at most once per launch.
+ *
+ * @see net.openid.appauth.AuthorizationService#setTabLaunchListener(TabLaunchListener)
+ */
+public interface TabLaunchListener {
+
+    /**
+     * Invoked when the custom tab is shown.
+     */
+    void onTabShown(long launchToShownMs);
+
+    /**
+     * Invoked when the browser reports the first contentful paint of the page. Not all browsers
+     * report this.
+     */
+    void onFirstContentfulPaint(long launchToPaintMs);
+
+    /**
+     * Invoked when the page has finished loading.
+     */
+    void onNavigationFinished(long launchToLoadMs);
+}
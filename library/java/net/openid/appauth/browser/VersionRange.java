@@ -105,6 +105,14 @@ public class VersionRange {
         return true;
     }
 
+    /**
+     * Determines whether the range has neither a lower nor an upper bound, and so matches any
+     * version.
+     */
+    boolean isUnbounded() {
+        return mLowerBound == null && mUpperBound == null;
+    }
+
     @Override
     public String toString() {
         if (mLowerBound == null) {
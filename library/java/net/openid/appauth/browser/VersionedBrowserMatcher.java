@@ -114,6 +114,25 @@ public class VersionedBrowserMatcher implements BrowserMatcher {
         mVersionRange = versionRange;
     }
 
+    @NonNull
+    String getPackageName() {
+        return mPackageName;
+    }
+
+    @NonNull
+    Set<String> getSignatureHashes() {
+        return mSignatureHashes;
+    }
+
+    boolean isUsingCustomTab() {
+        return mUsingCustomTab;
+    }
+
+    @NonNull
+    VersionRange getVersionRange() {
+        return mVersionRange;
+    }
+
     @Override
     public boolean matches(@NonNull BrowserDescriptor descriptor) {
         return mPackageName.equals(descriptor.packageName)
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth.browser;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.Build;
+import androidx.annotation.NonNull;
+
+/**
+ * The standard {@link WarmupPolicy warmup policies}.
+ */
+public final class WarmupPolicies {
+
+    /**
+     * Warms up the browser as soon as the connection to it is established. This is the default
+     * policy.
+     */
+    public static final WarmupPolicy ALWAYS = new WarmupPolicy() {
+        @Override
+        public boolean shouldWarmup(@NonNull Context context, @NonNull Trigger trigger) {
+            return true;
+        }
+    };
+
+    /**
+     * Never warms up the browser.
+     */
+    public static final WarmupPolicy NEVER = new WarmupPolicy() {
+        @Override
+        public boolean shouldWarmup(@NonNull Context context, @NonNull Trigger trigger) {
+            return false;
+        }
+    };
+
+    /**
+     * Warms up the browser only once a screen from which the user is likely to log in becomes
+     * visible, rather than whenever an authorization service is created.
+     */
+    public static final WarmupPolicy LOGIN_SCREEN_ONLY = new WarmupPolicy() {
+        @Override
+        public boolean shouldWarmup(@NonNull Context context, @NonNull Trigger trigger) {
+            return trigger == Trigger.LOGIN_SCREEN;
+        }
+    };
+
+    /**
+     * Warms up the browser as soon as the connection to it is established, unless the device is
+     * a low RAM device or the system reports that it is low on memory, in which case starting
+     * the browser process is likely to evict the app.
+     */
+    public static final WarmupPolicy MEMORY_AWARE = new WarmupPolicy() {
+        @Override
+        public boolean shouldWarmup(@NonNull Context context, @NonNull Trigger trigger) {
+            return !isLowMemory(context);
+        }
+    };
+
+    private WarmupPolicies() {
+        throw new IllegalStateException("This type is not intended to be instantiated");
+    }
+
+    private static boolean isLowMemory(@NonNull Context context) {
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager == null) {
+            return false;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                && activityManager.isLowRamDevice()) {
+            return true;
+        }
+
+        ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+        activityManager.getMemoryInfo(memoryInfo);
+        return memoryInfo.lowMemory;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth.browser;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+
+/**
+ * Determines whether the browser should be warmed up. Warming up the browser starts its process
+ * and initializes it in the background, which makes the launch of a custom tab faster, but
+ * consumes memory which may cause the system to evict other processes, including the app itself.
+ *
+ * @see WarmupPolicies
+ * @see net.openid.appauth.AppAuthConfiguration.Builder#setWarmupPolicy(WarmupPolicy)
+ */
+public interface WarmupPolicy {
+
+    /**
+     * The points at which the browser may be warmed up.
+     */
+    enum Trigger {
+        /**
+         * The connection to the custom tabs service of the browser has been established, which
+         * typically happens when an authorization service is created.
+         */
+        CONNECTED,
+
+        /**
+         * A screen from which the user is likely to initiate an authorization request has
+         * become visible, as indicated by a call to
+         * {@link net.openid.appauth.AuthorizationService#prefetchAuthorizationRequest(
+         * net.openid.appauth.AuthorizationRequest)}.
+         */
+        LOGIN_SCREEN
+    }
+
+    /**
+     * @return true if the browser should be warmed up now, in response to the specified trigger.
+     */
+    boolean shouldWarmup(@NonNull Context context, @NonNull Trigger trigger);
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth.browser;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide counters of browser warmups, which can be used to judge whether a
+ * {@link WarmupPolicy} is effective: a warmup which is not followed by an authorization request
+ * consumed memory for no benefit.
+ */
+public final class WarmupStatistics {
+
+    private static final WarmupStatistics INSTANCE = new WarmupStatistics();
+
+    private final AtomicInteger mWarmupCount = new AtomicInteger();
+    private final AtomicInteger mSkippedWarmupCount = new AtomicInteger();
+    private final AtomicInteger mLaunchCount = new AtomicInteger();
+    private final AtomicInteger mWarmupsFollowedByLaunchCount = new AtomicInteger();
+
+    /**
+     * Retrieves the statistics of all custom tab connections in the process.
+     */
+    @NonNull
+    public static WarmupStatistics getInstance() {
+        return INSTANCE;
+    }
+
+    @VisibleForTesting
+    WarmupStatistics() {}
+
+    /**
+     * The number of times a browser was warmed up.
+     */
+    public int getWarmupCount() {
+        return mWarmupCount.get();
+    }
+
+    /**
+     * The number of times a browser was not warmed up, because the warmup policy declined it.
+     */
+    public int getSkippedWarmupCount() {
+        return mSkippedWarmupCount.get();
+    }
+
+    /**
+     * The number of authorization requests launched in a custom tab.
+     */
+    public int getLaunchCount() {
+        return mLaunchCount.get();
+    }
+
+    /**
+     * The number of warmups which were followed by the launch of an authorization request in
+     * the warmed up browser, while connected to it.
+     */
+    public int getWarmupsFollowedByLaunchCount() {
+        return mWarmupsFollowedByLaunchCount.get();
+    }
+
+    /**
+     * Resets all counters to zero.
+     */
+    public void reset() {
+        mWarmupCount.set(0);
+        mSkippedWarmupCount.set(0);
+        mLaunchCount.set(0);
+        mWarmupsFollowedByLaunchCount.set(0);
+    }
+
+    void recordWarmup() {
+        mWarmupCount.incrementAndGet();
+    }
+
+    void recordSkippedWarmup() {
+        mSkippedWarmupCount.incrementAndGet();
+    }
+
+    void recordLaunch(boolean followedWarmup) {
+        mLaunchCount.incrementAndGet();
+        if (followedWarmup) {
+            mWarmupsFollowedByLaunchCount.incrementAndGet();
+        }
+    }
+}
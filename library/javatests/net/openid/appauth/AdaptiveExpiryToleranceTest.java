@@ -0,0 +1,100 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import android.net.Uri;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 16)
+public class AdaptiveExpiryToleranceTest {
+
+    private static final Uri ENDPOINT_A = Uri.parse("https://a.example.com/token");
+    private static final Uri ENDPOINT_B = Uri.parse("https://b.example.com/token");
+
+    private AdaptiveExpiryTolerance mTolerance;
+
+    @Before
+    public void setUp() {
+        mTolerance = new AdaptiveExpiryTolerance(10, 3, 1000L, 2000L, 30000L);
+    }
+
+    @Test
+    public void testNoLearnedTolerance_beforeMinSamples() {
+        mTolerance.recordRefreshLatency(ENDPOINT_A, 500L);
+        mTolerance.recordRefreshLatency(ENDPOINT_A, 500L);
+        assertThat(mTolerance.getLearnedToleranceMs(ENDPOINT_A)).isNull();
+        assertThat(mTolerance.getLearnedTolerances()).isEmpty();
+    }
+
+    @Test
+    public void testLearnedTolerance_isP99PlusMargin() {
+        for (long latency = 1000L; latency <= 10000L; latency += 1000L) {
+            mTolerance.recordRefreshLatency(ENDPOINT_A, latency);
+        }
+        assertThat(mTolerance.getLatencyPercentileMs(ENDPOINT_A, 0.5)).isEqualTo(5000L);
+        assertThat(mTolerance.getLearnedToleranceMs(ENDPOINT_A)).isEqualTo(11000L);
+        assertThat(mTolerance.getLearnedTolerances()).containsEntry(ENDPOINT_A, 11000L);
+    }
+
+    @Test
+    public void testLearnedTolerance_isClamped() {
+        for (int i = 0; i < 3; i++) {
+            mTolerance.recordRefreshLatency(ENDPOINT_A, 10L);
+            mTolerance.recordRefreshLatency(ENDPOINT_B, 60000L);
+        }
+        assertThat(mTolerance.getLearnedToleranceMs(ENDPOINT_A)).isEqualTo(2000L);
+        assertThat(mTolerance.getLearnedToleranceMs(ENDPOINT_B)).isEqualTo(30000L);
+    }
+
+    @Test
+    public void testWindow_discardsOldestSamples() {
+        for (int i = 0; i < 10; i++) {
+            mTolerance.recordRefreshLatency(ENDPOINT_A, 20000L);
+        }
+        for (int i = 0; i < 10; i++) {
+            mTolerance.recordRefreshLatency(ENDPOINT_A, 3000L);
+        }
+        assertThat(mTolerance.getLearnedToleranceMs(ENDPOINT_A)).isEqualTo(4000L);
+    }
+
+    @Test
+    public void testNegativeLatency_isIgnored() {
+        for (int i = 0; i < 3; i++) {
+            mTolerance.recordRefreshLatency(ENDPOINT_A, -1L);
+        }
+        assertThat(mTolerance.getLearnedToleranceMs(ENDPOINT_A)).isNull();
+    }
+
+    @Test
+    public void testReset() {
+        for (int i = 0; i < 3; i++) {
+            mTolerance.recordRefreshLatency(ENDPOINT_A, 1000L);
+        }
+        mTolerance.reset();
+        assertThat(mTolerance.getLearnedToleranceMs(ENDPOINT_A)).isNull();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMinSamplesGreaterThanWindow_throws() {
+        new AdaptiveExpiryTolerance(3, 4, 0L, 0L, 0L);
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.TestValues.TEST_ACCESS_TOKEN;
+import static net.openid.appauth.TestValues.getTestAuthCodeExchangeResponseBuilder;
+import static net.openid.appauth.TestValues.getTestAuthResponse;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.content.Context;
+import android.content.pm.ProviderInfo;
+import android.database.ContentObserver;
+import android.os.Bundle;
+import androidx.annotation.NonNull;
+import androidx.test.core.app.ApplicationProvider;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 16)
+public class AuthStateBrokerProviderTest {
+
+    private static final String TEST_AUTHORITY = "net.openid.appauth.test.broker";
+    private static final long ONE_HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private Context mContext;
+    private File mFile;
+    private AuthorizationService mService;
+    private TestProvider mProvider;
+    private CountingObserver mObserver;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mFile = new File(mContext.getFilesDir(), "broker.authstate");
+        mFile.delete();
+
+        mService = mock(AuthorizationService.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                TokenRequest request = invocation.getArgument(0);
+                AuthorizationService.TokenResponseCallback callback = invocation.getArgument(2);
+                callback.onTokenRequestCompleted(
+                        new TokenResponse.Builder(request)
+                                .setTokenType(TokenResponse.TOKEN_TYPE_BEARER)
+                                .setAccessToken("refreshed_access_token")
+                                .setAccessTokenExpirationTime(System.currentTimeMillis() + ONE_HOUR)
+                                .build(),
+                        null);
+                return null;
+            }
+        }).when(mService).performTokenRequest(
+                any(TokenRequest.class),
+                any(ClientAuthentication.class),
+                any(AuthorizationService.TokenResponseCallback.class));
+
+        ProviderInfo info = new ProviderInfo();
+        info.authority = TEST_AUTHORITY;
+        mProvider = new TestProvider();
+        mProvider.attachInfo(mContext, info);
+
+        mObserver = new CountingObserver();
+        mContext.getContentResolver().registerContentObserver(
+                AuthStateBrokerProvider.getContentUri(TEST_AUTHORITY), false, mObserver);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.getContentResolver().unregisterContentObserver(mObserver);
+    }
+
+    @Test
+    public void testGetFreshTokens_withValidToken() {
+        replaceState(System.currentTimeMillis() + ONE_HOUR);
+
+        Bundle result = mProvider.call(AuthStateBrokerProvider.METHOD_GET_FRESH_TOKENS, null, null);
+        assertThat(result.getString(AuthStateBrokerProvider.KEY_EXCEPTION)).isNull();
+        assertThat(result.getString(AuthStateBrokerProvider.KEY_ACCESS_TOKEN))
+                .isEqualTo(TEST_ACCESS_TOKEN);
+        verify(mService, never()).performTokenRequest(
+                any(TokenRequest.class),
+                any(ClientAuthentication.class),
+                any(AuthorizationService.TokenResponseCallback.class));
+    }
+
+    @Test
+    public void testGetFreshTokens_refreshesOnce() {
+        replaceState(0L);
+        int notifications = mObserver.mChangeCount;
+
+        for (int i = 0; i < 3; i++) {
+            Bundle result =
+                    mProvider.call(AuthStateBrokerProvider.METHOD_GET_FRESH_TOKENS, null, null);
+            assertThat(result.getString(AuthStateBrokerProvider.KEY_ACCESS_TOKEN))
+                    .isEqualTo("refreshed_access_token");
+            assertThat(result.containsKey(AuthStateBrokerProvider.KEY_EXPIRATION_TIME)).isTrue();
+        }
+
+        verify(mService, times(1)).performTokenRequest(
+                any(TokenRequest.class),
+                any(ClientAuthentication.class),
+                any(AuthorizationService.TokenResponseCallback.class));
+        assertThat(mObserver.mChangeCount).isGreaterThan(notifications);
+    }
+
+    @Test
+    public void testInvalidateAccessToken_forcesRefresh() {
+        replaceState(System.currentTimeMillis() + ONE_HOUR);
+
+        mProvider.call(
+                AuthStateBrokerProvider.METHOD_INVALIDATE_ACCESS_TOKEN, TEST_ACCESS_TOKEN, null);
+        Bundle result = mProvider.call(AuthStateBrokerProvider.METHOD_GET_FRESH_TOKENS, null, null);
+        assertThat(result.getString(AuthStateBrokerProvider.KEY_ACCESS_TOKEN))
+                .isEqualTo("refreshed_access_token");
+    }
+
+    @Test
+    public void testInvalidateAccessToken_ignoresReplacedToken() {
+        replaceState(System.currentTimeMillis() + ONE_HOUR);
+
+        mProvider.call(
+                AuthStateBrokerProvider.METHOD_INVALIDATE_ACCESS_TOKEN, "stale_access_token", null);
+        Bundle result = mProvider.call(AuthStateBrokerProvider.METHOD_GET_FRESH_TOKENS, null, null);
+        assertThat(result.getString(AuthStateBrokerProvider.KEY_ACCESS_TOKEN))
+                .isEqualTo(TEST_ACCESS_TOKEN);
+    }
+
+    @Test
+    public void testReplaceState_notifiesAndIncrementsVersion() throws Exception {
+        Bundle first = replaceState(0L);
+        Bundle second = replaceState(0L);
+        assertThat(second.getLong(AuthStateBrokerProvider.KEY_VERSION))
+                .isGreaterThan(first.getLong(AuthStateBrokerProvider.KEY_VERSION));
+        assertThat(mObserver.mChangeCount).isEqualTo(2);
+
+        Bundle result = mProvider.call(AuthStateBrokerProvider.METHOD_GET_STATE, null, null);
+        AuthState state = AuthState.jsonDeserialize(
+                result.getString(AuthStateBrokerProvider.KEY_STATE));
+        assertThat(state.getAccessToken()).isEqualTo(TEST_ACCESS_TOKEN);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCall_unknownMethod() {
+        mProvider.call("unknown", null, null);
+    }
+
+    private Bundle replaceState(long accessTokenExpirationTime) {
+        AuthState state = new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponseBuilder()
+                        .setAccessToken(TEST_ACCESS_TOKEN)
+                        .setAccessTokenExpirationTime(accessTokenExpirationTime)
+                        .build(),
+                null);
+        Bundle extras = new Bundle();
+        extras.putString(AuthStateBrokerProvider.KEY_STATE, state.jsonSerializeString());
+        return mProvider.call(AuthStateBrokerProvider.METHOD_REPLACE_STATE, null, extras);
+    }
+
+    private class TestProvider extends AuthStateBrokerProvider {
+        @NonNull
+        @Override
+        protected AuthStateStore onCreateStore(@NonNull Context context) {
+            return new AuthStateStore(mFile);
+        }
+
+        @NonNull
+        @Override
+        protected AuthorizationService onCreateAuthorizationService(@NonNull Context context) {
+            return mService;
+        }
+    }
+
+    private static class CountingObserver extends ContentObserver {
+        int mChangeCount;
+
+        CountingObserver() {
+            super(null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            mChangeCount++;
+        }
+    }
+}
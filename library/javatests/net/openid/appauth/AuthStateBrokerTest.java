@@ -0,0 +1,381 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static android.os.Looper.getMainLooper;
+import static net.openid.appauth.TestValues.TEST_ACCESS_TOKEN;
+import static net.openid.appauth.TestValues.TEST_ID_TOKEN;
+import static net.openid.appauth.TestValues.getTestAuthCodeExchangeResponseBuilder;
+import static net.openid.appauth.TestValues.getTestAuthResponse;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import androidx.annotation.Nullable;
+import androidx.test.core.app.ApplicationProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 16)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class AuthStateBrokerTest {
+
+    private static final String TEST_AUTHORITY = "net.openid.appauth.test.brokerclient";
+    private static final long ONE_HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final long TEST_START_TIME = 1000000L;
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private Context mContext;
+    private TestClock mClock;
+    private FakeBrokerProvider mProvider;
+    private AuthStateBroker mBroker;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mClock = new TestClock(TEST_START_TIME);
+        mProvider = Robolectric.buildContentProvider(FakeBrokerProvider.class)
+                .create(TEST_AUTHORITY)
+                .get();
+        mBroker = new AuthStateBroker(
+                mContext.getContentResolver(),
+                TEST_AUTHORITY,
+                DIRECT_EXECUTOR,
+                new Handler(getMainLooper()),
+                mClock);
+    }
+
+    @After
+    public void tearDown() {
+        mBroker.dispose();
+    }
+
+    @Test
+    public void testPerformActionWithFreshTokens_cachesTokens() {
+        mProvider.setFreshTokens(TEST_ACCESS_TOKEN, TEST_START_TIME + ONE_HOUR);
+
+        RecordingAction first = performActionWithFreshTokens();
+        assertThat(first.mAccessToken).isEqualTo(TEST_ACCESS_TOKEN);
+        assertThat(first.mIdToken).isEqualTo(TEST_ID_TOKEN);
+        assertThat(first.mException).isNull();
+
+        // a valid cached token is delivered immediately, without a call to the owner
+        RecordingAction second = new RecordingAction();
+        mBroker.performActionWithFreshTokens(second);
+        assertThat(second.mExecuted).isTrue();
+        assertThat(second.mAccessToken).isEqualTo(TEST_ACCESS_TOKEN);
+        assertThat(mProvider.countCalls(AuthStateBrokerProvider.METHOD_GET_FRESH_TOKENS))
+                .isEqualTo(1);
+    }
+
+    @Test
+    public void testPerformActionWithFreshTokens_expiredTokensAreFetchedAgain() {
+        mProvider.setFreshTokens(TEST_ACCESS_TOKEN, TEST_START_TIME + ONE_HOUR);
+        performActionWithFreshTokens();
+
+        mClock.currentTime.set(TEST_START_TIME + ONE_HOUR - AuthState.EXPIRY_TIME_TOLERANCE_MS);
+        mProvider.setFreshTokens("refreshed_access_token", TEST_START_TIME + 2 * ONE_HOUR);
+        RecordingAction action = performActionWithFreshTokens();
+
+        assertThat(action.mAccessToken).isEqualTo("refreshed_access_token");
+        assertThat(mProvider.countCalls(AuthStateBrokerProvider.METHOD_GET_FRESH_TOKENS))
+                .isEqualTo(2);
+    }
+
+    @Test
+    public void testPerformActionWithFreshTokens_usesOwnerExpiryTimeTolerance() {
+        long tolerance = TimeUnit.MINUTES.toMillis(10);
+        mProvider.setFreshTokens(TEST_ACCESS_TOKEN, TEST_START_TIME + ONE_HOUR);
+        mProvider.mFreshTokens.putLong(
+                AuthStateBrokerProvider.KEY_EXPIRY_TIME_TOLERANCE, tolerance);
+        performActionWithFreshTokens();
+
+        // within the owner's tolerance, but outside the default one
+        mClock.currentTime.set(TEST_START_TIME + ONE_HOUR - TimeUnit.MINUTES.toMillis(5));
+        mProvider.setFreshTokens("refreshed_access_token", TEST_START_TIME + 2 * ONE_HOUR);
+        RecordingAction action = performActionWithFreshTokens();
+
+        assertThat(action.mAccessToken).isEqualTo("refreshed_access_token");
+        assertThat(mProvider.countCalls(AuthStateBrokerProvider.METHOD_GET_FRESH_TOKENS))
+                .isEqualTo(2);
+    }
+
+    @Test
+    public void testPerformActionWithFreshTokens_tokenWithoutExpirationIsCached() {
+        mProvider.setFreshTokens(TEST_ACCESS_TOKEN, null);
+        performActionWithFreshTokens();
+
+        mClock.currentTime.addAndGet(ONE_HOUR);
+        RecordingAction action = new RecordingAction();
+        mBroker.performActionWithFreshTokens(action);
+
+        assertThat(action.mExecuted).isTrue();
+        assertThat(action.mAccessToken).isEqualTo(TEST_ACCESS_TOKEN);
+        assertThat(mProvider.countCalls(AuthStateBrokerProvider.METHOD_GET_FRESH_TOKENS))
+                .isEqualTo(1);
+    }
+
+    @Test
+    public void testPerformActionWithFreshTokens_changeDuringFetchIsNotCached() {
+        mProvider.setFreshTokens(TEST_ACCESS_TOKEN, TEST_START_TIME + ONE_HOUR);
+        mProvider.mOnCall = new Runnable() {
+            @Override
+            public void run() {
+                // the owner replaces the state while the tokens are on their way back
+                mBroker.invalidateCachedTokens();
+            }
+        };
+
+        RecordingAction first = performActionWithFreshTokens();
+        assertThat(first.mAccessToken).isEqualTo(TEST_ACCESS_TOKEN);
+
+        performActionWithFreshTokens();
+        assertThat(mProvider.countCalls(AuthStateBrokerProvider.METHOD_GET_FRESH_TOKENS))
+                .isEqualTo(2);
+    }
+
+    @Test
+    public void testPerformActionWithFreshTokens_changeNotificationDiscardsCache() {
+        mProvider.setFreshTokens(TEST_ACCESS_TOKEN, TEST_START_TIME + ONE_HOUR);
+        performActionWithFreshTokens();
+
+        mContext.getContentResolver().notifyChange(
+                AuthStateBrokerProvider.getContentUri(TEST_AUTHORITY), null);
+        performActionWithFreshTokens();
+
+        assertThat(mProvider.countCalls(AuthStateBrokerProvider.METHOD_GET_FRESH_TOKENS))
+                .isEqualTo(2);
+    }
+
+    @Test
+    public void testPerformActionWithFreshTokens_ownerUnreachableIsNetworkError() {
+        mProvider.mFailure = new IllegalStateException("owner process died");
+
+        RecordingAction action = performActionWithFreshTokens();
+
+        assertThat(action.mAccessToken).isNull();
+        assertThat(action.mException).isNotNull();
+        assertThat(action.mException.code)
+                .isEqualTo(AuthorizationException.GeneralErrors.NETWORK_ERROR.code);
+    }
+
+    @Test
+    public void testPerformActionWithFreshTokens_ownerException() {
+        mProvider.mException = AuthorizationException.TokenRequestErrors.INVALID_GRANT;
+
+        RecordingAction action = performActionWithFreshTokens();
+
+        assertThat(action.mException).isNotNull();
+        assertThat(action.mException.code)
+                .isEqualTo(AuthorizationException.TokenRequestErrors.INVALID_GRANT.code);
+
+        // failures are not cached
+        performActionWithFreshTokens();
+        assertThat(mProvider.countCalls(AuthStateBrokerProvider.METHOD_GET_FRESH_TOKENS))
+                .isEqualTo(2);
+    }
+
+    @Test
+    public void testInvalidateAccessToken_discardsCachedToken() {
+        mProvider.setFreshTokens(TEST_ACCESS_TOKEN, TEST_START_TIME + ONE_HOUR);
+        performActionWithFreshTokens();
+
+        mBroker.invalidateAccessToken(TEST_ACCESS_TOKEN);
+        assertThat(mProvider.countCalls(AuthStateBrokerProvider.METHOD_INVALIDATE_ACCESS_TOKEN))
+                .isEqualTo(1);
+        assertThat(mProvider.mLastArg).isEqualTo(TEST_ACCESS_TOKEN);
+
+        performActionWithFreshTokens();
+        assertThat(mProvider.countCalls(AuthStateBrokerProvider.METHOD_GET_FRESH_TOKENS))
+                .isEqualTo(2);
+    }
+
+    @Test
+    public void testInvalidateAccessToken_keepsOtherCachedToken() {
+        mProvider.setFreshTokens(TEST_ACCESS_TOKEN, TEST_START_TIME + ONE_HOUR);
+        performActionWithFreshTokens();
+
+        mBroker.invalidateAccessToken("stale_access_token");
+
+        RecordingAction action = new RecordingAction();
+        mBroker.performActionWithFreshTokens(action);
+        assertThat(action.mExecuted).isTrue();
+        assertThat(mProvider.countCalls(AuthStateBrokerProvider.METHOD_GET_FRESH_TOKENS))
+                .isEqualTo(1);
+    }
+
+    @Test
+    public void testInvalidateAccessToken_ownerUnreachableIsIgnored() {
+        mProvider.mFailure = new IllegalStateException("owner process died");
+        mBroker.invalidateAccessToken(TEST_ACCESS_TOKEN);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDispose_rejectsFurtherUse() {
+        mBroker.dispose();
+        mBroker.dispose();
+        mBroker.performActionWithFreshTokens(new RecordingAction());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGetCurrent_onMainThread() {
+        mBroker.getCurrent();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReplace_onMainThread() {
+        mBroker.replace(new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponseBuilder().build(), null));
+    }
+
+    private RecordingAction performActionWithFreshTokens() {
+        RecordingAction action = new RecordingAction();
+        mBroker.performActionWithFreshTokens(action);
+        shadowOf(getMainLooper()).idle();
+        assertThat(action.mExecuted).isTrue();
+        return action;
+    }
+
+    private static final class RecordingAction implements AuthState.AuthStateAction {
+        boolean mExecuted;
+        String mAccessToken;
+        String mIdToken;
+        AuthorizationException mException;
+
+        @Override
+        public void execute(
+                @Nullable String accessToken,
+                @Nullable String idToken,
+                @Nullable AuthorizationException ex) {
+            mExecuted = true;
+            mAccessToken = accessToken;
+            mIdToken = idToken;
+            mException = ex;
+        }
+    }
+
+    /**
+     * Stands in for the {@link AuthStateBrokerProvider} of the owning process, returning scripted
+     * results and recording the calls made by the broker under test.
+     */
+    public static class FakeBrokerProvider extends ContentProvider {
+        final List<String> mCalls = new ArrayList<>();
+        String mLastArg;
+        Bundle mFreshTokens = new Bundle();
+        AuthorizationException mException;
+        RuntimeException mFailure;
+        Runnable mOnCall;
+
+        void setFreshTokens(String accessToken, @Nullable Long expirationTime) {
+            mFreshTokens = new Bundle();
+            mFreshTokens.putString(AuthStateBrokerProvider.KEY_ACCESS_TOKEN, accessToken);
+            mFreshTokens.putString(AuthStateBrokerProvider.KEY_ID_TOKEN, TEST_ID_TOKEN);
+            if (expirationTime != null) {
+                mFreshTokens.putLong(AuthStateBrokerProvider.KEY_EXPIRATION_TIME, expirationTime);
+            }
+        }
+
+        int countCalls(String method) {
+            int count = 0;
+            for (String call : mCalls) {
+                if (call.equals(method)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public Bundle call(String method, String arg, Bundle extras) {
+            mCalls.add(method);
+            mLastArg = arg;
+            if (mOnCall != null) {
+                Runnable onCall = mOnCall;
+                mOnCall = null;
+                onCall.run();
+            }
+            if (mFailure != null) {
+                throw mFailure;
+            }
+
+            if (AuthStateBrokerProvider.METHOD_GET_FRESH_TOKENS.equals(method)) {
+                if (mException != null) {
+                    Bundle result = new Bundle();
+                    result.putString(
+                            AuthStateBrokerProvider.KEY_EXCEPTION, mException.toJsonString());
+                    return result;
+                }
+                return new Bundle(mFreshTokens);
+            }
+            return new Bundle();
+        }
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String sortOrder) {
+            return null;
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return null;
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            return null;
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return 0;
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection,
+                String[] selectionArgs) {
+            return 0;
+        }
+    }
+}
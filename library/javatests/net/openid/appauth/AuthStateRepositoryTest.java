@@ -0,0 +1,290 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.TestValues.TEST_ACCESS_TOKEN;
+import static net.openid.appauth.TestValues.getTestAuthCodeExchangeResponseBuilder;
+import static net.openid.appauth.TestValues.getTestAuthResponse;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import android.content.Context;
+import androidx.test.core.app.ApplicationProvider;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 16)
+public class AuthStateRepositoryTest {
+
+    // long enough that only explicit flushes and evictions write during a test
+    private static final long WRITE_DELAY_MS = 60000L;
+    private static final long ONE_HOUR = 3600000L;
+
+    private File mDirectory;
+    private ScheduledExecutorService mWriter;
+
+    @Before
+    public void setUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        mDirectory = new File(context.getFilesDir(), "accounts");
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mWriter = AuthStateStore.createWriter();
+    }
+
+    @After
+    public void tearDown() {
+        mWriter.shutdownNow();
+    }
+
+    private AuthStateRepository createRepository() {
+        return new AuthStateRepository(mDirectory, 2, mWriter, WRITE_DELAY_MS);
+    }
+
+    private static AuthState createAuthorizedState(String accessToken, long expirationTime) {
+        return new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponseBuilder()
+                        .setAccessToken(accessToken)
+                        .setAccessTokenExpirationTime(expirationTime)
+                        .build(),
+                null);
+    }
+
+    @Test
+    public void testGet_unknownAccount() {
+        AuthStateRepository repository = createRepository();
+        assertThat(repository.get("alice").isAuthorized()).isFalse();
+    }
+
+    @Test
+    public void testReplace_persistsState() {
+        AuthStateRepository repository = createRepository();
+        repository.replace("alice@example.com/tenant",
+                createAuthorizedState(TEST_ACCESS_TOKEN, System.currentTimeMillis() + ONE_HOUR));
+        repository.flush();
+
+        AuthStateRepository reloaded = createRepository();
+        assertThat(reloaded.getAccountIds()).containsExactly("alice@example.com/tenant");
+        assertThat(reloaded.get("alice@example.com/tenant").getAccessToken())
+                .isEqualTo(TEST_ACCESS_TOKEN);
+    }
+
+    @Test
+    public void testLeastRecentlyUsed_isReleasedAndPersisted() {
+        AuthStateRepository repository = createRepository();
+        AuthState alice = repository.get("alice");
+        alice.update(getTestAuthResponse(), null);
+        repository.get("bob");
+        repository.get("carol");
+
+        assertThat(repository.isResident("alice")).isFalse();
+        assertThat(repository.isResident("bob")).isTrue();
+        assertThat(repository.isResident("carol")).isTrue();
+
+        // the change made while resident was written on release
+        assertThat(repository.get("alice").getLastAuthorizationResponse()).isNotNull();
+    }
+
+    @Test
+    public void testReleasedInstance_doesNotOverwriteReloadedState() throws Exception {
+        // written as soon as changed, so that a write by the released store would be observed
+        AuthStateRepository repository = new AuthStateRepository(mDirectory, 2, mWriter, 0L);
+        AuthState released = repository.get("alice");
+        repository.get("bob");
+        repository.get("carol");
+
+        repository.replace("alice",
+                createAuthorizedState(TEST_ACCESS_TOKEN, System.currentTimeMillis() + ONE_HOUR));
+        repository.flush();
+        released.update(getTestAuthResponse(), null);
+        // the writer runs tasks in order, so any write of the released state is now complete
+        mWriter.submit(new Runnable() {
+            @Override
+            public void run() {}
+        }).get();
+
+        assertThat(createRepository().get("alice").getAccessToken())
+                .isEqualTo(TEST_ACCESS_TOKEN);
+    }
+
+    @Test
+    public void testGet_returnsResidentInstance() {
+        AuthStateRepository repository = createRepository();
+        AuthState alice = repository.get("alice");
+        repository.get("bob");
+        assertThat(repository.get("alice")).isSameAs(alice);
+    }
+
+    @Test
+    public void testGetAccountsNeedingRefresh() {
+        AuthStateRepository repository = createRepository();
+        repository.replace("fresh",
+                createAuthorizedState("fresh_token", System.currentTimeMillis() + ONE_HOUR));
+        repository.replace("expired", createAuthorizedState("expired_token", 1L));
+        repository.replace("unauthorized", new AuthState());
+        // release the first accounts, so that they are read from disk
+        repository.get("other");
+        repository.flush();
+
+        assertThat(repository.getAccountsNeedingRefresh()).containsExactly("expired");
+        assertThat(repository.isResident("expired")).isFalse();
+    }
+
+    @Test
+    public void testSignOut() {
+        AuthStateRepository repository = createRepository();
+        repository.replace("alice",
+                createAuthorizedState(TEST_ACCESS_TOKEN, System.currentTimeMillis() + ONE_HOUR));
+        repository.replace("bob",
+                createAuthorizedState(TEST_ACCESS_TOKEN, System.currentTimeMillis() + ONE_HOUR));
+        repository.flush();
+
+        repository.signOut("alice");
+        assertThat(repository.getAccountIds()).containsExactly("bob");
+        assertThat(repository.get("alice").isAuthorized()).isFalse();
+
+        repository.flush();
+        assertThat(createRepository().getAccountIds()).containsExactly("bob");
+    }
+
+    @Test
+    public void testSignOutAll() {
+        AuthStateRepository repository = createRepository();
+        long expirationTime = System.currentTimeMillis() + ONE_HOUR;
+        for (String accountId : Arrays.asList("alice", "bob", "carol")) {
+            repository.replace(accountId, createAuthorizedState(TEST_ACCESS_TOKEN, expirationTime));
+        }
+        repository.flush();
+
+        repository.signOutAll();
+        repository.flush();
+        assertThat(repository.getAccountIds()).isEmpty();
+        assertThat(createRepository().getAccountIds()).isEmpty();
+    }
+
+    @Test
+    public void testGetAccountsNeedingRefresh_doesNotAffectReleaseOrder() {
+        AuthStateRepository repository = createRepository();
+        repository.get("bob");
+        repository.get("alice");
+
+        repository.getAccountsNeedingRefresh();
+        repository.get("carol");
+
+        assertThat(repository.isResident("alice")).isTrue();
+        assertThat(repository.isResident("bob")).isFalse();
+    }
+
+    @Test
+    public void testGet_concurrentWithPendingRelease_waitsForWrite() throws Exception {
+        AuthStateRepository repository = createRepository();
+        repository.get("alice").update(getTestAuthResponse(), null);
+
+        // hold the write of alice's state, released below, on the writer thread
+        CountDownLatch writerBlocked = blockWriter();
+        repository.get("bob");
+        repository.get("carol");
+        assertThat(repository.isResident("alice")).isFalse();
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Future<AuthState> first = getAsync(executor, repository, "alice");
+            waitUntilResident(repository, "alice");
+            Future<AuthState> second = getAsync(executor, repository, "alice");
+
+            writerBlocked.countDown();
+            AuthState state = second.get(5, TimeUnit.SECONDS);
+            assertThat(state.getLastAuthorizationResponse()).isNotNull();
+            assertThat(first.get(5, TimeUnit.SECONDS)).isSameAs(state);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testGet_concurrentWithPendingSignOut_waitsForDeletion() throws Exception {
+        AuthStateRepository repository = createRepository();
+        repository.replace("alice",
+                createAuthorizedState(TEST_ACCESS_TOKEN, System.currentTimeMillis() + ONE_HOUR));
+        repository.flush();
+
+        CountDownLatch writerBlocked = blockWriter();
+        repository.signOut("alice");
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Future<AuthState> first = getAsync(executor, repository, "alice");
+            waitUntilResident(repository, "alice");
+            Future<AuthState> second = getAsync(executor, repository, "alice");
+
+            writerBlocked.countDown();
+            assertThat(second.get(5, TimeUnit.SECONDS).isAuthorized()).isFalse();
+            assertThat(first.get(5, TimeUnit.SECONDS).isAuthorized()).isFalse();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private CountDownLatch blockWriter() {
+        final CountDownLatch latch = new CountDownLatch(1);
+        mWriter.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws InterruptedException {
+                latch.await();
+                return null;
+            }
+        });
+        return latch;
+    }
+
+    private static Future<AuthState> getAsync(
+            ExecutorService executor,
+            final AuthStateRepository repository,
+            final String accountId) {
+        return executor.submit(new Callable<AuthState>() {
+            @Override
+            public AuthState call() {
+                return repository.get(accountId);
+            }
+        });
+    }
+
+    private static void waitUntilResident(AuthStateRepository repository, String accountId)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (!repository.isResident(accountId)) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadline);
+            Thread.sleep(10L);
+        }
+    }
+}
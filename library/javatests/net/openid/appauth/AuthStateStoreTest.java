@@ -0,0 +1,301 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.TestValues.getTestAuthCodeExchangeResponse;
+import static net.openid.appauth.TestValues.getTestAuthCodeExchangeResponseBuilder;
+import static net.openid.appauth.TestValues.getTestAuthResponse;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import android.content.Context;
+import androidx.test.core.app.ApplicationProvider;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 16)
+public class AuthStateStoreTest {
+
+    // long enough that only explicit flushes write during a test
+    private static final long WRITE_DELAY_MS = 60000L;
+
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        mFile = new File(context.getFilesDir(), "test.authstate");
+        mFile.delete();
+        getJournalFile().delete();
+        getHotTokenFile().delete();
+    }
+
+    @Test
+    public void testGetCurrent_withoutStoredState() {
+        AuthStateStore store = new AuthStateStore(mFile, WRITE_DELAY_MS);
+        assertThat(store.getCurrent().isAuthorized()).isFalse();
+        assertThat(mFile.exists()).isFalse();
+    }
+
+    @Test
+    public void testFlush_withoutChanges() {
+        AuthStateStore store = new AuthStateStore(mFile, WRITE_DELAY_MS);
+        store.getCurrent();
+        store.flush();
+        assertThat(store.getWriteCount()).isEqualTo(0);
+        assertThat(mFile.exists()).isFalse();
+    }
+
+    @Test
+    public void testChanges_coalescedIntoSingleWrite() {
+        AuthStateStore store = new AuthStateStore(mFile, WRITE_DELAY_MS);
+        AuthState state = store.replace(new AuthState(getTestAuthResponse(), null));
+        for (int i = 0; i < 20; i++) {
+            state.update(getTestAuthCodeExchangeResponseBuilder()
+                    .setAccessToken("access_token_" + i)
+                    .build(), null);
+        }
+
+        store.flush();
+        assertThat(store.getWriteCount()).isEqualTo(1);
+
+        AuthState restored = new AuthStateStore(mFile, WRITE_DELAY_MS).getCurrent();
+        assertThat(restored.isAuthorized()).isTrue();
+        assertThat(restored.getAccessToken()).isEqualTo("access_token_19");
+    }
+
+    @Test
+    public void testReplace_stopsPersistingPreviousState() {
+        AuthStateStore store = new AuthStateStore(mFile, WRITE_DELAY_MS);
+        AuthState previous = store.getCurrent();
+        store.replace(new AuthState(getTestAuthResponse(), null));
+        store.flush();
+
+        previous.update(getTestAuthResponse(), null);
+        store.flush();
+        assertThat(store.getWriteCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testCorruptFile_isDiscarded() throws Exception {
+        AuthStateStore store = new AuthStateStore(mFile, WRITE_DELAY_MS);
+        store.replace(new AuthState(getTestAuthResponse(), null));
+        store.flush();
+
+        // flip a byte in the stored state
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.seek(file.length() - 2);
+        int value = file.read();
+        file.seek(file.length() - 2);
+        file.write(value ^ 0x01);
+        file.close();
+
+        assertThat(new AuthStateStore(mFile, WRITE_DELAY_MS).getCurrent().isAuthorized())
+                .isFalse();
+    }
+
+    @Test
+    public void testJournaled_appendsTokenUpdates() throws Exception {
+        AuthStateStore store = new AuthStateStore(mFile, WRITE_DELAY_MS, true);
+        AuthState state = store.replace(new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponse(),
+                null));
+        store.flush();
+        long snapshotLength = mFile.length();
+
+        for (int i = 0; i < 5; i++) {
+            state.update(getTestAuthCodeExchangeResponseBuilder()
+                    .setAccessToken("access_token_" + i)
+                    .build(), null);
+            store.flush();
+        }
+
+        assertThat(mFile.length()).isEqualTo(snapshotLength);
+        assertThat(getJournalFile().exists()).isTrue();
+
+        AuthState restored = new AuthStateStore(mFile, WRITE_DELAY_MS, true).getCurrent();
+        assertThat(restored.getAccessToken()).isEqualTo("access_token_4");
+        assertThat(restored.getLastAuthorizationResponse()).isNotNull();
+    }
+
+    @Test
+    public void testJournaled_compactsIntoSnapshot() {
+        AuthStateStore store =
+                new AuthStateStore(mFile, AuthStateStore.createWriter(), WRITE_DELAY_MS, 3);
+        AuthState state = store.replace(new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponse(),
+                null));
+        store.flush();
+
+        for (int i = 0; i < 4; i++) {
+            state.update(getTestAuthCodeExchangeResponseBuilder()
+                    .setAccessToken("access_token_" + i)
+                    .build(), null);
+            store.flush();
+        }
+
+        // the fourth update exceeded the journal size, and was written as a snapshot
+        assertThat(getJournalFile().exists()).isFalse();
+        assertThat(new AuthStateStore(mFile, WRITE_DELAY_MS, true).getCurrent().getAccessToken())
+                .isEqualTo("access_token_3");
+    }
+
+    @Test
+    public void testJournaled_ignoresTornRecord() throws Exception {
+        AuthStateStore store = new AuthStateStore(mFile, WRITE_DELAY_MS, true);
+        AuthState state = store.replace(new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponse(),
+                null));
+        store.flush();
+        state.update(getTestAuthCodeExchangeResponseBuilder()
+                .setAccessToken("access_token_0")
+                .build(), null);
+        store.flush();
+
+        // simulate an append interrupted part way through
+        FileOutputStream out = new FileOutputStream(getJournalFile(), true);
+        out.write("0badc0de{\"journalSeq".getBytes("UTF-8"));
+        out.close();
+
+        AuthStateStore restoredStore = new AuthStateStore(mFile, WRITE_DELAY_MS, true);
+        AuthState restored = restoredStore.getCurrent();
+        assertThat(restored.getAccessToken()).isEqualTo("access_token_0");
+
+        // the next change is not appended after the partial record
+        restored.update(getTestAuthCodeExchangeResponseBuilder()
+                .setAccessToken("access_token_1")
+                .build(), null);
+        restoredStore.flush();
+        assertThat(new AuthStateStore(mFile, WRITE_DELAY_MS, true).getCurrent().getAccessToken())
+                .isEqualTo("access_token_1");
+    }
+
+    @Test
+    public void testHotTokenRecord_writtenWithState() {
+        AuthStateStore store = new AuthStateStore.Builder(mFile)
+                .setWriteDelay(WRITE_DELAY_MS)
+                .setHotTokenRecordEnabled(true)
+                .build();
+        assertThat(store.readHotTokenRecord()).isNull();
+
+        AuthState state = store.replace(new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponse(),
+                null));
+        store.flush();
+        HotTokenRecord first = store.readHotTokenRecord();
+        assertThat(first).isNotNull();
+        assertThat(first.accessToken).isEqualTo(state.getAccessToken());
+        assertThat(first.tokenType).isEqualTo(TokenResponse.TOKEN_TYPE_BEARER);
+        assertThat(first.accessTokenExpirationTime)
+                .isEqualTo(state.getAccessTokenExpirationTime());
+
+        state.update(getTestAuthCodeExchangeResponseBuilder()
+                .setAccessToken("access_token_1")
+                .build(), null);
+        store.flush();
+        HotTokenRecord second = store.readHotTokenRecord();
+        assertThat(second.accessToken).isEqualTo("access_token_1");
+        assertThat(second.stateVersion).isGreaterThan(first.stateVersion);
+    }
+
+    @Test
+    public void testHotTokenRecord_validityUsesStoreClock() {
+        TestClock clock = new TestClock(0L);
+        AuthStateStore store = new AuthStateStore.Builder(mFile)
+                .setWriteDelay(WRITE_DELAY_MS)
+                .setHotTokenRecordEnabled(true)
+                .setClock(clock)
+                .build();
+        store.replace(new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponseBuilder()
+                        .setAccessToken("access_token_1")
+                        .setAccessTokenExpirationTime(60000L)
+                        .build(),
+                null));
+        store.flush();
+
+        HotTokenRecord record = store.readHotTokenRecord();
+        assertThat(record.isValidFor(30000L)).isTrue();
+
+        clock.currentTime.set(60000L);
+        assertThat(record.isValidFor(0L)).isFalse();
+    }
+
+    @Test
+    public void testHotTokenRecord_disabledByDefault() {
+        AuthStateStore store = new AuthStateStore(mFile, WRITE_DELAY_MS);
+        store.replace(new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponse(),
+                null));
+        store.flush();
+        assertThat(store.readHotTokenRecord()).isNull();
+        assertThat(getHotTokenFile().exists()).isFalse();
+    }
+
+    @Test
+    public void testHotTokenRecord_rewrittenWhenStale() {
+        AuthStateStore store = new AuthStateStore.Builder(mFile)
+                .setWriteDelay(WRITE_DELAY_MS)
+                .setHotTokenRecordEnabled(true)
+                .build();
+        store.replace(new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponse(),
+                null));
+        store.flush();
+
+        // simulate the process being killed between writing the state and the record
+        assertThat(getHotTokenFile().delete()).isTrue();
+
+        AuthStateStore restoredStore = new AuthStateStore.Builder(mFile)
+                .setWriteDelay(WRITE_DELAY_MS)
+                .setHotTokenRecordEnabled(true)
+                .build();
+        AuthState restored = restoredStore.getCurrent();
+        restoredStore.flush();
+        HotTokenRecord record = restoredStore.readHotTokenRecord();
+        assertThat(record).isNotNull();
+        assertThat(record.accessToken).isEqualTo(restored.getAccessToken());
+    }
+
+    @Test
+    public void testHotTokenRecord_deletedWithState() {
+        AuthStateStore store = new AuthStateStore.Builder(mFile)
+                .setWriteDelay(WRITE_DELAY_MS)
+                .setHotTokenRecordEnabled(true)
+                .build();
+        store.replace(new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponse(),
+                null));
+        store.flush();
+        store.replace(new AuthState());
+        store.flush();
+        assertThat(store.readHotTokenRecord()).isNull();
+    }
+
+    private File getHotTokenFile() {
+        return new File(mFile.getPath() + AuthStateStore.HOT_TOKEN_FILE_SUFFIX);
+    }
+
+    private File getJournalFile() {
+        return new File(mFile.getPath() + AuthStateFile.JOURNAL_FILE_SUFFIX);
+    }
+}
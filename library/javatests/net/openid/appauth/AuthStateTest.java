@@ -30,12 +30,17 @@ import static net.openid.appauth.TestValues.getTestRegistrationResponseBuilder;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoInteractions;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -397,6 +402,106 @@ public class AuthStateTest {
         assertThat(state.getNeedsTokenRefresh(mClock)).isTrue();
     }
 
+    @Test
+    public void testGetNeedsTokenRefresh_withCustomExpiryTimeTolerance() {
+        AuthState state = new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponseBuilder()
+                        .setAccessToken(TEST_ACCESS_TOKEN)
+                        .setAccessTokenExpirationTime(TWO_MINUTES)
+                        .build(),
+                null);
+
+        mClock.currentTime.set(TWO_MINUTES - AuthState.EXPIRY_TIME_TOLERANCE_MS + ONE_SECOND);
+        assertThat(state.getNeedsTokenRefresh(mClock)).isTrue();
+
+        state.setExpiryTimeTolerance(ONE_SECOND);
+        assertThat(state.getExpiryTimeTolerance()).isEqualTo(ONE_SECOND);
+        assertThat(state.getNeedsTokenRefresh(mClock)).isFalse();
+    }
+
+    @Test
+    public void testGetNeedsTokenRefresh_withLearnedExpiryTimeTolerance() {
+        AuthState state = new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponseBuilder()
+                        .setAccessToken(TEST_ACCESS_TOKEN)
+                        .setAccessTokenExpirationTime(TWO_MINUTES)
+                        .build(),
+                null);
+        AdaptiveExpiryTolerance adaptiveTolerance =
+                new AdaptiveExpiryTolerance(10, 1, 0L, 0L, TWO_MINUTES);
+        state.setAdaptiveExpiryTolerance(adaptiveTolerance);
+
+        // no samples yet, so the fixed tolerance applies
+        assertThat(state.getExpiryTimeTolerance())
+                .isEqualTo((long) AuthState.EXPIRY_TIME_TOLERANCE_MS);
+
+        adaptiveTolerance.recordRefreshLatency(
+                state.getAuthorizationServiceConfiguration().tokenEndpoint,
+                ONE_SECOND);
+        assertThat(state.getExpiryTimeTolerance()).isEqualTo(ONE_SECOND);
+
+        mClock.currentTime.set(TWO_MINUTES - AuthState.EXPIRY_TIME_TOLERANCE_MS + ONE_SECOND);
+        assertThat(state.getNeedsTokenRefresh(mClock)).isFalse();
+    }
+
+    @Test
+    public void testPerformActionWithFreshTokens_recordsRefreshLatency() {
+        AuthState state = new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponseBuilder()
+                        .setAccessToken(TEST_ACCESS_TOKEN)
+                        .setAccessTokenExpirationTime(TWO_MINUTES)
+                        .build(),
+                null);
+        AdaptiveExpiryTolerance adaptiveTolerance =
+                new AdaptiveExpiryTolerance(10, 1, 0L, 0L, TWO_MINUTES);
+        state.setAdaptiveExpiryTolerance(adaptiveTolerance);
+
+        AuthorizationService service = mock(AuthorizationService.class);
+        AuthState.AuthStateAction action = mock(AuthState.AuthStateAction.class);
+
+        mClock.currentTime.set(TWO_MINUTES);
+        state.performActionWithFreshTokens(
+                service,
+                NoClientAuthentication.INSTANCE,
+                Collections.<String, String>emptyMap(),
+                mClock,
+                action);
+
+        ArgumentCaptor<TokenRequest> requestCaptor = ArgumentCaptor.forClass(TokenRequest.class);
+        ArgumentCaptor<AuthorizationService.TokenResponseCallback> callbackCaptor =
+                ArgumentCaptor.forClass(AuthorizationService.TokenResponseCallback.class);
+        verify(service, times(1)).performTokenRequest(
+                requestCaptor.capture(),
+                any(ClientAuthentication.class),
+                callbackCaptor.capture());
+
+        // the refresh takes three seconds to complete
+        mClock.currentTime.addAndGet(3 * ONE_SECOND);
+        callbackCaptor.getValue().onTokenRequestCompleted(
+                new TokenResponse.Builder(requestCaptor.getValue())
+                        .setTokenType(TokenResponse.TOKEN_TYPE_BEARER)
+                        .setAccessToken("fresh_access_token")
+                        .setAccessTokenExpirationTime(mClock.currentTime.get() + TWO_MINUTES)
+                        .build(),
+                null);
+
+        assertThat(adaptiveTolerance.getLearnedToleranceMs(
+                requestCaptor.getValue().configuration.tokenEndpoint))
+                .isEqualTo(3 * ONE_SECOND);
+        assertThat(state.getExpiryTimeTolerance()).isEqualTo(3 * ONE_SECOND);
+    }
+
+    @Test
+    public void testJsonSerialization_withCustomExpiryTimeTolerance() throws Exception {
+        AuthState state = new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponse(),
+                null);
+        state.setExpiryTimeTolerance(TWO_MINUTES);
+
+        AuthState restored = AuthState.jsonDeserialize(state.jsonSerializeString());
+        assertThat(restored.getExpiryTimeTolerance()).isEqualTo(TWO_MINUTES);
+    }
+
     @Test
     public void testPerformActionWithFreshTokens() {
         AuthorizationRequest authReq = getMinimalAuthRequestBuilder("id_token token code")
@@ -580,6 +685,656 @@ public class AuthStateTest {
         assertThat(state.getIdToken()).isEqualTo(freshIdToken);
     }
 
+    @Test
+    public void testPerformActionWithTokenLease_satisfiedByCurrentToken() {
+        AuthState state = new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponseBuilder()
+                        .setAccessToken(TEST_ACCESS_TOKEN)
+                        .setAccessTokenExpirationTime(TWO_MINUTES)
+                        .build(),
+                null);
+
+        AuthorizationService service = mock(AuthorizationService.class);
+        AuthState.AuthStateLeaseAction action = mock(AuthState.AuthStateLeaseAction.class);
+
+        // within the default tolerance, but long enough for a short lease
+        mClock.currentTime.set(TWO_MINUTES - AuthState.EXPIRY_TIME_TOLERANCE_MS + ONE_SECOND);
+        state.performActionWithTokenLease(
+                service,
+                NoClientAuthentication.INSTANCE,
+                Collections.<String, String>emptyMap(),
+                mClock,
+                ONE_SECOND,
+                action);
+
+        verifyNoInteractions(service);
+        ArgumentCaptor<AuthState.TokenLease> leaseCaptor =
+                ArgumentCaptor.forClass(AuthState.TokenLease.class);
+        verify(action, times(1)).execute(
+                leaseCaptor.capture(),
+                ArgumentMatchers.<AuthorizationException>isNull());
+        assertThat(leaseCaptor.getValue().accessToken).isEqualTo(TEST_ACCESS_TOKEN);
+        assertThat(leaseCaptor.getValue().validUntil).isEqualTo(TWO_MINUTES);
+        assertThat(leaseCaptor.getValue().isValidFor(ONE_SECOND)).isTrue();
+
+        // the lease is measured against the clock of the state, not the device clock
+        mClock.currentTime.set(TWO_MINUTES);
+        assertThat(leaseCaptor.getValue().isValidFor(ONE_SECOND)).isFalse();
+    }
+
+    @Test
+    public void testPerformActionWithTokenLease_refreshesForLongLease() {
+        AuthState state = new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponseBuilder()
+                        .setAccessToken(TEST_ACCESS_TOKEN)
+                        .setAccessTokenExpirationTime(TWO_MINUTES)
+                        .build(),
+                null);
+
+        AuthorizationService service = mock(AuthorizationService.class);
+        AuthState.AuthStateLeaseAction action = mock(AuthState.AuthStateLeaseAction.class);
+
+        // not expired, but cannot satisfy a two minute lease
+        mClock.currentTime.set(ONE_SECOND);
+        state.performActionWithTokenLease(
+                service,
+                NoClientAuthentication.INSTANCE,
+                Collections.<String, String>emptyMap(),
+                mClock,
+                TWO_MINUTES,
+                action);
+
+        ArgumentCaptor<TokenRequest> requestCaptor = ArgumentCaptor.forClass(TokenRequest.class);
+        ArgumentCaptor<AuthorizationService.TokenResponseCallback> callbackCaptor =
+                ArgumentCaptor.forClass(AuthorizationService.TokenResponseCallback.class);
+        verify(service, times(1)).performTokenRequest(
+                requestCaptor.capture(),
+                any(ClientAuthentication.class),
+                callbackCaptor.capture());
+        verifyNoInteractions(action);
+
+        Long freshExpirationTime = mClock.currentTime.get() + 2 * TWO_MINUTES;
+        callbackCaptor.getValue().onTokenRequestCompleted(
+                new TokenResponse.Builder(requestCaptor.getValue())
+                        .setTokenType(TokenResponse.TOKEN_TYPE_BEARER)
+                        .setAccessToken("fresh_access_token")
+                        .setAccessTokenExpirationTime(freshExpirationTime)
+                        .build(),
+                null);
+
+        ArgumentCaptor<AuthState.TokenLease> leaseCaptor =
+                ArgumentCaptor.forClass(AuthState.TokenLease.class);
+        verify(action, times(1)).execute(
+                leaseCaptor.capture(),
+                ArgumentMatchers.<AuthorizationException>isNull());
+        assertThat(leaseCaptor.getValue().accessToken).isEqualTo("fresh_access_token");
+        assertThat(leaseCaptor.getValue().validUntil).isEqualTo(freshExpirationTime);
+        assertThat(leaseCaptor.getValue().isValidFor(TWO_MINUTES)).isTrue();
+    }
+
+    @Test
+    public void testPerformActionWithTokenLease_refreshFailure() {
+        AuthState state = new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponseBuilder()
+                        .setAccessToken(TEST_ACCESS_TOKEN)
+                        .setAccessTokenExpirationTime(TWO_MINUTES)
+                        .build(),
+                null);
+
+        AuthorizationService service = mock(AuthorizationService.class);
+        AuthState.AuthStateLeaseAction action = mock(AuthState.AuthStateLeaseAction.class);
+
+        mClock.currentTime.set(ONE_SECOND);
+        state.performActionWithTokenLease(
+                service,
+                NoClientAuthentication.INSTANCE,
+                Collections.<String, String>emptyMap(),
+                mClock,
+                TWO_MINUTES,
+                action);
+
+        ArgumentCaptor<AuthorizationService.TokenResponseCallback> callbackCaptor =
+                ArgumentCaptor.forClass(AuthorizationService.TokenResponseCallback.class);
+        verify(service, times(1)).performTokenRequest(
+                any(TokenRequest.class),
+                any(ClientAuthentication.class),
+                callbackCaptor.capture());
+
+        callbackCaptor.getValue().onTokenRequestCompleted(
+                null,
+                AuthorizationException.GeneralErrors.NETWORK_ERROR);
+
+        verify(action, times(1)).execute(
+                ArgumentMatchers.<AuthState.TokenLease>isNull(),
+                eq(AuthorizationException.GeneralErrors.NETWORK_ERROR));
+    }
+
+    @Test
+    public void testPerformActionWithFreshTokens_terminalErrorIsCached() {
+        AuthState state = new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponseBuilder()
+                        .setAccessToken(TEST_ACCESS_TOKEN)
+                        .setAccessTokenExpirationTime(ONE_SECOND)
+                        .build(),
+                null);
+
+        AuthorizationService service = mock(AuthorizationService.class);
+        AuthState.AuthStateAction action = mock(AuthState.AuthStateAction.class);
+
+        mClock.currentTime.set(TWO_MINUTES);
+        state.performActionWithFreshTokens(
+                service,
+                NoClientAuthentication.INSTANCE,
+                Collections.<String, String>emptyMap(),
+                mClock,
+                action);
+
+        ArgumentCaptor<AuthorizationService.TokenResponseCallback> callbackCaptor =
+                ArgumentCaptor.forClass(AuthorizationService.TokenResponseCallback.class);
+        verify(service, times(1)).performTokenRequest(
+                any(TokenRequest.class),
+                any(ClientAuthentication.class),
+                callbackCaptor.capture());
+
+        callbackCaptor.getValue().onTokenRequestCompleted(
+                null,
+                AuthorizationException.TokenRequestErrors.INVALID_GRANT);
+
+        // a second action fails immediately, without a further request
+        state.performActionWithFreshTokens(
+                service,
+                NoClientAuthentication.INSTANCE,
+                Collections.<String, String>emptyMap(),
+                mClock,
+                action);
+
+        verify(service, times(1)).performTokenRequest(
+                any(TokenRequest.class),
+                any(ClientAuthentication.class),
+                any(AuthorizationService.TokenResponseCallback.class));
+        verify(action, times(2)).execute(
+                ArgumentMatchers.<String>isNull(),
+                ArgumentMatchers.<String>isNull(),
+                eq(AuthorizationException.TokenRequestErrors.INVALID_GRANT));
+    }
+
+    @Test
+    public void testPerformActionWithFreshTokens_invalidScopeIsNotTerminal() throws Exception {
+        AuthState state = new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponseBuilder()
+                        .setAccessToken(TEST_ACCESS_TOKEN)
+                        .setAccessTokenExpirationTime(ONE_SECOND)
+                        .build(),
+                null);
+
+        AuthorizationService service = mock(AuthorizationService.class);
+        AuthState.AuthStateAction action = mock(AuthState.AuthStateAction.class);
+
+        mClock.currentTime.set(TWO_MINUTES);
+        state.performActionWithFreshTokens(
+                service,
+                NoClientAuthentication.INSTANCE,
+                Collections.singletonMap("resource", "https://unknown.example.com"),
+                mClock,
+                action);
+
+        ArgumentCaptor<AuthorizationService.TokenResponseCallback> callbackCaptor =
+                ArgumentCaptor.forClass(AuthorizationService.TokenResponseCallback.class);
+        verify(service, times(1)).performTokenRequest(
+                any(TokenRequest.class),
+                any(ClientAuthentication.class),
+                callbackCaptor.capture());
+        callbackCaptor.getValue().onTokenRequestCompleted(
+                null,
+                AuthorizationException.TokenRequestErrors.INVALID_SCOPE);
+
+        // the error is backed off, rather than retained as terminal
+        assertThat(state.getLastRefreshException())
+                .isEqualTo(AuthorizationException.TokenRequestErrors.INVALID_SCOPE);
+
+        // once the backoff elapses, a later refresh is still sent
+        mClock.currentTime.addAndGet(AuthState.REFRESH_BACKOFF_INITIAL_MS);
+        state.performActionWithFreshTokens(
+                service,
+                NoClientAuthentication.INSTANCE,
+                Collections.<String, String>emptyMap(),
+                mClock,
+                action);
+        verify(service, times(2)).performTokenRequest(
+                any(TokenRequest.class),
+                any(ClientAuthentication.class),
+                any(AuthorizationService.TokenResponseCallback.class));
+
+        // as is a refresh of the persisted state, after a restart
+        AuthState restored = AuthState.jsonDeserialize(state.jsonSerializeString());
+        restored.performActionWithFreshTokens(
+                service,
+                NoClientAuthentication.INSTANCE,
+                Collections.<String, String>emptyMap(),
+                mClock,
+                action);
+        verify(service, times(3)).performTokenRequest(
+                any(TokenRequest.class),
+                any(ClientAuthentication.class),
+                any(AuthorizationService.TokenResponseCallback.class));
+    }
+
+    @Test
+    public void testPerformActionWithFreshTokens_transientErrorBacksOff() {
+        AuthState state = new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponseBuilder()
+                        .setAccessToken(TEST_ACCESS_TOKEN)
+                        .setAccessTokenExpirationTime(ONE_SECOND)
+                        .build(),
+                null);
+
+        AuthorizationService service = mock(AuthorizationService.class);
+        AuthState.AuthStateAction action = mock(AuthState.AuthStateAction.class);
+
+        mClock.currentTime.set(TWO_MINUTES);
+        state.performActionWithFreshTokens(
+                service,
+                NoClientAuthentication.INSTANCE,
+                Collections.<String, String>emptyMap(),
+                mClock,
+                action);
+
+        ArgumentCaptor<AuthorizationService.TokenResponseCallback> callbackCaptor =
+                ArgumentCaptor.forClass(AuthorizationService.TokenResponseCallback.class);
+        verify(service, times(1)).performTokenRequest(
+                any(TokenRequest.class),
+                any(ClientAuthentication.class),
+                callbackCaptor.capture());
+
+        callbackCaptor.getValue().onTokenRequestCompleted(
+                null,
+                AuthorizationException.GeneralErrors.NETWORK_ERROR);
+        assertThat(state.getLastRefreshException())
+                .isEqualTo(AuthorizationException.GeneralErrors.NETWORK_ERROR);
+
+        // within the backoff period, the cached error is returned without a request
+        state.performActionWithFreshTokens(
+                service,
+                NoClientAuthentication.INSTANCE,
+                Collections.<String, String>emptyMap(),
+                mClock,
+                action);
+        verify(service, times(1)).performTokenRequest(
+                any(TokenRequest.class),
+                any(ClientAuthentication.class),
+                any(AuthorizationService.TokenResponseCallback.class));
+        verify(action, times(2)).execute(
+                ArgumentMatchers.<String>isNull(),
+                ArgumentMatchers.<String>isNull(),
+                eq(AuthorizationException.GeneralErrors.NETWORK_ERROR));
+
+        // once it elapses, the refresh is retried
+        mClock.currentTime.addAndGet(AuthState.REFRESH_BACKOFF_INITIAL_MS);
+        state.performActionWithFreshTokens(
+                service,
+                NoClientAuthentication.INSTANCE,
+                Collections.<String, String>emptyMap(),
+                mClock,
+                action);
+        verify(service, times(2)).performTokenRequest(
+                any(TokenRequest.class),
+                any(ClientAuthentication.class),
+                any(AuthorizationService.TokenResponseCallback.class));
+    }
+
+    @Test
+    public void testResetRefreshBackoff() {
+        AuthState state = new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponseBuilder()
+                        .setAccessToken(TEST_ACCESS_TOKEN)
+                        .setAccessTokenExpirationTime(ONE_SECOND)
+                        .build(),
+                null);
+
+        AuthorizationService service = mock(AuthorizationService.class);
+        AuthState.AuthStateAction action = mock(AuthState.AuthStateAction.class);
+
+        mClock.currentTime.set(TWO_MINUTES);
+        state.performActionWithFreshTokens(
+                service,
+                NoClientAuthentication.INSTANCE,
+                Collections.<String, String>emptyMap(),
+                mClock,
+                action);
+
+        ArgumentCaptor<AuthorizationService.TokenResponseCallback> callbackCaptor =
+                ArgumentCaptor.forClass(AuthorizationService.TokenResponseCallback.class);
+        verify(service, times(1)).performTokenRequest(
+                any(TokenRequest.class),
+                any(ClientAuthentication.class),
+                callbackCaptor.capture());
+        callbackCaptor.getValue().onTokenRequestCompleted(
+                null,
+                AuthorizationException.GeneralErrors.NETWORK_ERROR);
+
+        state.resetRefreshBackoff();
+        assertThat(state.getLastRefreshException()).isNull();
+
+        state.performActionWithFreshTokens(
+                service,
+                NoClientAuthentication.INSTANCE,
+                Collections.<String, String>emptyMap(),
+                mClock,
+                action);
+        verify(service, times(2)).performTokenRequest(
+                any(TokenRequest.class),
+                any(ClientAuthentication.class),
+                any(AuthorizationService.TokenResponseCallback.class));
+    }
+
+    @Test
+    public void testPerformActionWithScopedTokens_singleFlightPerKey() {
+        AuthState state = new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponseBuilder()
+                        .setAccessToken(TEST_ACCESS_TOKEN)
+                        .setAccessTokenExpirationTime(TWO_MINUTES)
+                        .build(),
+                null);
+
+        AuthorizationService service = mock(AuthorizationService.class);
+        AuthState.AuthStateAction action1 = mock(AuthState.AuthStateAction.class);
+        AuthState.AuthStateAction action2 = mock(AuthState.AuthStateAction.class);
+
+        mClock.currentTime.set(ONE_SECOND);
+        state.performActionWithScopedTokens(
+                service,
+                NoClientAuthentication.INSTANCE,
+                "https://api.example.com",
+                Arrays.asList("read", "write"),
+                mClock,
+                action1);
+        // the order of scopes is not significant
+        state.performActionWithScopedTokens(
+                service,
+                NoClientAuthentication.INSTANCE,
+                "https://api.example.com",
+                Arrays.asList("write", "read"),
+                mClock,
+                action2);
+
+        ArgumentCaptor<TokenRequest> requestCaptor = ArgumentCaptor.forClass(TokenRequest.class);
+        ArgumentCaptor<AuthorizationService.TokenResponseCallback> callbackCaptor =
+                ArgumentCaptor.forClass(AuthorizationService.TokenResponseCallback.class);
+        verify(service, times(1)).performTokenRequest(
+                requestCaptor.capture(),
+                any(ClientAuthentication.class),
+                callbackCaptor.capture());
+
+        TokenRequest request = requestCaptor.getValue();
+        assertThat(request.grantType).isEqualTo(GrantTypeValues.TOKEN_EXCHANGE);
+        assertThat(request.scope).isEqualTo("read write");
+        assertThat(request.getRequestParameters())
+                .containsEntry(AuthState.PARAM_SUBJECT_TOKEN, TEST_ACCESS_TOKEN)
+                .containsEntry(AuthState.PARAM_SUBJECT_TOKEN_TYPE,
+                        AuthState.TOKEN_TYPE_ACCESS_TOKEN)
+                .containsEntry(AuthState.PARAM_AUDIENCE, "https://api.example.com");
+
+        callbackCaptor.getValue().onTokenRequestCompleted(
+                new TokenResponse.Builder(request)
+                        .setAccessToken("scoped_access_token")
+                        .setAccessTokenExpirationTime(TWO_MINUTES)
+                        .build(),
+                null);
+
+        verify(action1, times(1)).execute(
+                eq("scoped_access_token"),
+                ArgumentMatchers.<String>any(),
+                ArgumentMatchers.<AuthorizationException>isNull());
+        verify(action2, times(1)).execute(
+                eq("scoped_access_token"),
+                ArgumentMatchers.<String>any(),
+                ArgumentMatchers.<AuthorizationException>isNull());
+
+        // subsequent actions are served from the cache, leaving the primary token untouched
+        AuthState.AuthStateAction action3 = mock(AuthState.AuthStateAction.class);
+        state.performActionWithScopedTokens(
+                service,
+                NoClientAuthentication.INSTANCE,
+                "https://api.example.com",
+                Arrays.asList("read", "write"),
+                mClock,
+                action3);
+        verify(service, times(1)).performTokenRequest(
+                any(TokenRequest.class),
+                any(ClientAuthentication.class),
+                any(AuthorizationService.TokenResponseCallback.class));
+        verify(action3, times(1)).execute(
+                eq("scoped_access_token"),
+                ArgumentMatchers.<String>any(),
+                ArgumentMatchers.<AuthorizationException>isNull());
+        assertThat(state.getAccessToken()).isEqualTo(TEST_ACCESS_TOKEN);
+    }
+
+    @Test
+    public void testPerformActionWithScopedTokens_separateRequestPerAudience() {
+        AuthState state = new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponseBuilder()
+                        .setAccessToken(TEST_ACCESS_TOKEN)
+                        .setAccessTokenExpirationTime(TWO_MINUTES)
+                        .build(),
+                null);
+
+        AuthorizationService service = mock(AuthorizationService.class);
+        AuthState.AuthStateAction action = mock(AuthState.AuthStateAction.class);
+
+        mClock.currentTime.set(ONE_SECOND);
+        state.performActionWithScopedTokens(
+                service,
+                NoClientAuthentication.INSTANCE,
+                "https://a.example.com",
+                null,
+                mClock,
+                action);
+        state.performActionWithScopedTokens(
+                service,
+                NoClientAuthentication.INSTANCE,
+                "https://b.example.com",
+                null,
+                mClock,
+                action);
+
+        verify(service, times(2)).performTokenRequest(
+                any(TokenRequest.class),
+                any(ClientAuthentication.class),
+                any(AuthorizationService.TokenResponseCallback.class));
+    }
+
+    @Test
+    public void testPerformActionWithScopedTokens_clearedByNewAuthorization() {
+        AuthState state = new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponseBuilder()
+                        .setAccessToken(TEST_ACCESS_TOKEN)
+                        .setAccessTokenExpirationTime(TWO_MINUTES)
+                        .build(),
+                null);
+
+        AuthorizationService service = mock(AuthorizationService.class);
+        AuthState.AuthStateAction action = mock(AuthState.AuthStateAction.class);
+
+        mClock.currentTime.set(ONE_SECOND);
+        state.performActionWithScopedTokens(
+                service,
+                NoClientAuthentication.INSTANCE,
+                "https://api.example.com",
+                null,
+                mClock,
+                action);
+
+        ArgumentCaptor<TokenRequest> requestCaptor = ArgumentCaptor.forClass(TokenRequest.class);
+        ArgumentCaptor<AuthorizationService.TokenResponseCallback> callbackCaptor =
+                ArgumentCaptor.forClass(AuthorizationService.TokenResponseCallback.class);
+        verify(service, times(1)).performTokenRequest(
+                requestCaptor.capture(),
+                any(ClientAuthentication.class),
+                callbackCaptor.capture());
+        callbackCaptor.getValue().onTokenRequestCompleted(
+                new TokenResponse.Builder(requestCaptor.getValue())
+                        .setAccessToken("scoped_access_token")
+                        .setAccessTokenExpirationTime(TWO_MINUTES)
+                        .build(),
+                null);
+
+        state.update(getTestAuthResponse(), null);
+        state.update(getTestAuthCodeExchangeResponseBuilder()
+                .setAccessToken(TEST_ACCESS_TOKEN)
+                .setAccessTokenExpirationTime(TWO_MINUTES)
+                .build(), null);
+        state.performActionWithScopedTokens(
+                service,
+                NoClientAuthentication.INSTANCE,
+                "https://api.example.com",
+                null,
+                mClock,
+                action);
+
+        verify(service, times(2)).performTokenRequest(
+                any(TokenRequest.class),
+                any(ClientAuthentication.class),
+                any(AuthorizationService.TokenResponseCallback.class));
+    }
+
+    @Test
+    public void testPerformActionWithScopedTokens_requestFailsToStart() {
+        AuthState state = new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponseBuilder()
+                        .setAccessToken(TEST_ACCESS_TOKEN)
+                        .setAccessTokenExpirationTime(TWO_MINUTES)
+                        .build(),
+                null);
+
+        AuthorizationService service = mock(AuthorizationService.class);
+        doThrow(new IllegalStateException("Service has been disposed"))
+                .doNothing()
+                .when(service).performTokenRequest(
+                        any(TokenRequest.class),
+                        any(ClientAuthentication.class),
+                        any(AuthorizationService.TokenResponseCallback.class));
+        AuthState.AuthStateAction action = mock(AuthState.AuthStateAction.class);
+
+        mClock.currentTime.set(ONE_SECOND);
+        state.performActionWithScopedTokens(
+                service,
+                NoClientAuthentication.INSTANCE,
+                "https://api.example.com",
+                null,
+                mClock,
+                action);
+
+        ArgumentCaptor<AuthorizationException> exceptionCaptor =
+                ArgumentCaptor.forClass(AuthorizationException.class);
+        verify(action, times(1)).execute(
+                ArgumentMatchers.<String>isNull(),
+                ArgumentMatchers.<String>isNull(),
+                exceptionCaptor.capture());
+        assertThat(exceptionCaptor.getValue().code)
+                .isEqualTo(AuthorizationException.AuthorizationRequestErrors.CLIENT_ERROR.code);
+
+        // the failed request must not leave the key pending, so a later call starts a new one
+        state.performActionWithScopedTokens(
+                service,
+                NoClientAuthentication.INSTANCE,
+                "https://api.example.com",
+                null,
+                mClock,
+                action);
+
+        verify(service, times(2)).performTokenRequest(
+                any(TokenRequest.class),
+                any(ClientAuthentication.class),
+                any(AuthorizationService.TokenResponseCallback.class));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPerformActionWithScopedTokens_requiresAudienceOrScopes() {
+        AuthState state = new AuthState(getTestAuthResponse(), null, null);
+        state.performActionWithScopedTokens(
+                mock(AuthorizationService.class),
+                null,
+                Collections.<String>emptyList(),
+                mock(AuthState.AuthStateAction.class));
+    }
+
+    @Test
+    public void testChangeListener_notifiedWithSnapshot() {
+        AuthState state = new AuthState(getTestAuthResponse(), null);
+        AuthState.ChangeListener listener = mock(AuthState.ChangeListener.class);
+        state.addChangeListener(listener, new DirectExecutor());
+
+        state.update(getTestAuthCodeExchangeResponseBuilder()
+                .setAccessToken(TEST_ACCESS_TOKEN)
+                .build(), null);
+
+        ArgumentCaptor<AuthStateSnapshot> snapshotCaptor =
+                ArgumentCaptor.forClass(AuthStateSnapshot.class);
+        verify(listener, times(1)).onAuthStateChanged(snapshotCaptor.capture());
+        AuthStateSnapshot snapshot = snapshotCaptor.getValue();
+        assertThat(snapshot.isAuthorized()).isTrue();
+        assertThat(snapshot.getAccessToken()).isEqualTo(TEST_ACCESS_TOKEN);
+
+        // the snapshot is unaffected by subsequent changes
+        state.update((TokenResponse) null, AuthorizationException.TokenRequestErrors.INVALID_GRANT);
+        assertThat(snapshot.getAuthorizationException()).isNull();
+        assertThat(snapshot.getAccessToken()).isEqualTo(TEST_ACCESS_TOKEN);
+    }
+
+    @Test
+    public void testChangeListener_coalescesPendingNotifications() {
+        AuthState state = new AuthState(getTestAuthResponse(), null);
+        AuthState.ChangeListener listener = mock(AuthState.ChangeListener.class);
+        QueueingExecutor executor = new QueueingExecutor();
+        state.addChangeListener(listener, executor);
+
+        state.update(getTestAuthCodeExchangeResponseBuilder()
+                .setAccessToken("first_access_token")
+                .build(), null);
+        state.update(getTestAuthCodeExchangeResponseBuilder()
+                .setAccessToken("second_access_token")
+                .build(), null);
+        assertThat(executor.mTasks).hasSize(1);
+
+        executor.runAll();
+        ArgumentCaptor<AuthStateSnapshot> snapshotCaptor =
+                ArgumentCaptor.forClass(AuthStateSnapshot.class);
+        verify(listener, times(1)).onAuthStateChanged(snapshotCaptor.capture());
+        assertThat(snapshotCaptor.getValue().getAccessToken()).isEqualTo("second_access_token");
+
+        // once delivered, a further change is notified again
+        state.update((TokenResponse) null, AuthorizationException.TokenRequestErrors.INVALID_GRANT);
+        executor.runAll();
+        verify(listener, times(2)).onAuthStateChanged(any(AuthStateSnapshot.class));
+    }
+
+    @Test
+    public void testChangeListener_removedListenerIsNotNotified() {
+        AuthState state = new AuthState(getTestAuthResponse(), null);
+        AuthState.ChangeListener listener = mock(AuthState.ChangeListener.class);
+        QueueingExecutor executor = new QueueingExecutor();
+        state.addChangeListener(listener, executor);
+
+        state.update(getTestAuthCodeExchangeResponse(), null);
+        state.removeChangeListener(listener);
+        executor.runAll();
+        state.update(getTestAuthCodeExchangeResponse(), null);
+
+        verifyNoInteractions(listener);
+    }
+
+    @Test
+    public void testSnapshot_jsonSerialization() throws Exception {
+        AuthState state = new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponse(),
+                null);
+        AuthState copy = AuthState.jsonDeserialize(state.snapshot().jsonSerializeString());
+        assertThat(copy.getRefreshToken()).isEqualTo(state.getRefreshToken());
+        assertThat(copy.getIdToken()).isEqualTo(state.getIdToken());
+        assertThat(copy.isAuthorized()).isEqualTo(state.isAuthorized());
+    }
+
     @Test
     public void testJsonSerialization() throws Exception {
         AuthorizationRequest authReq = getMinimalAuthRequestBuilder("id_token token code")
@@ -742,4 +1497,87 @@ public class AuthStateTest {
         AuthState state = new AuthState(regResp);
         state.getClientAuthentication();
     }
+
+    @Test
+    public void testGetIdTokenClaims() {
+        AuthState state = new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponseBuilder()
+                        .setIdToken(TEST_ID_TOKEN)
+                        .build(),
+                null);
+
+        IdTokenClaims claims = state.getIdTokenClaims();
+        assertThat(claims).isNotNull();
+        assertThat(claims.getString("iss")).isEqualTo(TestValues.TEST_ISSUER);
+        assertThat(claims.getStringList("aud")).containsExactly(TestValues.TEST_CLIENT_ID);
+
+        // the parsed claims are retained while the ID token is unchanged
+        assertThat(state.getIdTokenClaims()).isSameAs(claims);
+    }
+
+    @Test
+    public void testGetIdTokenClaims_reparsedWhenIdTokenChanges() {
+        AuthState state = new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponseBuilder()
+                        .setIdToken(TEST_ID_TOKEN)
+                        .build(),
+                null);
+        IdTokenClaims claims = state.getIdTokenClaims();
+
+        String otherIdToken = IdTokenTest.getUnsignedIdToken(
+                TestValues.TEST_ISSUER, "other_subject", TestValues.TEST_CLIENT_ID, null);
+        state.update(getTestAuthCodeExchangeResponseBuilder()
+                .setIdToken(otherIdToken)
+                .build(), null);
+
+        IdTokenClaims updated = state.getIdTokenClaims();
+        assertThat(updated).isNotSameAs(claims);
+        assertThat(updated.getString("sub")).isEqualTo("other_subject");
+    }
+
+    @Test
+    public void testGetIdTokenClaims_missingRequiredClaims() {
+        // the claims are not validated, so a token without an issuer is still readable
+        String idToken = IdTokenTest.getUnsignedIdToken(
+                null, "subject", TestValues.TEST_CLIENT_ID, null);
+        AuthState state = new AuthState(getTestAuthResponse(),
+                getTestAuthCodeExchangeResponseBuilder()
+                        .setIdToken(idToken)
+                        .build(),
+                null);
+
+        IdTokenClaims claims = state.getIdTokenClaims();
+        assertThat(claims).isNotNull();
+        assertThat(claims.has("iss")).isFalse();
+        assertThat(claims.getString("sub")).isEqualTo("subject");
+    }
+
+    @Test
+    public void testGetIdTokenClaims_withoutIdToken() {
+        assertThat(new AuthState().getIdTokenClaims()).isNull();
+    }
+
+    private static final class DirectExecutor implements Executor {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    }
+
+    private static final class QueueingExecutor implements Executor {
+        final List<Runnable> mTasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        void runAll() {
+            List<Runnable> tasks = new ArrayList<>(mTasks);
+            mTasks.clear();
+            for (Runnable task : tasks) {
+                task.run();
+            }
+        }
+    }
 }
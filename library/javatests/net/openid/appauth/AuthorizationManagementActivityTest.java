@@ -29,6 +29,7 @@ import android.os.Bundle;
 import androidx.test.core.app.ApplicationProvider;
 
 import net.openid.appauth.AuthorizationException.AuthorizationRequestErrors;
+import net.openid.appauth.browser.BrowserTelemetry;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -42,6 +43,8 @@ import org.robolectric.shadows.ShadowActivity;
 @Config(sdk = 16)
 public class AuthorizationManagementActivityTest {
 
+    private static final String BROWSER_PACKAGE = "com.example.browser";
+
     private Context mContext;
     private AuthorizationRequest mAuthRequest;
     private EndSessionRequest mEndSessionRequest;
@@ -527,6 +530,31 @@ public class AuthorizationManagementActivityTest {
                 .isEqualTo(AuthorizationRequestErrors.STATE_MISMATCH);
     }
 
+    @Test
+    public void testLoginSuccessFlow_expirationTimeUsesRequestClock() {
+        TestClock clock = new TestClock(1000000L);
+        emulateFlowToAuthorizationActivityLaunch(
+                AuthorizationManagementActivity.createStartForResultIntent(
+                        mContext,
+                        mAuthRequest,
+                        mAuthIntent,
+                        clock));
+
+        Uri authResponseUri = mAuthRequest.redirectUri.buildUpon()
+                .appendQueryParameter(AuthorizationResponse.KEY_STATE, mAuthRequest.state)
+                .appendQueryParameter(AuthorizationResponse.KEY_ACCESS_TOKEN, "accessToken")
+                .appendQueryParameter(AuthorizationResponse.KEY_EXPIRES_IN, "3600")
+                .build();
+        mController.newIntent(AuthorizationManagementActivity.createResponseHandlingIntent(
+                mContext,
+                authResponseUri));
+        mController.resume();
+
+        AuthorizationResponse response =
+                AuthorizationResponse.fromIntent(mActivityShadow.getResultIntent());
+        assertThat(response.accessTokenExpirationTime).isEqualTo(1000000L + 3600000L);
+    }
+
     @Test
     public void testLoginMismatchedState_withoutPendingIntentsAndResponseDiffersFromRequest() {
         emulateFlowToAuthorizationActivityLaunch(mStartAuthForResultIntent);
@@ -772,4 +800,124 @@ public class AuthorizationManagementActivityTest {
 
         return mActivityShadow.getNextStartedActivity();
     }
+
+    @Test
+    public void testCreateStartIntent_carriesHandleRatherThanRequest() {
+        assertThat(mStartAuthIntentWithPendings.hasExtra(
+                AuthorizationManagementActivity.KEY_AUTH_REQUEST)).isFalse();
+        String handle = mStartAuthIntentWithPendings.getStringExtra(
+                AuthorizationManagementActivity.KEY_AUTH_REQUEST_HANDLE);
+        assertThat(AuthorizationRequestRegistry.INSTANCE.get(handle)).isSameAs(mAuthRequest);
+    }
+
+    @Test
+    public void testLoginSuccessFlow_withProcessDeath_shouldRestoreRequest() {
+        instantiateActivity(mStartAuthIntentWithPendings);
+        mController.create().start().resume();
+        assertThat(mActivityShadow.getNextStartedActivity()).hasAction("AUTH");
+
+        Bundle savedState = new Bundle();
+        mController.pause().stop().saveInstanceState(savedState).destroy();
+        // only the compact form of the request is saved, without the full discovery document
+        assertThat(savedState.getString(AuthorizationManagementActivity.KEY_AUTH_REQUEST))
+                .isEqualTo(mAuthRequest.jsonSerializeCompact().toString())
+                .doesNotContain("scopes_supported");
+
+        // the process is killed, losing the in-memory requests
+        AuthorizationRequestRegistry.INSTANCE.clear();
+
+        instantiateActivity(mStartAuthIntentWithPendings);
+        mController.create(savedState).start();
+        mController.newIntent(AuthorizationManagementActivity.createResponseHandlingIntent(
+                mContext,
+                mSuccessAuthRedirect));
+        mController.resume();
+
+        Intent nextStartedActivity = mActivityShadow.getNextStartedActivity();
+        assertThat(nextStartedActivity).hasAction("COMPLETE");
+        assertThat(nextStartedActivity).extras().containsKey(AuthorizationResponse.EXTRA_RESPONSE);
+        assertThat(mActivity.isFinishing()).isTrue();
+    }
+
+    @Test
+    public void testLoginFlow_withUnknownHandle_shouldReturnInvalidRequest() {
+        Intent startIntent = createStartForResultIntent(mAuthRequest);
+        AuthorizationRequestRegistry.INSTANCE.release(startIntent.getStringExtra(
+                AuthorizationManagementActivity.KEY_AUTH_REQUEST_HANDLE));
+
+        instantiateActivity(startIntent);
+        mController.create();
+
+        assertThat(mActivityShadow.getResultCode()).isEqualTo(RESULT_CANCELED);
+        assertThat(AuthorizationException.fromIntent(mActivityShadow.getResultIntent()))
+                .isEqualTo(AuthorizationRequestErrors.INVALID_REQUEST);
+        assertThat(mActivity.isFinishing()).isTrue();
+    }
+
+    @Test
+    public void testLoginCancelFlow_shouldReleaseRequest() {
+        String handle = mStartAuthIntentWithPendings.getStringExtra(
+                AuthorizationManagementActivity.KEY_AUTH_REQUEST_HANDLE);
+
+        mController.create().start().resume();
+        mController.pause();
+        mController.resume();
+        mController.pause().stop().destroy();
+
+        assertThat(AuthorizationRequestRegistry.INSTANCE.get(handle)).isNull();
+    }
+
+    @Test
+    public void testLoginCancelFlow_withBrowserOutcomeRecording_recordsCancel() {
+        BrowserTelemetry telemetry = BrowserTelemetry.getInstance(mContext);
+        telemetry.clear();
+
+        instantiateActivity(createStartIntentWithBrowserOutcomeRecording());
+        mController.create().start().resume();
+        mController.pause();
+        mController.resume();
+
+        BrowserTelemetry.BrowserStats stats = telemetry.getStats(BROWSER_PACKAGE, false);
+        assertThat(stats).isNotNull();
+        assertThat(stats.cancelRate).isEqualTo(1.0);
+    }
+
+    @Test
+    public void testLoginSuccessFlow_withBrowserOutcomeRecording_recordsRedirect() {
+        BrowserTelemetry telemetry = BrowserTelemetry.getInstance(mContext);
+        telemetry.clear();
+
+        instantiateActivity(createStartIntentWithBrowserOutcomeRecording());
+        mController.create().start().resume();
+        mController.pause();
+        mController.newIntent(AuthorizationManagementActivity.createResponseHandlingIntent(
+                mContext,
+                mSuccessAuthRedirect));
+        mController.resume();
+
+        BrowserTelemetry.BrowserStats stats = telemetry.getStats(BROWSER_PACKAGE, false);
+        assertThat(stats).isNotNull();
+        assertThat(stats.cancelRate).isEqualTo(0.0);
+        assertThat(stats.meanRedirectLatencyMs).isNotNull();
+    }
+
+    @Test
+    public void testLoginCancelFlow_withoutBrowserOutcomeRecording_recordsNothing() {
+        BrowserTelemetry telemetry = BrowserTelemetry.getInstance(mContext);
+        telemetry.clear();
+
+        mAuthIntent.setPackage(BROWSER_PACKAGE);
+        instantiateActivity(createStartIntentWithPendingIntents(mAuthRequest, null));
+        mController.create().start().resume();
+        mController.pause();
+        mController.resume();
+
+        assertThat(telemetry.getStats(BROWSER_PACKAGE, false)).isNull();
+    }
+
+    private Intent createStartIntentWithBrowserOutcomeRecording() {
+        mAuthIntent.setPackage(BROWSER_PACKAGE);
+        return createStartIntentWithPendingIntents(mAuthRequest, mCancelPendingIntent)
+                .putExtra(AuthorizationManagementActivity.KEY_RECORD_BROWSER_OUTCOME, true);
+    }
 }
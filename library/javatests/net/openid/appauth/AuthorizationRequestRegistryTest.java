@@ -0,0 +1,148 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.TestValues.getTestAuthRequest;
+import static net.openid.appauth.TestValues.getTestEndSessionRequest;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 16)
+public class AuthorizationRequestRegistryTest {
+
+    private AuthorizationRequestRegistry mRegistry;
+
+    @Before
+    public void setUp() {
+        mRegistry = new AuthorizationRequestRegistry(2);
+    }
+
+    @Test
+    public void testRegister_retainsRequest() {
+        AuthorizationRequest request = getTestAuthRequest();
+        String handle = mRegistry.register(request);
+
+        assertThat(mRegistry.get(handle)).isSameAs(request);
+        assertThat(mRegistry.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRegister_uniqueHandles() {
+        AuthorizationRequest request = getTestAuthRequest();
+        String first = mRegistry.register(request);
+        String second = mRegistry.register(request);
+
+        assertThat(first).isNotEqualTo(second);
+        assertThat(mRegistry.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void testRegister_handlesNotSharedAcrossRegistries() {
+        String handle = mRegistry.register(getTestAuthRequest());
+
+        // a registry in a new process must not resolve a handle saved by a previous one
+        AuthorizationRequestRegistry other = new AuthorizationRequestRegistry(2);
+        other.register(getTestAuthRequest());
+        assertThat(other.get(handle)).isNull();
+    }
+
+    @Test
+    public void testRegister_evictsLeastRecentlyUsed() {
+        String first = mRegistry.register(getTestAuthRequest());
+        String second = mRegistry.register(getTestAuthRequest());
+        mRegistry.get(first);
+        String third = mRegistry.register(getTestEndSessionRequest());
+
+        assertThat(mRegistry.get(first)).isNotNull();
+        assertThat(mRegistry.get(second)).isNull();
+        assertThat(mRegistry.get(third)).isNotNull();
+    }
+
+    @Test
+    public void testGetClock() {
+        Clock clock = new TestClock(1000000L);
+        String handle = mRegistry.register(getTestAuthRequest(), null, clock);
+
+        assertThat(mRegistry.getClock(handle)).isSameAs(clock);
+        assertThat(mRegistry.getClock(mRegistry.register(getTestAuthRequest())))
+                .isSameAs(SystemClock.INSTANCE);
+    }
+
+    @Test
+    public void testGetClock_unknownHandle() {
+        assertThat(mRegistry.getClock("unknown")).isSameAs(SystemClock.INSTANCE);
+        assertThat(mRegistry.getClock(null)).isSameAs(SystemClock.INSTANCE);
+    }
+
+    @Test
+    public void testGet_unknownHandle() {
+        assertThat(mRegistry.get("unknown")).isNull();
+        assertThat(mRegistry.get(null)).isNull();
+    }
+
+    @Test
+    public void testGetSerializedRequest() throws Exception {
+        AuthorizationRequest request = getTestAuthRequest();
+        String handle = mRegistry.register(request);
+
+        String serialized = mRegistry.getSerializedRequest(handle);
+        assertThat(serialized).isEqualTo(request.jsonSerializeCompact().toString());
+        assertThat(mRegistry.getSerializedRequest(handle)).isSameAs(serialized);
+        assertThat(AuthorizationManagementUtil.requestFrom(serialized).getState())
+                .isEqualTo(request.getState());
+    }
+
+    @Test
+    public void testGetSerializedRequest_knownForm() {
+        String handle = mRegistry.register(getTestAuthRequest(), "{}");
+        assertThat(mRegistry.getSerializedRequest(handle)).isEqualTo("{}");
+    }
+
+    @Test
+    public void testGetSerializedRequest_unknownHandle() {
+        assertThat(mRegistry.getSerializedRequest("unknown")).isNull();
+        assertThat(mRegistry.getSerializedRequest(null)).isNull();
+    }
+
+    @Test
+    public void testRelease() {
+        String handle = mRegistry.register(getTestAuthRequest());
+        mRegistry.release(handle);
+        mRegistry.release(null);
+
+        assertThat(mRegistry.get(handle)).isNull();
+        assertThat(mRegistry.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testClear() {
+        mRegistry.register(getTestAuthRequest());
+        mRegistry.register(getTestEndSessionRequest());
+        mRegistry.clear();
+
+        assertThat(mRegistry.size()).isEqualTo(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreate_nonPositiveMaxEntries() {
+        new AuthorizationRequestRegistry(0);
+    }
+}
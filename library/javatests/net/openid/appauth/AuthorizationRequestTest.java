@@ -699,6 +699,21 @@ public class AuthorizationRequestTest {
         assertThat(copy.additionalParameters).isEqualTo(TEST_ADDITIONAL_PARAMS);
     }
 
+    @Test
+    public void testJsonSerializeCompact() throws Exception {
+        AuthorizationRequest request = mRequestBuilder
+                .setAdditionalParameters(TEST_ADDITIONAL_PARAMS)
+                .build();
+        AuthorizationRequest copy = AuthorizationRequest.jsonDeserialize(
+                request.jsonSerializeCompact().toString());
+        assertThat(copy.toUri()).isEqualTo(request.toUri());
+        assertThat(copy.configuration.tokenEndpoint)
+                .isEqualTo(request.configuration.tokenEndpoint);
+        assertThat(copy.configuration.discoveryDoc.getIssuer())
+                .isEqualTo(request.configuration.discoveryDoc.getIssuer());
+        assertThat(copy.configuration.discoveryDoc.getScopesSupported()).isNull();
+    }
+
     private AuthorizationRequest serializeDeserialize(AuthorizationRequest request)
             throws JSONException {
         return AuthorizationRequest.jsonDeserialize(request.jsonSerializeString());
@@ -28,6 +28,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import android.content.Intent;
 import android.net.Uri;
 import java.util.Collections;
 import java.util.concurrent.TimeUnit;
@@ -169,6 +170,31 @@ public class AuthorizationResponseTest {
         assertThat(tokenExchangeRequest.scope).isNull();
     }
 
+    @Test
+    public void testFromIntent_sameProcess_returnsOriginalResponse() {
+        Intent intent = mAuthorizationResponse.toIntent();
+
+        assertThat(intent.hasExtra(AuthorizationResponse.EXTRA_RESPONSE)).isTrue();
+        assertThat(AuthorizationResponse.fromIntent(intent)).isSameAs(mAuthorizationResponse);
+    }
+
+    @Test
+    public void testFromIntent_withoutHandle_readsJson() {
+        Intent intent = mAuthorizationResponse.toIntent();
+        intent.removeExtra(AuthorizationResponse.EXTRA_RESPONSE
+                + IntentResultRegistry.HANDLE_SUFFIX);
+
+        AuthorizationResponse response = AuthorizationResponse.fromIntent(intent);
+        assertThat(response).isNotSameAs(mAuthorizationResponse);
+        checkExpectedFields(response);
+        assertThat(response.request.getState()).isEqualTo(mAuthorizationResponse.request.getState());
+    }
+
+    @Test
+    public void testFromIntent_noResponse() {
+        assertThat(AuthorizationResponse.fromIntent(new Intent())).isNull();
+    }
+
     private void checkExpectedFields(AuthorizationResponse authResponse) {
         assertEquals("state does not match",
                 TEST_STATE, authResponse.state);
@@ -18,6 +18,7 @@ import static net.openid.appauth.TestValues.TEST_ISSUER;
 import static net.openid.appauth.TestValues.getDiscoveryDocumentJson;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -169,6 +170,19 @@ public class AuthorizationServiceDiscoveryTest {
         assertFalse(new AuthorizationServiceDiscovery(mJson).requireRequestUriRegistration());
     }
 
+    @Test
+    public void testToCompactJson() throws Exception {
+        AuthorizationServiceDiscovery compact =
+                new AuthorizationServiceDiscovery(mDiscovery.toCompactJson());
+        assertEquals(TEST_ISSUER, compact.getIssuer());
+        assertEquals(TEST_TOKEN_ENDPOINT, compact.getTokenEndpoint().toString());
+        assertEquals(TEST_USERINFO_ENDPOINT, compact.getUserinfoEndpoint().toString());
+        assertEquals(TEST_END_SESSION_ENDPOINT, compact.getEndSessionEndpoint().toString());
+        assertEquals(TEST_JWKS_URI, compact.getJwksUri().toString());
+        assertNull(compact.getScopesSupported());
+        assertNull(compact.getClaimsSupported());
+    }
+
     @Test
     public void testGetIssuer() {
         assertEquals(TEST_ISSUER, mDiscovery.getIssuer());
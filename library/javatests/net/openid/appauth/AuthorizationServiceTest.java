@@ -26,12 +26,15 @@ import androidx.annotation.Nullable;
 import androidx.browser.customtabs.CustomTabsClient;
 import androidx.browser.customtabs.CustomTabsIntent;
 import androidx.browser.customtabs.CustomTabsServiceConnection;
+import androidx.browser.customtabs.CustomTabsSession;
 
 import net.openid.appauth.AppAuthConfiguration.Builder;
 import net.openid.appauth.AuthorizationException.GeneralErrors;
 import net.openid.appauth.browser.BrowserDescriptor;
 import net.openid.appauth.browser.Browsers;
 import net.openid.appauth.browser.CustomTabManager;
+import net.openid.appauth.browser.PrefetchPolicy;
+import net.openid.appauth.browser.WarmupPolicy;
 import net.openid.appauth.connectivity.ConnectionBuilder;
 import net.openid.appauth.internal.UriUtil;
 
@@ -55,12 +58,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.util.Collections;
 import java.util.Map;
 
 import static androidx.browser.customtabs.CustomTabsIntent.EXTRA_TITLE_VISIBILITY_STATE;
 import static androidx.browser.customtabs.CustomTabsIntent.EXTRA_TOOLBAR_COLOR;
 import static net.openid.appauth.AuthorizationManagementActivity.KEY_AUTH_INTENT;
 import static net.openid.appauth.AuthorizationManagementActivity.KEY_AUTH_REQUEST;
+import static net.openid.appauth.AuthorizationManagementActivity.KEY_AUTH_REQUEST_HANDLE;
 import static net.openid.appauth.AuthorizationManagementActivity.KEY_CANCEL_INTENT;
 import static net.openid.appauth.AuthorizationManagementActivity.KEY_COMPLETE_INTENT;
 import static net.openid.appauth.TestValues.TEST_ACCESS_TOKEN;
@@ -68,6 +73,7 @@ import static net.openid.appauth.TestValues.TEST_CLIENT_ID;
 import static net.openid.appauth.TestValues.TEST_CLIENT_SECRET;
 import static net.openid.appauth.TestValues.TEST_CLIENT_SECRET_EXPIRES_AT;
 import static net.openid.appauth.TestValues.TEST_ID_TOKEN;
+import static net.openid.appauth.TestValues.TEST_ISSUER;
 import static net.openid.appauth.TestValues.TEST_NONCE;
 import static net.openid.appauth.TestValues.TEST_REFRESH_TOKEN;
 import static net.openid.appauth.TestValues.TEST_STATE;
@@ -87,7 +93,10 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.robolectric.Shadows.shadowOf;
@@ -247,8 +256,9 @@ public class AuthorizationServiceTest {
         AuthorizationRequest request = getTestAuthRequestBuilder().build();
         Intent intent = mService.getAuthorizationRequestIntent(request);
         assertThat(intent.hasExtra(KEY_AUTH_INTENT)).isTrue();
-        assertThat(intent.getStringExtra(KEY_AUTH_REQUEST))
-                .isEqualTo(request.jsonSerializeString());
+        assertThat(intent.hasExtra(KEY_AUTH_REQUEST)).isFalse();
+        assertThat(AuthorizationRequestRegistry.INSTANCE.get(
+                intent.getStringExtra(KEY_AUTH_REQUEST_HANDLE))).isSameAs(request);
     }
 
     @Test
@@ -319,6 +329,43 @@ public class AuthorizationServiceTest {
         assertTokenResponse(mAuthCallback.response, request, idToken);
     }
 
+    @Test
+    public void testTokenRequest_staleIdTokenWithoutDateHeader() throws Exception {
+        // the ID token was issued an hour ago, and the response has no Date header
+        long nowInSeconds = System.currentTimeMillis() / 1000L;
+        String idToken = IdTokenTest.getUnsignedIdToken(
+                TEST_ISSUER,
+                IdTokenTest.TEST_SUBJECT,
+                Collections.singletonList(TEST_CLIENT_ID),
+                nowInSeconds + 600L,
+                nowInSeconds - 3600L,
+                TEST_NONCE);
+        InputStream is = new ByteArrayInputStream(
+                getAuthCodeExchangeResponseJson(idToken).getBytes());
+        when(mHttpConnection.getInputStream()).thenReturn(is);
+        when(mHttpConnection.getResponseCode()).thenReturn(HttpURLConnection.HTTP_OK);
+        ServerTimeClock clock = new ServerTimeClock();
+        AuthorizationService service = new AuthorizationService(
+                mContext,
+                new Builder()
+                        .setConnectionBuilder(mConnectionBuilder)
+                        .setClock(clock)
+                        .build(),
+                mBrowserDescriptor,
+                mCustomTabManager);
+
+        service.performTokenRequest(
+                getTestAuthCodeExchangeRequestBuilder().setNonce(TEST_NONCE).build(),
+                mAuthCallback);
+        mPausedExecutorService.runAll();
+        shadowOf(getMainLooper()).idle();
+
+        // the token cannot vouch for its own freshness
+        assertNotNull(mAuthCallback.error);
+        assertEquals(GeneralErrors.ID_TOKEN_VALIDATION_ERROR.code, mAuthCallback.error.code);
+        assertNull(clock.getEstimatedOffsetMillis());
+    }
+
     @Test
     public void testTokenRequest_clientSecretBasicAuth() throws Exception {
         InputStream is = new ByteArrayInputStream(getAuthCodeExchangeResponseJson().getBytes());
@@ -480,11 +527,115 @@ public class AuthorizationServiceTest {
         mService.createCustomTabsIntentBuilder();
     }
 
+    @Test
+    public void testPrefetchAuthorizationRequest() {
+        AuthorizationService service = createServiceWithPrefetchPolicy(true);
+        AuthorizationRequest request = getTestAuthRequestBuilder().build();
+        CustomTabsSession session = mock(CustomTabsSession.class);
+
+        assertTrue(service.prefetchAuthorizationRequest(request));
+        captureSessionCallback().onSessionReady(session);
+
+        verify(mCustomTabManager).warmup(WarmupPolicy.Trigger.LOGIN_SCREEN);
+        verify(session).mayLaunchUrl(request.toUri(), null, null);
+    }
+
+    @Test
+    public void testPrefetchAuthorizationRequest_declinedByPolicy() {
+        AuthorizationService service = createServiceWithPrefetchPolicy(false);
+
+        assertThat(service.prefetchAuthorizationRequest(getTestAuthRequestBuilder().build()))
+                .isFalse();
+
+        // the login screen is still visible, so the browser may be warmed up
+        verify(mCustomTabManager).warmupAsync(WarmupPolicy.Trigger.LOGIN_SCREEN);
+        verify(mCustomTabManager, never()).createSessionAsync(
+                any(TabLaunchTracker.class),
+                any(CustomTabManager.SessionCallback.class));
+    }
+
+    @Test
+    public void testPrefetchAuthorizationRequest_reusesPrefetchedSession() {
+        AuthorizationService service = createServiceWithPrefetchPolicy(true);
+        AuthorizationRequest request = getTestAuthRequestBuilder().build();
+        CustomTabsSession session = mock(CustomTabsSession.class);
+        service.prefetchAuthorizationRequest(request);
+        captureSessionCallback().onSessionReady(session);
+
+        assertTrue(service.prefetchAuthorizationRequest(request));
+
+        verify(mCustomTabManager).createSessionAsync(
+                any(TabLaunchTracker.class),
+                any(CustomTabManager.SessionCallback.class));
+        verify(session, times(2)).mayLaunchUrl(request.toUri(), null, null);
+    }
+
+    @Test
+    public void testPrefetchAuthorizationRequest_sessionDiscardedOnDisconnect() {
+        AuthorizationService service = createServiceWithPrefetchPolicy(true);
+        AuthorizationRequest request = getTestAuthRequestBuilder().build();
+        service.prefetchAuthorizationRequest(request);
+        captureSessionCallback().onSessionReady(mock(CustomTabsSession.class));
+
+        ArgumentCaptor<CustomTabManager.DisconnectCallback> callbackCaptor =
+                ArgumentCaptor.forClass(CustomTabManager.DisconnectCallback.class);
+        verify(mCustomTabManager, atLeastOnce()).setDisconnectCallback(callbackCaptor.capture());
+        callbackCaptor.getValue().onDisconnected();
+        service.prefetchAuthorizationRequest(request);
+
+        verify(mCustomTabManager, times(2)).createSessionAsync(
+                any(TabLaunchTracker.class),
+                any(CustomTabManager.SessionCallback.class));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPrefetchAuthorizationRequest_afterDispose() {
+        mService.dispose();
+        mService.prefetchAuthorizationRequest(getTestAuthRequestBuilder().build());
+    }
+
+    @Test
+    public void testAuthorizationRequest_usesTrackedSession() {
+        mService.performAuthorizationRequest(getTestAuthRequestBuilder().build(), mPendingIntent);
+        verify(mCustomTabManager).createSessionIfConnected(any(TabLaunchTracker.class));
+    }
+
+    @Test
+    public void testAuthorizationRequest_recordsLaunch() {
+        mService.performAuthorizationRequest(getTestAuthRequestBuilder().build(), mPendingIntent);
+        verify(mCustomTabManager).recordLaunch();
+    }
+
     @Test
     public void testGetBrowserDescriptor_browserAvailable() {
         assertEquals(mService.getBrowserDescriptor(), mBrowserDescriptor);
     }
 
+    private AuthorizationService createServiceWithPrefetchPolicy(final boolean shouldPrefetch) {
+        return new AuthorizationService(
+                mContext,
+                new Builder()
+                        .setConnectionBuilder(mConnectionBuilder)
+                        .setPrefetchPolicy(new PrefetchPolicy() {
+                            @Override
+                            public boolean shouldPrefetch(Uri uri) {
+                                return shouldPrefetch;
+                            }
+                        })
+                        .build(),
+                mBrowserDescriptor,
+                mCustomTabManager);
+    }
+
+    private CustomTabManager.SessionCallback captureSessionCallback() {
+        ArgumentCaptor<CustomTabManager.SessionCallback> callbackCaptor =
+                ArgumentCaptor.forClass(CustomTabManager.SessionCallback.class);
+        verify(mCustomTabManager).createSessionAsync(
+                any(TabLaunchTracker.class),
+                callbackCaptor.capture());
+        return callbackCaptor.getValue();
+    }
+
     private Intent captureAuthRequestIntent() {
         ArgumentCaptor<Intent> intentCaptor = ArgumentCaptor.forClass(Intent.class);
         verify(mContext).startActivity(intentCaptor.capture());
@@ -98,6 +98,27 @@ public class EndSessionResponseTest {
             .isEqualTo(endSessionResponse.request.clientId);
     }
 
+    @Test
+    public void testIntentSerializeDeserialize_withoutHandle() {
+        EndSessionResponse endSessionResponse =
+            new EndSessionResponse.Builder(TEST_REQUEST)
+                .build();
+
+        Intent endSessionIntent = endSessionResponse.toIntent();
+        assertThat(EndSessionResponse.fromIntent(endSessionIntent)).isSameAs(endSessionResponse);
+
+        // as would be the case after the process was killed and the intent redelivered
+        endSessionIntent.removeExtra(
+            EndSessionResponse.EXTRA_RESPONSE + IntentResultRegistry.HANDLE_SUFFIX);
+        EndSessionResponse deserializeResponse = EndSessionResponse.fromIntent(endSessionIntent);
+
+        assertThat(deserializeResponse).isNotSameAs(endSessionResponse);
+        assertThat(deserializeResponse.request.clientId)
+            .isEqualTo(endSessionResponse.request.clientId);
+        assertThat(deserializeResponse.request.logoutUri)
+            .isEqualTo(endSessionResponse.request.logoutUri);
+    }
+
     @Test
     public void testIntent_containsEndSessionResponse_True() {
         EndSessionResponse endSessionResponse =
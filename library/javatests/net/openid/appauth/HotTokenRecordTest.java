@@ -0,0 +1,98 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.TestValues.TEST_ACCESS_TOKEN;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 16)
+public class HotTokenRecordTest {
+
+    private static final long TEST_EXPIRATION_TIME = 1000000L;
+
+    @Test
+    public void testEncodeDecode() {
+        HotTokenRecord record = new HotTokenRecord(
+                TEST_ACCESS_TOKEN,
+                TokenResponse.TOKEN_TYPE_BEARER,
+                TEST_EXPIRATION_TIME,
+                42L);
+        HotTokenRecord decoded = HotTokenRecord.decode(record.encode(), SystemClock.INSTANCE);
+        assertThat(decoded).isNotNull();
+        assertThat(decoded.accessToken).isEqualTo(TEST_ACCESS_TOKEN);
+        assertThat(decoded.tokenType).isEqualTo(TokenResponse.TOKEN_TYPE_BEARER);
+        assertThat(decoded.accessTokenExpirationTime).isEqualTo(TEST_EXPIRATION_TIME);
+        assertThat(decoded.stateVersion).isEqualTo(42L);
+    }
+
+    @Test
+    public void testEncodeDecode_withoutOptionalFields() {
+        HotTokenRecord record = new HotTokenRecord(TEST_ACCESS_TOKEN, null, null, 1L);
+        HotTokenRecord decoded = HotTokenRecord.decode(record.encode(), SystemClock.INSTANCE);
+        assertThat(decoded).isNotNull();
+        assertThat(decoded.tokenType).isNull();
+        assertThat(decoded.accessTokenExpirationTime).isNull();
+    }
+
+    @Test
+    public void testDecode_corruptRecord() {
+        ByteBuffer buffer = new HotTokenRecord(TEST_ACCESS_TOKEN, null, null, 1L).encode();
+        buffer.put(30, (byte) (buffer.get(30) ^ 0x01));
+        assertThat(HotTokenRecord.decode(buffer, SystemClock.INSTANCE)).isNull();
+    }
+
+    @Test
+    public void testDecode_truncatedRecord() {
+        ByteBuffer buffer = new HotTokenRecord(TEST_ACCESS_TOKEN, null, null, 1L).encode();
+        buffer.limit(buffer.limit() - 1);
+        assertThat(HotTokenRecord.decode(buffer, SystemClock.INSTANCE)).isNull();
+    }
+
+    @Test
+    public void testIsValidFor() {
+        TestClock clock = new TestClock(TEST_EXPIRATION_TIME - 60000L);
+        HotTokenRecord record =
+                new HotTokenRecord(TEST_ACCESS_TOKEN, null, TEST_EXPIRATION_TIME, 1L, clock);
+        assertThat(record.isValidFor(30000L)).isTrue();
+        assertThat(record.isValidFor(60000L)).isFalse();
+
+        clock.currentTime.addAndGet(30000L);
+        assertThat(record.isValidFor(30000L)).isFalse();
+    }
+
+    @Test
+    public void testIsValidFor_decodedRecordUsesProvidedClock() {
+        ByteBuffer buffer =
+                new HotTokenRecord(TEST_ACCESS_TOKEN, null, TEST_EXPIRATION_TIME, 1L).encode();
+        HotTokenRecord decoded =
+                HotTokenRecord.decode(buffer, new TestClock(TEST_EXPIRATION_TIME - 60000L));
+        assertThat(decoded).isNotNull();
+        assertThat(decoded.isValidFor(30000L)).isTrue();
+    }
+
+    @Test
+    public void testIsValidFor_unknownExpirationTime() {
+        HotTokenRecord record =
+                new HotTokenRecord(TEST_ACCESS_TOKEN, null, null, 1L, new TestClock(0L));
+        assertThat(record.isValidFor(Long.MAX_VALUE - 1)).isTrue();
+    }
+}
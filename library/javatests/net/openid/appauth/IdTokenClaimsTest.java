@@ -0,0 +1,139 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import android.util.Base64;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 16)
+public class IdTokenClaimsTest {
+
+    private IdTokenClaims mClaims;
+
+    @Before
+    public void setUp() throws Exception {
+        JSONObject claims = new JSONObject();
+        claims.put("iss", TestValues.TEST_ISSUER);
+        claims.put("sub", IdTokenTest.TEST_SUBJECT);
+        claims.put("aud", TestValues.TEST_CLIENT_ID);
+        claims.put("exp", 1600000600L);
+        claims.put("iat", 1600000000L);
+        claims.put("auth_time", 1599999000L);
+        claims.put("acr", "urn:mace:incommon:iap:silver");
+        claims.put("amr", new JSONArray(Arrays.asList("pwd", "otp")));
+        claims.put("azp", TestValues.TEST_CLIENT_ID);
+        claims.put("email_verified", true);
+        claims.put("updated_at", "1599990000");
+        claims.put("middle_name", JSONObject.NULL);
+        claims.put("address", new JSONObject()
+                .put("country", "NZ")
+                .put("postal_code", "1010"));
+
+        String token = encode("{\"alg\":\"none\"}") + "." + encode(claims.toString());
+        mClaims = IdToken.from(token).getClaims();
+    }
+
+    @Test
+    public void testStandardClaims() {
+        assertThat(mClaims.getAuthTime()).isEqualTo(1599999000L);
+        assertThat(mClaims.getAuthenticationContextClassReference())
+                .isEqualTo("urn:mace:incommon:iap:silver");
+        assertThat(mClaims.getAuthenticationMethodsReferences()).containsExactly("pwd", "otp");
+        assertThat(mClaims.getAuthorizedParty()).isEqualTo(TestValues.TEST_CLIENT_ID);
+    }
+
+    @Test
+    public void testTypedGetters() {
+        assertThat(mClaims.getString("sub")).isEqualTo(IdTokenTest.TEST_SUBJECT);
+        assertThat(mClaims.getLong("exp")).isEqualTo(1600000600L);
+        assertThat(mClaims.getLong("updated_at")).isEqualTo(1599990000L);
+        assertThat(mClaims.getBoolean("email_verified")).isTrue();
+        assertThat(mClaims.getStringList("aud")).containsExactly(TestValues.TEST_CLIENT_ID);
+    }
+
+    @Test
+    public void testTypedGetters_wrongType() {
+        assertThat(mClaims.getLong("sub")).isNull();
+        assertThat(mClaims.getString("exp")).isNull();
+        assertThat(mClaims.getBoolean("sub")).isNull();
+        assertThat(mClaims.getObject("amr")).isNull();
+        assertThat(mClaims.getStringList("address")).isNull();
+    }
+
+    @Test
+    public void testAbsentAndNullClaims() {
+        assertThat(mClaims.has("nonce")).isFalse();
+        assertThat(mClaims.getString("nonce")).isNull();
+        assertThat(mClaims.has("middle_name")).isFalse();
+        assertThat(mClaims.getString("middle_name")).isNull();
+    }
+
+    @Test
+    public void testGetObject() {
+        IdTokenClaims address = mClaims.getObject("address");
+        assertThat(address).isNotNull();
+        assertThat(address.getString("country")).isEqualTo("NZ");
+        assertThat(address.getNames()).hasSize(2).contains("country", "postal_code");
+    }
+
+    @Test
+    public void testGetObject_isCopied() throws Exception {
+        JSONObject address = new JSONObject().put("country", "NZ");
+        IdTokenClaims claims = new IdTokenClaims(new JSONObject().put("address", address));
+
+        IdTokenClaims view = claims.getObject("address");
+        address.put("country", "AU");
+
+        assertThat(view.getString("country")).isEqualTo("NZ");
+    }
+
+    @Test
+    public void testGetNames() {
+        assertThat(mClaims.getNames()).contains("iss", "sub", "aud", "acr", "address");
+    }
+
+    @Test
+    public void testGetClaims_withoutRawClaims() {
+        IdToken idToken = new IdToken(
+                TestValues.TEST_ISSUER,
+                IdTokenTest.TEST_SUBJECT,
+                Arrays.asList(TestValues.TEST_CLIENT_ID),
+                1600000600L,
+                1600000000L,
+                null);
+        IdTokenClaims claims = idToken.getClaims();
+        assertThat(claims.getString("iss")).isEqualTo(TestValues.TEST_ISSUER);
+        assertThat(claims.getLong("iat")).isEqualTo(1600000000L);
+        assertThat(claims.has("nonce")).isFalse();
+        assertThat(idToken.getClaims()).isSameAs(claims);
+    }
+
+    private static String encode(String value) {
+        return Base64.encodeToString(value.getBytes(),
+                Base64.URL_SAFE | Base64.NO_WRAP | Base64.NO_PADDING);
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.TestValues.TEST_CLIENT_ID;
+import static net.openid.appauth.TestValues.TEST_ISSUER;
+import static net.openid.appauth.TestValues.TEST_NONCE;
+import static net.openid.appauth.TestValues.getTestAuthCodeExchangeRequestBuilder;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import android.net.Uri;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 16)
+public class IdTokenValidationCacheTest {
+
+    private IdTokenValidationCache mCache;
+    private TestClock mClock;
+    private TokenRequest mRequest;
+
+    @Before
+    public void setUp() {
+        mCache = new IdTokenValidationCache(2);
+        mClock = new TestClock(System.currentTimeMillis());
+        mRequest = getTestAuthCodeExchangeRequestBuilder()
+                .setNonce(TEST_NONCE)
+                .build();
+    }
+
+    @Test
+    public void testValidate_cachesValidToken() throws Exception {
+        String idToken = createIdToken("subject", TEST_NONCE);
+
+        IdToken first = validate(idToken, mRequest, false);
+        IdToken second = validate(idToken, mRequest, false);
+
+        assertThat(first.subject).isEqualTo("subject");
+        assertThat(second).isSameAs(first);
+        assertThat(mCache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testValidate_differentParametersAreRevalidated() throws Exception {
+        String idToken = createIdToken("subject", TEST_NONCE);
+        validate(idToken, mRequest, false);
+
+        TokenRequest otherNonceRequest = getTestAuthCodeExchangeRequestBuilder()
+                .setNonce("other_nonce")
+                .build();
+        try {
+            validate(idToken, otherNonceRequest, false);
+            fail("Expected nonce mismatch");
+        } catch (AuthorizationException ex) {
+            assertThat(ex.code)
+                    .isEqualTo(AuthorizationException.GeneralErrors.ID_TOKEN_VALIDATION_ERROR.code);
+        }
+
+        // the same token, without nonce verification, is a distinct entry
+        validate(idToken, otherNonceRequest, true);
+        assertThat(mCache.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void testValidate_failuresAreNotCached() {
+        String idToken = createIdToken("subject", "other_nonce");
+        try {
+            validate(idToken, mRequest, false);
+            fail("Expected nonce mismatch");
+        } catch (AuthorizationException ex) {
+            assertThat(mCache.size()).isEqualTo(0);
+        }
+    }
+
+    @Test
+    public void testValidate_timeChecksAlwaysApplied() throws Exception {
+        String idToken = createIdToken("subject", TEST_NONCE);
+        validate(idToken, mRequest, false);
+
+        mClock.currentTime.addAndGet(TimeUnit.HOURS.toMillis(1));
+        try {
+            validate(idToken, mRequest, false);
+            fail("Expected expired token");
+        } catch (AuthorizationException ex) {
+            assertThat(ex.getCause().getMessage()).isEqualTo("ID Token expired");
+        }
+
+        // the entry is discarded once the token has expired
+        assertThat(mCache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testValidate_evictsLeastRecentlyUsed() throws Exception {
+        String token1 = createIdToken("subject1", TEST_NONCE);
+        String token2 = createIdToken("subject2", TEST_NONCE);
+        String token3 = createIdToken("subject3", TEST_NONCE);
+
+        IdToken first = validate(token1, mRequest, false);
+        validate(token2, mRequest, false);
+        assertThat(validate(token1, mRequest, false)).isSameAs(first);
+        IdToken third = validate(token3, mRequest, false);
+
+        assertThat(mCache.size()).isEqualTo(2);
+        assertThat(validate(token1, mRequest, false)).isSameAs(first);
+        assertThat(validate(token3, mRequest, false)).isSameAs(third);
+    }
+
+    @Test
+    public void testValidate_unparseableToken() {
+        try {
+            validate("not.a-token", mRequest, false);
+            fail("Expected parsing error");
+        } catch (AuthorizationException ex) {
+            assertThat(ex.code)
+                    .isEqualTo(AuthorizationException.GeneralErrors.ID_TOKEN_PARSING_ERROR.code);
+        }
+    }
+
+    @Test
+    public void testValidateClaims_timeChecksDeferred() throws Exception {
+        // the device clock is an hour ahead of the server which issued the token
+        ServerTimeClock clock = new ServerTimeClock(
+                new TestClock(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)),
+                new TestClock(5000L));
+        IdToken token = mCache.validateClaims(
+                createIdToken("subject", TEST_NONCE), mRequest, clock, false, false, null);
+
+        try {
+            token.validateTimes(clock);
+            fail("Expected expired token");
+        } catch (AuthorizationException ex) {
+            assertThat(ex.getCause().getMessage()).isEqualTo("ID Token expired");
+        }
+
+        // once the server date is recorded from a response, the clock follows the server
+        clock.recordServerDate(System.currentTimeMillis(), 5000L, 5000L);
+        token.validateTimes(clock);
+    }
+
+    @Test
+    public void testGetIssuerChecks_computedOncePerConfiguration() {
+        AuthorizationServiceConfiguration config = TestValues.getTestServiceConfig();
+        IdToken.IssuerChecks checks = config.getIssuerChecks();
+        assertThat(checks).isNotNull();
+        assertThat(checks.expectedIssuer).isEqualTo(TEST_ISSUER);
+        assertThat(config.getIssuerChecks()).isSameAs(checks);
+    }
+
+    @Test
+    public void testGetIssuerChecks_noDiscoveryDocument() {
+        AuthorizationServiceConfiguration config = new AuthorizationServiceConfiguration(
+                Uri.parse("https://idp.example.com/auth"),
+                Uri.parse("https://idp.example.com/token"));
+        assertThat(config.getIssuerChecks()).isNull();
+    }
+
+    /**
+     * Validates the token as the token request task does, performing the time-independent
+     * checks through the cache, then the checks against the current time.
+     */
+    private IdToken validate(String idToken, TokenRequest request, boolean skipNonceVerification)
+            throws AuthorizationException {
+        IdToken token = mCache.validateClaims(
+                idToken, request, mClock, false, skipNonceVerification, null);
+        token.validateTimes(mClock);
+        return token;
+    }
+
+    private static String createIdToken(String subject, String nonce) {
+        return IdTokenTest.getUnsignedIdToken(TEST_ISSUER, subject, TEST_CLIENT_ID, nonce);
+    }
+}
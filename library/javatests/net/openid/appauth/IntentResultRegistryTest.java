@@ -0,0 +1,128 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.TestValues.getTestAuthRequest;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import android.content.Intent;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 16)
+public class IntentResultRegistryTest {
+
+    private static final String EXTRA_KEY = "result";
+
+    private IntentResultRegistry mRegistry;
+
+    @Before
+    public void setUp() {
+        mRegistry = new IntentResultRegistry(2);
+    }
+
+    @Test
+    public void testPutHandle_resolvesResult() {
+        AuthorizationResponse response = createResponse();
+        Intent data = new Intent();
+        mRegistry.putHandle(data, EXTRA_KEY, response);
+
+        assertThat(data.hasExtra(EXTRA_KEY + IntentResultRegistry.HANDLE_SUFFIX)).isTrue();
+        assertThat(mRegistry.get(data, EXTRA_KEY, AuthorizationResponse.class))
+                .isSameAs(response);
+    }
+
+    @Test
+    public void testGet_noHandle() {
+        assertThat(mRegistry.get(new Intent(), EXTRA_KEY, AuthorizationResponse.class))
+                .isNull();
+    }
+
+    @Test
+    public void testGet_wrongType() {
+        Intent data = new Intent();
+        mRegistry.putHandle(data, EXTRA_KEY, createResponse());
+
+        assertThat(mRegistry.get(data, EXTRA_KEY, AuthorizationException.class)).isNull();
+    }
+
+    @Test
+    public void testGet_handleFromOtherRegistry() {
+        Intent data = new Intent();
+        mRegistry.putHandle(data, EXTRA_KEY, createResponse());
+
+        // as would be the case in a new process, after the intent was redelivered
+        IntentResultRegistry other = new IntentResultRegistry(2);
+        other.putHandle(new Intent(), EXTRA_KEY, createResponse());
+        assertThat(other.get(data, EXTRA_KEY, AuthorizationResponse.class)).isNull();
+    }
+
+    @Test
+    public void testPutHandle_evictsLeastRecentlyUsed() {
+        Intent first = new Intent();
+        Intent second = new Intent();
+        Intent third = new Intent();
+        mRegistry.putHandle(first, EXTRA_KEY, createResponse());
+        mRegistry.putHandle(second, EXTRA_KEY, createResponse());
+        mRegistry.get(first, EXTRA_KEY, AuthorizationResponse.class);
+        mRegistry.putHandle(third, EXTRA_KEY, createResponse());
+
+        assertThat(mRegistry.size()).isEqualTo(2);
+        assertThat(mRegistry.get(first, EXTRA_KEY, AuthorizationResponse.class)).isNotNull();
+        assertThat(mRegistry.get(second, EXTRA_KEY, AuthorizationResponse.class)).isNull();
+        assertThat(mRegistry.get(third, EXTRA_KEY, AuthorizationResponse.class)).isNotNull();
+    }
+
+    @Test
+    public void testClear() {
+        Intent data = new Intent();
+        mRegistry.putHandle(data, EXTRA_KEY, createResponse());
+        mRegistry.clear();
+
+        assertThat(mRegistry.size()).isEqualTo(0);
+        assertThat(mRegistry.get(data, EXTRA_KEY, AuthorizationResponse.class)).isNull();
+    }
+
+    @Test
+    public void testAuthorizationException_roundTrip() {
+        RuntimeException cause = new RuntimeException("cause");
+        AuthorizationException ex = AuthorizationException.fromTemplate(
+                AuthorizationException.GeneralErrors.NETWORK_ERROR,
+                cause);
+        Intent data = ex.toIntent();
+
+        assertThat(AuthorizationException.fromIntent(data)).isSameAs(ex);
+
+        // without the handle, the exception is read from its JSON form, without the cause
+        data.removeExtra(AuthorizationException.EXTRA_EXCEPTION
+                + IntentResultRegistry.HANDLE_SUFFIX);
+        AuthorizationException parsed = AuthorizationException.fromIntent(data);
+        assertThat(parsed).isNotSameAs(ex);
+        assertThat(parsed).isEqualTo(ex);
+        assertThat(parsed.getCause()).isNull();
+    }
+
+    private static AuthorizationResponse createResponse() {
+        return new AuthorizationResponse.Builder(getTestAuthRequest())
+                .setState(TestValues.TEST_STATE)
+                .setAuthorizationCode(TestValues.TEST_AUTH_CODE)
+                .build();
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.TestValues.TEST_APP_REDIRECT_URI;
+import static net.openid.appauth.TestValues.TEST_CLIENT_ID;
+import static net.openid.appauth.TestValues.TEST_ISSUER;
+import static net.openid.appauth.TestValues.getTestAuthRequest;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import android.content.Intent;
+import android.os.Parcel;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Measures the cost of marshalling an authorization response into an intent and parcel, as
+ * {@link AuthorizationManagementActivity} does when delivering the result of a flow, and of
+ * unmarshalling it with {@link AuthorizationResponse#fromIntent(Intent)} in the same process
+ * (resolving the handle) and in another process (parsing the JSON form). Typical and large
+ * requests are measured; the large request carries a discovery document with hundreds of
+ * supported claims and scopes, and many additional parameters. Results are reported on standard
+ * output; only the equivalence of the unmarshalled responses is asserted, as timings vary
+ * between machines. The marshalled intent still carries the full JSON form, so only the
+ * unmarshalling cost differs between the two paths; the marshalling cost and parcel size are
+ * reported for reference.
+ *
+ * The benchmark is not part of the unit test run; run it with
+ * `./gradlew :library:testForTestsUnitTest -Pbenchmarks --tests '*IntentResultTransportBenchmark'`.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 16)
+public class IntentResultTransportBenchmark {
+
+    private static final int LARGE_LIST_SIZE = 300;
+    private static final int LARGE_PARAMETER_COUNT = 50;
+    private static final int WARMUP_ITERATIONS = 200;
+    private static final int MEASURED_ITERATIONS = 1000;
+
+    @Before
+    public void setUp() {
+        assumeTrue("benchmarks are only run with -Pbenchmarks",
+                Boolean.getBoolean("appauth.benchmarks"));
+    }
+
+    @Test
+    public void benchmarkResultTransport() throws Exception {
+        report("typical", createResponse(getTestAuthRequest()));
+        report("large", createResponse(createLargeRequest()));
+    }
+
+    private static void report(String name, AuthorizationResponse response) {
+        Intent sameProcess = unmarshal(marshal(response));
+        Intent otherProcess = withoutHandle(sameProcess);
+        checkEquivalent(AuthorizationResponse.fromIntent(sameProcess), response);
+        checkEquivalent(AuthorizationResponse.fromIntent(otherProcess), response);
+
+        byte[] parcel = marshal(response);
+        long marshalNanos = measureMarshal(response);
+        long handleNanos = measureUnmarshal(parcel, false);
+        long jsonNanos = measureUnmarshal(parcel, true);
+
+        System.out.println(String.format(Locale.US,
+                "%-7s response, %6d byte parcel: marshal %7.1f us/op, "
+                        + "unmarshal via handle %7.1f us/op, via JSON %7.1f us/op (%.1fx)",
+                name,
+                parcel.length,
+                marshalNanos / 1000.0,
+                handleNanos / 1000.0,
+                jsonNanos / 1000.0,
+                (double) jsonNanos / handleNanos));
+    }
+
+    private static long measureMarshal(AuthorizationResponse response) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            marshal(response);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            marshal(response);
+        }
+        return (System.nanoTime() - start) / MEASURED_ITERATIONS;
+    }
+
+    private static long measureUnmarshal(byte[] parcel, boolean withoutHandle) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            unmarshalResponse(parcel, withoutHandle);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            unmarshalResponse(parcel, withoutHandle);
+        }
+        return (System.nanoTime() - start) / MEASURED_ITERATIONS;
+    }
+
+    private static AuthorizationResponse unmarshalResponse(byte[] parcel, boolean withoutHandle) {
+        Intent intent = unmarshal(parcel);
+        return AuthorizationResponse.fromIntent(withoutHandle ? withoutHandle(intent) : intent);
+    }
+
+    private static byte[] marshal(AuthorizationResponse response) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            response.toIntent().writeToParcel(parcel, 0);
+            return parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static Intent unmarshal(byte[] bytes) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.unmarshall(bytes, 0, bytes.length);
+            parcel.setDataPosition(0);
+            return Intent.CREATOR.createFromParcel(parcel);
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static Intent withoutHandle(Intent intent) {
+        Intent copy = new Intent(intent);
+        copy.removeExtra(AuthorizationResponse.EXTRA_RESPONSE
+                + IntentResultRegistry.HANDLE_SUFFIX);
+        return copy;
+    }
+
+    private static void checkEquivalent(
+            AuthorizationResponse actual,
+            AuthorizationResponse expected) {
+        assertThat(actual.state).isEqualTo(expected.state);
+        assertThat(actual.authorizationCode).isEqualTo(expected.authorizationCode);
+        assertThat(actual.additionalParameters).isEqualTo(expected.additionalParameters);
+        assertThat(actual.request.getState()).isEqualTo(expected.request.getState());
+        assertThat(actual.request.additionalParameters)
+                .isEqualTo(expected.request.additionalParameters);
+        assertThat(actual.request.configuration.toJsonString())
+                .isEqualTo(expected.request.configuration.toJsonString());
+    }
+
+    private static AuthorizationResponse createResponse(AuthorizationRequest request) {
+        Map<String, String> additionalParameters = new HashMap<>();
+        if (!request.additionalParameters.isEmpty()) {
+            for (int i = 0; i < LARGE_PARAMETER_COUNT; i++) {
+                additionalParameters.put("response_param_" + i, "value_" + i);
+            }
+        }
+
+        return new AuthorizationResponse.Builder(request)
+                .setState(request.getState())
+                .setAuthorizationCode(TestValues.TEST_AUTH_CODE)
+                .setAdditionalParameters(additionalParameters)
+                .build();
+    }
+
+    private static AuthorizationRequest createLargeRequest() throws Exception {
+        List<String> claims = new ArrayList<>();
+        List<String> scopes = new ArrayList<>();
+        for (int i = 0; i < LARGE_LIST_SIZE; i++) {
+            claims.add(String.format(Locale.US, "https://claims.example.com/claim_%04d", i));
+            scopes.add(String.format(Locale.US, "https://api.example.com/scope_%04d.read", i));
+        }
+
+        String discoveryJson = TestValues.getDiscoveryDocumentJson(
+                TEST_ISSUER,
+                TEST_ISSUER + "/authorize",
+                TEST_ISSUER + "/token",
+                TEST_ISSUER + "/userinfo",
+                TEST_ISSUER + "/register",
+                TEST_ISSUER + "/logout",
+                TEST_ISSUER + "/jwks",
+                Arrays.asList("code", "id_token", "code id_token"),
+                Arrays.asList("public", "pairwise"),
+                Arrays.asList("RS256", "ES256", "PS256"),
+                scopes,
+                Arrays.asList("client_secret_basic", "client_secret_post", "private_key_jwt"),
+                claims);
+        AuthorizationServiceConfiguration configuration = new AuthorizationServiceConfiguration(
+                new AuthorizationServiceDiscovery(new JSONObject(discoveryJson)));
+
+        Map<String, String> additionalParameters = new HashMap<>();
+        for (int i = 0; i < LARGE_PARAMETER_COUNT; i++) {
+            additionalParameters.put("request_param_" + i, "value_" + i);
+        }
+
+        return new AuthorizationRequest.Builder(
+                configuration,
+                TEST_CLIENT_ID,
+                ResponseTypeValues.CODE,
+                TEST_APP_REDIRECT_URI)
+                .setScopes(scopes.subList(0, 20))
+                .setAdditionalParameters(additionalParameters)
+                .build();
+    }
+}
@@ -0,0 +1,385 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.TestValues.TEST_APP_REDIRECT_URI;
+import static net.openid.appauth.TestValues.TEST_AUTH_CODE;
+import static net.openid.appauth.TestValues.TEST_CLIENT_ID;
+import static net.openid.appauth.TestValues.TEST_CODE_VERIFIER;
+import static net.openid.appauth.TestValues.TEST_ISSUER;
+import static net.openid.appauth.TestValues.getDiscoveryDocumentJson;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Base64;
+import androidx.annotation.NonNull;
+import androidx.test.core.app.ApplicationProvider;
+
+import net.openid.appauth.connectivity.ConnectionBuilder;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 16)
+public class JwksKeyStoreTest {
+
+    private static final String TEST_JWKS_URI = "https://test.issuer/jwks";
+    private static final String TEST_KEY_ID = "key1";
+    private static final String TEST_OTHER_KEY_ID = "key2";
+    private static final int BASE64_URL_FLAGS =
+            Base64.URL_SAFE | Base64.NO_WRAP | Base64.NO_PADDING;
+
+    private File mDirectory;
+    private TestClock mClock;
+    private FakeJwksConnectionBuilder mConnectionBuilder;
+    private KeyPair mRsaKeyPair;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = ApplicationProvider.getApplicationContext();
+        mDirectory = new File(context.getCacheDir(), JwksKeyStore.CACHE_DIRECTORY);
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+
+        mClock = new TestClock(System.currentTimeMillis());
+        mRsaKeyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        mConnectionBuilder = new FakeJwksConnectionBuilder();
+        mConnectionBuilder.mJwks = createJwks(createRsaJwk(TEST_KEY_ID, mRsaKeyPair));
+    }
+
+    @Test
+    public void testGetKey() throws Exception {
+        JwksKeyStore keyStore = createKeyStore();
+        assertThat(keyStore.getKey(Uri.parse(TEST_JWKS_URI), TEST_KEY_ID, JwsAlgorithms.RS256))
+                .isEqualTo(mRsaKeyPair.getPublic());
+        assertThat(keyStore.getKey(Uri.parse(TEST_JWKS_URI), TEST_KEY_ID, JwsAlgorithms.ES256))
+                .isNull();
+    }
+
+    @Test
+    public void testGetKey_withoutKeyId() throws Exception {
+        JwksKeyStore keyStore = createKeyStore();
+        assertThat(keyStore.getKey(Uri.parse(TEST_JWKS_URI), null, JwsAlgorithms.RS256))
+                .isEqualTo(mRsaKeyPair.getPublic());
+    }
+
+    @Test
+    public void testGetKey_cachedForMaxAge() throws Exception {
+        mConnectionBuilder.mCacheControl = "public, max-age=600";
+        JwksKeyStore keyStore = createKeyStore();
+        for (int i = 0; i < 5; i++) {
+            keyStore.getKey(Uri.parse(TEST_JWKS_URI), TEST_KEY_ID, JwsAlgorithms.RS256);
+        }
+        assertThat(keyStore.getFetchCount()).isEqualTo(1);
+
+        mClock.currentTime.addAndGet(TimeUnit.SECONDS.toMillis(601));
+        keyStore.getKey(Uri.parse(TEST_JWKS_URI), TEST_KEY_ID, JwsAlgorithms.RS256);
+        assertThat(keyStore.getFetchCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testGetKey_persistedAcrossInstances() throws Exception {
+        createKeyStore().getKey(Uri.parse(TEST_JWKS_URI), TEST_KEY_ID, JwsAlgorithms.RS256);
+
+        JwksKeyStore restored = createKeyStore();
+        assertThat(restored.getKey(Uri.parse(TEST_JWKS_URI), TEST_KEY_ID, JwsAlgorithms.RS256))
+                .isEqualTo(mRsaKeyPair.getPublic());
+        assertThat(restored.getFetchCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testGetKey_unknownKeyIdRefetchIsRateLimited() throws Exception {
+        JwksKeyStore keyStore = createKeyStore();
+        keyStore.getKey(Uri.parse(TEST_JWKS_URI), TEST_KEY_ID, JwsAlgorithms.RS256);
+
+        // the server rotates its key
+        KeyPair rotated = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        mConnectionBuilder.mJwks = createJwks(createRsaJwk(TEST_OTHER_KEY_ID, rotated));
+
+        // within the refetch interval of the initial fetch, the unknown key is not fetched
+        assertThat(keyStore.getKey(Uri.parse(TEST_JWKS_URI), TEST_OTHER_KEY_ID,
+                JwsAlgorithms.RS256)).isNull();
+        assertThat(keyStore.getFetchCount()).isEqualTo(1);
+
+        mClock.currentTime.addAndGet(JwksKeyStore.MIN_REFETCH_INTERVAL_MS);
+        assertThat(keyStore.getKey(Uri.parse(TEST_JWKS_URI), TEST_OTHER_KEY_ID,
+                JwsAlgorithms.RS256)).isEqualTo(rotated.getPublic());
+        assertThat(keyStore.getFetchCount()).isEqualTo(2);
+
+        // a key which the server does not publish triggers at most one fetch per interval
+        mClock.currentTime.addAndGet(JwksKeyStore.MIN_REFETCH_INTERVAL_MS);
+        for (int i = 0; i < 5; i++) {
+            assertThat(keyStore.getKey(Uri.parse(TEST_JWKS_URI), "unknown",
+                    JwsAlgorithms.RS256)).isNull();
+        }
+        assertThat(keyStore.getFetchCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void testParseMaxAge() {
+        assertThat(JwksKeyStore.parseMaxAge(null)).isEqualTo(JwksKeyStore.DEFAULT_MAX_AGE_MS);
+        assertThat(JwksKeyStore.parseMaxAge("public, max-age=120"))
+                .isEqualTo(TimeUnit.SECONDS.toMillis(120));
+        assertThat(JwksKeyStore.parseMaxAge("no-store")).isEqualTo(0L);
+        assertThat(JwksKeyStore.parseMaxAge("max-age=99999999"))
+                .isEqualTo(JwksKeyStore.MAX_MAX_AGE_MS);
+        assertThat(JwksKeyStore.parseMaxAge("max-age=invalid"))
+                .isEqualTo(JwksKeyStore.DEFAULT_MAX_AGE_MS);
+    }
+
+    @Test
+    public void testValidateIdToken_rs256() throws Exception {
+        String token = createSignedIdToken(JwsAlgorithms.RS256, TEST_KEY_ID,
+                mRsaKeyPair.getPrivate(), "SHA256withRSA");
+        IdToken.from(token).validate(createTokenRequest(), mClock, false, false, createKeyStore());
+    }
+
+    @Test
+    public void testValidateIdToken_es256() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair ecKeyPair = generator.generateKeyPair();
+        mConnectionBuilder.mJwks = createJwks(
+                createRsaJwk(TEST_KEY_ID, mRsaKeyPair),
+                createEcJwk(TEST_OTHER_KEY_ID, ecKeyPair));
+
+        String token = createSignedIdToken(JwsAlgorithms.ES256, TEST_OTHER_KEY_ID,
+                ecKeyPair.getPrivate(), "SHA256withECDSA");
+        IdToken.from(token).validate(createTokenRequest(), mClock, false, false, createKeyStore());
+    }
+
+    @Test
+    public void testValidateIdToken_ps256() throws Exception {
+        // RSASSA-PSS is only provided by the platform from API 23 onwards
+        if (JwsAlgorithms.isSupported(JwsAlgorithms.PS256)) {
+            String token = createSignedIdToken(JwsAlgorithms.PS256, TEST_KEY_ID,
+                    mRsaKeyPair.getPrivate(), "SHA256withRSA/PSS");
+            IdToken.from(token)
+                    .validate(createTokenRequest(), mClock, false, false, createKeyStore());
+            return;
+        }
+
+        String token = createSignedIdToken(JwsAlgorithms.PS256, TEST_KEY_ID,
+                mRsaKeyPair.getPrivate(), "SHA256withRSA");
+        try {
+            IdToken.from(token)
+                    .validate(createTokenRequest(), mClock, false, false, createKeyStore());
+            fail("Expected PS256 to be rejected as unsupported");
+        } catch (AuthorizationException ex) {
+            assertThat(ex.code)
+                    .isEqualTo(AuthorizationException.GeneralErrors.ID_TOKEN_VALIDATION_ERROR.code);
+            assertThat(ex.getCause()).hasMessageContaining("Unsupported");
+        }
+        assertThat(mConnectionBuilder.mConnectionCount).isEqualTo(0);
+    }
+
+    @Test(expected = AuthorizationException.class)
+    public void testValidateIdToken_invalidSignature() throws Exception {
+        KeyPair otherKeyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        String token = createSignedIdToken(JwsAlgorithms.RS256, TEST_KEY_ID,
+                otherKeyPair.getPrivate(), "SHA256withRSA");
+        IdToken.from(token).validate(createTokenRequest(), mClock, false, false, createKeyStore());
+    }
+
+    @Test(expected = AuthorizationException.class)
+    public void testValidateIdToken_unsigned() throws Exception {
+        String token = IdTokenTest.getUnsignedIdToken(
+                TEST_ISSUER, IdTokenTest.TEST_SUBJECT, TEST_CLIENT_ID, null);
+        IdToken.from(token).validate(createTokenRequest(), mClock, false, false, createKeyStore());
+    }
+
+    @Test
+    public void testValidateIdToken_withoutKeyStore() throws Exception {
+        String token = IdTokenTest.getUnsignedIdToken(
+                TEST_ISSUER, IdTokenTest.TEST_SUBJECT, TEST_CLIENT_ID, null);
+        IdToken.from(token).validate(createTokenRequest(), mClock, false, false, null);
+        assertThat(mConnectionBuilder.mConnectionCount).isEqualTo(0);
+    }
+
+    private JwksKeyStore createKeyStore() {
+        return new JwksKeyStore(mDirectory, mConnectionBuilder, mClock);
+    }
+
+    private TokenRequest createTokenRequest() throws Exception {
+        AuthorizationServiceDiscovery discoveryDoc = new AuthorizationServiceDiscovery(
+                new JSONObject(getDiscoveryDocumentJson(
+                        TEST_ISSUER,
+                        AuthorizationServiceDiscoveryTest.TEST_AUTHORIZATION_ENDPOINT,
+                        AuthorizationServiceDiscoveryTest.TEST_TOKEN_ENDPOINT,
+                        AuthorizationServiceDiscoveryTest.TEST_USERINFO_ENDPOINT,
+                        AuthorizationServiceDiscoveryTest.TEST_REGISTRATION_ENDPOINT,
+                        AuthorizationServiceDiscoveryTest.TEST_END_SESSION_ENDPOINT,
+                        TEST_JWKS_URI,
+                        AuthorizationServiceDiscoveryTest.TEST_RESPONSE_TYPES_SUPPORTED,
+                        AuthorizationServiceDiscoveryTest.TEST_SUBJECT_TYPES_SUPPORTED,
+                        AuthorizationServiceDiscoveryTest.TEST_ID_TOKEN_SIGNING_ALG_VALUES,
+                        AuthorizationServiceDiscoveryTest.TEST_SCOPES_SUPPORTED,
+                        AuthorizationServiceDiscoveryTest.TEST_TOKEN_ENDPOINT_AUTH_METHODS,
+                        AuthorizationServiceDiscoveryTest.TEST_CLAIMS_SUPPORTED)));
+        return new TokenRequest.Builder(
+                new AuthorizationServiceConfiguration(discoveryDoc), TEST_CLIENT_ID)
+                .setAuthorizationCode(TEST_AUTH_CODE)
+                .setCodeVerifier(TEST_CODE_VERIFIER)
+                .setGrantType(GrantTypeValues.AUTHORIZATION_CODE)
+                .setRedirectUri(TEST_APP_REDIRECT_URI)
+                .build();
+    }
+
+    private String createSignedIdToken(
+            String algorithm,
+            String keyId,
+            PrivateKey privateKey,
+            String signatureAlgorithm) throws Exception {
+        String unsignedToken = IdTokenTest.getUnsignedIdToken(
+                TEST_ISSUER, IdTokenTest.TEST_SUBJECT, TEST_CLIENT_ID, null);
+        String claims = unsignedToken.substring(unsignedToken.indexOf('.') + 1);
+
+        JSONObject header = new JSONObject();
+        header.put("alg", algorithm);
+        header.put("kid", keyId);
+        String signingInput = encode(header.toString().getBytes("UTF-8")) + "." + claims;
+
+        Signature signer = Signature.getInstance(signatureAlgorithm);
+        signer.initSign(privateKey);
+        signer.update(signingInput.getBytes("US-ASCII"));
+        byte[] signature = signer.sign();
+        if (JwsAlgorithms.ES256.equals(algorithm)) {
+            signature = derToConcatenated(signature);
+        }
+        return signingInput + "." + encode(signature);
+    }
+
+    private static byte[] derToConcatenated(byte[] der) {
+        // SEQUENCE { INTEGER r, INTEGER s }, with short form lengths for P-256
+        int rLength = der[3];
+        BigInteger r = new BigInteger(1, Arrays.copyOfRange(der, 4, 4 + rLength));
+        int sOffset = 4 + rLength + 2;
+        BigInteger s = new BigInteger(1, Arrays.copyOfRange(der, sOffset, sOffset + der[sOffset - 1]));
+        byte[] result = new byte[64];
+        copyUnsigned(r, result, 0);
+        copyUnsigned(s, result, 32);
+        return result;
+    }
+
+    private static void copyUnsigned(BigInteger value, byte[] dest, int offset) {
+        byte[] bytes = value.toByteArray();
+        int start = bytes.length > 32 ? bytes.length - 32 : 0;
+        int length = bytes.length - start;
+        System.arraycopy(bytes, start, dest, offset + 32 - length, length);
+    }
+
+    private static JSONObject createRsaJwk(String keyId, KeyPair keyPair) throws Exception {
+        RSAPublicKey key = (RSAPublicKey) keyPair.getPublic();
+        JSONObject jwk = new JSONObject();
+        jwk.put("kty", "RSA");
+        jwk.put("kid", keyId);
+        jwk.put("use", "sig");
+        jwk.put("n", encode(key.getModulus().toByteArray()));
+        jwk.put("e", encode(key.getPublicExponent().toByteArray()));
+        return jwk;
+    }
+
+    private static JSONObject createEcJwk(String keyId, KeyPair keyPair) throws Exception {
+        ECPublicKey key = (ECPublicKey) keyPair.getPublic();
+        JSONObject jwk = new JSONObject();
+        jwk.put("kty", "EC");
+        jwk.put("kid", keyId);
+        jwk.put("crv", "P-256");
+        jwk.put("x", encode(key.getW().getAffineX().toByteArray()));
+        jwk.put("y", encode(key.getW().getAffineY().toByteArray()));
+        return jwk;
+    }
+
+    private static String createJwks(JSONObject... keys) throws Exception {
+        JSONObject jwks = new JSONObject();
+        jwks.put("keys", new JSONArray(Arrays.asList(keys)));
+        return jwks.toString();
+    }
+
+    private static String encode(byte[] data) {
+        return Base64.encodeToString(data, BASE64_URL_FLAGS);
+    }
+
+    private static final class FakeJwksConnectionBuilder implements ConnectionBuilder {
+        String mJwks;
+        String mCacheControl;
+        int mConnectionCount;
+
+        @NonNull
+        @Override
+        public HttpURLConnection openConnection(@NonNull Uri uri) throws IOException {
+            mConnectionCount++;
+            final String body = mJwks;
+            final String cacheControl = mCacheControl;
+            return new HttpURLConnection(new URL(uri.toString())) {
+                @Override
+                public void connect() {
+                }
+
+                @Override
+                public void disconnect() {
+                }
+
+                @Override
+                public boolean usingProxy() {
+                    return false;
+                }
+
+                @Override
+                public int getResponseCode() {
+                    return HTTP_OK;
+                }
+
+                @Override
+                public String getHeaderField(String name) {
+                    return "Cache-Control".equals(name) ? cacheControl : null;
+                }
+
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    return new ByteArrayInputStream(body.getBytes("UTF-8"));
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.TestValues.TEST_CLIENT_ID;
+import static net.openid.appauth.TestValues.TEST_ISSUER;
+import static net.openid.appauth.TestValues.TEST_NONCE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import android.util.Base64;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Compares the time taken to parse ID tokens of 1-16 KB with {@link IdToken#from(String)} and
+ * with the previous implementation, which split the token with a regular expression and parsed
+ * each section into a {@link JSONObject}. Results are reported on standard output; only the
+ * equivalence of the parsed tokens is asserted, as timings vary between machines.
+ *
+ * The benchmark is not part of the unit test run; run it with
+ * `./gradlew :library:testForTestsUnitTest -Pbenchmarks --tests '*JwtParserBenchmark'`.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 16)
+public class JwtParserBenchmark {
+
+    private static final int[] TOKEN_SIZES_KB = { 1, 2, 4, 8, 16 };
+    private static final int WARMUP_ITERATIONS = 200;
+    private static final int MEASURED_ITERATIONS = 1000;
+
+    @Before
+    public void setUp() {
+        assumeTrue("benchmarks are only run with -Pbenchmarks",
+                Boolean.getBoolean("appauth.benchmarks"));
+    }
+
+    @Test
+    public void benchmarkIdTokenParsing() throws Exception {
+        for (int sizeKb : TOKEN_SIZES_KB) {
+            String token = createToken(sizeKb * 1024);
+
+            IdToken expected = parseLegacy(token);
+            IdToken actual = IdToken.from(token);
+            assertThat(actual.issuer).isEqualTo(expected.issuer);
+            assertThat(actual.subject).isEqualTo(expected.subject);
+            assertThat(actual.audience).isEqualTo(expected.audience);
+            assertThat(actual.expiration).isEqualTo(expected.expiration);
+            assertThat(actual.issuedAt).isEqualTo(expected.issuedAt);
+            assertThat(actual.nonce).isEqualTo(expected.nonce);
+
+            long legacyNanos = measure(token, true);
+            long streamingNanos = measure(token, false);
+            System.out.println(String.format(Locale.US,
+                    "ID token %2d KB: legacy %7.1f us/op, streaming %7.1f us/op (%.1fx)",
+                    sizeKb,
+                    legacyNanos / 1000.0,
+                    streamingNanos / 1000.0,
+                    (double) legacyNanos / streamingNanos));
+        }
+    }
+
+    private static long measure(String token, boolean legacy) throws Exception {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            parse(token, legacy);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            parse(token, legacy);
+        }
+        return (System.nanoTime() - start) / MEASURED_ITERATIONS;
+    }
+
+    private static IdToken parse(String token, boolean legacy) throws Exception {
+        return legacy ? parseLegacy(token) : IdToken.from(token);
+    }
+
+    /**
+     * Creates a signed-looking token of approximately the specified size, padded with claims
+     * which are not needed for validation, as is typical of tokens carrying group memberships
+     * or entitlements.
+     */
+    private static String createToken(int size) throws JSONException {
+        long now = System.currentTimeMillis() / 1000;
+        JSONObject claims = new JSONObject();
+        claims.put("iss", TEST_ISSUER);
+        claims.put("sub", IdTokenTest.TEST_SUBJECT);
+        claims.put("aud", TEST_CLIENT_ID);
+        claims.put("exp", now + 600);
+        claims.put("iat", now);
+        claims.put("nonce", TEST_NONCE);
+
+        JSONArray groups = new JSONArray();
+        claims.put("groups", groups);
+        int index = 0;
+        while (claims.toString().length() * 4 / 3 < size - 400) {
+            groups.put(String.format(Locale.US, "group-%08d-%s", index++, "member"));
+        }
+
+        JSONObject header = new JSONObject();
+        header.put("alg", "RS256");
+        header.put("kid", "key1");
+        header.put("typ", "JWT");
+
+        byte[] signature = new byte[256];
+        return encode(header.toString()) + "." + encode(claims.toString()) + "."
+                + Base64.encodeToString(signature,
+                        Base64.URL_SAFE | Base64.NO_WRAP | Base64.NO_PADDING);
+    }
+
+    private static String encode(String value) {
+        return Base64.encodeToString(value.getBytes(),
+                Base64.URL_SAFE | Base64.NO_WRAP | Base64.NO_PADDING);
+    }
+
+    /**
+     * The implementation of {@link IdToken#from(String)} prior to the introduction of
+     * {@link JwtParser}.
+     */
+    private static IdToken parseLegacy(String token) throws JSONException {
+        String[] sections = token.split("\\.");
+        new JSONObject(new String(Base64.decode(sections[0], Base64.URL_SAFE)));
+        JSONObject claims =
+                new JSONObject(new String(Base64.decode(sections[1], Base64.URL_SAFE)));
+
+        List<String> audience;
+        try {
+            audience = JsonUtil.getStringList(claims, "aud");
+        } catch (JSONException jsonEx) {
+            audience = new ArrayList<>();
+            audience.add(JsonUtil.getString(claims, "aud"));
+        }
+
+        return new IdToken(
+                JsonUtil.getString(claims, "iss"),
+                JsonUtil.getString(claims, "sub"),
+                audience,
+                claims.getLong("exp"),
+                claims.getLong("iat"),
+                JsonUtil.getStringIfDefined(claims, "nonce"));
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.TestValues.TEST_CLIENT_ID;
+import static net.openid.appauth.TestValues.TEST_ISSUER;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import android.util.Base64;
+
+import net.openid.appauth.IdToken.IdTokenException;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 16)
+public class JwtParserTest {
+
+    private static final int BASE64_URL_FLAGS =
+            Base64.URL_SAFE | Base64.NO_WRAP | Base64.NO_PADDING;
+
+    @Test
+    public void testDecode() throws Exception {
+        JwtParser parser = new JwtParser(encode("{\"alg\":\"none\"}") + "." + encode("{}"));
+        assertThat(parser.decodeHeader()).isEqualTo("{\"alg\":\"none\"}");
+        assertThat(parser.decodePayload()).isEqualTo("{}");
+        assertThat(parser.isSigned()).isFalse();
+        assertThat(parser.getSigningInput()).isNull();
+        assertThat(parser.decodeSignature()).isNull();
+    }
+
+    @Test
+    public void testDecode_withPadding() throws Exception {
+        String header = Base64.encodeToString("{\"a\":1}".getBytes("UTF-8"),
+                Base64.URL_SAFE | Base64.NO_WRAP);
+        assertThat(header).endsWith("=");
+        JwtParser parser = new JwtParser(header + "." + encode("{}") + ".");
+        assertThat(parser.decodeHeader()).isEqualTo("{\"a\":1}");
+        assertThat(parser.isSigned()).isFalse();
+    }
+
+    @Test
+    public void testDecode_utf8() throws Exception {
+        String claims = "{\"name\":\"Zo\u00eb \u4e2d\u6587 \ud83d\ude00\"}";
+        JwtParser parser = new JwtParser(encode("{}") + "." + encode(claims));
+        assertThat(parser.decodePayload()).isEqualTo(claims);
+    }
+
+    @Test
+    public void testDecode_signature() throws Exception {
+        byte[] signature = new byte[] { 0, 1, 2, (byte) 0xfe, (byte) 0xff };
+        String signingInput = encode("{}") + "." + encode("{}");
+        JwtParser parser = new JwtParser(signingInput + "."
+                + Base64.encodeToString(signature, BASE64_URL_FLAGS));
+        assertThat(parser.isSigned()).isTrue();
+        assertThat(parser.getSigningInput()).isEqualTo(signingInput.getBytes("US-ASCII"));
+        assertThat(parser.decodeSignature()).isEqualTo(signature);
+    }
+
+    @Test
+    public void testDecode_largeSegment() throws Exception {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 100 * 1024; i++) {
+            value.append((char) ('a' + i % 26));
+        }
+        String claims = "{\"large\":\"" + value + "\"}";
+        JwtParser parser = new JwtParser(encode("{}") + "." + encode(claims));
+        assertThat(parser.decodePayload()).isEqualTo(claims);
+
+        // the buffer used for the large segment must not corrupt subsequent parses
+        assertThat(new JwtParser(encode("{}") + "." + encode("{\"a\":1}")).decodePayload())
+                .isEqualTo("{\"a\":1}");
+    }
+
+    @Test(expected = IdTokenException.class)
+    public void testParse_missingPayload() throws Exception {
+        new JwtParser(encode("{}") + ".");
+    }
+
+    @Test(expected = IdTokenException.class)
+    public void testParse_missingHeader() throws Exception {
+        new JwtParser("." + encode("{}"));
+    }
+
+    @Test(expected = JSONException.class)
+    public void testDecode_invalidCharacter() throws Exception {
+        new JwtParser(encode("{}") + ".ab$d").decodePayload();
+    }
+
+    @Test
+    public void testIdTokenFrom_retainsRawClaims() throws Exception {
+        String token = IdTokenTest.getUnsignedIdToken(
+                TEST_ISSUER, IdTokenTest.TEST_SUBJECT, TEST_CLIENT_ID, null);
+        String claimsSection = token.substring(token.indexOf('.') + 1);
+        JSONObject rawClaims = new JSONObject(IdToken.from(token).getRawClaims());
+        assertThat(rawClaims.toString()).isEqualTo(new JSONObject(
+                new String(Base64.decode(claimsSection, Base64.URL_SAFE), "UTF-8")).toString());
+    }
+
+    @Test
+    public void testIdTokenFrom_numericDates() throws Exception {
+        JSONObject claims = new JSONObject();
+        claims.put("iss", TEST_ISSUER);
+        claims.put("sub", IdTokenTest.TEST_SUBJECT);
+        claims.put("aud", TEST_CLIENT_ID);
+        claims.put("exp", 1600000000L);
+        claims.put("iat", 1599999999.5d);
+        claims.put("extra", new JSONObject().put("nested", 1));
+
+        IdToken idToken = IdToken.from(encode("{}") + "." + encode(claims.toString()));
+        assertThat(idToken.expiration).isEqualTo(1600000000L);
+        assertThat(idToken.issuedAt).isEqualTo(1599999999L);
+        assertThat(idToken.nonce).isNull();
+    }
+
+    private static String encode(String value) throws Exception {
+        return Base64.encodeToString(value.getBytes("UTF-8"), BASE64_URL_FLAGS);
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static android.os.Looper.getMainLooper;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.Context;
+import androidx.annotation.NonNull;
+import androidx.test.core.app.ApplicationProvider;
+
+import net.openid.appauth.browser.BrowserDescriptor;
+import net.openid.appauth.browser.BrowserMatcher;
+import net.openid.appauth.browser.BrowserSelectionStrategy;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 16)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class PendingAuthorizationServiceTest {
+
+    private Context mContext;
+    private QueuedExecutor mExecutor;
+    private List<String> mEvents;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mExecutor = new QueuedExecutor();
+        mEvents = new ArrayList<>();
+    }
+
+    @Test
+    public void testCreateAsync_doesNotCreateOnCallingThread() {
+        PendingAuthorizationService pending =
+                AuthorizationService.createAsync(mContext, AppAuthConfiguration.DEFAULT, mExecutor);
+
+        assertThat(mExecutor.mTasks).hasSize(1);
+        assertThat(pending.isReady()).isFalse();
+        assertThat(pending.getServiceIfReady()).isNull();
+
+        mExecutor.runAll();
+        assertThat(pending.isReady()).isFalse();
+
+        shadowOf(getMainLooper()).idle();
+        assertThat(pending.isReady()).isTrue();
+        assertThat(pending.getServiceIfReady()).isNotNull();
+    }
+
+    @Test
+    public void testWhenReady_queuedActionsRunInOrder() {
+        PendingAuthorizationService pending =
+                AuthorizationService.createAsync(mContext, AppAuthConfiguration.DEFAULT, mExecutor);
+        pending.whenReady(new RecordingCallback("first"));
+        pending.whenReady(new RecordingCallback("second"));
+        assertThat(mEvents).isEmpty();
+
+        mExecutor.runAll();
+        shadowOf(getMainLooper()).idle();
+        assertThat(mEvents).containsExactly("first", "second");
+
+        // once ready, actions queued on the main thread run immediately
+        pending.whenReady(new RecordingCallback("third"));
+        assertThat(mEvents).containsExactly("first", "second", "third");
+    }
+
+    @Test
+    public void testWhenReady_receivesSameService() {
+        PendingAuthorizationService pending =
+                AuthorizationService.createAsync(mContext, AppAuthConfiguration.DEFAULT, mExecutor);
+        final List<AuthorizationService> services = new ArrayList<>();
+        PendingAuthorizationService.ReadyCallback callback =
+                new PendingAuthorizationService.ReadyCallback() {
+                    @Override
+                    public void onAuthorizationServiceReady(
+                            @NonNull AuthorizationService service) {
+                        services.add(service);
+                    }
+                };
+        pending.whenReady(callback);
+
+        mExecutor.runAll();
+        shadowOf(getMainLooper()).idle();
+        pending.whenReady(callback);
+
+        assertThat(services).hasSize(2);
+        assertThat(services.get(0)).isSameAs(services.get(1));
+        assertThat(services.get(0)).isSameAs(pending.getServiceIfReady());
+    }
+
+    @Test
+    public void testDispose_beforeReady() {
+        PendingAuthorizationService pending =
+                AuthorizationService.createAsync(mContext, AppAuthConfiguration.DEFAULT, mExecutor);
+        pending.whenReady(new RecordingCallback("queued"));
+
+        pending.dispose();
+        mExecutor.runAll();
+        shadowOf(getMainLooper()).idle();
+
+        assertThat(mEvents).isEmpty();
+        assertThat(pending.isReady()).isFalse();
+        assertThat(pending.getServiceIfReady()).isNull();
+
+        pending.whenReady(new RecordingCallback("after dispose"));
+        assertThat(mEvents).isEmpty();
+    }
+
+    @Test
+    public void testDispose_afterReady() {
+        PendingAuthorizationService pending =
+                AuthorizationService.createAsync(mContext, AppAuthConfiguration.DEFAULT, mExecutor);
+        mExecutor.runAll();
+        shadowOf(getMainLooper()).idle();
+        AuthorizationService service = pending.getServiceIfReady();
+
+        pending.dispose();
+
+        assertThat(pending.getServiceIfReady()).isNull();
+        try {
+            service.createCustomTabsIntentBuilder();
+            throw new AssertionError("Expected the service to be disposed");
+        } catch (IllegalStateException expected) {
+            // the service has been disposed
+        }
+    }
+
+    @Test
+    public void testWhenReady_creationFailureFailsQueuedActions() {
+        PendingAuthorizationService pending = AuthorizationService.createAsync(
+                mContext, createFailingConfiguration(), mExecutor);
+        final List<AuthorizationException> failures = new ArrayList<>();
+        PendingAuthorizationService.FailureCallback failureCallback =
+                new PendingAuthorizationService.FailureCallback() {
+                    @Override
+                    public void onAuthorizationServiceFailed(@NonNull AuthorizationException ex) {
+                        failures.add(ex);
+                    }
+                };
+        pending.whenReady(new RecordingCallback("with failure callback"), failureCallback);
+        pending.whenReady(new RecordingCallback("without failure callback"));
+
+        mExecutor.runAll();
+        shadowOf(getMainLooper()).idle();
+
+        assertThat(mEvents).isEmpty();
+        assertThat(failures).hasSize(1);
+        assertThat(failures.get(0).code)
+                .isEqualTo(AuthorizationException.AuthorizationRequestErrors.CLIENT_ERROR.code);
+        assertThat(pending.isReady()).isFalse();
+        assertThat(pending.getFailure()).isSameAs(failures.get(0));
+
+        // once failed, actions queued on the main thread fail immediately
+        pending.whenReady(new RecordingCallback("after failure"), failureCallback);
+        assertThat(mEvents).isEmpty();
+        assertThat(failures).hasSize(2);
+    }
+
+    @Test
+    public void testPerformTokenRequest_creationFailure() {
+        PendingAuthorizationService pending = AuthorizationService.createAsync(
+                mContext, createFailingConfiguration(), mExecutor);
+        final List<AuthorizationException> failures = new ArrayList<>();
+        pending.performTokenRequest(
+                TestValues.getTestAuthCodeExchangeRequest(),
+                new AuthorizationService.TokenResponseCallback() {
+                    @Override
+                    public void onTokenRequestCompleted(
+                            TokenResponse response,
+                            AuthorizationException ex) {
+                        assertThat(response).isNull();
+                        failures.add(ex);
+                    }
+                });
+
+        mExecutor.runAll();
+        shadowOf(getMainLooper()).idle();
+
+        assertThat(failures).hasSize(1);
+        assertThat(failures.get(0)).isNotNull();
+    }
+
+    private static AppAuthConfiguration createFailingConfiguration() {
+        return new AppAuthConfiguration.Builder()
+                .setBrowserSelectionStrategy(new BrowserSelectionStrategy() {
+                    @Override
+                    public BrowserDescriptor select(
+                            @NonNull Context context,
+                            @NonNull BrowserMatcher browserMatcher) {
+                        throw new IllegalStateException("package manager has died");
+                    }
+
+                    @Override
+                    public boolean recordsOutcomes() {
+                        return false;
+                    }
+                })
+                .build();
+    }
+
+    private final class RecordingCallback implements PendingAuthorizationService.ReadyCallback {
+        private final String mName;
+
+        RecordingCallback(String name) {
+            mName = name;
+        }
+
+        @Override
+        public void onAuthorizationServiceReady(@NonNull AuthorizationService service) {
+            mEvents.add(mName);
+        }
+    }
+
+    private static final class QueuedExecutor implements Executor {
+        final List<Runnable> mTasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        void runAll() {
+            List<Runnable> tasks = new ArrayList<>(mTasks);
+            mTasks.clear();
+            for (Runnable task : tasks) {
+                task.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.TestValues.getTestAuthCodeExchangeResponseBuilder;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 16)
+public class ScopedTokenCacheTest {
+
+    private static final ScopedTokenCache.Key TEST_KEY =
+            new ScopedTokenCache.Key("https://api.example.com", null);
+
+    private static final long TEST_EXPIRATION_TIME = 1000000L;
+
+    @Test
+    public void testGetAccessToken_expiredEntryIsEvicted() {
+        ScopedTokenCache cache = new ScopedTokenCache();
+        populate(cache);
+
+        assertThat(cache.getAccessToken(TEST_KEY, TEST_EXPIRATION_TIME - 1))
+                .isEqualTo("scoped_access_token");
+        assertThat(cache.getAccessToken(TEST_KEY, TEST_EXPIRATION_TIME)).isNull();
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testGetAccessToken_expiredEntryWithPendingRequestIsRetained() {
+        ScopedTokenCache cache = new ScopedTokenCache();
+        populate(cache);
+        cache.addPendingAction(TEST_KEY, mock(AuthState.AuthStateAction.class));
+
+        assertThat(cache.getAccessToken(TEST_KEY, TEST_EXPIRATION_TIME)).isNull();
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testComplete_failedRequestIsEvicted() {
+        ScopedTokenCache cache = new ScopedTokenCache();
+        int generation = cache.addPendingAction(TEST_KEY, mock(AuthState.AuthStateAction.class));
+
+        assertThat(cache.complete(TEST_KEY, generation, null)).hasSize(1);
+        assertThat(cache.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testClear_evictsIdleEntries() {
+        ScopedTokenCache cache = new ScopedTokenCache();
+        populate(cache);
+        ScopedTokenCache.Key pendingKey = new ScopedTokenCache.Key("https://other.example.com", null);
+        cache.addPendingAction(pendingKey, mock(AuthState.AuthStateAction.class));
+
+        cache.clear();
+
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.getAccessToken(TEST_KEY, 0L)).isNull();
+    }
+
+    private static void populate(ScopedTokenCache cache) {
+        int generation = cache.addPendingAction(TEST_KEY, mock(AuthState.AuthStateAction.class));
+        cache.complete(TEST_KEY, generation, getTestAuthCodeExchangeResponseBuilder()
+                .setAccessToken("scoped_access_token")
+                .setAccessTokenExpirationTime(TEST_EXPIRATION_TIME)
+                .build());
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static net.openid.appauth.IdTokenTest.TEST_SUBJECT;
+import static net.openid.appauth.TestValues.TEST_CLIENT_ID;
+import static net.openid.appauth.TestValues.TEST_ISSUER;
+import static net.openid.appauth.TestValues.TEST_NONCE;
+import static net.openid.appauth.TestValues.getTestAuthCodeExchangeRequestBuilder;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 16)
+public class ServerTimeClockTest {
+
+    private static final long DEVICE_TIME = 1600000000000L;
+    private static final long TEN_MINUTES = 600000L;
+
+    private TestClock mDeviceClock;
+    private TestClock mElapsedClock;
+    private ServerTimeClock mClock;
+
+    @Before
+    public void setUp() {
+        mDeviceClock = new TestClock(DEVICE_TIME);
+        mElapsedClock = new TestClock(5000L);
+        mClock = new ServerTimeClock(mDeviceClock, mElapsedClock);
+    }
+
+    @Test
+    public void testWithoutSamples_usesDeviceTime() {
+        assertThat(mClock.getCurrentTimeMillis()).isEqualTo(DEVICE_TIME);
+        assertThat(mClock.getEstimatedOffsetMillis()).isNull();
+    }
+
+    @Test
+    public void testRecordServerDate_estimatesOffset() {
+        // the device clock is ten minutes behind the server
+        mClock.recordServerDate(DEVICE_TIME + TEN_MINUTES, 4000L, 5000L);
+
+        // midpoint of the one second resolution plus one second round trip
+        assertThat(mClock.getCurrentTimeMillis()).isEqualTo(DEVICE_TIME + TEN_MINUTES + 1000L);
+        assertThat(mClock.getEstimatedOffsetMillis()).isEqualTo(TEN_MINUTES + 1000L);
+    }
+
+    @Test
+    public void testEstimate_isAnchoredToMonotonicClock() {
+        mClock.recordServerDate(DEVICE_TIME + TEN_MINUTES, 5000L, 5000L);
+        long estimate = mClock.getCurrentTimeMillis();
+
+        // a wall clock adjustment does not affect the estimate
+        mDeviceClock.currentTime.addAndGet(-TEN_MINUTES);
+        assertThat(mClock.getCurrentTimeMillis()).isEqualTo(estimate);
+
+        // but the passage of time does
+        mElapsedClock.currentTime.addAndGet(2000L);
+        assertThat(mClock.getCurrentTimeMillis()).isEqualTo(estimate + 2000L);
+    }
+
+    @Test
+    public void testRecordServerDate_prefersLowerUncertainty() {
+        mClock.recordServerDate(DEVICE_TIME, 5000L, 5000L);
+        long estimate = mClock.getCurrentTimeMillis();
+
+        // a sample from a slow request does not replace a recent, precise one
+        mClock.recordServerDate(DEVICE_TIME + TEN_MINUTES, 0L, 5000L);
+        assertThat(mClock.getCurrentTimeMillis()).isEqualTo(estimate);
+
+        // a sample with an equally short round trip does
+        mClock.recordServerDate(DEVICE_TIME + TEN_MINUTES, 5000L, 5000L);
+        assertThat(mClock.getCurrentTimeMillis()).isEqualTo(estimate + TEN_MINUTES);
+    }
+
+    @Test
+    public void testReset() {
+        mClock.recordServerDate(DEVICE_TIME + TEN_MINUTES, 5000L, 5000L);
+        mClock.reset();
+        assertThat(mClock.getCurrentTimeMillis()).isEqualTo(DEVICE_TIME);
+    }
+
+    @Test
+    public void testIdTokenValidation_withSkewedDeviceClock() throws Exception {
+        // an ID token issued by the server "now", while the device is twenty minutes behind
+        long serverNowSeconds = (DEVICE_TIME + 2 * TEN_MINUTES) / 1000L;
+        IdToken idToken = new IdToken(
+                TEST_ISSUER,
+                TEST_SUBJECT,
+                Collections.singletonList(TEST_CLIENT_ID),
+                serverNowSeconds + 600L,
+                serverNowSeconds,
+                TEST_NONCE);
+        TokenRequest tokenRequest = getTestAuthCodeExchangeRequestBuilder()
+                .setNonce(TEST_NONCE)
+                .build();
+
+        mClock.recordServerDate(serverNowSeconds * 1000L, 5000L, 5000L);
+        idToken.validate(tokenRequest, mClock);
+    }
+}
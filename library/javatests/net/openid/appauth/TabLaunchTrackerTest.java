@@ -0,0 +1,149 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth;
+
+import static android.os.Looper.getMainLooper;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.os.Bundle;
+import androidx.browser.customtabs.CustomTabsCallback;
+
+import net.openid.appauth.browser.TabLaunchListener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 16)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class TabLaunchTrackerTest {
+
+    private AutoCloseable mMockitoCloseable;
+
+    @Mock
+    TabLaunchListener mListener;
+
+    private TabLaunchTracker mTracker;
+
+    @Before
+    public void setUp() {
+        mMockitoCloseable = MockitoAnnotations.openMocks(this);
+        mTracker = new TabLaunchTracker();
+        mTracker.setListener(mListener);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mMockitoCloseable.close();
+    }
+
+    @Test
+    public void testTabShown_measuredFromLaunch() {
+        mTracker.markLaunch();
+        shadowOf(getMainLooper()).idleFor(250, TimeUnit.MILLISECONDS);
+        mTracker.onNavigationEvent(CustomTabsCallback.TAB_SHOWN, null);
+        shadowOf(getMainLooper()).idle();
+        verify(mListener).onTabShown(250L);
+    }
+
+    @Test
+    public void testNavigationFinished_measuredFromLaunch() {
+        mTracker.markLaunch();
+        shadowOf(getMainLooper()).idleFor(800, TimeUnit.MILLISECONDS);
+        mTracker.onNavigationEvent(CustomTabsCallback.NAVIGATION_FINISHED, null);
+        shadowOf(getMainLooper()).idle();
+        verify(mListener).onNavigationFinished(800L);
+    }
+
+    @Test
+    public void testFirstContentfulPaint_fromNavigationMetrics() {
+        mTracker.markLaunch();
+        shadowOf(getMainLooper()).idleFor(500, TimeUnit.MILLISECONDS);
+        mTracker.extraCallback(TabLaunchTracker.NAVIGATION_METRICS_CALLBACK, paintMetrics());
+        shadowOf(getMainLooper()).idle();
+        verify(mListener).onFirstContentfulPaint(500L);
+    }
+
+    @Test
+    public void testNavigationMetrics_withoutFirstContentfulPaint() {
+        mTracker.markLaunch();
+        mTracker.extraCallback(TabLaunchTracker.NAVIGATION_METRICS_CALLBACK, new Bundle());
+        mTracker.extraCallback("otherCallback", paintMetrics());
+        shadowOf(getMainLooper()).idle();
+        verify(mListener, never()).onFirstContentfulPaint(anyLong());
+    }
+
+    @Test
+    public void testEvents_reportedOncePerLaunch() {
+        mTracker.markLaunch();
+        mTracker.onNavigationEvent(CustomTabsCallback.TAB_SHOWN, null);
+        mTracker.onNavigationEvent(CustomTabsCallback.TAB_SHOWN, null);
+        mTracker.extraCallback(TabLaunchTracker.NAVIGATION_METRICS_CALLBACK, paintMetrics());
+        mTracker.extraCallback(TabLaunchTracker.NAVIGATION_METRICS_CALLBACK, paintMetrics());
+        shadowOf(getMainLooper()).idle();
+        verify(mListener, times(1)).onTabShown(anyLong());
+        verify(mListener, times(1)).onFirstContentfulPaint(anyLong());
+
+        mTracker.markLaunch();
+        mTracker.onNavigationEvent(CustomTabsCallback.TAB_SHOWN, null);
+        shadowOf(getMainLooper()).idle();
+        verify(mListener, times(2)).onTabShown(anyLong());
+    }
+
+    @Test
+    public void testEvents_ignoredBeforeLaunch() {
+        mTracker.onNavigationEvent(CustomTabsCallback.TAB_SHOWN, null);
+        mTracker.onNavigationEvent(CustomTabsCallback.NAVIGATION_FINISHED, null);
+        shadowOf(getMainLooper()).idle();
+        verifyNoInteractions(mListener);
+    }
+
+    @Test
+    public void testOtherNavigationEvents_ignored() {
+        mTracker.markLaunch();
+        mTracker.onNavigationEvent(CustomTabsCallback.NAVIGATION_STARTED, null);
+        mTracker.onNavigationEvent(CustomTabsCallback.TAB_HIDDEN, null);
+        shadowOf(getMainLooper()).idle();
+        verifyNoInteractions(mListener);
+    }
+
+    @Test
+    public void testEvents_notReportedAfterListenerCleared() {
+        mTracker.markLaunch();
+        mTracker.onNavigationEvent(CustomTabsCallback.TAB_SHOWN, null);
+        mTracker.setListener(null);
+        shadowOf(getMainLooper()).idle();
+        verifyNoInteractions(mListener);
+    }
+
+    private static Bundle paintMetrics() {
+        Bundle metrics = new Bundle();
+        metrics.putLong(TabLaunchTracker.KEY_FIRST_CONTENTFUL_PAINT, 400L);
+        return metrics;
+    }
+}
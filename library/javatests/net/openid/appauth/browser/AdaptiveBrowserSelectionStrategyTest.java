@@ -0,0 +1,251 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth.browser;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import android.content.Context;
+import androidx.test.core.app.ApplicationProvider;
+
+import net.openid.appauth.Clock;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 16)
+public class AdaptiveBrowserSelectionStrategyTest {
+
+    private static final BrowserDescriptor CHROME = Browsers.Chrome.customTab("46");
+    private static final BrowserDescriptor FIREFOX = Browsers.Firefox.customTab("57");
+    private static final BrowserDescriptor SAMSUNG = Browsers.SBrowser.customTab("4.0");
+    private static final BrowserDescriptor FIREFOX_STANDALONE =
+            Browsers.Firefox.standaloneBrowser("10");
+
+    private static final List<BrowserDescriptor> BROWSERS =
+            Arrays.asList(CHROME, FIREFOX, SAMSUNG);
+
+    private BrowserTelemetry mTelemetry;
+    private AdaptiveBrowserSelectionStrategy mStrategy;
+
+    @Before
+    public void setUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        mTelemetry = new BrowserTelemetry(
+                context.getSharedPreferences(BrowserTelemetry.PREFS_NAME, Context.MODE_PRIVATE),
+                new Clock() {
+                    @Override
+                    public long getCurrentTimeMillis() {
+                        return 1000000L;
+                    }
+                },
+                BrowserTelemetry.DEFAULT_HALF_LIFE_MS);
+        mTelemetry.clear();
+        mStrategy = new AdaptiveBrowserSelectionStrategy();
+    }
+
+    @Test
+    public void testSelect_noTelemetry_usesDefaultOrder() {
+        assertThat(mStrategy.select(BROWSERS, AnyBrowserMatcher.INSTANCE, mTelemetry))
+                .isSameAs(CHROME);
+    }
+
+    @Test
+    public void testSelect_noMatchingBrowser() {
+        assertThat(mStrategy.select(
+                Collections.<BrowserDescriptor>emptyList(),
+                AnyBrowserMatcher.INSTANCE,
+                mTelemetry)).isNull();
+    }
+
+    @Test
+    public void testSelect_defaultBrowserUndersampled_usesDefaultOrder() {
+        recordRedirects(CHROME, 2, 10000L);
+        recordRedirects(FIREFOX, 3, 1000L);
+
+        assertThat(mStrategy.select(BROWSERS, AnyBrowserMatcher.INSTANCE, mTelemetry))
+                .isSameAs(CHROME);
+    }
+
+    @Test
+    public void testSelect_prefersFasterBrowser() {
+        recordRedirects(CHROME, 3, 10000L);
+        recordRedirects(FIREFOX, 3, 5000L);
+        recordRedirects(SAMSUNG, 3, 2000L);
+
+        assertThat(mStrategy.select(BROWSERS, AnyBrowserMatcher.INSTANCE, mTelemetry))
+                .isSameAs(SAMSUNG);
+    }
+
+    @Test
+    public void testSelect_ignoresUndersampledAlternatives() {
+        recordRedirects(CHROME, 3, 10000L);
+        recordRedirects(FIREFOX, 2, 1000L);
+
+        assertThat(mStrategy.select(BROWSERS, AnyBrowserMatcher.INSTANCE, mTelemetry))
+                .isSameAs(CHROME);
+    }
+
+    @Test
+    public void testSelect_tiesBrokenByDefaultOrder() {
+        recordRedirects(CHROME, 3, 2000L);
+        recordRedirects(FIREFOX, 3, 2000L);
+
+        assertThat(mStrategy.select(BROWSERS, AnyBrowserMatcher.INSTANCE, mTelemetry))
+                .isSameAs(CHROME);
+    }
+
+    @Test
+    public void testSelect_penalizesCancels() {
+        recordRedirects(CHROME, 2, 2000L);
+        mTelemetry.recordCancel(CHROME.packageName, true);
+        mTelemetry.recordCancel(CHROME.packageName, true);
+        recordRedirects(FIREFOX, 3, 5000L);
+
+        // chrome: 2000 + 0.5 * 30000, firefox: 5000
+        assertThat(mStrategy.select(BROWSERS, AnyBrowserMatcher.INSTANCE, mTelemetry))
+                .isSameAs(FIREFOX);
+    }
+
+    @Test
+    public void testSelect_penalizesRedirectFailures() {
+        recordRedirects(CHROME, 3, 2000L);
+        mTelemetry.recordRedirectFailure(CHROME.packageName, true);
+        recordRedirects(FIREFOX, 3, 10000L);
+
+        // chrome: 2000 + 0.25 * 60000, firefox: 10000
+        assertThat(mStrategy.select(BROWSERS, AnyBrowserMatcher.INSTANCE, mTelemetry))
+                .isSameAs(FIREFOX);
+    }
+
+    @Test
+    public void testSelect_prefersCustomTabs() {
+        recordRedirects(CHROME, 3, 10000L);
+        mTelemetry.recordRedirect(FIREFOX_STANDALONE.packageName, false, 100L);
+        mTelemetry.recordRedirect(FIREFOX_STANDALONE.packageName, false, 100L);
+        mTelemetry.recordRedirect(FIREFOX_STANDALONE.packageName, false, 100L);
+
+        assertThat(mStrategy.select(
+                Arrays.asList(CHROME, FIREFOX_STANDALONE),
+                AnyBrowserMatcher.INSTANCE,
+                mTelemetry)).isSameAs(CHROME);
+    }
+
+    @Test
+    public void testSelect_respectsMatcher() {
+        recordRedirects(CHROME, 3, 10000L);
+        recordRedirects(FIREFOX, 3, 1000L);
+
+        BrowserMatcher matcher = new BrowserDenyList(VersionedBrowserMatcher.FIREFOX_CUSTOM_TAB);
+        assertThat(mStrategy.select(BROWSERS, matcher, mTelemetry)).isSameAs(CHROME);
+    }
+
+    @Test
+    public void testSelect_customMinSamples() {
+        recordRedirects(CHROME, 1, 10000L);
+        recordRedirects(FIREFOX, 1, 1000L);
+
+        assertThat(new AdaptiveBrowserSelectionStrategy(1)
+                .select(BROWSERS, AnyBrowserMatcher.INSTANCE, mTelemetry))
+                .isSameAs(FIREFOX);
+    }
+
+    @Test
+    public void testSelect_exploresUndersampledAlternative() {
+        recordRedirects(CHROME, 10, 10000L);
+
+        assertThat(mStrategy.select(BROWSERS, AnyBrowserMatcher.INSTANCE, mTelemetry))
+                .isSameAs(FIREFOX);
+    }
+
+    @Test
+    public void testSelect_explorationIsBounded() {
+        recordRedirects(CHROME, 10, 10000L);
+        recordRedirects(FIREFOX, 1, 1000L);
+        recordRedirects(SAMSUNG, 1, 1000L);
+
+        // each alternative has had its share of the twelve flows so far
+        assertThat(mStrategy.select(BROWSERS, AnyBrowserMatcher.INSTANCE, mTelemetry))
+                .isSameAs(CHROME);
+    }
+
+    @Test
+    public void testSelect_measuresAlternativesFromOwnOutcomes() {
+        Map<BrowserDescriptor, Long> latencies = new HashMap<>();
+        latencies.put(CHROME, 10000L);
+        latencies.put(FIREFOX, 2000L);
+        latencies.put(SAMSUNG, 5000L);
+
+        List<BrowserDescriptor> selected = performFlows(mStrategy, latencies, 60);
+
+        // the default browser is measured first, then the alternatives take turns
+        assertThat(selected.subList(0, 10)).containsOnly(CHROME);
+        assertThat(selected.get(10)).isSameAs(FIREFOX);
+        assertThat(selected.get(11)).isSameAs(SAMSUNG);
+        assertThat(Collections.frequency(selected.subList(0, 30), CHROME)).isEqualTo(26);
+
+        // once every browser has been measured, the fastest one is selected from then on
+        assertThat(selected.subList(40, 60)).containsOnly(FIREFOX);
+    }
+
+    @Test
+    public void testSelect_customExplorationInterval() {
+        recordRedirects(CHROME, 3, 10000L);
+
+        assertThat(new AdaptiveBrowserSelectionStrategy(3, 3)
+                .select(BROWSERS, AnyBrowserMatcher.INSTANCE, mTelemetry))
+                .isSameAs(FIREFOX);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreate_nonPositiveMinSamples() {
+        new AdaptiveBrowserSelectionStrategy(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreate_nonPositiveExplorationInterval() {
+        new AdaptiveBrowserSelectionStrategy(3, 0);
+    }
+
+    private List<BrowserDescriptor> performFlows(
+            AdaptiveBrowserSelectionStrategy strategy,
+            Map<BrowserDescriptor, Long> latencies,
+            int count) {
+        List<BrowserDescriptor> selected = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            BrowserDescriptor browser =
+                    strategy.select(BROWSERS, AnyBrowserMatcher.INSTANCE, mTelemetry);
+            selected.add(browser);
+            mTelemetry.recordRedirect(
+                    browser.packageName, browser.useCustomTab, latencies.get(browser));
+        }
+        return selected;
+    }
+
+    private void recordRedirects(BrowserDescriptor browser, int count, long latencyMs) {
+        for (int i = 0; i < count; i++) {
+            mTelemetry.recordRedirect(browser.packageName, browser.useCustomTab, latencyMs);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth.browser;
+
+import static net.openid.appauth.browser.BrowserSelector.BROWSER_INTENT;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mockingDetails;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ActivityInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.content.pm.Signature;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the cost of selecting a browser for each new authorization service, on a device with
+ * hundreds of packages handling web intents, with and without the {@link BrowserInventory}.
+ * Timings and package manager call counts are reported on standard output; only the
+ * equivalence of the results and the reduction in package manager calls are asserted, as
+ * timings vary between machines.
+ *
+ * The benchmark is not part of the unit test run; run it with
+ * `./gradlew :library:testForTestsUnitTest -Pbenchmarks --tests '*BrowserInventoryBenchmark'`.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 16)
+public class BrowserInventoryBenchmark {
+
+    private static final int BROWSER_COUNT = 40;
+    private static final int OTHER_HANDLER_COUNT = 400;
+    private static final int SIGNATURE_LENGTH = 1024;
+    private static final int SERVICE_CREATIONS = 200;
+
+    private AutoCloseable mMockitoCloseable;
+
+    @Mock Context mContext;
+    @Mock PackageManager mPackageManager;
+
+    @Before
+    public void setUp() throws Exception {
+        mMockitoCloseable = MockitoAnnotations.openMocks(this);
+        assumeTrue("benchmarks are only run with -Pbenchmarks",
+                Boolean.getBoolean("appauth.benchmarks"));
+        when(mContext.getApplicationContext()).thenReturn(mContext);
+        when(mContext.getPackageManager()).thenReturn(mPackageManager);
+
+        Random random = new Random(0);
+        List<ResolveInfo> resolveInfos = new ArrayList<>();
+        final Map<String, PackageInfo> packageInfos = new HashMap<>();
+        final Map<String, ResolveInfo> customTabServices = new HashMap<>();
+
+        for (int i = 0; i < BROWSER_COUNT + OTHER_HANDLER_COUNT; i++) {
+            boolean isBrowser = i % ((BROWSER_COUNT + OTHER_HANDLER_COUNT) / BROWSER_COUNT) == 0;
+            String packageName = String.format(Locale.US, "com.example.app%03d", i);
+
+            ResolveInfo ri = new ResolveInfo();
+            ri.activityInfo = new ActivityInfo();
+            ri.activityInfo.packageName = packageName;
+            ri.filter = new IntentFilter();
+            ri.filter.addAction(Intent.ACTION_VIEW);
+            ri.filter.addCategory(Intent.CATEGORY_BROWSABLE);
+            ri.filter.addDataScheme("http");
+            ri.filter.addDataScheme("https");
+            if (!isBrowser) {
+                // app links handlers are restricted to their own domains
+                ri.filter.addDataAuthority(packageName + ".example.com", null);
+            }
+            resolveInfos.add(ri);
+
+            PackageInfo pi = new PackageInfo();
+            pi.packageName = packageName;
+            pi.versionName = "1." + i;
+            byte[] signature = new byte[SIGNATURE_LENGTH];
+            random.nextBytes(signature);
+            pi.signatures = new Signature[] { new Signature(signature) };
+            packageInfos.put(packageName, pi);
+
+            if (isBrowser && i % 2 == 0) {
+                customTabServices.put(packageName, ri);
+            }
+        }
+
+        when(mPackageManager.queryIntentActivities(eq(BROWSER_INTENT), anyInt()))
+                .thenReturn(resolveInfos);
+        when(mPackageManager.resolveActivity(BROWSER_INTENT, 0))
+                .thenReturn(resolveInfos.get(0));
+        when(mPackageManager.getPackageInfo(anyString(), eq(PackageManager.GET_SIGNATURES)))
+                .thenAnswer(new Answer<PackageInfo>() {
+                    @Override
+                    public PackageInfo answer(InvocationOnMock invocation) {
+                        return packageInfos.get(invocation.<String>getArgument(0));
+                    }
+                });
+        when(mPackageManager.resolveService(any(Intent.class), eq(0)))
+                .thenAnswer(new Answer<ResolveInfo>() {
+                    @Override
+                    public ResolveInfo answer(InvocationOnMock invocation) {
+                        Intent intent = invocation.getArgument(0);
+                        return customTabServices.get(intent.getPackage());
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mMockitoCloseable.close();
+    }
+
+    @Test
+    public void benchmarkBrowserSelection() {
+        BrowserInventory inventory = new BrowserInventory();
+        List<BrowserDescriptor> expected = BrowserSelector.getAllBrowsers(mContext);
+        assertThat(inventory.getBrowsers(mContext)).isEqualTo(expected);
+
+        int callsBefore = getPackageManagerCallCount();
+        long uncachedNs = System.nanoTime();
+        for (int i = 0; i < SERVICE_CREATIONS; i++) {
+            BrowserSelector.getAllBrowsers(mContext);
+        }
+        uncachedNs = System.nanoTime() - uncachedNs;
+        int uncachedCalls = getPackageManagerCallCount() - callsBefore;
+
+        callsBefore = getPackageManagerCallCount();
+        long cachedNs = System.nanoTime();
+        for (int i = 0; i < SERVICE_CREATIONS; i++) {
+            assertThat(inventory.getBrowsers(mContext)).isEqualTo(expected);
+        }
+        cachedNs = System.nanoTime() - cachedNs;
+        int cachedCalls = getPackageManagerCallCount() - callsBefore;
+
+        System.out.println(String.format(Locale.US,
+                "%d packages, %d browsers, %d selections:%n"
+                        + "  uncached: %8.3f ms, %6d package manager calls%n"
+                        + "  cached:   %8.3f ms, %6d package manager calls",
+                BROWSER_COUNT + OTHER_HANDLER_COUNT,
+                expected.size(),
+                SERVICE_CREATIONS,
+                uncachedNs / 1e6,
+                uncachedCalls,
+                cachedNs / 1e6,
+                cachedCalls));
+
+        // only the preferred browser is resolved for each selection
+        assertThat(cachedCalls).isEqualTo(SERVICE_CREATIONS);
+        assertThat(inventory.getBuildCount()).isEqualTo(1);
+    }
+
+    private int getPackageManagerCallCount() {
+        return mockingDetails(mPackageManager).getInvocations().size();
+    }
+}
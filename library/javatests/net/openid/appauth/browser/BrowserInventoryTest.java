@@ -0,0 +1,188 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth.browser;
+
+import static net.openid.appauth.browser.BrowserSelector.BROWSER_INTENT;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ActivityInfo;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.content.pm.Signature;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 16)
+public class BrowserInventoryTest {
+
+    private static final String CHROME = "com.android.chrome";
+    private static final String FIREFOX = "org.mozilla.firefox";
+
+    private AutoCloseable mMockitoCloseable;
+
+    @Mock Context mContext;
+    @Mock PackageManager mPackageManager;
+
+    private BrowserInventory mInventory;
+
+    @Before
+    public void setUp() throws Exception {
+        mMockitoCloseable = MockitoAnnotations.openMocks(this);
+        when(mContext.getApplicationContext()).thenReturn(mContext);
+        when(mContext.getPackageManager()).thenReturn(mPackageManager);
+
+        List<ResolveInfo> resolveInfos = new ArrayList<>();
+        for (String packageName : new String[] { CHROME, FIREFOX }) {
+            resolveInfos.add(createBrowserResolveInfo(packageName));
+            when(mPackageManager.getPackageInfo(eq(packageName), eq(PackageManager.GET_SIGNATURES)))
+                    .thenReturn(createPackageInfo(packageName));
+        }
+        when(mPackageManager.queryIntentActivities(eq(BROWSER_INTENT), anyInt()))
+                .thenReturn(resolveInfos);
+        setDefaultBrowser(CHROME);
+
+        mInventory = new BrowserInventory();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mMockitoCloseable.close();
+    }
+
+    @Test
+    public void testGetBrowsers_cached() {
+        List<BrowserDescriptor> browsers = mInventory.getBrowsers(mContext);
+        assertThat(browsers).hasSize(2);
+        assertThat(browsers.get(0).packageName).isEqualTo(CHROME);
+
+        assertThat(mInventory.getBrowsers(mContext)).isSameAs(browsers);
+        assertThat(mInventory.getBuildCount()).isEqualTo(1);
+        verify(mPackageManager, times(1)).queryIntentActivities(eq(BROWSER_INTENT), anyInt());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testGetBrowsers_unmodifiable() {
+        mInventory.getBrowsers(mContext).clear();
+    }
+
+    @Test
+    public void testGetBrowsers_invalidatedByPackageChange() {
+        List<BrowserDescriptor> browsers = mInventory.getBrowsers(mContext);
+
+        ArgumentCaptor<BroadcastReceiver> receiverCaptor =
+                ArgumentCaptor.forClass(BroadcastReceiver.class);
+        ArgumentCaptor<IntentFilter> filterCaptor = ArgumentCaptor.forClass(IntentFilter.class);
+        verify(mContext).registerReceiver(receiverCaptor.capture(), filterCaptor.capture());
+        assertThat(filterCaptor.getValue().hasAction(Intent.ACTION_PACKAGE_ADDED)).isTrue();
+        assertThat(filterCaptor.getValue().hasAction(Intent.ACTION_PACKAGE_REMOVED)).isTrue();
+        assertThat(filterCaptor.getValue().hasAction(Intent.ACTION_PACKAGE_CHANGED)).isTrue();
+
+        receiverCaptor.getValue().onReceive(mContext, new Intent(Intent.ACTION_PACKAGE_ADDED));
+
+        assertThat(mInventory.getBrowsers(mContext)).isNotSameAs(browsers);
+        assertThat(mInventory.getBuildCount()).isEqualTo(2);
+
+        // the receiver is only registered once
+        verify(mContext, times(1)).registerReceiver(
+                any(BroadcastReceiver.class),
+                any(IntentFilter.class));
+    }
+
+    @Test
+    public void testGetBrowsers_rebuiltForNewApplicationContext() {
+        List<BrowserDescriptor> browsers = mInventory.getBrowsers(mContext);
+
+        Context otherContext = mock(Context.class);
+        when(otherContext.getApplicationContext()).thenReturn(otherContext);
+        when(otherContext.getPackageManager()).thenReturn(mPackageManager);
+
+        assertThat(mInventory.getBrowsers(otherContext)).isNotSameAs(browsers);
+        assertThat(mInventory.getBuildCount()).isEqualTo(2);
+        verify(otherContext, times(1)).registerReceiver(
+                any(BroadcastReceiver.class),
+                any(IntentFilter.class));
+    }
+
+    @Test
+    public void testGetBrowsers_rebuiltWhenDefaultBrowserChanges() {
+        mInventory.getBrowsers(mContext);
+
+        setDefaultBrowser(FIREFOX);
+        List<BrowserDescriptor> browsers = mInventory.getBrowsers(mContext);
+
+        assertThat(browsers.get(0).packageName).isEqualTo(FIREFOX);
+        assertThat(mInventory.getBuildCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testGetBrowsers_notCachedWithoutApplicationContext() {
+        when(mContext.getApplicationContext()).thenReturn(null);
+
+        mInventory.getBrowsers(mContext);
+        mInventory.getBrowsers(mContext);
+
+        assertThat(mInventory.getBuildCount()).isEqualTo(0);
+        verify(mPackageManager, times(2)).queryIntentActivities(eq(BROWSER_INTENT), anyInt());
+    }
+
+    private void setDefaultBrowser(String packageName) {
+        when(mPackageManager.resolveActivity(BROWSER_INTENT, 0))
+                .thenReturn(createBrowserResolveInfo(packageName));
+    }
+
+    static ResolveInfo createBrowserResolveInfo(String packageName) {
+        ResolveInfo ri = new ResolveInfo();
+        ri.activityInfo = new ActivityInfo();
+        ri.activityInfo.packageName = packageName;
+        ri.filter = new IntentFilter();
+        ri.filter.addAction(Intent.ACTION_VIEW);
+        ri.filter.addCategory(Intent.CATEGORY_BROWSABLE);
+        ri.filter.addDataScheme("http");
+        ri.filter.addDataScheme("https");
+        return ri;
+    }
+
+    static PackageInfo createPackageInfo(String packageName) {
+        PackageInfo pi = new PackageInfo();
+        pi.packageName = packageName;
+        pi.versionName = "1.0";
+        pi.signatures = new Signature[] { new Signature(packageName.getBytes()) };
+        return pi;
+    }
+}
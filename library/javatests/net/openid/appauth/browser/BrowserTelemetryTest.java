@@ -0,0 +1,171 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth.browser;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.offset;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import androidx.test.core.app.ApplicationProvider;
+
+import net.openid.appauth.Clock;
+import net.openid.appauth.browser.BrowserTelemetry.BrowserStats;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 16)
+public class BrowserTelemetryTest {
+
+    private static final long HALF_LIFE_MS = 1000L;
+
+    private SharedPreferences mPrefs;
+    private MutableClock mClock;
+    private BrowserTelemetry mTelemetry;
+
+    @Before
+    public void setUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        mPrefs = context.getSharedPreferences(BrowserTelemetry.PREFS_NAME, Context.MODE_PRIVATE);
+        mClock = new MutableClock();
+        mTelemetry = new BrowserTelemetry(mPrefs, mClock, HALF_LIFE_MS);
+        mTelemetry.clear();
+    }
+
+    @Test
+    public void testGetStats_nothingRecorded() {
+        assertThat(mTelemetry.getStats(Browsers.Chrome.PACKAGE_NAME, true)).isNull();
+    }
+
+    @Test
+    public void testGetStats_redirects() {
+        mTelemetry.recordRedirect(Browsers.Chrome.PACKAGE_NAME, true, 1000L);
+        mTelemetry.recordRedirect(Browsers.Chrome.PACKAGE_NAME, true, 3000L);
+
+        BrowserStats stats = mTelemetry.getStats(Browsers.Chrome.PACKAGE_NAME, true);
+        assertThat(stats).isNotNull();
+        assertThat(stats.sampleCount).isCloseTo(2.0, offset(0.0001));
+        assertThat(stats.meanRedirectLatencyMs).isCloseTo(2000.0, offset(0.0001));
+        assertThat(stats.cancelRate).isCloseTo(0.0, offset(0.0001));
+        assertThat(stats.redirectFailureRate).isCloseTo(0.0, offset(0.0001));
+    }
+
+    @Test
+    public void testGetStats_rates() {
+        mTelemetry.recordRedirect(Browsers.Chrome.PACKAGE_NAME, true, 1000L);
+        mTelemetry.recordCancel(Browsers.Chrome.PACKAGE_NAME, true);
+        mTelemetry.recordCancel(Browsers.Chrome.PACKAGE_NAME, true);
+        mTelemetry.recordRedirectFailure(Browsers.Chrome.PACKAGE_NAME, true);
+
+        BrowserStats stats = mTelemetry.getStats(Browsers.Chrome.PACKAGE_NAME, true);
+        assertThat(stats.sampleCount).isCloseTo(4.0, offset(0.0001));
+        assertThat(stats.meanRedirectLatencyMs).isCloseTo(1000.0, offset(0.0001));
+        assertThat(stats.cancelRate).isCloseTo(0.5, offset(0.0001));
+        assertThat(stats.redirectFailureRate).isCloseTo(0.25, offset(0.0001));
+    }
+
+    @Test
+    public void testGetStats_noRedirects() {
+        mTelemetry.recordCancel(Browsers.Chrome.PACKAGE_NAME, true);
+
+        BrowserStats stats = mTelemetry.getStats(Browsers.Chrome.PACKAGE_NAME, true);
+        assertThat(stats.meanRedirectLatencyMs).isNull();
+        assertThat(stats.cancelRate).isCloseTo(1.0, offset(0.0001));
+    }
+
+    @Test
+    public void testGetStats_customTabAndStandaloneRecordedSeparately() {
+        mTelemetry.recordRedirect(Browsers.Chrome.PACKAGE_NAME, true, 1000L);
+
+        assertThat(mTelemetry.getStats(Browsers.Chrome.PACKAGE_NAME, true)).isNotNull();
+        assertThat(mTelemetry.getStats(Browsers.Chrome.PACKAGE_NAME, false)).isNull();
+        assertThat(mTelemetry.getStats(Browsers.Firefox.PACKAGE_NAME, true)).isNull();
+    }
+
+    @Test
+    public void testGetStats_sampleCountDecays() {
+        mTelemetry.recordRedirect(Browsers.Chrome.PACKAGE_NAME, true, 1000L);
+        mTelemetry.recordRedirect(Browsers.Chrome.PACKAGE_NAME, true, 1000L);
+
+        mClock.mCurrentTime += HALF_LIFE_MS;
+        assertThat(mTelemetry.getStats(Browsers.Chrome.PACKAGE_NAME, true).sampleCount)
+                .isCloseTo(1.0, offset(0.0001));
+
+        mClock.mCurrentTime += HALF_LIFE_MS;
+        assertThat(mTelemetry.getStats(Browsers.Chrome.PACKAGE_NAME, true).sampleCount)
+                .isCloseTo(0.5, offset(0.0001));
+    }
+
+    @Test
+    public void testGetStats_recentOutcomesWeighMore() {
+        mTelemetry.recordRedirect(Browsers.Chrome.PACKAGE_NAME, true, 1000L);
+        mClock.mCurrentTime += HALF_LIFE_MS;
+        mTelemetry.recordRedirect(Browsers.Chrome.PACKAGE_NAME, true, 4000L);
+
+        // the first redirect has half the weight of the second: (500 + 4000) / 1.5
+        BrowserStats stats = mTelemetry.getStats(Browsers.Chrome.PACKAGE_NAME, true);
+        assertThat(stats.sampleCount).isCloseTo(1.5, offset(0.0001));
+        assertThat(stats.meanRedirectLatencyMs).isCloseTo(3000.0, offset(0.0001));
+    }
+
+    @Test
+    public void testGetStats_persisted() {
+        mTelemetry.recordRedirect(Browsers.Chrome.PACKAGE_NAME, true, 1000L);
+
+        BrowserTelemetry other = new BrowserTelemetry(mPrefs, mClock, HALF_LIFE_MS);
+        assertThat(other.getStats(Browsers.Chrome.PACKAGE_NAME, true).sampleCount)
+                .isCloseTo(1.0, offset(0.0001));
+    }
+
+    @Test
+    public void testGetStats_corruptRecordDiscarded() {
+        mPrefs.edit().putString(Browsers.Chrome.PACKAGE_NAME + "|customTab", "{").commit();
+        assertThat(mTelemetry.getStats(Browsers.Chrome.PACKAGE_NAME, true)).isNull();
+
+        mTelemetry.recordCancel(Browsers.Chrome.PACKAGE_NAME, true);
+        assertThat(mTelemetry.getStats(Browsers.Chrome.PACKAGE_NAME, true).sampleCount)
+                .isCloseTo(1.0, offset(0.0001));
+    }
+
+    @Test
+    public void testClear() {
+        mTelemetry.recordRedirect(Browsers.Chrome.PACKAGE_NAME, true, 1000L);
+        mTelemetry.clear();
+        assertThat(mTelemetry.getStats(Browsers.Chrome.PACKAGE_NAME, true)).isNull();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRecordRedirect_negativeLatency() {
+        mTelemetry.recordRedirect(Browsers.Chrome.PACKAGE_NAME, true, -1L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRecordCancel_emptyPackageName() {
+        mTelemetry.recordCancel("", true);
+    }
+
+    private static final class MutableClock implements Clock {
+        long mCurrentTime = 1000000L;
+
+        @Override
+        public long getCurrentTimeMillis() {
+            return mCurrentTime;
+        }
+    }
+}
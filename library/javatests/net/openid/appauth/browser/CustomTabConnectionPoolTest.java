@@ -0,0 +1,224 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth.browser;
+
+import static android.os.Looper.getMainLooper;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import androidx.browser.customtabs.CustomTabsClient;
+import androidx.browser.customtabs.CustomTabsServiceConnection;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
+
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 16)
+@LooperMode(LooperMode.Mode.PAUSED)
+public class CustomTabConnectionPoolTest {
+
+    private static final String BROWSER_PACKAGE_NAME = "com.example.browser";
+    private static final long GRACE_PERIOD_MS = 1000L;
+
+    private AutoCloseable mMockitoCloseable;
+
+    @Mock
+    Context mContext;
+
+    @Mock
+    CustomTabsClient mClient;
+
+    private CustomTabConnectionPool mPool;
+
+    @Before
+    public void setUp() {
+        mMockitoCloseable = MockitoAnnotations.openMocks(this);
+        setBindResult(true);
+        mPool = new CustomTabConnectionPool(mContext, GRACE_PERIOD_MS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mMockitoCloseable.close();
+    }
+
+    @Test
+    public void testAcquire_reusesConnection() {
+        mPool.acquire(BROWSER_PACKAGE_NAME);
+        mPool.acquire(BROWSER_PACKAGE_NAME);
+
+        verifyBindCount(1);
+        CustomTabConnectionPool.ConnectionStats stats =
+                mPool.getConnectionStats(BROWSER_PACKAGE_NAME);
+        assertThat(stats.state).isEqualTo(CustomTabConnectionPool.ConnectionState.BINDING);
+        assertThat(stats.referenceCount).isEqualTo(2);
+        assertThat(stats.bindCount).isEqualTo(1);
+        assertThat(stats.reuseCount).isEqualTo(1);
+        assertThat(stats.lastConnectLatencyMs).isNull();
+    }
+
+    @Test
+    public void testAcquire_connected() {
+        CustomTabManager manager = mPool.acquire(BROWSER_PACKAGE_NAME);
+        provideClient();
+
+        CustomTabConnectionPool.ConnectionStats stats =
+                mPool.getConnectionStats(BROWSER_PACKAGE_NAME);
+        assertThat(stats.state).isEqualTo(CustomTabConnectionPool.ConnectionState.CONNECTED);
+        assertThat(stats.lastConnectLatencyMs).isNotNull();
+        assertThat(manager.getClient()).isSameAs(mClient);
+
+        // a second reference shares the warmed-up client
+        assertThat(mPool.acquire(BROWSER_PACKAGE_NAME).getClient()).isSameAs(mClient);
+        verify(mClient, times(1)).warmup(0);
+    }
+
+    @Test
+    public void testRelease_unbindsAfterGracePeriod() {
+        CustomTabManager first = mPool.acquire(BROWSER_PACKAGE_NAME);
+        CustomTabManager second = mPool.acquire(BROWSER_PACKAGE_NAME);
+
+        first.dispose();
+        // releasing the same reference again has no effect
+        first.dispose();
+        assertThat(mPool.getConnectionStats(BROWSER_PACKAGE_NAME).referenceCount).isEqualTo(1);
+
+        second.dispose();
+        assertThat(mPool.getConnectionStats(BROWSER_PACKAGE_NAME).pendingUnbind).isTrue();
+        verify(mContext, never()).unbindService(any(ServiceConnection.class));
+
+        shadowOf(getMainLooper()).idleFor(GRACE_PERIOD_MS, TimeUnit.MILLISECONDS);
+        verify(mContext).unbindService(any(ServiceConnection.class));
+        assertThat(mPool.getConnectionStats(BROWSER_PACKAGE_NAME)).isNull();
+    }
+
+    @Test
+    public void testAcquire_duringGracePeriod() {
+        mPool.acquire(BROWSER_PACKAGE_NAME).dispose();
+        shadowOf(getMainLooper()).idleFor(GRACE_PERIOD_MS / 2, TimeUnit.MILLISECONDS);
+
+        mPool.acquire(BROWSER_PACKAGE_NAME);
+        assertThat(mPool.getConnectionStats(BROWSER_PACKAGE_NAME).pendingUnbind).isFalse();
+
+        shadowOf(getMainLooper()).idleFor(GRACE_PERIOD_MS, TimeUnit.MILLISECONDS);
+        verify(mContext, never()).unbindService(any(ServiceConnection.class));
+        verifyBindCount(1);
+        assertThat(mPool.getConnectionStats(BROWSER_PACKAGE_NAME).reuseCount).isEqualTo(1);
+    }
+
+    @Test
+    public void testAcquire_afterDisconnection() {
+        mPool.acquire(BROWSER_PACKAGE_NAME);
+        CustomTabsServiceConnection connection = provideClient();
+        connection.onServiceDisconnected(
+                new ComponentName(BROWSER_PACKAGE_NAME, BROWSER_PACKAGE_NAME + ".Service"));
+        assertThat(mPool.getConnectionStats(BROWSER_PACKAGE_NAME).state)
+                .isEqualTo(CustomTabConnectionPool.ConnectionState.DISCONNECTED);
+
+        mPool.acquire(BROWSER_PACKAGE_NAME);
+
+        verifyBindCount(2);
+        CustomTabConnectionPool.ConnectionStats stats =
+                mPool.getConnectionStats(BROWSER_PACKAGE_NAME);
+        assertThat(stats.state).isEqualTo(CustomTabConnectionPool.ConnectionState.BINDING);
+        assertThat(stats.bindCount).isEqualTo(2);
+        assertThat(stats.referenceCount).isEqualTo(2);
+    }
+
+    @Test
+    public void testDisconnection_informsUnreleasedReferences() {
+        CustomTabManager.DisconnectCallback callback =
+                Mockito.mock(CustomTabManager.DisconnectCallback.class);
+        CustomTabManager.DisconnectCallback releasedCallback =
+                Mockito.mock(CustomTabManager.DisconnectCallback.class);
+        mPool.acquire(BROWSER_PACKAGE_NAME).setDisconnectCallback(callback);
+        CustomTabManager released = mPool.acquire(BROWSER_PACKAGE_NAME);
+        released.setDisconnectCallback(releasedCallback);
+        released.dispose();
+
+        provideClient().onServiceDisconnected(
+                new ComponentName(BROWSER_PACKAGE_NAME, BROWSER_PACKAGE_NAME + ".Service"));
+
+        verify(callback).onDisconnected();
+        verify(releasedCallback, never()).onDisconnected();
+    }
+
+    @Test
+    public void testAcquire_browserDoesNotSupportCustomTabs() {
+        setBindResult(false);
+
+        CustomTabManager manager = mPool.acquire(BROWSER_PACKAGE_NAME);
+
+        assertThat(mPool.getConnectionStats(BROWSER_PACKAGE_NAME).state)
+                .isEqualTo(CustomTabConnectionPool.ConnectionState.UNAVAILABLE);
+        assertThat(manager.getClient()).isNull();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBind_otherBrowser() {
+        mPool.acquire(BROWSER_PACKAGE_NAME).bind("com.example.other");
+    }
+
+    @SuppressWarnings("WrongConstant")
+    private void setBindResult(boolean succeed) {
+        Mockito.doReturn(succeed).when(mContext).bindService(
+                any(Intent.class),
+                any(ServiceConnection.class),
+                anyInt());
+    }
+
+    @SuppressWarnings("WrongConstant")
+    private void verifyBindCount(int count) {
+        verify(mContext, times(count)).bindService(
+                any(Intent.class),
+                any(ServiceConnection.class),
+                anyInt());
+    }
+
+    @SuppressWarnings("WrongConstant")
+    private CustomTabsServiceConnection provideClient() {
+        ArgumentCaptor<CustomTabsServiceConnection> captor =
+                ArgumentCaptor.forClass(CustomTabsServiceConnection.class);
+        verify(mContext, Mockito.atLeastOnce()).bindService(
+                any(Intent.class),
+                captor.capture(),
+                anyInt());
+        CustomTabsServiceConnection connection = captor.getValue();
+        connection.onCustomTabsServiceConnected(
+                new ComponentName(BROWSER_PACKAGE_NAME, BROWSER_PACKAGE_NAME + ".Service"),
+                mClient);
+        return connection;
+    }
+}
@@ -1,7 +1,9 @@
 package net.openid.appauth.browser;
 
+import static android.os.Looper.getMainLooper;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.robolectric.Shadows.shadowOf;
 
 import android.content.ComponentName;
 import android.content.Context;
@@ -9,11 +11,15 @@ import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
 import androidx.browser.customtabs.CustomTabsCallback;
+import androidx.annotation.Nullable;
 import androidx.browser.customtabs.CustomTabsClient;
+import androidx.browser.customtabs.CustomTabsIntent;
 import androidx.browser.customtabs.CustomTabsService;
 import androidx.browser.customtabs.CustomTabsServiceConnection;
 import androidx.browser.customtabs.CustomTabsSession;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import net.openid.appauth.BuildConfig;
 
 import org.junit.After;
@@ -27,9 +33,11 @@ import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
 import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
+import org.robolectric.annotation.LooperMode;
 
 @RunWith(RobolectricTestRunner.class)
 @Config(sdk = 16)
+@LooperMode(LooperMode.Mode.PAUSED)
 public class CustomTabManagerTest {
 
     private static final String BROWSER_PACKAGE_NAME = "com.example.browser";
@@ -144,6 +152,187 @@ public class CustomTabManagerTest {
 
     }
 
+    @Test
+    public void testCreateTabBuilderIfConnected_notYetConnected() {
+        startBind(true);
+
+        CustomTabsIntent.Builder builder = mManager.createTabBuilderIfConnected();
+
+        assertThat(builder).isNotNull();
+        Mockito.verify(mClient, Mockito.never()).newSession(
+                Mockito.nullable(CustomTabsCallback.class));
+    }
+
+    @Test
+    public void testCreateTabBuilderIfConnected_connected() {
+        startBind(true);
+        provideClient();
+
+        mManager.createTabBuilderIfConnected();
+
+        Mockito.verify(mClient).newSession(null);
+    }
+
+    @Test
+    public void testCreateSessionAsync_deliveredOnConnection() {
+        CustomTabsSession mockSession = Mockito.mock(CustomTabsSession.class);
+        Mockito.doReturn(mockSession).when(mClient).newSession(null);
+        startBind(true);
+
+        RecordingSessionCallback callback = new RecordingSessionCallback();
+        mManager.createSessionAsync(null, callback);
+        shadowOf(getMainLooper()).idle();
+        assertThat(callback.mSessions).isEmpty();
+
+        provideClient();
+        shadowOf(getMainLooper()).idle();
+        assertThat(callback.mSessions).containsExactly(mockSession);
+
+        // the delivery is not repeated when the wait for the connection times out
+        shadowOf(getMainLooper()).idleFor(2, TimeUnit.SECONDS);
+        assertThat(callback.mSessions).hasSize(1);
+    }
+
+    @Test
+    public void testCreateSessionAsync_alreadyConnected() {
+        CustomTabsSession mockSession = Mockito.mock(CustomTabsSession.class);
+        Mockito.doReturn(mockSession).when(mClient).newSession(null);
+        startBind(true);
+        provideClient();
+
+        RecordingSessionCallback callback = new RecordingSessionCallback();
+        mManager.createSessionAsync(null, callback);
+        shadowOf(getMainLooper()).idle();
+
+        assertThat(callback.mSessions).containsExactly(mockSession);
+    }
+
+    @Test
+    public void testCreateSessionAsync_browserDoesNotSupportCustomTabs() {
+        startBind(false);
+
+        RecordingSessionCallback callback = new RecordingSessionCallback();
+        mManager.createSessionAsync(null, callback);
+        shadowOf(getMainLooper()).idle();
+
+        assertThat(callback.mSessions).hasSize(1);
+        assertThat(callback.mSessions.get(0)).isNull();
+    }
+
+    @Test
+    public void testCreateSessionAsync_connectionTimesOut() {
+        startBind(true);
+
+        RecordingSessionCallback callback = new RecordingSessionCallback();
+        mManager.createSessionAsync(null, callback);
+        shadowOf(getMainLooper()).idleFor(2, TimeUnit.SECONDS);
+
+        assertThat(callback.mSessions).hasSize(1);
+        assertThat(callback.mSessions.get(0)).isNull();
+    }
+
+    @Test
+    public void testCreateTabBuilderAsync() {
+        startBind(true);
+
+        final List<CustomTabsIntent.Builder> builders = new ArrayList<>();
+        mManager.createTabBuilderAsync(new CustomTabManager.TabBuilderCallback() {
+            @Override
+            public void onTabBuilderReady(CustomTabsIntent.Builder builder) {
+                builders.add(builder);
+            }
+        });
+        provideClient();
+        shadowOf(getMainLooper()).idle();
+
+        assertThat(builders).hasSize(1);
+    }
+
+    @Test
+    public void testWarmup_onConnection() {
+        WarmupStatistics statistics = new WarmupStatistics();
+        mManager = new CustomTabManager(mContext, WarmupPolicies.ALWAYS, statistics);
+        startBind(true);
+        provideClient();
+
+        Mockito.verify(mClient).warmup(0);
+        assertThat(statistics.getWarmupCount()).isEqualTo(1);
+        assertThat(statistics.getSkippedWarmupCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testWarmup_neverPolicy() {
+        WarmupStatistics statistics = new WarmupStatistics();
+        mManager = new CustomTabManager(mContext, WarmupPolicies.NEVER, statistics);
+        startBind(true);
+        provideClient();
+
+        assertThat(mManager.warmup(WarmupPolicy.Trigger.LOGIN_SCREEN)).isFalse();
+        Mockito.verify(mClient, Mockito.never()).warmup(Mockito.anyLong());
+        assertThat(statistics.getWarmupCount()).isEqualTo(0);
+        assertThat(statistics.getSkippedWarmupCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testWarmup_loginScreenOnlyPolicy() {
+        WarmupStatistics statistics = new WarmupStatistics();
+        mManager = new CustomTabManager(mContext, WarmupPolicies.LOGIN_SCREEN_ONLY, statistics);
+        startBind(true);
+        provideClient();
+        Mockito.verify(mClient, Mockito.never()).warmup(Mockito.anyLong());
+
+        assertThat(mManager.warmup(WarmupPolicy.Trigger.LOGIN_SCREEN)).isTrue();
+        assertThat(mManager.warmup(WarmupPolicy.Trigger.LOGIN_SCREEN)).isTrue();
+
+        // the browser is warmed up once per connection
+        Mockito.verify(mClient, Mockito.times(1)).warmup(0);
+        assertThat(statistics.getWarmupCount()).isEqualTo(1);
+        assertThat(statistics.getSkippedWarmupCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testWarmup_notConnected() {
+        startBind(true);
+        assertThat(mManager.warmup(WarmupPolicy.Trigger.LOGIN_SCREEN)).isFalse();
+    }
+
+    @Test
+    public void testRecordLaunch_followingWarmup() {
+        WarmupStatistics statistics = new WarmupStatistics();
+        mManager = new CustomTabManager(mContext, WarmupPolicies.ALWAYS, statistics);
+        startBind(true);
+        provideClient();
+
+        mManager.recordLaunch();
+        mManager.recordLaunch();
+
+        assertThat(statistics.getLaunchCount()).isEqualTo(2);
+        assertThat(statistics.getWarmupsFollowedByLaunchCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRecordLaunch_withoutWarmup() {
+        WarmupStatistics statistics = new WarmupStatistics();
+        mManager = new CustomTabManager(mContext, WarmupPolicies.NEVER, statistics);
+        startBind(true);
+        provideClient();
+
+        mManager.recordLaunch();
+
+        assertThat(statistics.getLaunchCount()).isEqualTo(1);
+        assertThat(statistics.getWarmupsFollowedByLaunchCount()).isEqualTo(0);
+    }
+
+    private static final class RecordingSessionCallback
+            implements CustomTabManager.SessionCallback {
+        final List<CustomTabsSession> mSessions = new ArrayList<>();
+
+        @Override
+        public void onSessionReady(@Nullable CustomTabsSession session) {
+            mSessions.add(session);
+        }
+    }
+
     @SuppressWarnings("WrongConstant")
     private void startBind(boolean succeed) {
         Mockito.doReturn(succeed).when(mContext).bindService(
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth.browser;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 16)
+public class IndexedBrowserMatcherTest {
+
+    private static final long SEED = 0x5eed1e55L;
+    private static final int TRIALS = 50;
+    private static final int MAX_RULES = 200;
+    private static final int DESCRIPTORS_PER_TRIAL = 200;
+
+    private static final String[] PACKAGES = {
+        Browsers.Chrome.PACKAGE_NAME,
+        Browsers.Firefox.PACKAGE_NAME,
+        Browsers.SBrowser.PACKAGE_NAME,
+        "com.example.browser",
+        "com.example.other",
+        "org.example.browser"
+    };
+
+    private static final List<Set<String>> SIGNATURE_SETS = Arrays.asList(
+            Browsers.Chrome.SIGNATURE_SET,
+            Browsers.Firefox.SIGNATURE_SET,
+            Collections.singleton("signatureA"),
+            Collections.singleton("signatureB"),
+            new HashSet<>(Arrays.asList("signatureA", "signatureB")));
+
+    @Test
+    public void testMatches_emptyAllowList() {
+        IndexedBrowserMatcher matcher = IndexedBrowserMatcher.allowList();
+        assertThat(matcher.matches(Browsers.Chrome.customTab("46"))).isFalse();
+        assertThat(matcher.matches(Browsers.Firefox.standaloneBrowser("10"))).isFalse();
+    }
+
+    @Test
+    public void testMatches_emptyDenyList() {
+        IndexedBrowserMatcher matcher = IndexedBrowserMatcher.denyList();
+        assertThat(matcher.matches(Browsers.Chrome.customTab("46"))).isTrue();
+        assertThat(matcher.matches(Browsers.Firefox.standaloneBrowser("10"))).isTrue();
+    }
+
+    @Test
+    public void testMatches_versionRanges() {
+        IndexedBrowserMatcher matcher = IndexedBrowserMatcher.allowList(
+                VersionedBrowserMatcher.FIREFOX_BROWSER,
+                VersionedBrowserMatcher.FIREFOX_CUSTOM_TAB,
+                VersionedBrowserMatcher.SAMSUNG_CUSTOM_TAB);
+        assertThat(matcher.matches(Browsers.Chrome.standaloneBrowser("46"))).isFalse();
+        assertThat(matcher.matches(Browsers.Firefox.standaloneBrowser("10"))).isTrue();
+        assertThat(matcher.matches(Browsers.Firefox.customTab("56"))).isFalse();
+        assertThat(matcher.matches(Browsers.Firefox.customTab("57"))).isTrue();
+        assertThat(matcher.matches(Browsers.SBrowser.standaloneBrowser("10"))).isFalse();
+        assertThat(matcher.matches(Browsers.SBrowser.customTab("4.0"))).isTrue();
+        assertThat(matcher.matches(Browsers.SBrowser.customTab("3.9"))).isFalse();
+    }
+
+    @Test
+    public void testMatches_differentSignature() {
+        IndexedBrowserMatcher matcher = IndexedBrowserMatcher.allowList(
+                new VersionedBrowserMatcher(
+                        Browsers.Chrome.PACKAGE_NAME,
+                        "notChrome",
+                        false,
+                        VersionRange.ANY_VERSION));
+        assertThat(matcher.matches(Browsers.Chrome.standaloneBrowser("46"))).isFalse();
+    }
+
+    @Test
+    public void testMatches_exactBrowser() {
+        IndexedBrowserMatcher matcher = IndexedBrowserMatcher.denyList(
+                new ExactBrowserMatcher(Browsers.Chrome.customTab("46")));
+        assertThat(matcher.matches(Browsers.Chrome.customTab("46"))).isFalse();
+        assertThat(matcher.matches(Browsers.Chrome.customTab("47"))).isTrue();
+        assertThat(matcher.matches(Browsers.Chrome.standaloneBrowser("46"))).isTrue();
+    }
+
+    @Test
+    public void testMatches_unindexedMatcher() {
+        IndexedBrowserMatcher matcher = IndexedBrowserMatcher.allowList(
+                VersionedBrowserMatcher.CHROME_BROWSER,
+                AnyBrowserMatcher.INSTANCE);
+        assertThat(matcher.matches(Browsers.Firefox.customTab("57"))).isTrue();
+    }
+
+    @Test
+    public void testMatches_subclassOverridingMatches() {
+        IndexedBrowserMatcher matcher = IndexedBrowserMatcher.allowList(
+                new VersionedBrowserMatcher(
+                        Browsers.Chrome.PACKAGE_NAME,
+                        Browsers.Chrome.SIGNATURE_SET,
+                        true,
+                        VersionRange.ANY_VERSION) {
+                    @Override
+                    public boolean matches(@NonNull BrowserDescriptor descriptor) {
+                        return descriptor.version.startsWith("46")
+                                && super.matches(descriptor);
+                    }
+                });
+        assertThat(matcher.matches(Browsers.Chrome.customTab("46"))).isTrue();
+        assertThat(matcher.matches(Browsers.Chrome.customTab("57"))).isFalse();
+    }
+
+    @Test
+    public void testCompile_allowList() {
+        IndexedBrowserMatcher matcher = IndexedBrowserMatcher.compile(
+                new BrowserAllowList(VersionedBrowserMatcher.CHROME_CUSTOM_TAB));
+        assertThat(matcher.matches(Browsers.Chrome.customTab("46"))).isTrue();
+        assertThat(matcher.matches(Browsers.Chrome.standaloneBrowser("46"))).isFalse();
+    }
+
+    @Test
+    public void testCompile_denyList() {
+        IndexedBrowserMatcher matcher = IndexedBrowserMatcher.compile(
+                new BrowserDenyList(VersionedBrowserMatcher.CHROME_CUSTOM_TAB));
+        assertThat(matcher.matches(Browsers.Chrome.customTab("46"))).isFalse();
+        assertThat(matcher.matches(Browsers.Chrome.standaloneBrowser("46"))).isTrue();
+    }
+
+    @Test
+    public void testCompile_singleMatcher() {
+        IndexedBrowserMatcher matcher =
+                IndexedBrowserMatcher.compile(VersionedBrowserMatcher.CHROME_BROWSER);
+        assertThat(matcher.matches(Browsers.Chrome.standaloneBrowser("46"))).isTrue();
+        assertThat(matcher.matches(Browsers.Chrome.customTab("46"))).isFalse();
+    }
+
+    @Test
+    public void testCompile_alreadyCompiled() {
+        IndexedBrowserMatcher matcher = IndexedBrowserMatcher.allowList();
+        assertThat(IndexedBrowserMatcher.compile(matcher)).isSameAs(matcher);
+    }
+
+    @Test
+    public void testMatches_signatureSetModifiedAfterCompilation() {
+        Set<String> signatures = new HashSet<>(Collections.singleton("signatureA"));
+        IndexedBrowserMatcher matcher = IndexedBrowserMatcher.allowList(
+                new VersionedBrowserMatcher(
+                        "com.example.browser",
+                        signatures,
+                        false,
+                        VersionRange.ANY_VERSION));
+        signatures.add("signatureB");
+
+        assertThat(matcher.matches(new BrowserDescriptor(
+                "com.example.browser",
+                Collections.singleton("signatureA"),
+                "1.0",
+                false))).isTrue();
+    }
+
+    /**
+     * Checks that the indexed matchers agree with the list matchers for randomly generated
+     * rules and browsers.
+     */
+    @Test
+    public void testMatches_equivalentToListMatchers() {
+        Random random = new Random(SEED);
+        for (int trial = 0; trial < TRIALS; trial++) {
+            int ruleCount = random.nextInt(MAX_RULES + 1);
+            BrowserMatcher[] rules = new BrowserMatcher[ruleCount];
+            for (int i = 0; i < ruleCount; i++) {
+                rules[i] = randomRule(random, true);
+            }
+
+            BrowserMatcher allowList = new BrowserAllowList(rules);
+            BrowserMatcher denyList = new BrowserDenyList(rules);
+            BrowserMatcher indexedAllowList = IndexedBrowserMatcher.allowList(rules);
+            BrowserMatcher indexedDenyList = IndexedBrowserMatcher.denyList(rules);
+
+            for (int i = 0; i < DESCRIPTORS_PER_TRIAL; i++) {
+                BrowserDescriptor descriptor = randomDescriptor(random);
+                assertThat(indexedAllowList.matches(descriptor))
+                        .as("allow list, trial %d, %s", trial, describe(descriptor))
+                        .isEqualTo(allowList.matches(descriptor));
+                assertThat(indexedDenyList.matches(descriptor))
+                        .as("deny list, trial %d, %s", trial, describe(descriptor))
+                        .isEqualTo(denyList.matches(descriptor));
+            }
+        }
+    }
+
+    @NonNull
+    private static BrowserMatcher randomRule(@NonNull Random random, boolean allowNesting) {
+        int kind = random.nextInt(100);
+        if (kind < 80) {
+            return new VersionedBrowserMatcher(
+                    randomPackage(random),
+                    randomSignatures(random),
+                    random.nextBoolean(),
+                    randomRange(random));
+        }
+
+        if (kind < 92) {
+            return new ExactBrowserMatcher(randomDescriptor(random));
+        }
+
+        if (kind < 97 || !allowNesting) {
+            // an arbitrary matcher, which cannot be indexed
+            final String version = randomVersion(random);
+            return new BrowserMatcher() {
+                @Override
+                public boolean matches(@NonNull BrowserDescriptor descriptor) {
+                    return descriptor.version.equals(version);
+                }
+            };
+        }
+
+        List<BrowserMatcher> nested = new ArrayList<>();
+        for (int i = random.nextInt(4); i > 0; i--) {
+            nested.add(randomRule(random, false));
+        }
+        return new BrowserAllowList(nested.toArray(new BrowserMatcher[0]));
+    }
+
+    @NonNull
+    private static VersionRange randomRange(@NonNull Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return VersionRange.ANY_VERSION;
+            case 1:
+                return VersionRange.atLeast(randomVersion(random));
+            case 2:
+                return VersionRange.atMost(randomVersion(random));
+            default:
+                // the bounds may be inverted, in which case the range matches nothing
+                return VersionRange.between(randomVersion(random), randomVersion(random));
+        }
+    }
+
+    @NonNull
+    private static BrowserDescriptor randomDescriptor(@NonNull Random random) {
+        return new BrowserDescriptor(
+                randomPackage(random),
+                randomSignatures(random),
+                randomVersion(random),
+                random.nextBoolean());
+    }
+
+    @NonNull
+    private static String randomPackage(@NonNull Random random) {
+        return PACKAGES[random.nextInt(PACKAGES.length)];
+    }
+
+    @NonNull
+    private static Set<String> randomSignatures(@NonNull Random random) {
+        // a copy, so that matching relies on set equality rather than identity
+        return new HashSet<>(SIGNATURE_SETS.get(random.nextInt(SIGNATURE_SETS.size())));
+    }
+
+    @NonNull
+    private static String randomVersion(@NonNull Random random) {
+        switch (random.nextInt(10)) {
+            case 0:
+                return "";
+            case 1:
+                // equivalent to the major version alone, once trailing zeroes are discarded
+                return random.nextInt(8) + ".0.0";
+            default:
+                return random.nextInt(8) + "." + random.nextInt(3);
+        }
+    }
+
+    @NonNull
+    private static String describe(@NonNull BrowserDescriptor descriptor) {
+        return descriptor.packageName + " " + descriptor.signatureHashes + " "
+                + descriptor.version + " custom tab = " + descriptor.useCustomTab;
+    }
+}
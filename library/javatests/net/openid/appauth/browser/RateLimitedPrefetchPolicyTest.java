@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth.browser;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import android.net.Uri;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 16)
+public class RateLimitedPrefetchPolicyTest {
+
+    private static final long MIN_INTERVAL_MS = 1000L;
+
+    private static final Uri AUTH_REQUEST_1 =
+            Uri.parse("https://idp.example.com/authorize?client_id=test&state=1");
+    private static final Uri AUTH_REQUEST_2 =
+            Uri.parse("https://idp.example.com/authorize?client_id=test&state=2");
+    private static final Uri OTHER_ENDPOINT =
+            Uri.parse("https://other.example.com/authorize?client_id=test&state=1");
+
+    private RateLimitedPrefetchPolicy mPolicy;
+
+    @Before
+    public void setUp() {
+        mPolicy = new RateLimitedPrefetchPolicy(MIN_INTERVAL_MS);
+    }
+
+    @Test
+    public void testShouldPrefetch_firstRequest() {
+        assertThat(mPolicy.shouldPrefetch(AUTH_REQUEST_1, 0L)).isTrue();
+    }
+
+    @Test
+    public void testShouldPrefetch_sameEndpointWithinInterval() {
+        mPolicy.shouldPrefetch(AUTH_REQUEST_1, 0L);
+        assertThat(mPolicy.shouldPrefetch(AUTH_REQUEST_1, MIN_INTERVAL_MS - 1)).isFalse();
+    }
+
+    @Test
+    public void testShouldPrefetch_differentQueryWithinInterval() {
+        mPolicy.shouldPrefetch(AUTH_REQUEST_1, 0L);
+        assertThat(mPolicy.shouldPrefetch(AUTH_REQUEST_2, MIN_INTERVAL_MS - 1)).isFalse();
+    }
+
+    @Test
+    public void testShouldPrefetch_sameEndpointAfterInterval() {
+        mPolicy.shouldPrefetch(AUTH_REQUEST_1, 0L);
+        assertThat(mPolicy.shouldPrefetch(AUTH_REQUEST_1, MIN_INTERVAL_MS)).isTrue();
+    }
+
+    @Test
+    public void testShouldPrefetch_declinedRequestDoesNotExtendInterval() {
+        mPolicy.shouldPrefetch(AUTH_REQUEST_1, 0L);
+        mPolicy.shouldPrefetch(AUTH_REQUEST_1, MIN_INTERVAL_MS / 2);
+        assertThat(mPolicy.shouldPrefetch(AUTH_REQUEST_1, MIN_INTERVAL_MS)).isTrue();
+    }
+
+    @Test
+    public void testShouldPrefetch_otherEndpointWithinInterval() {
+        mPolicy.shouldPrefetch(AUTH_REQUEST_1, 0L);
+        assertThat(mPolicy.shouldPrefetch(OTHER_ENDPOINT, 1L)).isTrue();
+    }
+
+    @Test
+    public void testShouldPrefetch_zeroInterval() {
+        RateLimitedPrefetchPolicy policy = new RateLimitedPrefetchPolicy(0L);
+        assertThat(policy.shouldPrefetch(AUTH_REQUEST_1, 0L)).isTrue();
+        assertThat(policy.shouldPrefetch(AUTH_REQUEST_1, 0L)).isTrue();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructor_negativeInterval() {
+        new RateLimitedPrefetchPolicy(-1L);
+    }
+}
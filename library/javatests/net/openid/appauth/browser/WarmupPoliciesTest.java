@@ -0,0 +1,113 @@
+/*
+ * Copyright 2021 The AppAuth for Android Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openid.appauth.browser;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+import android.app.ActivityManager;
+import android.content.Context;
+
+import net.openid.appauth.browser.WarmupPolicy.Trigger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 16)
+public class WarmupPoliciesTest {
+
+    private AutoCloseable mMockitoCloseable;
+
+    @Mock
+    Context mContext;
+
+    @Mock
+    ActivityManager mActivityManager;
+
+    @Before
+    public void setUp() {
+        mMockitoCloseable = MockitoAnnotations.openMocks(this);
+        when(mContext.getSystemService(Context.ACTIVITY_SERVICE)).thenReturn(mActivityManager);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mMockitoCloseable.close();
+    }
+
+    @Test
+    public void testAlways() {
+        assertThat(WarmupPolicies.ALWAYS.shouldWarmup(mContext, Trigger.CONNECTED)).isTrue();
+        assertThat(WarmupPolicies.ALWAYS.shouldWarmup(mContext, Trigger.LOGIN_SCREEN)).isTrue();
+    }
+
+    @Test
+    public void testNever() {
+        assertThat(WarmupPolicies.NEVER.shouldWarmup(mContext, Trigger.CONNECTED)).isFalse();
+        assertThat(WarmupPolicies.NEVER.shouldWarmup(mContext, Trigger.LOGIN_SCREEN)).isFalse();
+    }
+
+    @Test
+    public void testLoginScreenOnly() {
+        assertThat(WarmupPolicies.LOGIN_SCREEN_ONLY.shouldWarmup(mContext, Trigger.CONNECTED))
+                .isFalse();
+        assertThat(WarmupPolicies.LOGIN_SCREEN_ONLY.shouldWarmup(mContext, Trigger.LOGIN_SCREEN))
+                .isTrue();
+    }
+
+    @Test
+    public void testMemoryAware_sufficientMemory() {
+        setLowMemory(false);
+        assertThat(WarmupPolicies.MEMORY_AWARE.shouldWarmup(mContext, Trigger.CONNECTED))
+                .isTrue();
+    }
+
+    @Test
+    public void testMemoryAware_lowMemory() {
+        setLowMemory(true);
+        assertThat(WarmupPolicies.MEMORY_AWARE.shouldWarmup(mContext, Trigger.CONNECTED))
+                .isFalse();
+        assertThat(WarmupPolicies.MEMORY_AWARE.shouldWarmup(mContext, Trigger.LOGIN_SCREEN))
+                .isFalse();
+    }
+
+    @Test
+    public void testMemoryAware_noActivityManager() {
+        when(mContext.getSystemService(Context.ACTIVITY_SERVICE)).thenReturn(null);
+        assertThat(WarmupPolicies.MEMORY_AWARE.shouldWarmup(mContext, Trigger.CONNECTED))
+                .isTrue();
+    }
+
+    private void setLowMemory(final boolean lowMemory) {
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                ActivityManager.MemoryInfo memoryInfo = invocation.getArgument(0);
+                memoryInfo.lowMemory = lowMemory;
+                return null;
+            }
+        }).when(mActivityManager).getMemoryInfo(any(ActivityManager.MemoryInfo.class));
+    }
+}